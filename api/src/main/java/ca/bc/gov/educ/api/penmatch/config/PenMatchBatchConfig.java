@@ -0,0 +1,159 @@
+package ca.bc.gov.educ.api.penmatch.config;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import ca.bc.gov.educ.api.penmatch.exception.PenMatchOverloadedException;
+import ca.bc.gov.educ.api.penmatch.service.PenMatchPipelineService;
+import io.micrometer.core.instrument.MeterRegistry;
+
+@Configuration
+public class PenMatchBatchConfig {
+
+	/**
+	 * Queue wait of the pools whose submitters wait for room however long it
+	 * takes
+	 */
+	private static final long WAIT_FOR_ROOM = -1;
+
+	private static final ThreadLocal<Boolean> STAGE_THREAD = ThreadLocal.withInitial(() -> false);
+
+	/**
+	 * Match pipeline of /bulk, /stream and message driven matching. Its stage
+	 * pools are bulk only, single /match requests run on the request thread.
+	 * Submitters are rejected with a PenMatchOverloadedException once they have
+	 * waited queue-wait ms for room in a stage.
+	 */
+	@Bean
+	public PenMatchPipelineService penMatchBulkPipeline(@Qualifier("penMatchNormalizeExecutor") ExecutorService normalizeExecutor, @Qualifier("penMatchLookupExecutor") ExecutorService lookupExecutor,
+			@Qualifier("penMatchScoreExecutor") ExecutorService scoreExecutor, MeterRegistry meterRegistry) {
+		return new PenMatchPipelineService(PenMatchPipelineService.BULK_PIPELINE, normalizeExecutor, lookupExecutor, scoreExecutor, meterRegistry);
+	}
+
+	/**
+	 * Normalization stage of the bulk match pipeline.
+	 */
+	@Bean(destroyMethod = "shutdown")
+	public ExecutorService penMatchNormalizeExecutor(@Value("${penmatch.pipeline.normalize-threads:2}") int threads, @Value("${penmatch.pipeline.queue-size:1000}") int queueSize,
+			@Value("${penmatch.pipeline.queue-wait:1000}") long queueWait) {
+		return stageExecutor("pen-match-normalize-%d", threads, queueSize, queueWait);
+	}
+
+	/**
+	 * Lookup stage of the bulk match pipeline. It spends its time waiting on the
+	 * database so it is sized against the connection pool rather than the cores.
+	 */
+	@Bean(destroyMethod = "shutdown")
+	public ExecutorService penMatchLookupExecutor(@Value("${penmatch.pipeline.lookup-threads:8}") int threads, @Value("${penmatch.pipeline.queue-size:1000}") int queueSize, @Value("${penmatch.pipeline.queue-wait:1000}") long queueWait) {
+		return stageExecutor("pen-match-lookup-%d", threads, queueSize, queueWait);
+	}
+
+	/**
+	 * Scoring stage of the bulk match pipeline, CPU bound. Defaults to one thread
+	 * per core.
+	 */
+	@Bean(destroyMethod = "shutdown")
+	public ExecutorService penMatchScoreExecutor(@Value("${penmatch.pipeline.score-threads:0}") int threads, @Value("${penmatch.pipeline.queue-size:1000}") int queueSize, @Value("${penmatch.pipeline.queue-wait:1000}") long queueWait) {
+		return stageExecutor("pen-match-score-%d", threads > 0 ? threads : Runtime.getRuntime().availableProcessors(), queueSize, queueWait);
+	}
+
+	/**
+	 * Match pipeline of asynchronous jobs and file runs, with its own stage pools
+	 * so that jobs don't take capacity from the bulk pipeline. Job threads wait
+	 * for room in a stage rather than being rejected.
+	 */
+	@Bean
+	public PenMatchPipelineService penMatchJobPipeline(@Qualifier("penMatchJobNormalizeExecutor") ExecutorService normalizeExecutor, @Qualifier("penMatchJobLookupExecutor") ExecutorService lookupExecutor,
+			@Qualifier("penMatchJobScoreExecutor") ExecutorService scoreExecutor, MeterRegistry meterRegistry) {
+		return new PenMatchPipelineService(PenMatchPipelineService.JOB_PIPELINE, normalizeExecutor, lookupExecutor, scoreExecutor, meterRegistry);
+	}
+
+	@Bean(destroyMethod = "shutdown")
+	public ExecutorService penMatchJobNormalizeExecutor(@Value("${penmatch.job.normalize-threads:1}") int threads, @Value("${penmatch.pipeline.queue-size:1000}") int queueSize) {
+		return stageExecutor("pen-match-job-normalize-%d", threads, queueSize, WAIT_FOR_ROOM);
+	}
+
+	@Bean(destroyMethod = "shutdown")
+	public ExecutorService penMatchJobLookupExecutor(@Value("${penmatch.job.lookup-threads:4}") int threads, @Value("${penmatch.pipeline.queue-size:1000}") int queueSize) {
+		return stageExecutor("pen-match-job-lookup-%d", threads, queueSize, WAIT_FOR_ROOM);
+	}
+
+	@Bean(destroyMethod = "shutdown")
+	public ExecutorService penMatchJobScoreExecutor(@Value("${penmatch.job.score-threads:2}") int threads, @Value("${penmatch.pipeline.queue-size:1000}") int queueSize) {
+		return stageExecutor("pen-match-job-score-%d", threads, queueSize, WAIT_FOR_ROOM);
+	}
+
+	/**
+	 * Runs the branches of candidate queries of single matches concurrently when
+	 * penmatch.candidates.parallel-branches is set. Each running branch holds a
+	 * connection, so it is sized against the connection pool. The bulk and job
+	 * pipelines don't use it, so /match has it to itself.
+	 */
+	@Bean(destroyMethod = "shutdown")
+	public ExecutorService penMatchCandidateBranchExecutor(@Value("${penmatch.candidates.branch-threads:6}") int threads, @Value("${penmatch.pipeline.queue-size:1000}") int queueSize,
+			@Value("${penmatch.pipeline.queue-wait:1000}") long queueWait) {
+		return stageExecutor("pen-match-branch-%d", threads, queueSize, queueWait);
+	}
+
+	/**
+	 * Runs asynchronous match jobs, one job per thread. At most queue-size jobs
+	 * wait for a thread, further jobs are rejected.
+	 */
+	@Bean(destroyMethod = "shutdownNow")
+	public ExecutorService penMatchJobExecutor(@Value("${penmatch.job.threads:2}") int threads, @Value("${penmatch.job.queue-size:100}") int queueSize) {
+		return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queueSize),
+				new BasicThreadFactory.Builder().namingPattern("pen-match-job-%d").daemon(true).build(), new ThreadPoolExecutor.AbortPolicy());
+	}
+
+	/**
+	 * Whether the current thread belongs to a stage pool
+	 *
+	 * @return
+	 */
+	public static boolean isStageThread() {
+		return STAGE_THREAD.get();
+	}
+
+	/**
+	 * A full stage queue makes the submitter wait for room, the task never runs
+	 * on the submitting thread. Stage threads handing a student to the next stage
+	 * always wait, as the next stage drains on its own and a rejected hand-off
+	 * would leave the student's future incomplete. Other submitters wait at most
+	 * queueWait ms and are then rejected with a PenMatchOverloadedException,
+	 * unless queueWait is WAIT_FOR_ROOM.
+	 */
+	private ExecutorService stageExecutor(String namingPattern, int threads, int queueSize, long queueWait) {
+		return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queueSize), new BasicThreadFactory.Builder().wrappedFactory(task -> new Thread(() -> {
+			STAGE_THREAD.set(true);
+			task.run();
+		})).namingPattern(namingPattern).daemon(true).build(), waitForRoom(queueWait));
+	}
+
+	private RejectedExecutionHandler waitForRoom(long queueWait) {
+		return (task, executor) -> {
+			if (executor.isShutdown()) {
+				throw new RejectedExecutionException("Stage is shut down");
+			}
+			try {
+				if (queueWait == WAIT_FOR_ROOM || isStageThread()) {
+					executor.getQueue().put(task);
+				} else if (!executor.getQueue().offer(task, queueWait, TimeUnit.MILLISECONDS)) {
+					throw new PenMatchOverloadedException("Match pipeline is full, try again later");
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RejectedExecutionException("Interrupted while waiting for room in a stage", e);
+			}
+		};
+	}
+}
@@ -0,0 +1,81 @@
+package ca.bc.gov.educ.api.penmatch.config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Routes the lookups of the matcher to the read replicas listed in
+ * penmatch.replicas.urls, failing over to the primary datasource when no
+ * replica is healthy. Every other connection, writes included, goes to the
+ * primary. Without replicas the primary datasource is auto configured as usual.
+ */
+@Configuration
+@ConditionalOnProperty(name = "penmatch.replicas.urls")
+public class PenMatchDataSourceConfig {
+
+	/**
+	 * The primary pool, configured from spring.datasource.hikari as the auto
+	 * configured one would be
+	 */
+	@Bean(destroyMethod = "close")
+	@ConfigurationProperties("spring.datasource.hikari")
+	public HikariDataSource penMatchPrimaryDataSource(DataSourceProperties properties) {
+		HikariDataSource primary = properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+		primary.setPoolName("pen-match-primary");
+		return primary;
+	}
+
+	/**
+	 * The replicas use the credentials of the primary unless their own are set.
+	 * A replica gives up on a connection after connection-timeout milliseconds,
+	 * so that a busy replica fails over quickly. Every pool reports hikaricp
+	 * metrics tagged with its pool name.
+	 */
+	@Bean(destroyMethod = "close")
+	@Primary
+	public ReplicaRoutingDataSource dataSource(@Qualifier("penMatchPrimaryDataSource") HikariDataSource primary, DataSourceProperties properties, MeterRegistry meterRegistry, @Value("${penmatch.replicas.urls}") String[] urls,
+			@Value("${penmatch.replicas.username:}") String username, @Value("${penmatch.replicas.password:}") String password, @Value("${penmatch.replicas.pool-size:10}") int poolSize,
+			@Value("${penmatch.replicas.connection-timeout:1000}") long connectionTimeout, @Value("${spring.datasource.hikari.max-lifetime:1800000}") long maxLifetime, @Value("${penmatch.replicas.check-interval:10000}") long checkInterval,
+			@Value("${penmatch.replicas.validation-timeout:5}") int validationTimeout) {
+		List<HikariDataSource> replicas = new ArrayList<>();
+		for (int i = 0; i < urls.length; i++) {
+			replicas.add(replicaPool("pen-match-replica-" + (i + 1), urls[i].trim(), StringUtils.isNotEmpty(username) ? username : properties.determineUsername(),
+					StringUtils.isNotEmpty(username) ? password : properties.determinePassword(), poolSize, connectionTimeout, maxLifetime, meterRegistry));
+		}
+		return new ReplicaRoutingDataSource(primary, replicas, meterRegistry, checkInterval, validationTimeout);
+	}
+
+	/**
+	 * Replica pools are read only and start lazily so that a replica being down
+	 * doesn't stop the start up.
+	 */
+	private HikariDataSource replicaPool(String poolName, String url, String username, String password, int poolSize, long connectionTimeout, long maxLifetime, MeterRegistry meterRegistry) {
+		HikariConfig config = new HikariConfig();
+		config.setPoolName(poolName);
+		config.setJdbcUrl(url);
+		config.setUsername(username);
+		config.setPassword(password);
+		config.setMaximumPoolSize(poolSize);
+		config.setConnectionTimeout(connectionTimeout);
+		config.setMaxLifetime(maxLifetime);
+		config.setReadOnly(true);
+		config.setInitializationFailTimeout(-1);
+		config.setMetricRegistry(meterRegistry);
+		return new HikariDataSource(config);
+	}
+}
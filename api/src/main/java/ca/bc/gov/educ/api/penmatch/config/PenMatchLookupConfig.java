@@ -0,0 +1,37 @@
+package ca.bc.gov.educ.api.penmatch.config;
+
+import java.util.List;
+
+import javax.persistence.EntityManager;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import ca.bc.gov.educ.api.penmatch.lookup.CandidateBranchLookup;
+import ca.bc.gov.educ.api.penmatch.lookup.CandidateSource;
+import ca.bc.gov.educ.api.penmatch.lookup.LookupBulkheads;
+import ca.bc.gov.educ.api.penmatch.lookup.PenDemogCandidateReader;
+import ca.bc.gov.educ.api.penmatch.lookup.PenMatchLookupManager;
+import ca.bc.gov.educ.api.penmatch.lookup.ReferenceDataSource;
+import ca.bc.gov.educ.api.penmatch.repository.NicknamesRepository;
+import ca.bc.gov.educ.api.penmatch.repository.PenDemographicsRepository;
+import ca.bc.gov.educ.api.penmatch.repository.SurnameFrequencyRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+
+@Configuration
+public class PenMatchLookupConfig {
+
+	/**
+	 * Lookup manager reading through every loaded candidate and reference data
+	 * source, with candidate lookups capped at penmatch.candidates.cap when set.
+	 */
+	@Bean
+	public PenMatchLookupManager penMatchLookupManager(EntityManager entityManager, PenDemographicsRepository penDemographicsRepository, NicknamesRepository nicknamesRepository, SurnameFrequencyRepository surnameFrequencyRepository,
+			List<CandidateSource> candidateSources, List<ReferenceDataSource> referenceDataSources, CandidateBranchLookup branchLookup, PenDemogCandidateReader candidateReader, LookupBulkheads bulkheads, MeterRegistry meterRegistry,
+			@Value("${penmatch.candidates.cap:0}") int candidateCap, @Value("${penmatch.candidates.cap-margin:30}") int candidateCapMargin, @Value("${penmatch.candidates.verify-cap:false}") boolean verifyCandidateCap) {
+		return PenMatchLookupManager.builder().entityManager(entityManager).penDemographicsRepository(penDemographicsRepository).nicknamesRepository(nicknamesRepository).surnameFrequencyRepository(surnameFrequencyRepository)
+				.candidateSources(candidateSources).referenceDataSources(referenceDataSources).branchLookup(branchLookup).candidateReader(candidateReader).bulkheads(bulkheads).meterRegistry(meterRegistry).candidateCap(candidateCap)
+				.candidateCapMargin(candidateCapMargin).verifyCandidateCap(verifyCandidateCap).build();
+	}
+}
@@ -0,0 +1,216 @@
+package ca.bc.gov.educ.api.penmatch.config;
+
+import java.io.Closeable;
+import java.net.ConnectException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLNonTransientConnectionException;
+import java.sql.SQLRecoverableException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+import org.springframework.jdbc.datasource.AbstractDataSource;
+
+import com.zaxxer.hikari.HikariDataSource;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Hands out connections to the primary, except for the lookups of the matcher
+ * run through {@link #routeToReplicas(Supplier)}, which go round robin to the
+ * read replicas of PEN Demog which are healthy, and to the primary when none
+ * is. A lookup running in a transaction keeps the connection of the
+ * transaction.
+ *
+ * A replica failing to connect is marked unhealthy at once, while a replica
+ * whose pool is only busy is passed over for this connection. Every
+ * check-interval each replica is marked healthy or not by validating one of its
+ * connections. Lookup connections handed out are counted by
+ * penmatch.datasource.connections and the health of each replica is gauged by
+ * penmatch.datasource.healthy, both tagged with the target pool. Each pool
+ * reports its own hikaricp metrics under its pool name.
+ */
+@Slf4j
+public class ReplicaRoutingDataSource extends AbstractDataSource implements Closeable {
+
+	public static final String PRIMARY_TARGET = "primary";
+
+	// SQL state class of connection exceptions
+	private static final String CONNECTION_EXCEPTION_CLASS = "08";
+
+	// Whether the thread runs a lookup routed to the replicas
+	private static final ThreadLocal<Boolean> REPLICA_LOOKUP = ThreadLocal.withInitial(() -> Boolean.FALSE);
+
+	private final HikariDataSource primary;
+
+	private final List<Replica> replicas = new ArrayList<>();
+
+	private final Counter primaryCounter;
+
+	private final AtomicInteger nextReplica = new AtomicInteger();
+
+	private final ScheduledExecutorService checkExecutor;
+
+	private final int validationTimeout;
+
+	/**
+	 * @param primary
+	 * @param replicaPools
+	 * @param meterRegistry
+	 * @param checkInterval     milliseconds between two health checks
+	 * @param validationTimeout seconds a health check waits for a replica
+	 */
+	public ReplicaRoutingDataSource(final HikariDataSource primary, final List<HikariDataSource> replicaPools, final MeterRegistry meterRegistry, final long checkInterval, final int validationTimeout) {
+		this.primary = primary;
+		this.validationTimeout = validationTimeout;
+		this.primaryCounter = connectionCounter(meterRegistry, PRIMARY_TARGET);
+		for (HikariDataSource pool : replicaPools) {
+			Replica replica = new Replica(pool, connectionCounter(meterRegistry, pool.getPoolName()));
+			Gauge.builder("penmatch.datasource.healthy", replica, r -> r.healthy ? 1 : 0).description("Whether a read replica is used for lookups").tag("target", pool.getPoolName()).register(meterRegistry);
+			replicas.add(replica);
+		}
+		this.checkExecutor = Executors.newSingleThreadScheduledExecutor(new BasicThreadFactory.Builder().namingPattern("replica-check-%d").daemon(true).build());
+		this.checkExecutor.scheduleWithFixedDelay(this::checkReplicas, checkInterval, checkInterval, TimeUnit.MILLISECONDS);
+	}
+
+	private static Counter connectionCounter(MeterRegistry meterRegistry, String target) {
+		return Counter.builder("penmatch.datasource.connections").description("Connections handed out for lookups, by target pool").tag("target", target).register(meterRegistry);
+	}
+
+	/**
+	 * Runs a lookup with the connections it opens taken from the replicas
+	 *
+	 * @param lookup
+	 * @return the result of the lookup
+	 */
+	public static <T> T routeToReplicas(Supplier<T> lookup) {
+		Boolean replicaLookup = REPLICA_LOOKUP.get();
+		REPLICA_LOOKUP.set(Boolean.TRUE);
+		try {
+			return lookup.get();
+		} finally {
+			REPLICA_LOOKUP.set(replicaLookup);
+		}
+	}
+
+	@Override
+	public Connection getConnection() throws SQLException {
+		return getConnection(HikariDataSource::getConnection);
+	}
+
+	/**
+	 * Opens the connection from the target selected for the current routing, as
+	 * by {@link #getConnection()}. HikariCP pools don't support other
+	 * credentials than their own and answer with a
+	 * SQLFeatureNotSupportedException.
+	 */
+	@Override
+	public Connection getConnection(String username, String password) throws SQLException {
+		return getConnection(pool -> pool.getConnection(username, password));
+	}
+
+	private Connection getConnection(ConnectionOpener opener) throws SQLException {
+		if (!REPLICA_LOOKUP.get()) {
+			return opener.open(primary);
+		}
+		int start = Math.floorMod(nextReplica.getAndIncrement(), Math.max(replicas.size(), 1));
+		for (int i = 0; i < replicas.size(); i++) {
+			Replica replica = replicas.get((start + i) % replicas.size());
+			if (replica.healthy) {
+				try {
+					Connection connection = opener.open(replica.pool);
+					replica.counter.increment();
+					return connection;
+				} catch (SQLException e) {
+					if (isConnectivityFailure(e)) {
+						replica.healthy = false;
+						log.warn("Replica {} failed to connect, failing over", replica.pool.getPoolName(), e);
+					} else {
+						log.debug("Replica {} had no free connection, trying the next target", replica.pool.getPoolName());
+					}
+				}
+			}
+		}
+		primaryCounter.increment();
+		return opener.open(primary);
+	}
+
+	/**
+	 * A pool timing out on a connection is only a connectivity failure when it
+	 * failed to reach its database, the timeout then carrying the failure as its
+	 * cause and its SQL state
+	 *
+	 * @param e
+	 * @return whether the exception or one of its causes comes from a database
+	 *         out of reach
+	 */
+	static boolean isConnectivityFailure(Throwable e) {
+		for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+			if (cause instanceof SQLNonTransientConnectionException || cause instanceof SQLRecoverableException || cause instanceof ConnectException) {
+				return true;
+			}
+			if (cause instanceof SQLException && StringUtils.startsWith(((SQLException) cause).getSQLState(), CONNECTION_EXCEPTION_CLASS)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Marks each replica healthy when one of its connections is valid
+	 */
+	public void checkReplicas() {
+		for (Replica replica : replicas) {
+			boolean healthy;
+			try (Connection connection = replica.pool.getConnection()) {
+				healthy = connection.isValid(validationTimeout);
+			} catch (SQLException | RuntimeException e) {
+				healthy = false;
+			}
+			if (healthy != replica.healthy) {
+				log.info("Replica {} is now {}", replica.pool.getPoolName(), healthy ? "healthy" : "unhealthy");
+			}
+			replica.healthy = healthy;
+		}
+	}
+
+	@Override
+	public void close() {
+		checkExecutor.shutdownNow();
+		replicas.forEach(replica -> replica.pool.close());
+		primary.close();
+	}
+
+	@FunctionalInterface
+	private interface ConnectionOpener {
+
+		Connection open(HikariDataSource pool) throws SQLException;
+
+	}
+
+	private static class Replica {
+
+		private final HikariDataSource pool;
+
+		private final Counter counter;
+
+		private volatile boolean healthy = true;
+
+		private Replica(HikariDataSource pool, Counter counter) {
+			this.pool = pool;
+			this.counter = counter;
+		}
+
+	}
+
+}
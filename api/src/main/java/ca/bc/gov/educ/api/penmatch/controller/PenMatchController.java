@@ -1,11 +1,23 @@
 package ca.bc.gov.educ.api.penmatch.controller;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.security.oauth2.config.annotation.web.configuration.EnableResourceServer;
+import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.RestController;
 
 import ca.bc.gov.educ.api.penmatch.endpoint.PenMatchEndpoint;
+import ca.bc.gov.educ.api.penmatch.service.PenMatchBatchService;
+import ca.bc.gov.educ.api.penmatch.service.PenMatchConcurrencyLimiter;
+import ca.bc.gov.educ.api.penmatch.service.PenMatchJobService;
 import ca.bc.gov.educ.api.penmatch.service.PenMatchService;
+import ca.bc.gov.educ.api.penmatch.struct.PenMatchJobStatus;
 import ca.bc.gov.educ.api.penmatch.struct.PenMatchResult;
 import ca.bc.gov.educ.api.penmatch.struct.PenMatchStudent;
 import lombok.AccessLevel;
@@ -13,20 +25,57 @@ import lombok.Getter;
 
 @RestController
 @EnableResourceServer
+@Validated
 public class PenMatchController implements PenMatchEndpoint {
   @Getter(AccessLevel.PRIVATE)
   private final PenMatchService penMatchService;
+  @Getter(AccessLevel.PRIVATE)
+  private final PenMatchBatchService penMatchBatchService;
+  @Getter(AccessLevel.PRIVATE)
+  private final PenMatchJobService penMatchJobService;
+  @Getter(AccessLevel.PRIVATE)
+  private final PenMatchConcurrencyLimiter penMatchConcurrencyLimiter;
 //  private static final PenMatchMapper mapper = PenMatchMapper.mapper;
 
   @Autowired
-  public PenMatchController(final PenMatchService penMatchService) {
+  public PenMatchController(final PenMatchService penMatchService, final PenMatchBatchService penMatchBatchService, final PenMatchJobService penMatchJobService, final PenMatchConcurrencyLimiter penMatchConcurrencyLimiter) {
     this.penMatchService = penMatchService;
+    this.penMatchBatchService = penMatchBatchService;
+    this.penMatchJobService = penMatchJobService;
+    this.penMatchConcurrencyLimiter = penMatchConcurrencyLimiter;
   } 
  
 
   @Override
   public PenMatchResult matchStudent(PenMatchStudent student) {
-	return penMatchService.matchStudent(student);
+    return penMatchConcurrencyLimiter.call(() -> penMatchService.matchStudent(student));
+  }
+
+  @Override
+  public List<PenMatchResult> matchStudents(List<PenMatchStudent> students) {
+    return penMatchBatchService.matchStudents(students);
+  }
+
+  @Override
+  public void matchStudentStream(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    response.setContentType(APPLICATION_NDJSON_VALUE);
+    penMatchBatchService.matchStream(request.getInputStream(), response.getOutputStream());
+  }
+
+  @Override
+  public PenMatchJobStatus submitMatchJob(List<PenMatchStudent> students) {
+    return penMatchJobService.submitJob(students);
+  }
+
+  @Override
+  public PenMatchJobStatus getMatchJobStatus(String jobId) {
+    return penMatchJobService.getJobStatus(jobId);
+  }
+
+  @Override
+  public void getMatchJobResults(String jobId, HttpServletResponse response) throws IOException {
+    response.setContentType(APPLICATION_NDJSON_VALUE);
+    Files.copy(penMatchJobService.getJobResults(jobId), response.getOutputStream());
   }
 
 }
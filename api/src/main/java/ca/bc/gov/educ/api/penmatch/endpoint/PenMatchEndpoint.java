@@ -1,11 +1,24 @@
 package ca.bc.gov.educ.api.penmatch.endpoint;
 
+import java.io.IOException;
+import java.util.List;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.validation.Valid;
+import javax.validation.constraints.NotNull;
+
+import org.springframework.http.HttpStatus;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.validation.annotation.Validated;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.ResponseStatus;
 
+import ca.bc.gov.educ.api.penmatch.struct.PenMatchJobStatus;
 import ca.bc.gov.educ.api.penmatch.struct.PenMatchResult;
 import ca.bc.gov.educ.api.penmatch.struct.PenMatchStudent;
 import io.swagger.v3.oas.annotations.OpenAPIDefinition;
@@ -18,9 +31,37 @@ import io.swagger.v3.oas.annotations.security.SecurityRequirement;
 @OpenAPIDefinition(info = @Info(title = "API for PEN Match.", description = "This API is to match students to PENs.", version = "1"), security = {@SecurityRequirement(name = "OAUTH2", scopes = {"READ_PEN_MATCH"})})
 public interface PenMatchEndpoint {
 
+  String APPLICATION_NDJSON_VALUE = "application/x-ndjson";
+
   @PostMapping
   @PreAuthorize("#oauth2.hasAnyScope('READ_PEN_MATCH')")
   @ApiResponses(value = {@ApiResponse(responseCode = "200", description = "OK"), @ApiResponse(responseCode = "400", description = "BAD REQUEST")})
   PenMatchResult matchStudent(@Validated @RequestBody PenMatchStudent student);
 
+  @PostMapping("/bulk")
+  @PreAuthorize("#oauth2.hasAnyScope('READ_PEN_MATCH')")
+  @ApiResponses(value = {@ApiResponse(responseCode = "200", description = "OK"), @ApiResponse(responseCode = "400", description = "BAD REQUEST")})
+  List<PenMatchResult> matchStudents(@RequestBody List<@NotNull @Valid PenMatchStudent> students);
+
+  @PostMapping(value = "/stream", consumes = APPLICATION_NDJSON_VALUE, produces = APPLICATION_NDJSON_VALUE)
+  @PreAuthorize("#oauth2.hasAnyScope('READ_PEN_MATCH')")
+  @ApiResponses(value = {@ApiResponse(responseCode = "200", description = "OK"), @ApiResponse(responseCode = "400", description = "BAD REQUEST")})
+  void matchStudentStream(HttpServletRequest request, HttpServletResponse response) throws IOException;
+
+  @PostMapping("/jobs")
+  @PreAuthorize("#oauth2.hasAnyScope('READ_PEN_MATCH')")
+  @ResponseStatus(HttpStatus.ACCEPTED)
+  @ApiResponses(value = {@ApiResponse(responseCode = "202", description = "ACCEPTED"), @ApiResponse(responseCode = "400", description = "BAD REQUEST")})
+  PenMatchJobStatus submitMatchJob(@RequestBody List<@NotNull @Valid PenMatchStudent> students);
+
+  @GetMapping("/jobs/{jobId}")
+  @PreAuthorize("#oauth2.hasAnyScope('READ_PEN_MATCH')")
+  @ApiResponses(value = {@ApiResponse(responseCode = "200", description = "OK"), @ApiResponse(responseCode = "404", description = "NOT FOUND")})
+  PenMatchJobStatus getMatchJobStatus(@PathVariable("jobId") String jobId);
+
+  @GetMapping(value = "/jobs/{jobId}/results", produces = APPLICATION_NDJSON_VALUE)
+  @PreAuthorize("#oauth2.hasAnyScope('READ_PEN_MATCH')")
+  @ApiResponses(value = {@ApiResponse(responseCode = "200", description = "OK"), @ApiResponse(responseCode = "404", description = "NOT FOUND")})
+  void getMatchJobResults(@PathVariable("jobId") String jobId, HttpServletResponse response) throws IOException;
+
 }
@@ -0,0 +1,8 @@
+package ca.bc.gov.educ.api.penmatch.enumeration;
+public enum CandidateQueryType 
+{
+    WITH_ALL_PARTS, 
+    NO_INIT, 
+    NO_LOCAL_ID, 
+    NO_INIT_NO_LOCAL_ID
+}
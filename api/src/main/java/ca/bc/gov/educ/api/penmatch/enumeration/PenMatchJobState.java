@@ -0,0 +1,8 @@
+package ca.bc.gov.educ.api.penmatch.enumeration;
+public enum PenMatchJobState 
+{
+    QUEUED, 
+    RUNNING, 
+    COMPLETED, 
+    FAILED
+}
@@ -0,0 +1,17 @@
+package ca.bc.gov.educ.api.penmatch.exception;
+
+/**
+ * PenMatchOverloadedException to reject a match or a lookup when the matcher
+ * already runs as many as it can take and no slot freed up in time
+ *
+ */
+
+public class PenMatchOverloadedException extends RuntimeException {
+
+	private static final long serialVersionUID = -2604468410911787153L;
+
+	public PenMatchOverloadedException(String message) {
+		super(message);
+	}
+
+}
@@ -0,0 +1,24 @@
+package ca.bc.gov.educ.api.penmatch.exception;
+
+import org.springframework.boot.ExitCodeGenerator;
+
+/**
+ * PenMatchRunnerException to fail a command line runner, reported by
+ * SpringApplication which exits with its exit code
+ *
+ */
+
+public class PenMatchRunnerException extends RuntimeException implements ExitCodeGenerator {
+
+	private static final long serialVersionUID = 6212403794531271390L;
+
+	public PenMatchRunnerException(String message, Throwable cause) {
+		super(message, cause);
+	}
+
+	@Override
+	public int getExitCode() {
+		return 1;
+	}
+
+}
@@ -2,6 +2,9 @@ package ca.bc.gov.educ.api.penmatch.exception;
 
 import static org.springframework.http.HttpStatus.BAD_REQUEST;
 import static org.springframework.http.HttpStatus.NOT_FOUND;
+import static org.springframework.http.HttpStatus.TOO_MANY_REQUESTS;
+
+import javax.validation.ConstraintViolationException;
 
 import org.jboss.logging.Logger;
 import org.springframework.core.Ordered;
@@ -90,6 +93,35 @@ public class RestExceptionHandler extends ResponseEntityExceptionHandler {
         return buildResponseEntity(apiError);
     }
 
+    /**
+     * Handles PenMatchOverloadedException
+     *
+     * @param ex the PenMatchOverloadedException
+     * @return the ApiError object
+     */
+    @ExceptionHandler(PenMatchOverloadedException.class)
+    protected ResponseEntity<Object> handleOverloaded(PenMatchOverloadedException ex) {
+        log.warn(ex.getMessage());
+        ApiError apiError = new ApiError(TOO_MANY_REQUESTS);
+        apiError.setMessage(ex.getMessage());
+        return buildResponseEntity(apiError);
+    }
+
+    /**
+     * Handles ConstraintViolationException. Triggered when a method argument fails validation, such as the students of a list.
+     *
+     * @param ex the ConstraintViolationException
+     * @return the ApiError object
+     */
+    @ExceptionHandler(ConstraintViolationException.class)
+    protected ResponseEntity<Object> handleConstraintViolation(ConstraintViolationException ex) {
+        log.warn("handleConstraintViolation", ex);
+        ApiError apiError = new ApiError(BAD_REQUEST);
+        apiError.setMessage("Validation error");
+        apiError.addValidationErrors(ex.getConstraintViolations());
+        return buildResponseEntity(apiError);
+    }
+
     /**
      * Handles MethodArgumentNotValidException. Triggered when an object fails @Valid validation.
      *
@@ -3,6 +3,9 @@ package ca.bc.gov.educ.api.penmatch.exception.errors;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
+
+import javax.validation.ConstraintViolation;
 
 import org.springframework.http.HttpStatus;
 import org.springframework.validation.FieldError;
@@ -74,6 +77,15 @@ public class ApiError {
 		globalErrors.forEach(this::addValidationError);
 	}
 
+	private void addValidationError(ConstraintViolation<?> constraintViolation) {
+		this.addValidationError(constraintViolation.getRootBeanClass().getSimpleName(), constraintViolation.getPropertyPath().toString(), constraintViolation.getInvalidValue(),
+				constraintViolation.getMessage());
+	}
+
+	public void addValidationErrors(Set<ConstraintViolation<?>> constraintViolations) {
+		constraintViolations.forEach(this::addValidationError);
+	}
+
 
 	public HttpStatus getStatus() {
 		return status;
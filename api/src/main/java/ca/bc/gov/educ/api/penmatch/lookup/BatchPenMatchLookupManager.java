@@ -0,0 +1,152 @@
+package ca.bc.gov.educ.api.penmatch.lookup;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import ca.bc.gov.educ.api.penmatch.model.NicknamesEntity;
+import ca.bc.gov.educ.api.penmatch.model.PenDemographicsEntity;
+import ca.bc.gov.educ.api.penmatch.struct.CandidateQuery;
+import ca.bc.gov.educ.api.penmatch.struct.PenMasterRecord;
+
+/**
+ * Lookup manager scoped to a single batch of students. Surname frequencies,
+ * nicknames, PEN confirmation lookups and PEN Demog candidates are fetched once
+ * per distinct key and shared by every student in the batch, including students
+ * being matched concurrently.
+ */
+public class BatchPenMatchLookupManager extends PenMatchLookupManager {
+
+	private final Map<String, CompletableFuture<Integer>> surnameFrequencies = new ConcurrentHashMap<>();
+
+	private final Map<String, CompletableFuture<List<NicknamesEntity>>> nicknames = new ConcurrentHashMap<>();
+
+	private final Map<String, CompletableFuture<Optional<PenDemographicsEntity>>> penDemographics = new ConcurrentHashMap<>();
+
+	private final Map<CandidateQuery, CompletableFuture<List<PenDemographicsEntity>>> candidates = new ConcurrentHashMap<>();
+
+	private final AtomicLong candidateLookups = new AtomicLong();
+
+	private final AtomicLong candidateQueriesExecuted = new AtomicLong();
+
+	public BatchPenMatchLookupManager(final PenMatchLookupManager lookupManager) {
+		super(lookupManager);
+	}
+
+	@Override
+	public Integer lookupSurnameFrequency(String fullStudentSurname) {
+		if (fullStudentSurname == null) {
+			return 0;
+		}
+		return memoize(surnameFrequencies, fullStudentSurname, () -> super.lookupSurnameFrequency(fullStudentSurname));
+	}
+
+	@Override
+	public List<PenDemographicsEntity> lookupCandidates(CandidateQuery query) {
+		candidateLookups.incrementAndGet();
+		return prefetchCandidates(query);
+	}
+
+	/**
+	 * Candidates of a batch are always fetched as entities so that they can be
+	 * shared through the batch cache
+	 */
+	@Override
+	public Optional<List<PenMasterRecord>> lookupCandidateRecords(CandidateQuery query) {
+		return Optional.empty();
+	}
+
+	@Override
+	public boolean streamCandidateRecords(CandidateQuery query, Consumer<PenMasterRecord> consumer) {
+		return false;
+	}
+
+	/**
+	 * Fetches the candidates of a query into the batch cache, without counting it
+	 * as a lookup made by a student
+	 * 
+	 * @param query
+	 * @return
+	 */
+	public List<PenDemographicsEntity> prefetchCandidates(CandidateQuery query) {
+		return memoize(candidates, query, () -> {
+			candidateQueriesExecuted.incrementAndGet();
+			return super.lookupCandidates(query);
+		});
+	}
+
+	/**
+	 * Fetches the candidates of several queries into the batch cache with a single
+	 * statement. Queries already in the cache are not fetched again.
+	 * 
+	 * @param queries
+	 */
+	public void prefetchCandidates(List<CandidateQuery> queries) {
+		List<CandidateQuery> missingQueries = queries.stream().filter(query -> !candidates.containsKey(query)).collect(Collectors.toList());
+		if (missingQueries.isEmpty()) {
+			return;
+		}
+		candidateQueriesExecuted.incrementAndGet();
+		Map<Integer, List<PenDemographicsEntity>> found = super.lookupCandidatesBatch(missingQueries);
+		for (int i = 0; i < missingQueries.size(); i++) {
+			candidates.putIfAbsent(missingQueries.get(i), CompletableFuture.completedFuture(found.get(i)));
+		}
+	}
+
+	/**
+	 * @return the number of candidate lookups made by the students of the batch
+	 */
+	public long getCandidateLookups() {
+		return candidateLookups.get();
+	}
+
+	/**
+	 * @return the number of candidate statements actually run against PEN Demog
+	 */
+	public long getCandidateQueriesExecuted() {
+		return candidateQueriesExecuted.get();
+	}
+
+	@Override
+	protected List<NicknamesEntity> findNicknames(String name) {
+		return memoize(nicknames, name, () -> super.findNicknames(name));
+	}
+
+	@Override
+	protected Optional<PenDemographicsEntity> findPenDemographicsByPEN(String studentNumber) {
+		return memoize(penDemographics, studentNumber, () -> super.findPenDemographicsByPEN(studentNumber));
+	}
+
+	/**
+	 * Returns the cached value for the key, running the lookup only for the first
+	 * caller. Concurrent callers asking for the same key wait for that lookup
+	 * instead of repeating it.
+	 *
+	 * @param cache
+	 * @param key
+	 * @param lookup
+	 * @return
+	 */
+	protected static <K, V> V memoize(Map<K, CompletableFuture<V>> cache, K key, Supplier<V> lookup) {
+		CompletableFuture<V> future = new CompletableFuture<>();
+		CompletableFuture<V> existing = cache.putIfAbsent(key, future);
+		if (existing != null) {
+			return existing.join();
+		}
+		try {
+			future.complete(lookup.get());
+		} catch (RuntimeException e) {
+			cache.remove(key, future);
+			future.completeExceptionally(e);
+			throw e;
+		}
+		return future.join();
+	}
+
+}
@@ -0,0 +1,147 @@
+package ca.bc.gov.educ.api.penmatch.lookup;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Supplier;
+
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import ca.bc.gov.educ.api.penmatch.config.PenMatchBatchConfig;
+import ca.bc.gov.educ.api.penmatch.config.ReplicaRoutingDataSource;
+import ca.bc.gov.educ.api.penmatch.enumeration.CandidateQueryType;
+import ca.bc.gov.educ.api.penmatch.exception.PENMatchRuntimeException;
+import ca.bc.gov.educ.api.penmatch.model.PenDemographicsEntity;
+import ca.bc.gov.educ.api.penmatch.struct.CandidateQuery;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.Getter;
+
+/**
+ * Runs a PEN Demog candidate query one branch of its OR at a time - birth date,
+ * surname and given name prefixes, mincode + local ID - so that each branch is
+ * driven by its own index instead of the whole OR ending up as a full scan.
+ * The candidates of the branches are merged on STUD_NO. Branches run one after
+ * the other on the calling thread, or with parallel-branches concurrently on
+ * their own pool, each on its own pooled connection. The branch pool is kept
+ * for single matches: lookups of the bulk and job pipelines, which already run
+ * many students at once, always run their branches one after the other.
+ *
+ * Each branch is timed by penmatch.candidates.branch and the rows it returns
+ * are summarized by penmatch.candidates.branch.rows, both tagged with the
+ * branch.
+ */
+@Component
+@SuppressWarnings("unchecked")
+public class CandidateBranchLookup {
+
+	public static final String BIRTH_BRANCH = "birth";
+	public static final String SURNAME_BRANCH = "surname";
+	public static final String LOCAL_ID_BRANCH = "local-id";
+
+	private final EntityManager entityManager;
+
+	private final ExecutorService branchExecutor;
+
+	/**
+	 * Whether candidate queries are run branch by branch rather than as one OR
+	 */
+	@Getter
+	private final boolean enabled;
+
+	private final boolean parallel;
+
+	private final Map<String, Timer> branchTimers = new HashMap<>();
+
+	private final Map<String, DistributionSummary> branchRows = new HashMap<>();
+
+	@Autowired
+	public CandidateBranchLookup(final EntityManager entityManager, @Qualifier("penMatchCandidateBranchExecutor") final ExecutorService branchExecutor, final MeterRegistry meterRegistry,
+			@Value("${penmatch.candidates.split-branches:false}") final boolean enabled, @Value("${penmatch.candidates.parallel-branches:false}") final boolean parallel) {
+		this.entityManager = entityManager;
+		this.branchExecutor = branchExecutor;
+		this.enabled = enabled;
+		this.parallel = parallel;
+		for (String branch : new String[] { BIRTH_BRANCH, SURNAME_BRANCH, LOCAL_ID_BRANCH }) {
+			branchTimers.put(branch, Timer.builder("penmatch.candidates.branch").description("Time spent running a branch of a candidate query").tag("branch", branch).register(meterRegistry));
+			branchRows.put(branch, DistributionSummary.builder("penmatch.candidates.branch.rows").description("PEN Demog rows returned by a branch of a candidate query").tag("branch", branch).register(meterRegistry));
+		}
+	}
+
+	/**
+	 * Fetches the same candidates as the OR statement of the candidate query. A
+	 * branch whose key is null can't match anything and isn't run.
+	 * 
+	 * @param query
+	 * @return
+	 */
+	public List<PenDemographicsEntity> lookup(CandidateQuery query) {
+		boolean useGiven = query.getType() == CandidateQueryType.WITH_ALL_PARTS || query.getType() == CandidateQueryType.NO_LOCAL_ID;
+		boolean useLocalID = (query.getType() == CandidateQueryType.WITH_ALL_PARTS || query.getType() == CandidateQueryType.NO_INIT) && query.getMincode() != null && query.getLocalID() != null;
+
+		Map<String, Supplier<List<PenDemographicsEntity>>> branches = new LinkedHashMap<>();
+		if (query.getDob() != null) {
+			branches.put(BIRTH_BRANCH, () -> runQuery("PenDemographicsEntity.penDemogByBirth", query.getDob()));
+		}
+		if (useGiven) {
+			branches.put(SURNAME_BRANCH, () -> runQuery("PenDemographicsEntity.penDemogBySurnameAndGiven", query.getSurname() + "%", query.getGivenName() + "%"));
+		} else {
+			branches.put(SURNAME_BRANCH, () -> runQuery("PenDemographicsEntity.penDemogBySurname", query.getSurname() + "%"));
+		}
+		if (useLocalID) {
+			branches.put(LOCAL_ID_BRANCH, () -> runQuery("PenDemographicsEntity.penDemogByLocalID", query.getMincode(), query.getLocalID()));
+		}
+
+		List<List<PenDemographicsEntity>> branchCandidates = new ArrayList<>();
+		if (parallel && branches.size() > 1 && !PenMatchBatchConfig.isStageThread()) {
+			List<CompletableFuture<List<PenDemographicsEntity>>> futures = new ArrayList<>();
+			branches.forEach((branch, lookup) -> futures.add(CompletableFuture.supplyAsync(() -> ReplicaRoutingDataSource.routeToReplicas(() -> runBranch(branch, lookup)), branchExecutor)));
+			try {
+				futures.forEach(future -> branchCandidates.add(future.join()));
+			} catch (CompletionException e) {
+				futures.forEach(future -> future.cancel(true));
+				if (e.getCause() instanceof RuntimeException) {
+					throw (RuntimeException) e.getCause();
+				}
+				throw new PENMatchRuntimeException("Candidate branch lookup failed: " + e.getCause().getMessage());
+			}
+		} else {
+			branches.forEach((branch, lookup) -> branchCandidates.add(runBranch(branch, lookup)));
+		}
+
+		Map<String, PenDemographicsEntity> candidates = new LinkedHashMap<>();
+		for (List<PenDemographicsEntity> rows : branchCandidates) {
+			for (PenDemographicsEntity row : rows) {
+				candidates.putIfAbsent(row.getStudNo(), row);
+			}
+		}
+		return new ArrayList<>(candidates.values());
+	}
+
+	private List<PenDemographicsEntity> runBranch(String branch, Supplier<List<PenDemographicsEntity>> lookup) {
+		List<PenDemographicsEntity> rows = branchTimers.get(branch).record(lookup);
+		branchRows.get(branch).record(rows.size());
+		return rows;
+	}
+
+	private List<PenDemographicsEntity> runQuery(String queryName, String... parameters) {
+		Query query = entityManager.createNamedQuery(queryName);
+		for (int i = 0; i < parameters.length; i++) {
+			query.setParameter(i + 1, parameters[i]);
+		}
+		return query.getResultList();
+	}
+
+}
@@ -0,0 +1,64 @@
+package ca.bc.gov.educ.api.penmatch.lookup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import ca.bc.gov.educ.api.penmatch.enumeration.CandidateQueryType;
+import ca.bc.gov.educ.api.penmatch.model.PenDemographicsEntity;
+import ca.bc.gov.educ.api.penmatch.struct.CandidateQuery;
+
+/**
+ * A copy of PEN Demog which can answer candidate queries in place of the SQL
+ * lookups of the {@link PenMatchLookupManager}, with the same results.
+ */
+public interface CandidateSource {
+
+	/**
+	 * @return whether the source holds PEN Demog and can answer queries
+	 */
+	boolean isLoaded();
+
+	/**
+	 * Adds the rows matching the conditions of the PEN Demog candidate queries:
+	 * same birth date, or surname starting with the surname prefix and, when a
+	 * given name prefix is passed, given name starting with it, or, when passed,
+	 * same mincode and local ID. Null values never match, as in SQL.
+	 *
+	 * @param dob
+	 * @param surnamePrefix
+	 * @param givenNamePrefix
+	 * @param mincode
+	 * @param localID
+	 * @param candidates
+	 */
+	void lookup(String dob, String surnamePrefix, String givenNamePrefix, String mincode, String localID, List<PenDemographicsEntity> candidates);
+
+	/**
+	 * Fetches the candidates of a candidate query, using the same conditions as
+	 * the named PEN Demog queries
+	 *
+	 * @param query
+	 * @return the candidates, or empty when the source can't answer the query
+	 *         because it isn't loaded or the names hold LIKE wildcards
+	 */
+	default Optional<List<PenDemographicsEntity>> lookupCandidates(CandidateQuery query) {
+		boolean useGiven = query.getType() == CandidateQueryType.WITH_ALL_PARTS || query.getType() == CandidateQueryType.NO_LOCAL_ID;
+		boolean useLocalID = query.getType() == CandidateQueryType.WITH_ALL_PARTS || query.getType() == CandidateQueryType.NO_INIT;
+		// The SQL lookups bind surname + "%", so a null name is the prefix "null"
+		String surnamePrefix = String.valueOf(query.getSurname());
+		String givenNamePrefix = useGiven ? String.valueOf(query.getGivenName()) : null;
+		if (!isLoaded() || hasWildcard(surnamePrefix) || hasWildcard(givenNamePrefix)) {
+			return Optional.empty();
+		}
+
+		List<PenDemographicsEntity> candidates = new ArrayList<>();
+		lookup(query.getDob(), surnamePrefix, givenNamePrefix, useLocalID ? query.getMincode() : null, useLocalID ? query.getLocalID() : null, candidates);
+		return Optional.of(candidates);
+	}
+
+	static boolean hasWildcard(String prefix) {
+		return prefix != null && (prefix.indexOf('%') >= 0 || prefix.indexOf('_') >= 0);
+	}
+
+}
@@ -0,0 +1,63 @@
+package ca.bc.gov.educ.api.penmatch.lookup;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * A leader lock taken on a lock file of the shared volume. The operating system
+ * releases the lock when the process ends, so another replica takes over the
+ * export on its next attempt.
+ */
+@Slf4j
+public class FileLeaderLock implements LeaderLock {
+
+	private final Path file;
+
+	private FileChannel channel;
+
+	private FileLock lock;
+
+	public FileLeaderLock(Path file) {
+		this.file = file;
+	}
+
+	@Override
+	public synchronized boolean tryAcquire() {
+		if (lock != null && lock.isValid()) {
+			return true;
+		}
+		try {
+			if (channel == null) {
+				channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+			}
+			lock = channel.tryLock();
+		} catch (OverlappingFileLockException e) {
+			// Held by another lock of this process
+			lock = null;
+		} catch (IOException e) {
+			log.warn("Unable to lock {}", file, e);
+			lock = null;
+		}
+		return lock != null;
+	}
+
+	@Override
+	public synchronized void release() {
+		try {
+			if (channel != null) {
+				channel.close();
+			}
+		} catch (IOException e) {
+			log.warn("Unable to release the lock on {}", file, e);
+		}
+		channel = null;
+		lock = null;
+	}
+
+}
@@ -0,0 +1,16 @@
+package ca.bc.gov.educ.api.penmatch.lookup;
+
+/**
+ * Elects the single replica which exports the shared reference data. The lock
+ * is held until released or until the holding process ends.
+ */
+public interface LeaderLock {
+
+	/**
+	 * @return whether this replica holds the lock, acquiring it when free
+	 */
+	boolean tryAcquire();
+
+	void release();
+
+}
@@ -0,0 +1,31 @@
+package ca.bc.gov.educ.api.penmatch.lookup;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A leader lock held within the process, standing in for the
+ * {@link FileLeaderLock} in tests where several replicas run in one JVM. Locks
+ * with the same name exclude each other.
+ */
+public class LocalLeaderLock implements LeaderLock {
+
+	private static final Map<String, LocalLeaderLock> HOLDERS = new ConcurrentHashMap<>();
+
+	private final String name;
+
+	public LocalLeaderLock(String name) {
+		this.name = name;
+	}
+
+	@Override
+	public boolean tryAcquire() {
+		return HOLDERS.computeIfAbsent(name, key -> this) == this;
+	}
+
+	@Override
+	public void release() {
+		HOLDERS.remove(name, this);
+	}
+
+}
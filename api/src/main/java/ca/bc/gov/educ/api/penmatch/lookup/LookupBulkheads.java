@@ -0,0 +1,100 @@
+package ca.bc.gov.educ.api.penmatch.lookup;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import ca.bc.gov.educ.api.penmatch.exception.PenMatchOverloadedException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Splits the connections of the pool between PEN confirmation lookups and
+ * candidate searches, each kind of lookup running on its own share of
+ * connections. Slow candidate searches piling up under a burst then can't take
+ * the connections the quick PEN confirmations need. The shares should add up
+ * to no more than the connection pool.
+ *
+ * A lookup waits up to wait-timeout for a connection of its share and is
+ * rejected otherwise. The connections left in each share are gauged by
+ * penmatch.bulkhead.available and rejected lookups are counted by
+ * penmatch.bulkhead.rejected, both tagged with the bulkhead.
+ */
+@Component
+public class LookupBulkheads {
+
+	public static final String CONFIRMATION = "confirmation";
+	public static final String CANDIDATES = "candidates";
+
+	private final boolean enabled;
+
+	private final long waitTimeout;
+
+	private final Semaphore confirmation;
+
+	private final Semaphore candidates;
+
+	private final Counter confirmationRejectedCounter;
+
+	private final Counter candidatesRejectedCounter;
+
+	@Autowired
+	public LookupBulkheads(final MeterRegistry meterRegistry, @Value("${penmatch.bulkhead.enabled:false}") final boolean enabled, @Value("${penmatch.bulkhead.confirmation-connections:3}") final int confirmationConnections,
+			@Value("${penmatch.bulkhead.candidate-connections:7}") final int candidateConnections, @Value("${penmatch.bulkhead.wait-timeout:5000}") final long waitTimeout) {
+		this.enabled = enabled;
+		this.waitTimeout = waitTimeout;
+		this.confirmation = new Semaphore(confirmationConnections, true);
+		this.candidates = new Semaphore(candidateConnections, true);
+		Gauge.builder("penmatch.bulkhead.available", confirmation, Semaphore::availablePermits).description("Connections left to a kind of lookup").tag("bulkhead", CONFIRMATION).register(meterRegistry);
+		Gauge.builder("penmatch.bulkhead.available", candidates, Semaphore::availablePermits).description("Connections left to a kind of lookup").tag("bulkhead", CANDIDATES).register(meterRegistry);
+		this.confirmationRejectedCounter = Counter.builder("penmatch.bulkhead.rejected").description("Lookups rejected for want of a connection").tag("bulkhead", CONFIRMATION).register(meterRegistry);
+		this.candidatesRejectedCounter = Counter.builder("penmatch.bulkhead.rejected").description("Lookups rejected for want of a connection").tag("bulkhead", CANDIDATES).register(meterRegistry);
+	}
+
+	/**
+	 * Runs a PEN confirmation lookup on the confirmation share
+	 *
+	 * @param lookup
+	 * @return
+	 */
+	public <T> T callConfirmation(Supplier<T> lookup) {
+		return call(confirmation, confirmationRejectedCounter, CONFIRMATION, lookup);
+	}
+
+	/**
+	 * Runs a candidate search on the candidates share
+	 *
+	 * @param lookup
+	 * @return
+	 */
+	public <T> T callCandidates(Supplier<T> lookup) {
+		return call(candidates, candidatesRejectedCounter, CANDIDATES, lookup);
+	}
+
+	private <T> T call(Semaphore bulkhead, Counter rejectedCounter, String name, Supplier<T> lookup) {
+		if (!enabled) {
+			return lookup.get();
+		}
+		try {
+			if (!bulkhead.tryAcquire(waitTimeout, TimeUnit.MILLISECONDS)) {
+				rejectedCounter.increment();
+				throw new PenMatchOverloadedException("No connection left for " + name + " lookups, try again later");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			rejectedCounter.increment();
+			throw new PenMatchOverloadedException("Interrupted while waiting for a connection for " + name + " lookups");
+		}
+		try {
+			return lookup.get();
+		} finally {
+			bulkhead.release();
+		}
+	}
+
+}
@@ -0,0 +1,96 @@
+package ca.bc.gov.educ.api.penmatch.lookup;
+
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Serves nickname lookups from a {@link NicknameMap} loaded on start and
+ * reloaded every reload-interval, saving the two NICKNAMES queries of every
+ * given name. Until the first load completes the lookups go to the database.
+ */
+@Component
+@ConditionalOnProperty(name = "penmatch.nicknames.enabled", havingValue = "true", matchIfMissing = true)
+@Slf4j
+public class NicknameIndex implements ReferenceDataSource, SmartLifecycle {
+
+	private final JdbcTemplate jdbcTemplate;
+
+	private final long reloadInterval;
+
+	private final Timer loadTimer;
+
+	private volatile NicknameMap nicknameMap;
+
+	private ScheduledExecutorService reloadExecutor;
+
+	private volatile boolean running;
+
+	@Autowired
+	public NicknameIndex(final JdbcTemplate jdbcTemplate, final MeterRegistry meterRegistry, @Value("${penmatch.nicknames.reload-interval:3600000}") final long reloadInterval) {
+		this.jdbcTemplate = jdbcTemplate;
+		this.reloadInterval = reloadInterval;
+		this.loadTimer = Timer.builder("penmatch.nicknames.load").description("Time taken to load NICKNAMES into the nickname map").register(meterRegistry);
+		Gauge.builder("penmatch.nicknames.rows", this, index -> index.nicknameMap != null ? index.nicknameMap.size() : 0).description("NICKNAMES rows held by the nickname map").register(meterRegistry);
+	}
+
+	@Override
+	public void start() {
+		running = true;
+		reloadExecutor = Executors.newSingleThreadScheduledExecutor(new BasicThreadFactory.Builder().namingPattern("nicknames-%d").daemon(true).build());
+		reloadExecutor.scheduleWithFixedDelay(this::reload, 0, reloadInterval, TimeUnit.MILLISECONDS);
+	}
+
+	@Override
+	public void stop() {
+		running = false;
+		reloadExecutor.shutdownNow();
+	}
+
+	@Override
+	public boolean isRunning() {
+		return running;
+	}
+
+	@Override
+	public boolean isLoaded() {
+		return nicknameMap != null;
+	}
+
+	@Override
+	public Optional<Integer> lookupSurnameFrequency(String surnamePrefix) {
+		return Optional.empty();
+	}
+
+	@Override
+	public Optional<NicknameMap> getNicknameMap() {
+		return Optional.ofNullable(nicknameMap);
+	}
+
+	/**
+	 * Reloads NICKNAMES and publishes the new map
+	 */
+	public void reload() {
+		try {
+			nicknameMap = loadTimer.recordCallable(() -> NicknameMap.load(jdbcTemplate));
+			log.debug("Loaded {} nicknames", nicknameMap.size());
+		} catch (Exception e) {
+			log.error("Reloading the nickname map failed", e);
+		}
+	}
+
+}
@@ -0,0 +1,126 @@
+package ca.bc.gov.educ.api.penmatch.lookup;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import ca.bc.gov.educ.api.penmatch.model.NicknamesEntity;
+import ca.bc.gov.educ.api.penmatch.struct.PenMatchNames;
+import ca.bc.gov.educ.api.penmatch.util.PenMatchUtils;
+
+/**
+ * NICKNAMES resolved ahead of time into an immutable map from every name of the
+ * table to its base nickname and the ordered nicknames of that base, which is
+ * what {@link PenMatchLookupManager#lookupNicknames(PenMatchNames, String)}
+ * works out with two queries per given name.
+ */
+public class NicknameMap {
+
+	private static final String LOAD_SQL = "SELECT NICKNAME1, NICKNAME2 FROM NICKNAMES ORDER BY NICKNAME1, NICKNAME2";
+
+	private final List<NicknamesEntity> rows;
+
+	private final Map<String, NicknameClass> classes;
+
+	private NicknameMap(List<NicknamesEntity> rows, Map<String, NicknameClass> classes) {
+		this.rows = rows;
+		this.classes = classes;
+	}
+
+	/**
+	 * @param rows the NICKNAMES rows, in the order the repository would return
+	 *             them
+	 * @return
+	 */
+	public static NicknameMap of(List<NicknamesEntity> rows) {
+		Map<String, List<NicknamesEntity>> rowsByName = new LinkedHashMap<>();
+		for (NicknamesEntity row : rows) {
+			rowsByName.computeIfAbsent(row.getNickname1(), name -> new ArrayList<>()).add(row);
+			if (!row.getNickname2().equals(row.getNickname1())) {
+				rowsByName.computeIfAbsent(row.getNickname2(), name -> new ArrayList<>()).add(row);
+			}
+		}
+
+		Map<String, NicknameClass> classes = new HashMap<>(rowsByName.size() * 4 / 3 + 1);
+		for (Map.Entry<String, List<NicknamesEntity>> nameRows : rowsByName.entrySet()) {
+			String name = nameRows.getKey();
+			String baseNickname = nameRows.getValue().get(0).getNickname1().trim();
+			List<String> nicknames = new ArrayList<>();
+			for (NicknamesEntity row : rowsByName.getOrDefault(baseNickname, Collections.emptyList())) {
+				if (!row.getNickname2().equals(name)) {
+					nicknames.add(row.getNickname2().trim());
+				}
+			}
+			classes.put(name, new NicknameClass(baseNickname, nicknames.toArray(new String[0])));
+		}
+		return new NicknameMap(Collections.unmodifiableList(new ArrayList<>(rows)), classes);
+	}
+
+	/**
+	 * Reads the whole of NICKNAMES
+	 *
+	 * @param jdbcTemplate
+	 * @return
+	 */
+	public static NicknameMap load(JdbcTemplate jdbcTemplate) {
+		return of(jdbcTemplate.query(LOAD_SQL, (resultSet, row) -> {
+			NicknamesEntity nickname = new NicknamesEntity();
+			nickname.setNickname1(resultSet.getString("NICKNAME1"));
+			nickname.setNickname2(resultSet.getString("NICKNAME2"));
+			return nickname;
+		}));
+	}
+
+	/**
+	 * @return the NICKNAMES rows the map was built from
+	 */
+	public List<NicknamesEntity> getRows() {
+		return rows;
+	}
+
+	public int size() {
+		return rows.size();
+	}
+
+	/**
+	 * Sets the nicknames of a given name, same as
+	 * {@link PenMatchLookupManager#lookupNicknames(PenMatchNames, String)}
+	 *
+	 * @param penMatchTransactionNames
+	 * @param givenName
+	 */
+	public void lookupNicknames(PenMatchNames penMatchTransactionNames, String givenName) {
+		NicknameClass nicknameClass = classes.get(givenName);
+		if (nicknameClass == null) {
+			return;
+		}
+		if (!nicknameClass.baseNickname.equals(givenName)) {
+			penMatchTransactionNames.setNickname1(nicknameClass.baseNickname);
+		}
+		for (String nickname : nicknameClass.nicknames) {
+			PenMatchUtils.setNextNickname(penMatchTransactionNames, nickname);
+			if (penMatchTransactionNames.getNickname4() != null && !penMatchTransactionNames.getNickname4().isEmpty()) {
+				break;
+			}
+		}
+	}
+
+	private static class NicknameClass {
+
+		private final String baseNickname;
+
+		// Nickname2 of every row of the base nickname, less the name itself
+		private final String[] nicknames;
+
+		private NicknameClass(String baseNickname, String[] nicknames) {
+			this.baseNickname = baseNickname;
+			this.nicknames = nicknames;
+		}
+	}
+
+}
@@ -0,0 +1,219 @@
+package ca.bc.gov.educ.api.penmatch.lookup;
+
+import java.sql.PreparedStatement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import ca.bc.gov.educ.api.penmatch.model.PenDemographicsEntity;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Holds PEN Demog in memory to answer candidate lookups without going to the
+ * database. Enabled with penmatch.index.enabled, the {@link PenMatchLookupManager}
+ * falls back to the SQL lookups until the first load completes.
+ *
+ * The index is a list of immutable {@link PenDemogIndexSegment}s: the full load,
+ * followed by one segment per poll holding the students created since the
+ * previous poll. Each poll publishes a new list, so readers never wait on it and
+ * always see a complete set of segments. Past max-segments the segments are
+ * merged back into one, and the whole table is reloaded every reload-interval to
+ * pick up students which were updated or deleted, as CREATE_DATE only shows
+ * inserts.
+ */
+@Component
+@ConditionalOnProperty(name = "penmatch.index.enabled", havingValue = "true")
+@Slf4j
+public class PenDemogCandidateIndex implements CandidateSource, SmartLifecycle {
+
+	private static final String LOAD_SQL = "SELECT * FROM PEN_DEMOG";
+
+	private static final String POLL_SQL = "SELECT * FROM PEN_DEMOG WHERE CREATE_DATE >= ?";
+
+	private final JdbcTemplate jdbcTemplate;
+
+	private final int fetchSize;
+
+	private final long pollInterval;
+
+	private final long pollOverlap;
+
+	private final long reloadInterval;
+
+	private final int maxSegments;
+
+	private volatile List<PenDemogIndexSegment> segments;
+
+	// Only touched by loads and polls, which are serialized
+	private long lastCreateDate = Long.MIN_VALUE;
+
+	private long lastReload;
+
+	private Map<String, Long> recentStudents = new HashMap<>();
+
+	private ScheduledExecutorService pollExecutor;
+
+	private volatile boolean running;
+
+	@Autowired
+	public PenDemogCandidateIndex(final JdbcTemplate jdbcTemplate, final MeterRegistry meterRegistry, @Value("${penmatch.index.fetch-size:5000}") final int fetchSize, @Value("${penmatch.index.poll-interval:60000}") final long pollInterval,
+			@Value("${penmatch.index.poll-overlap:300000}") final long pollOverlap, @Value("${penmatch.index.reload-interval:86400000}") final long reloadInterval, @Value("${penmatch.index.max-segments:32}") final int maxSegments) {
+		this.jdbcTemplate = jdbcTemplate;
+		this.fetchSize = fetchSize;
+		this.pollInterval = pollInterval;
+		this.pollOverlap = pollOverlap;
+		this.reloadInterval = reloadInterval;
+		this.maxSegments = maxSegments;
+		Gauge.builder("penmatch.index.rows", this, PenDemogCandidateIndex::size).description("PEN Demog rows held by the in-memory candidate index").register(meterRegistry);
+		Gauge.builder("penmatch.index.segments", this, index -> index.segments != null ? index.segments.size() : 0).description("Segments of the in-memory candidate index").register(meterRegistry);
+	}
+
+	@Override
+	public void start() {
+		running = true;
+		pollExecutor = Executors.newSingleThreadScheduledExecutor(new BasicThreadFactory.Builder().namingPattern("pen-demog-index-%d").daemon(true).build());
+		pollExecutor.scheduleWithFixedDelay(this::poll, 0, pollInterval, TimeUnit.MILLISECONDS);
+	}
+
+	@Override
+	public void stop() {
+		running = false;
+		pollExecutor.shutdownNow();
+	}
+
+	@Override
+	public boolean isRunning() {
+		return running;
+	}
+
+	@Override
+	public boolean isLoaded() {
+		return segments != null;
+	}
+
+	public long size() {
+		List<PenDemogIndexSegment> current = segments;
+		return current != null ? current.stream().mapToLong(PenDemogIndexSegment::size).sum() : 0;
+	}
+
+	@Override
+	public void lookup(String dob, String surnamePrefix, String givenNamePrefix, String mincode, String localID, List<PenDemographicsEntity> candidates) {
+		List<PenDemogIndexSegment> current = segments;
+		if (current != null) {
+			for (PenDemogIndexSegment segment : current) {
+				segment.lookup(dob, surnamePrefix, givenNamePrefix, mincode, localID, candidates);
+			}
+		}
+	}
+
+	/**
+	 * Loads the whole of PEN Demog into a single segment and publishes it
+	 */
+	public synchronized void reload() {
+		long start = System.currentTimeMillis();
+		PenDemogIndexSegment.Builder builder = new PenDemogIndexSegment.Builder();
+		jdbcTemplate.query(connection -> {
+			PreparedStatement statement = connection.prepareStatement(LOAD_SQL);
+			statement.setFetchSize(fetchSize);
+			return statement;
+		}, builder::add);
+		PenDemogIndexSegment segment = builder.build();
+
+		lastCreateDate = Long.MIN_VALUE;
+		for (int row = 0; row < segment.size(); row++) {
+			lastCreateDate = Math.max(lastCreateDate, segment.getCreateDate(row));
+		}
+		recentStudents = new HashMap<>();
+		rememberRecentStudents(segment);
+		segments = Collections.singletonList(segment);
+		lastReload = System.currentTimeMillis();
+		log.info("Loaded {} PEN Demog rows into the candidate index in {} ms", segment.size(), lastReload - start);
+	}
+
+	/**
+	 * Adds the students created since the last load or refresh as a new segment.
+	 * The poll reaches back pollOverlap before the last create date seen so that
+	 * rows committed late with an earlier create date aren't missed; the rows of
+	 * that window which are already indexed are skipped.
+	 */
+	public synchronized void refresh() {
+		if (segments == null) {
+			reload();
+			return;
+		}
+
+		PenDemogIndexSegment.Builder builder = new PenDemogIndexSegment.Builder();
+		long since = Math.max(recentSince(), 0);
+		jdbcTemplate.query(connection -> {
+			PreparedStatement statement = connection.prepareStatement(POLL_SQL);
+			statement.setFetchSize(fetchSize);
+			statement.setTimestamp(1, new Timestamp(since));
+			return statement;
+		}, resultSet -> {
+			if (!recentStudents.containsKey(resultSet.getString("STUD_NO"))) {
+				builder.add(resultSet);
+			}
+		});
+		if (builder.size() == 0) {
+			return;
+		}
+
+		PenDemogIndexSegment segment = builder.build();
+		for (int row = 0; row < segment.size(); row++) {
+			lastCreateDate = Math.max(lastCreateDate, segment.getCreateDate(row));
+		}
+		rememberRecentStudents(segment);
+		long recentSince = recentSince();
+		recentStudents.values().removeIf(createDate -> createDate < recentSince);
+
+		List<PenDemogIndexSegment> updated = new ArrayList<>(segments);
+		updated.add(segment);
+		if (updated.size() > maxSegments) {
+			updated = Collections.singletonList(PenDemogIndexSegment.merge(updated));
+		}
+		segments = Collections.unmodifiableList(updated);
+		log.debug("Added {} new PEN Demog rows to the candidate index", segment.size());
+	}
+
+	private void poll() {
+		try {
+			if (segments == null || System.currentTimeMillis() - lastReload >= reloadInterval) {
+				reload();
+			} else {
+				refresh();
+			}
+		} catch (Exception e) {
+			log.error("Refreshing the PEN Demog candidate index failed", e);
+		}
+	}
+
+	private void rememberRecentStudents(PenDemogIndexSegment segment) {
+		long recentSince = recentSince();
+		for (int row = 0; row < segment.size(); row++) {
+			if (segment.getCreateDate(row) != Long.MIN_VALUE && segment.getCreateDate(row) >= recentSince) {
+				recentStudents.put(segment.getStudNo(row), segment.getCreateDate(row));
+			}
+		}
+	}
+
+	private long recentSince() {
+		return lastCreateDate == Long.MIN_VALUE ? Long.MIN_VALUE : lastCreateDate - pollOverlap;
+	}
+
+}
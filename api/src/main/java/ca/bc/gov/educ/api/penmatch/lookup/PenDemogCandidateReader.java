@@ -0,0 +1,250 @@
+package ca.bc.gov.educ.api.penmatch.lookup;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Component;
+
+import ca.bc.gov.educ.api.penmatch.enumeration.CandidateQueryType;
+import ca.bc.gov.educ.api.penmatch.enumeration.PenStatus;
+import ca.bc.gov.educ.api.penmatch.struct.CandidateQuery;
+import ca.bc.gov.educ.api.penmatch.struct.PenMasterRecord;
+import ca.bc.gov.educ.api.penmatch.util.PenMatchUtils;
+import lombok.Getter;
+
+/**
+ * Reads PEN Demog candidates straight into the PEN Master records scored by
+ * the match, selecting only the columns the scoring uses. Rows are read with
+ * JDBC, so no entity is built or registered in the persistence context, and
+ * students which are merged or deceased are skipped before a record is built.
+ * The records come out as {@link PenMatchUtils#convertPenDemogToPenMasterRecord}
+ * makes them, with their alternate local ID already set. Candidates can also be
+ * streamed to the scoring row by row with {@link #read(CandidateQuery, Consumer)}.
+ * With penmatch.search.enabled they are read from the PEN_MATCH_SEARCH search
+ * table, see {@link ca.bc.gov.educ.api.penmatch.service.PenMatchSearchTableService}.
+ */
+@Component
+public class PenDemogCandidateReader {
+
+	private static final String CANDIDATE_COLUMNS = "SELECT STUD_NO, STUD_SURNAME, STUD_GIVEN, STUD_MIDDLE, USUAL_SURNAME, USUAL_GIVEN, USUAL_MIDDLE, STUD_BIRTH, STUD_SEX, STUD_STATUS, PEN_LOCAL_ID, POSTAL, STUD_GRADE, PEN_MINCODE, STUD_TRUE_NO FROM PEN_DEMOG WHERE ";
+
+	// Same conditions as the named candidate queries of PenDemographicsEntity
+	private static final String WITH_ALL_PARTS_SQL = CANDIDATE_COLUMNS + "(STUD_BIRTH = ?) OR (STUD_SURNAME LIKE ? AND STUD_GIVEN LIKE ?) OR (PEN_MINCODE = ? AND PEN_LOCAL_ID = ?)";
+	private static final String NO_INIT_SQL = CANDIDATE_COLUMNS + "(STUD_BIRTH = ?) OR (STUD_SURNAME LIKE ?) OR (PEN_MINCODE = ? AND PEN_LOCAL_ID = ?)";
+	private static final String NO_LOCAL_ID_SQL = CANDIDATE_COLUMNS + "(STUD_BIRTH = ?) OR (STUD_SURNAME LIKE ? AND STUD_GIVEN LIKE ?)";
+	private static final String NO_INIT_NO_LOCAL_ID_SQL = CANDIDATE_COLUMNS + "(STUD_BIRTH = ?) OR (STUD_SURNAME LIKE ?)";
+
+	private static final String SEARCH_COLUMNS = "SELECT STUD_NO, SURNAME, GIVEN, MIDDLE, USUAL_SURNAME, USUAL_GIVEN, USUAL_MIDDLE, STUD_BIRTH, SEX, STATUS, LOCAL_ID, POSTAL, GRADE, MINCODE, TRUE_NO, ALT_LOCAL_ID, SURNAME_SOUNDEX, USUAL_SURNAME_SOUNDEX, 'S' FROM PEN_MATCH_SEARCH WHERE STUD_NO NOT IN (SELECT STUD_NO FROM PEN_MATCH_SEARCH_CHANGE) AND (";
+
+	// Students changed since the search table was synced, read from PEN Demog
+	private static final String CHANGED_COLUMNS = "SELECT STUD_NO, STUD_SURNAME, STUD_GIVEN, STUD_MIDDLE, USUAL_SURNAME, USUAL_GIVEN, USUAL_MIDDLE, STUD_BIRTH, STUD_SEX, STUD_STATUS, PEN_LOCAL_ID, POSTAL, STUD_GRADE, PEN_MINCODE, STUD_TRUE_NO, NULL, NULL, NULL, 'D' FROM PEN_DEMOG WHERE STUD_NO IN (SELECT STUD_NO FROM PEN_MATCH_SEARCH_CHANGE) AND (";
+
+	private final JdbcTemplate jdbcTemplate;
+
+	/**
+	 * Whether candidates are read as projected records rather than entities
+	 */
+	@Getter
+	private final boolean enabled;
+
+	/**
+	 * Whether the candidates of a match are scored while their rows are read,
+	 * instead of being fetched before scoring
+	 */
+	@Getter
+	private final boolean streaming;
+
+	/**
+	 * Whether candidates are read from the PEN_MATCH_SEARCH search table when
+	 * the prefixes of the query are keys of the table
+	 */
+	@Getter
+	private final boolean searchTable;
+
+	public PenDemogCandidateReader(final JdbcTemplate jdbcTemplate, final boolean enabled) {
+		this(jdbcTemplate, enabled, false, 0, false);
+	}
+
+	@Autowired
+	public PenDemogCandidateReader(final JdbcTemplate jdbcTemplate, @Value("${penmatch.candidates.projection:false}") final boolean enabled, @Value("${penmatch.candidates.streaming:false}") final boolean streaming,
+			@Value("${penmatch.candidates.fetch-size:500}") final int fetchSize, @Value("${penmatch.search.enabled:false}") final boolean searchTable) {
+		// Own template so that the fetch size only applies to candidate reads
+		this.jdbcTemplate = new JdbcTemplate(jdbcTemplate.getDataSource());
+		this.jdbcTemplate.setFetchSize(fetchSize);
+		this.enabled = enabled;
+		this.streaming = streaming;
+		this.searchTable = searchTable;
+	}
+
+	/**
+	 * Reads the candidates of a candidate query which can be scored, those with a
+	 * status other than merged or deceased
+	 *
+	 * @param query
+	 * @return
+	 */
+	public List<PenMasterRecord> lookup(CandidateQuery query) {
+		List<PenMasterRecord> candidates = new ArrayList<>();
+		read(query, candidates::add);
+		return candidates;
+	}
+
+	/**
+	 * Passes each scored candidate of a candidate query to the consumer as soon as
+	 * its row is read, rows being fetched fetchSize at a time, so that the
+	 * candidates are never all held at once
+	 *
+	 * @param query
+	 * @param consumer
+	 */
+	public void read(CandidateQuery query, Consumer<PenMasterRecord> consumer) {
+		if (searchTable && readSearchTable(query, consumer)) {
+			return;
+		}
+		RowCallbackHandler handler = resultSet -> readCandidate(resultSet, consumer);
+		switch (query.getType()) {
+		case WITH_ALL_PARTS:
+			jdbcTemplate.query(WITH_ALL_PARTS_SQL, handler, query.getDob(), query.getSurname() + "%", query.getGivenName() + "%", query.getMincode(), query.getLocalID());
+			break;
+		case NO_INIT:
+			jdbcTemplate.query(NO_INIT_SQL, handler, query.getDob(), query.getSurname() + "%", query.getMincode(), query.getLocalID());
+			break;
+		case NO_LOCAL_ID:
+			jdbcTemplate.query(NO_LOCAL_ID_SQL, handler, query.getDob(), query.getSurname() + "%", query.getGivenName() + "%");
+			break;
+		default:
+			jdbcTemplate.query(NO_INIT_NO_LOCAL_ID_SQL, handler, query.getDob(), query.getSurname() + "%");
+		}
+	}
+
+	/**
+	 * Reads the candidates of a candidate query from the search table, with
+	 * equality on the surname and given name prefix keys in place of LIKE. Only
+	 * prefixes of 4 or 6 surname characters and of 1 or 2 given name characters
+	 * are keys, which covers the prefixes of surnames and given names long
+	 * enough. Students changed since the table was last synced are read from PEN
+	 * Demog in the same statement.
+	 *
+	 * @param query
+	 * @param consumer
+	 * @return whether the candidates were read, false when the prefixes are not
+	 *         keys of the table
+	 */
+	private boolean readSearchTable(CandidateQuery query, Consumer<PenMasterRecord> consumer) {
+		boolean useGiven = query.getType() == CandidateQueryType.WITH_ALL_PARTS || query.getType() == CandidateQueryType.NO_LOCAL_ID;
+		boolean useLocalID = query.getType() == CandidateQueryType.WITH_ALL_PARTS || query.getType() == CandidateQueryType.NO_INIT;
+		// The LIKE lookups bind surname + "%", so a null name is the prefix "null"
+		String surnamePrefix = String.valueOf(query.getSurname());
+		String givenNamePrefix = String.valueOf(query.getGivenName());
+		if (!isSearchKey(surnamePrefix, 4, 6) || (useGiven && !isSearchKey(givenNamePrefix, 1, 2))) {
+			return false;
+		}
+
+		StringBuilder sql = new StringBuilder(SEARCH_COLUMNS).append("(STUD_BIRTH = ?) OR (SURNAME_").append(surnamePrefix.length()).append(" = ?");
+		StringBuilder changedSql = new StringBuilder(CHANGED_COLUMNS).append("(STUD_BIRTH = ?) OR (STUD_SURNAME LIKE ?");
+		List<Object> parameters = new ArrayList<>();
+		List<Object> changedParameters = new ArrayList<>();
+		parameters.add(query.getDob());
+		parameters.add(surnamePrefix);
+		changedParameters.add(query.getDob());
+		changedParameters.add(surnamePrefix + "%");
+		if (useGiven) {
+			sql.append(" AND GIVEN_").append(givenNamePrefix.length()).append(" = ?");
+			changedSql.append(" AND STUD_GIVEN LIKE ?");
+			parameters.add(givenNamePrefix);
+			changedParameters.add(givenNamePrefix + "%");
+		}
+		sql.append(")");
+		changedSql.append(")");
+		if (useLocalID) {
+			sql.append(" OR (PEN_MINCODE = ? AND PEN_LOCAL_ID = ?)");
+			changedSql.append(" OR (PEN_MINCODE = ? AND PEN_LOCAL_ID = ?)");
+			parameters.add(query.getMincode());
+			parameters.add(query.getLocalID());
+			changedParameters.add(query.getMincode());
+			changedParameters.add(query.getLocalID());
+		}
+		sql.append(") UNION ALL ").append(changedSql).append(")");
+		parameters.addAll(changedParameters);
+		jdbcTemplate.query(sql.toString(), (RowCallbackHandler) resultSet -> {
+			if ("D".equals(resultSet.getString(19))) {
+				readCandidate(resultSet, consumer);
+			} else {
+				consumer.accept(searchCandidate(resultSet));
+			}
+		}, parameters.toArray());
+		return true;
+	}
+
+	private static boolean isSearchKey(String prefix, int shortLength, int longLength) {
+		return (prefix.length() == shortLength || prefix.length() == longLength) && !CandidateSource.hasWildcard(prefix);
+	}
+
+	/**
+	 * Search table rows hold the students which can be scored, with their values
+	 * already trimmed and their alternate local ID and surname soundex computed
+	 */
+	private static PenMasterRecord searchCandidate(ResultSet resultSet) throws SQLException {
+		PenMasterRecord masterRecord = new PenMasterRecord();
+		masterRecord.setStudentNumber(PenMatchUtils.checkForValidValue(resultSet.getString(1)));
+		masterRecord.setSurname(resultSet.getString(2));
+		masterRecord.setGiven(resultSet.getString(3));
+		masterRecord.setMiddle(resultSet.getString(4));
+		masterRecord.setUsualSurname(resultSet.getString(5));
+		masterRecord.setUsualGivenName(resultSet.getString(6));
+		masterRecord.setUsualMiddleName(resultSet.getString(7));
+		masterRecord.setDob(PenMatchUtils.checkForValidValue(resultSet.getString(8)));
+		masterRecord.setSex(resultSet.getString(9));
+		masterRecord.setStatus(resultSet.getString(10));
+		masterRecord.setLocalId(resultSet.getString(11));
+		masterRecord.setPostal(resultSet.getString(12));
+		masterRecord.setGrade(resultSet.getString(13));
+		masterRecord.setMincode(resultSet.getString(14));
+		masterRecord.setTrueNumber(resultSet.getString(15));
+		masterRecord.setAlternateLocalId(resultSet.getString(16));
+		masterRecord.setSurnameSoundex(resultSet.getString(17));
+		masterRecord.setUsualSurnameSoundex(resultSet.getString(18));
+		return masterRecord;
+	}
+
+	private static void readCandidate(ResultSet resultSet, Consumer<PenMasterRecord> consumer) throws SQLException {
+		String status = resultSet.getString(10);
+		if (!isScored(status)) {
+			return;
+		}
+		PenMasterRecord masterRecord = new PenMasterRecord();
+		masterRecord.setStudentNumber(PenMatchUtils.checkForValidValue(resultSet.getString(1)));
+		masterRecord.setSurname(PenMatchUtils.checkForValidValue(resultSet.getString(2)));
+		masterRecord.setGiven(PenMatchUtils.checkForValidValue(resultSet.getString(3)));
+		masterRecord.setMiddle(PenMatchUtils.checkForValidValue(resultSet.getString(4)));
+		masterRecord.setUsualSurname(PenMatchUtils.checkForValidValue(resultSet.getString(5)));
+		masterRecord.setUsualGivenName(PenMatchUtils.checkForValidValue(resultSet.getString(6)));
+		masterRecord.setUsualMiddleName(PenMatchUtils.checkForValidValue(resultSet.getString(7)));
+		masterRecord.setDob(PenMatchUtils.checkForValidValue(resultSet.getString(8)));
+		masterRecord.setSex(PenMatchUtils.checkForValidValue(resultSet.getString(9)));
+		masterRecord.setStatus(PenMatchUtils.checkForValidValue(status));
+		masterRecord.setLocalId(PenMatchUtils.checkForValidValue(resultSet.getString(11)));
+		masterRecord.setPostal(PenMatchUtils.checkForValidValue(resultSet.getString(12)));
+		masterRecord.setGrade(PenMatchUtils.checkForValidValue(resultSet.getString(13)));
+		masterRecord.setMincode(PenMatchUtils.checkForValidValue(resultSet.getString(14)));
+		masterRecord.setTrueNumber(PenMatchUtils.checkForValidValue(resultSet.getString(15)));
+		masterRecord.setAlternateLocalId(PenMatchUtils.alternateLocalIDOfMaster(masterRecord.getLocalId()));
+		consumer.accept(masterRecord);
+	}
+
+	/**
+	 * @param studStatus untrimmed STUD_STATUS
+	 * @return whether a student with this status is scored as a candidate
+	 */
+	public static boolean isScored(String studStatus) {
+		return studStatus != null && !studStatus.equals(PenStatus.M.getValue()) && !studStatus.equals(PenStatus.D.getValue());
+	}
+
+}
@@ -0,0 +1,330 @@
+package ca.bc.gov.educ.api.penmatch.lookup;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import ca.bc.gov.educ.api.penmatch.model.PenDemographicsEntity;
+import ca.bc.gov.educ.api.penmatch.util.PenMatchUtils;
+
+/**
+ * An immutable slice of PEN Demog held in memory by the
+ * {@link PenDemogCandidateIndex}. Rows are stored column by column, with
+ * repeated values shared, and sorted by surname so that a surname prefix is a
+ * contiguous range found by binary search. Birth dates, and mincodes with the
+ * alternate local ID worked out once per row as for PEN Master records, are
+ * hashed to posting lists of rows.
+ */
+public class PenDemogIndexSegment {
+
+	static final int STUD_NO = 0;
+	static final int STUD_SURNAME = 1;
+	static final int STUD_GIVEN = 2;
+	static final int STUD_MIDDLE = 3;
+	static final int USUAL_SURNAME = 4;
+	static final int USUAL_GIVEN = 5;
+	static final int USUAL_MIDDLE = 6;
+	static final int STUD_BIRTH = 7;
+	static final int STUD_SEX = 8;
+	static final int STUD_STATUS = 9;
+	static final int PEN_LOCAL_ID = 10;
+	static final int POSTAL = 11;
+	static final int STUD_GRADE = 12;
+	static final int STUD_GRADE_YEAR = 13;
+	static final int STUD_DEMOG_CODE = 14;
+	static final int PEN_MINCODE = 15;
+	static final int STUD_TRUE_NO = 16;
+	static final int CREATE_USER_NAME = 17;
+	static final String[] COLUMNS = { "STUD_NO", "STUD_SURNAME", "STUD_GIVEN", "STUD_MIDDLE", "USUAL_SURNAME", "USUAL_GIVEN", "USUAL_MIDDLE", "STUD_BIRTH", "STUD_SEX", "STUD_STATUS", "PEN_LOCAL_ID", "POSTAL", "STUD_GRADE",
+			"STUD_GRADE_YEAR", "STUD_DEMOG_CODE", "PEN_MINCODE", "STUD_TRUE_NO", "CREATE_USER_NAME" };
+
+	private static final long NO_DATE = Long.MIN_VALUE;
+
+	private final String[][] columns;
+
+	private final long[] createDates;
+
+	private final int size;
+
+	// Rows with a null surname sort last and are never part of a prefix range
+	private final int surnamedRows;
+
+	private final Map<String, int[]> rowsByBirth;
+
+	private final String[] alternateLocalIDs;
+
+	private final Map<String, int[]> rowsByLocalID;
+
+	private PenDemogIndexSegment(String[][] columns, long[] createDates, int size) {
+		this.columns = columns;
+		this.createDates = createDates;
+		this.size = size;
+		int surnamed = 0;
+		while (surnamed < size && columns[STUD_SURNAME][surnamed] != null) {
+			surnamed++;
+		}
+		this.surnamedRows = surnamed;
+		this.rowsByBirth = postingLists(row -> columns[STUD_BIRTH][row]);
+		this.alternateLocalIDs = new String[size];
+		for (int row = 0; row < size; row++) {
+			String localID = columns[PEN_LOCAL_ID][row];
+			alternateLocalIDs[row] = localID != null ? alternateLocalID(localID) : PenMatchUtils.alternateLocalIDOfMaster(null);
+		}
+		this.rowsByLocalID = postingLists(row -> columns[PEN_LOCAL_ID][row] != null ? localIDKey(columns[PEN_MINCODE][row], alternateLocalIDs[row]) : null);
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public String getStudNo(int row) {
+		return columns[STUD_NO][row];
+	}
+
+	/**
+	 * @param column one of the column constants, in the order of COLUMNS
+	 * @param row
+	 * @return
+	 */
+	String getValue(int column, int row) {
+		return columns[column][row];
+	}
+
+	/**
+	 * @param row
+	 * @return the create date of a row in milliseconds, or Long.MIN_VALUE when it
+	 *         has none
+	 */
+	public long getCreateDate(int row) {
+		return createDates[row];
+	}
+
+	/**
+	 * Adds to the candidates the rows of this segment matching the conditions of
+	 * the PEN Demog candidate queries: same birth date, or surname starting with
+	 * the surname prefix and, when a given name prefix is passed, given name
+	 * starting with it, or, when passed, same mincode and local ID. Null values
+	 * never match, as in SQL.
+	 *
+	 * @param dob
+	 * @param surnamePrefix
+	 * @param givenNamePrefix
+	 * @param mincode
+	 * @param localID
+	 * @param candidates
+	 */
+	public void lookup(String dob, String surnamePrefix, String givenNamePrefix, String mincode, String localID, List<PenDemographicsEntity> candidates) {
+		int[] matches = new int[16];
+		int count = 0;
+
+		int[] birthRows = dob != null ? rowsByBirth.get(dob) : null;
+		if (birthRows != null) {
+			matches = ensureCapacity(matches, count + birthRows.length);
+			System.arraycopy(birthRows, 0, matches, count, birthRows.length);
+			count += birthRows.length;
+		}
+
+		int from = lowerBound(surnamePrefix);
+		for (int row = from; row < surnamedRows && columns[STUD_SURNAME][row].startsWith(surnamePrefix); row++) {
+			String givenName = columns[STUD_GIVEN][row];
+			if (givenNamePrefix == null || (givenName != null && givenName.startsWith(givenNamePrefix))) {
+				matches = ensureCapacity(matches, count + 1);
+				matches[count++] = row;
+			}
+		}
+
+		// Equal local IDs have equal alternate local IDs, the rows of the alternate
+		// local ID are then narrowed down to those of the local ID
+		int[] localIDRows = mincode != null && localID != null ? rowsByLocalID.get(localIDKey(mincode, alternateLocalID(localID))) : null;
+		if (localIDRows != null) {
+			matches = ensureCapacity(matches, count + localIDRows.length);
+			for (int row : localIDRows) {
+				if (localID.equals(columns[PEN_LOCAL_ID][row])) {
+					matches[count++] = row;
+				}
+			}
+		}
+
+		Arrays.sort(matches, 0, count);
+		for (int i = 0; i < count; i++) {
+			if (i == 0 || matches[i] != matches[i - 1]) {
+				candidates.add(toEntity(matches[i]));
+			}
+		}
+	}
+
+	/**
+	 * @param row
+	 * @return a new entity holding the values of a row
+	 */
+	public PenDemographicsEntity toEntity(int row) {
+		return PenDemographicsEntity.builder().studNo(columns[STUD_NO][row]).studSurname(columns[STUD_SURNAME][row]).studGiven(columns[STUD_GIVEN][row]).studMiddle(columns[STUD_MIDDLE][row])
+				.usualSurname(columns[USUAL_SURNAME][row]).usualGiven(columns[USUAL_GIVEN][row]).usualMiddle(columns[USUAL_MIDDLE][row]).studBirth(columns[STUD_BIRTH][row]).studSex(columns[STUD_SEX][row])
+				.studStatus(columns[STUD_STATUS][row]).localID(columns[PEN_LOCAL_ID][row]).postalCode(columns[POSTAL][row]).grade(columns[STUD_GRADE][row]).gradeYear(columns[STUD_GRADE_YEAR][row])
+				.demogCode(columns[STUD_DEMOG_CODE][row]).mincode(columns[PEN_MINCODE][row]).trueNumber(columns[STUD_TRUE_NO][row]).createUserName(columns[CREATE_USER_NAME][row])
+				.createDate(createDates[row] != NO_DATE ? new Timestamp(createDates[row]) : null).alternateLocalID(alternateLocalIDs[row]).build();
+	}
+
+	/**
+	 * @param localID
+	 * @return the alternate local ID of a row having the local ID
+	 */
+	private static String alternateLocalID(String localID) {
+		return PenMatchUtils.alternateLocalIDOfMaster(!localID.trim().isEmpty() ? localID.trim() : null);
+	}
+
+	/**
+	 * @param prefix
+	 * @return the first row whose surname is not less than the prefix
+	 */
+	private int lowerBound(String prefix) {
+		int low = 0;
+		int high = surnamedRows;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (columns[STUD_SURNAME][middle].compareTo(prefix) < 0) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	private Map<String, int[]> postingLists(RowKey rowKey) {
+		Map<String, Integer> counts = new HashMap<>();
+		for (int row = 0; row < size; row++) {
+			String key = rowKey.get(row);
+			if (key != null) {
+				counts.merge(key, 1, Integer::sum);
+			}
+		}
+		Map<String, int[]> postingLists = new HashMap<>(counts.size() * 4 / 3 + 1);
+		Map<String, Integer> filled = new HashMap<>(counts.size() * 4 / 3 + 1);
+		for (int row = 0; row < size; row++) {
+			String key = rowKey.get(row);
+			if (key != null) {
+				int[] rows = postingLists.computeIfAbsent(key, k -> new int[counts.get(k)]);
+				rows[filled.merge(key, 1, Integer::sum) - 1] = row;
+			}
+		}
+		return postingLists;
+	}
+
+	private static String localIDKey(String mincode, String localID) {
+		return mincode != null && localID != null ? mincode + '\u0000' + localID : null;
+	}
+
+	private static int[] ensureCapacity(int[] array, int capacity) {
+		return capacity <= array.length ? array : Arrays.copyOf(array, Math.max(capacity, array.length * 2));
+	}
+
+	@FunctionalInterface
+	private interface RowKey {
+		String get(int row);
+	}
+
+	/**
+	 * Accumulates rows of a segment, from a PEN Demog result set or from other
+	 * segments being merged
+	 */
+	public static class Builder {
+
+		private final Map<String, String> values = new HashMap<>();
+
+		private String[][] columns = new String[COLUMNS.length][1024];
+
+		private long[] createDates = new long[1024];
+
+		private int size;
+
+		public int size() {
+			return size;
+		}
+
+		/**
+		 * Adds the current row of a PEN Demog result set
+		 *
+		 * @param resultSet
+		 * @throws SQLException
+		 */
+		public void add(ResultSet resultSet) throws SQLException {
+			grow();
+			for (int column = 0; column < COLUMNS.length; column++) {
+				columns[column][size] = share(resultSet.getString(COLUMNS[column]));
+			}
+			Timestamp createDate = resultSet.getTimestamp("CREATE_DATE");
+			createDates[size++] = createDate != null ? createDate.getTime() : NO_DATE;
+		}
+
+		/**
+		 * Adds every row of a segment
+		 *
+		 * @param segment
+		 */
+		public void addAll(PenDemogIndexSegment segment) {
+			for (int row = 0; row < segment.size; row++) {
+				grow();
+				for (int column = 0; column < COLUMNS.length; column++) {
+					columns[column][size] = share(segment.columns[column][row]);
+				}
+				createDates[size++] = segment.createDates[row];
+			}
+		}
+
+		public PenDemogIndexSegment build() {
+			Integer[] order = new Integer[size];
+			for (int row = 0; row < size; row++) {
+				order[row] = row;
+			}
+			String[] surnames = columns[STUD_SURNAME];
+			Arrays.sort(order, Comparator.comparing(row -> surnames[row], Comparator.nullsLast(Comparator.naturalOrder())));
+
+			String[][] sortedColumns = new String[COLUMNS.length][size];
+			long[] sortedCreateDates = new long[size];
+			for (int row = 0; row < size; row++) {
+				for (int column = 0; column < COLUMNS.length; column++) {
+					sortedColumns[column][row] = columns[column][order[row]];
+				}
+				sortedCreateDates[row] = createDates[order[row]];
+			}
+			return new PenDemogIndexSegment(sortedColumns, sortedCreateDates, size);
+		}
+
+		private void grow() {
+			if (size == createDates.length) {
+				for (int column = 0; column < COLUMNS.length; column++) {
+					columns[column] = Arrays.copyOf(columns[column], size * 2);
+				}
+				createDates = Arrays.copyOf(createDates, size * 2);
+			}
+		}
+
+		/**
+		 * Names, birth dates, codes and mincodes repeat a lot across students, so
+		 * each distinct value is kept once
+		 */
+		private String share(String value) {
+			if (value == null) {
+				return null;
+			}
+			String shared = values.putIfAbsent(value, value);
+			return shared != null ? shared : value;
+		}
+	}
+
+	/**
+	 * @return the segments merged into one
+	 */
+	public static PenDemogIndexSegment merge(List<PenDemogIndexSegment> segments) {
+		Builder builder = new Builder();
+		segments.forEach(builder::addAll);
+		return builder.build();
+	}
+
+}
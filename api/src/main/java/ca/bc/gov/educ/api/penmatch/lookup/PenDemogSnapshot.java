@@ -0,0 +1,558 @@
+package ca.bc.gov.educ.api.penmatch.lookup;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.function.IntPredicate;
+import java.util.stream.IntStream;
+
+import ca.bc.gov.educ.api.penmatch.exception.InvalidValueException;
+import ca.bc.gov.educ.api.penmatch.exception.PENMatchRuntimeException;
+import ca.bc.gov.educ.api.penmatch.model.PenDemographicsEntity;
+
+/**
+ * PEN Demog written to a binary columnar file and read back through a memory
+ * mapping, so that candidate lookups run off-heap against the page cache. The
+ * file is laid out as:
+ *
+ * <pre>
+ * header       magic, version, row count, dictionary size, index sizes, epoch,
+ *              section offsets
+ * dictionary   offsets then UTF-8 bytes of every distinct string value, sorted
+ * studNos      10 bytes per row, padded with zero bytes
+ * columns      one int per row for each dictionary encoded column, -1 for null
+ * dobs         one int per row, yyyymmdd packed as a number when it reads back the
+ *              same, otherwise -(dictionary id + 2), -1 for null
+ * createDates  one long per row, Long.MIN_VALUE for null
+ * dobIndex     rows sorted by birth date
+ * localIDIndex rows sorted by mincode then local ID
+ * </pre>
+ *
+ * Rows are sorted by surname and the dictionary is sorted, so the rows of a
+ * surname prefix are a contiguous range of rows whose surname id falls in the
+ * contiguous range of dictionary ids starting with the prefix. Every lookup is
+ * a binary search over the mapping, comparing the dictionary bytes in place.
+ */
+public class PenDemogSnapshot {
+
+	public static final int VERSION = 1;
+
+	private static final long MAGIC = 0x50454E44454D4F47L; // PENDEMOG
+
+	private static final int STUD_NO_WIDTH = 10;
+
+	private static final int HEADER_SIZE = 96;
+
+	private static final int[] DICTIONARY_COLUMNS = { PenDemogIndexSegment.STUD_SURNAME, PenDemogIndexSegment.STUD_GIVEN, PenDemogIndexSegment.STUD_MIDDLE, PenDemogIndexSegment.USUAL_SURNAME, PenDemogIndexSegment.USUAL_GIVEN,
+			PenDemogIndexSegment.USUAL_MIDDLE, PenDemogIndexSegment.STUD_SEX, PenDemogIndexSegment.STUD_STATUS, PenDemogIndexSegment.PEN_LOCAL_ID, PenDemogIndexSegment.POSTAL, PenDemogIndexSegment.STUD_GRADE,
+			PenDemogIndexSegment.STUD_GRADE_YEAR, PenDemogIndexSegment.STUD_DEMOG_CODE, PenDemogIndexSegment.PEN_MINCODE, PenDemogIndexSegment.STUD_TRUE_NO, PenDemogIndexSegment.CREATE_USER_NAME };
+
+	private static final int SURNAME = 0;
+	private static final int GIVEN = 1;
+	private static final int LOCAL_ID = 8;
+	private static final int MINCODE = 13;
+
+	private static final int NULL_ID = -1;
+
+	private final MappedByteBuffer buffer;
+
+	private final int rows;
+
+	private final int dictionarySize;
+
+	private final int dobIndexSize;
+
+	private final int localIDIndexSize;
+
+	private final int epoch;
+
+	private final int dictionaryOffsets;
+
+	private final int dictionaryData;
+
+	private final int studNos;
+
+	private final int columns;
+
+	private final int dobs;
+
+	private final int createDates;
+
+	private final int dobIndex;
+
+	private final int localIDIndex;
+
+	private PenDemogSnapshot(MappedByteBuffer buffer) {
+		this.buffer = buffer;
+		if (buffer.limit() < HEADER_SIZE || buffer.getLong(0) != MAGIC) {
+			throw new PENMatchRuntimeException("Not a PEN Demog snapshot file");
+		}
+		if (buffer.getInt(8) != VERSION) {
+			throw new PENMatchRuntimeException("Unsupported PEN Demog snapshot version " + buffer.getInt(8));
+		}
+		this.rows = buffer.getInt(12);
+		this.dictionarySize = buffer.getInt(16);
+		this.dobIndexSize = buffer.getInt(20);
+		this.localIDIndexSize = buffer.getInt(24);
+		this.epoch = buffer.getInt(28);
+		this.dictionaryOffsets = (int) buffer.getLong(32);
+		this.dictionaryData = (int) buffer.getLong(40);
+		this.studNos = (int) buffer.getLong(48);
+		this.columns = (int) buffer.getLong(56);
+		this.dobs = (int) buffer.getLong(64);
+		this.createDates = (int) buffer.getLong(72);
+		this.dobIndex = (int) buffer.getLong(80);
+		this.localIDIndex = (int) buffer.getLong(88);
+	}
+
+	/**
+	 * Maps a snapshot file
+	 *
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	public static PenDemogSnapshot open(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			if (channel.size() > Integer.MAX_VALUE) {
+				throw new InvalidValueException("snapshotSize", String.valueOf(channel.size()));
+			}
+			return new PenDemogSnapshot(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		}
+	}
+
+	public int size() {
+		return rows;
+	}
+
+	/**
+	 * @return the epoch of the reference data export the snapshot belongs to, 0
+	 *         when written on its own
+	 */
+	public int getEpoch() {
+		return epoch;
+	}
+
+	/**
+	 * Same lookup as {@link CandidateSource#lookup}
+	 */
+	public void lookup(String dob, String surnamePrefix, String givenNamePrefix, String mincode, String localID, List<PenDemographicsEntity> candidates) {
+		int[] matches = new int[16];
+		int count = 0;
+
+		if (dob != null) {
+			int dobKey = dobKey(dob);
+			if (dobKey != NULL_ID) {
+				int from = lowerBound(dobIndex, dobIndexSize, row -> compare(dobAt(row), dobKey));
+				for (int i = from; i < dobIndexSize && dobAt(indexRow(dobIndex, i)) == dobKey; i++) {
+					matches = ensureCapacity(matches, count + 1);
+					matches[count++] = indexRow(dobIndex, i);
+				}
+			}
+		}
+
+		int surnameFrom = prefixStart(surnamePrefix);
+		int surnameTo = prefixEnd(surnameFrom, surnamePrefix);
+		int givenFrom = givenNamePrefix != null ? prefixStart(givenNamePrefix) : 0;
+		int givenTo = givenNamePrefix != null ? prefixEnd(givenFrom, givenNamePrefix) : 0;
+		for (int row = lowerBoundRow(surnameFrom); row < rows && idAt(SURNAME, row) != NULL_ID && idAt(SURNAME, row) < surnameTo; row++) {
+			int givenId = idAt(GIVEN, row);
+			if (givenNamePrefix == null || (givenId != NULL_ID && givenId >= givenFrom && givenId < givenTo)) {
+				matches = ensureCapacity(matches, count + 1);
+				matches[count++] = row;
+			}
+		}
+
+		int mincodeId = mincode != null ? find(mincode) : NULL_ID;
+		int localIDId = localID != null ? find(localID) : NULL_ID;
+		if (mincodeId != NULL_ID && localIDId != NULL_ID) {
+			int from = lowerBound(localIDIndex, localIDIndexSize, row -> compareLocalID(row, mincodeId, localIDId));
+			for (int i = from; i < localIDIndexSize && compareLocalID(indexRow(localIDIndex, i), mincodeId, localIDId) == 0; i++) {
+				matches = ensureCapacity(matches, count + 1);
+				matches[count++] = indexRow(localIDIndex, i);
+			}
+		}
+
+		Arrays.sort(matches, 0, count);
+		for (int i = 0; i < count; i++) {
+			if (i == 0 || matches[i] != matches[i - 1]) {
+				candidates.add(toEntity(matches[i]));
+			}
+		}
+	}
+
+	/**
+	 * @param row
+	 * @return a new entity holding the values of a row
+	 */
+	public PenDemographicsEntity toEntity(int row) {
+		long createDate = buffer.getLong(createDates + row * 8);
+		return PenDemographicsEntity.builder().studNo(studNoAt(row)).studSurname(valueAt(0, row)).studGiven(valueAt(1, row)).studMiddle(valueAt(2, row)).usualSurname(valueAt(3, row)).usualGiven(valueAt(4, row))
+				.usualMiddle(valueAt(5, row)).studBirth(dobValue(dobAt(row))).studSex(valueAt(6, row)).studStatus(valueAt(7, row)).localID(valueAt(LOCAL_ID, row)).postalCode(valueAt(9, row)).grade(valueAt(10, row))
+				.gradeYear(valueAt(11, row)).demogCode(valueAt(12, row)).mincode(valueAt(MINCODE, row)).trueNumber(valueAt(14, row)).createUserName(valueAt(15, row))
+				.createDate(createDate != Long.MIN_VALUE ? new Timestamp(createDate) : null).build();
+	}
+
+	private String studNoAt(int row) {
+		int offset = studNos + row * STUD_NO_WIDTH;
+		int length = 0;
+		while (length < STUD_NO_WIDTH && buffer.get(offset + length) != 0) {
+			length++;
+		}
+		byte[] bytes = new byte[length];
+		for (int i = 0; i < length; i++) {
+			bytes[i] = buffer.get(offset + i);
+		}
+		return new String(bytes, StandardCharsets.US_ASCII);
+	}
+
+	private int idAt(int column, int row) {
+		return buffer.getInt(columns + (column * rows + row) * 4);
+	}
+
+	private String valueAt(int column, int row) {
+		int id = idAt(column, row);
+		return id != NULL_ID ? dictionaryValue(id) : null;
+	}
+
+	private int dobAt(int row) {
+		return buffer.getInt(dobs + row * 4);
+	}
+
+	private int indexRow(int index, int i) {
+		return buffer.getInt(index + i * 4);
+	}
+
+	private String dictionaryValue(int id) {
+		int start = buffer.getInt(dictionaryOffsets + id * 4);
+		int end = buffer.getInt(dictionaryOffsets + (id + 1) * 4);
+		byte[] bytes = new byte[end - start];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = buffer.get(dictionaryData + start + i);
+		}
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @param value
+	 * @return the dictionary id of a value, or -1 when it is not in the dictionary
+	 */
+	private int find(String value) {
+		int id = prefixStart(value);
+		return id < dictionarySize && compareValue(id, value, false) == 0 ? id : NULL_ID;
+	}
+
+	/**
+	 * @param prefix
+	 * @return the first dictionary id not less than the prefix
+	 */
+	private int prefixStart(String prefix) {
+		int low = 0;
+		int high = dictionarySize;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (compareValue(middle, prefix, false) < 0) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * @param from   the first dictionary id not less than the prefix
+	 * @param prefix
+	 * @return the first dictionary id after from not starting with the prefix
+	 */
+	private int prefixEnd(int from, String prefix) {
+		int low = from;
+		int high = dictionarySize;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (compareValue(middle, prefix, true) == 0) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Compares a dictionary value with a key in String order, decoding the UTF-8
+	 * bytes of the value as it goes
+	 *
+	 * @param id
+	 * @param key
+	 * @param prefix whether a value starting with the key compares equal to it
+	 * @return negative, zero or positive as the value sorts before, equal to or
+	 *         after the key
+	 */
+	private int compareValue(int id, String key, boolean prefix) {
+		int position = dictionaryData + buffer.getInt(dictionaryOffsets + id * 4);
+		int end = dictionaryData + buffer.getInt(dictionaryOffsets + (id + 1) * 4);
+		int lowSurrogate = -1;
+		for (int i = 0; i < key.length(); i++) {
+			char c;
+			if (lowSurrogate >= 0) {
+				c = (char) lowSurrogate;
+				lowSurrogate = -1;
+			} else if (position < end) {
+				int first = buffer.get(position) & 0xFF;
+				int length = first < 0x80 ? 1 : first < 0xE0 ? 2 : first < 0xF0 ? 3 : 4;
+				int codePoint = length == 1 ? first : first & (0x7F >> length);
+				for (int j = 1; j < length; j++) {
+					codePoint = (codePoint << 6) | (buffer.get(position + j) & 0x3F);
+				}
+				position += length;
+				if (Character.isBmpCodePoint(codePoint)) {
+					c = (char) codePoint;
+				} else {
+					c = Character.highSurrogate(codePoint);
+					lowSurrogate = Character.lowSurrogate(codePoint);
+				}
+			} else {
+				return -1;
+			}
+			if (c != key.charAt(i)) {
+				return c < key.charAt(i) ? -1 : 1;
+			}
+		}
+		return prefix || (lowSurrogate < 0 && position == end) ? 0 : 1;
+	}
+
+	/**
+	 * @param surnameId
+	 * @return the first row whose surname id is not less than surnameId, rows
+	 *         without surname sorting last
+	 */
+	private int lowerBoundRow(int surnameId) {
+		int low = 0;
+		int high = rows;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			int id = idAt(SURNAME, middle);
+			if (id != NULL_ID && id < surnameId) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	private int lowerBound(int index, int size, RowComparison comparison) {
+		int low = 0;
+		int high = size;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (comparison.compare(indexRow(index, middle)) < 0) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	private int compareLocalID(int row, int mincodeId, int localIDId) {
+		int compare = compare(idAt(MINCODE, row), mincodeId);
+		return compare != 0 ? compare : compare(idAt(LOCAL_ID, row), localIDId);
+	}
+
+	private int dobKey(String dob) {
+		Integer packed = packDob(dob);
+		if (packed != null) {
+			return packed;
+		}
+		int id = find(dob);
+		return id != NULL_ID ? -(id + 2) : NULL_ID;
+	}
+
+	private String dobValue(int dobKey) {
+		if (dobKey == NULL_ID) {
+			return null;
+		}
+		return dobKey >= 0 ? String.format("%08d", dobKey) : dictionaryValue(-dobKey - 2);
+	}
+
+	private static int compare(int a, int b) {
+		return Integer.compare(a, b);
+	}
+
+	/**
+	 * @param dob
+	 * @return the birth date as a number when it reads back the same, null
+	 *         otherwise
+	 */
+	private static Integer packDob(String dob) {
+		if (dob.length() != 8) {
+			return null;
+		}
+		for (int i = 0; i < 8; i++) {
+			if (dob.charAt(i) < '0' || dob.charAt(i) > '9') {
+				return null;
+			}
+		}
+		return Integer.valueOf(dob);
+	}
+
+	private static int[] ensureCapacity(int[] array, int capacity) {
+		return capacity <= array.length ? array : Arrays.copyOf(array, Math.max(capacity, array.length * 2));
+	}
+
+	@FunctionalInterface
+	private interface RowComparison {
+		int compare(int row);
+	}
+
+	/**
+	 * Writes a segment to a snapshot file. The file is written next to the
+	 * target and moved over it once complete, so a reader never maps a partial
+	 * file.
+	 *
+	 * @param segment
+	 * @param file
+	 * @throws IOException
+	 */
+	public static void write(PenDemogIndexSegment segment, Path file) throws IOException {
+		write(segment, file, 0);
+	}
+
+	/**
+	 * Writes a segment to a snapshot file tagged with the epoch of a reference
+	 * data export
+	 *
+	 * @param segment
+	 * @param file
+	 * @param epoch
+	 * @throws IOException
+	 */
+	public static void write(PenDemogIndexSegment segment, Path file, int epoch) throws IOException {
+		int rows = segment.size();
+
+		TreeSet<String> values = new TreeSet<>();
+		for (int row = 0; row < rows; row++) {
+			for (int column : DICTIONARY_COLUMNS) {
+				addValue(values, segment.getValue(column, row));
+			}
+			String dob = segment.getValue(PenDemogIndexSegment.STUD_BIRTH, row);
+			if (dob != null && packDob(dob) == null) {
+				values.add(dob);
+			}
+		}
+		String[] dictionary = values.toArray(new String[0]);
+		Map<String, Integer> ids = new HashMap<>(dictionary.length * 4 / 3 + 1);
+		int[] offsets = new int[dictionary.length + 1];
+		byte[][] encoded = new byte[dictionary.length][];
+		for (int id = 0; id < dictionary.length; id++) {
+			ids.put(dictionary[id], id);
+			encoded[id] = dictionary[id].getBytes(StandardCharsets.UTF_8);
+			offsets[id + 1] = offsets[id] + encoded[id].length;
+		}
+
+		int[][] columnIds = new int[DICTIONARY_COLUMNS.length][rows];
+		int[] dobKeys = new int[rows];
+		for (int row = 0; row < rows; row++) {
+			for (int column = 0; column < DICTIONARY_COLUMNS.length; column++) {
+				String value = segment.getValue(DICTIONARY_COLUMNS[column], row);
+				columnIds[column][row] = value != null ? ids.get(value) : NULL_ID;
+			}
+			String dob = segment.getValue(PenDemogIndexSegment.STUD_BIRTH, row);
+			Integer packed = dob != null ? packDob(dob) : null;
+			dobKeys[row] = dob == null ? NULL_ID : packed != null ? packed : -(ids.get(dob) + 2);
+		}
+
+		Integer[] dobRows = Arrays.stream(rowsWhere(rows, row -> dobKeys[row] != NULL_ID)).boxed().sorted(Comparator.comparingInt((Integer row) -> dobKeys[row]).thenComparingInt(row -> row)).toArray(Integer[]::new);
+		Integer[] localIDRows = Arrays.stream(rowsWhere(rows, row -> columnIds[MINCODE][row] != NULL_ID && columnIds[LOCAL_ID][row] != NULL_ID)).boxed()
+				.sorted(Comparator.comparingInt((Integer row) -> columnIds[MINCODE][row]).thenComparingInt(row -> columnIds[LOCAL_ID][row]).thenComparingInt(row -> row)).toArray(Integer[]::new);
+
+		long dictionaryOffsets = HEADER_SIZE;
+		long dictionaryData = dictionaryOffsets + 4L * offsets.length;
+		long studNos = dictionaryData + offsets[dictionary.length];
+		long columns = studNos + (long) STUD_NO_WIDTH * rows;
+		long dobs = columns + 4L * DICTIONARY_COLUMNS.length * rows;
+		long createDates = dobs + 4L * rows;
+		long dobIndex = createDates + 8L * rows;
+		long localIDIndex = dobIndex + 4L * dobRows.length;
+		if (localIDIndex + 4L * localIDRows.length > Integer.MAX_VALUE) {
+			throw new InvalidValueException("snapshotSize", String.valueOf(localIDIndex + 4L * localIDRows.length));
+		}
+
+		Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+		try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile), 1 << 16))) {
+			output.writeLong(MAGIC);
+			output.writeInt(VERSION);
+			output.writeInt(rows);
+			output.writeInt(dictionary.length);
+			output.writeInt(dobRows.length);
+			output.writeInt(localIDRows.length);
+			output.writeInt(epoch);
+			for (long offset : new long[] { dictionaryOffsets, dictionaryData, studNos, columns, dobs, createDates, dobIndex, localIDIndex }) {
+				output.writeLong(offset);
+			}
+
+			for (int offset : offsets) {
+				output.writeInt(offset);
+			}
+			for (byte[] value : encoded) {
+				output.write(value);
+			}
+			for (int row = 0; row < rows; row++) {
+				output.write(studNoBytes(segment.getStudNo(row)));
+			}
+			for (int[] column : columnIds) {
+				for (int id : column) {
+					output.writeInt(id);
+				}
+			}
+			for (int dobKey : dobKeys) {
+				output.writeInt(dobKey);
+			}
+			for (int row = 0; row < rows; row++) {
+				output.writeLong(segment.getCreateDate(row));
+			}
+			for (int row : dobRows) {
+				output.writeInt(row);
+			}
+			for (int row : localIDRows) {
+				output.writeInt(row);
+			}
+		}
+		Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private static void addValue(TreeSet<String> values, String value) {
+		if (value != null) {
+			values.add(value);
+		}
+	}
+
+	private static byte[] studNoBytes(String studNo) {
+		byte[] bytes = studNo.getBytes(StandardCharsets.US_ASCII);
+		if (bytes.length > STUD_NO_WIDTH || !studNo.equals(new String(bytes, StandardCharsets.US_ASCII)) || studNo.indexOf('\u0000') >= 0) {
+			throw new InvalidValueException("studNo", studNo);
+		}
+		return Arrays.copyOf(bytes, STUD_NO_WIDTH);
+	}
+
+	private static int[] rowsWhere(int rows, IntPredicate predicate) {
+		return IntStream.range(0, rows).filter(predicate).toArray();
+	}
+
+}
@@ -0,0 +1,108 @@
+package ca.bc.gov.educ.api.penmatch.lookup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Component;
+
+import ca.bc.gov.educ.api.penmatch.model.PenDemographicsEntity;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Serves candidate lookups from a {@link PenDemogSnapshot} file, enabled by
+ * setting penmatch.snapshot.file. The file is mapped on start and mapped again
+ * whenever a newer export replaces it, readers switching to the new mapping
+ * without waiting.
+ */
+@Component
+@ConditionalOnProperty(name = "penmatch.snapshot.file")
+@Slf4j
+public class PenDemogSnapshotSource implements CandidateSource, SmartLifecycle {
+
+	private final Path file;
+
+	private final long checkInterval;
+
+	private volatile PenDemogSnapshot snapshot;
+
+	private long lastModified;
+
+	private ScheduledExecutorService checkExecutor;
+
+	private volatile boolean running;
+
+	@Autowired
+	public PenDemogSnapshotSource(final MeterRegistry meterRegistry, @Value("${penmatch.snapshot.file}") final String file, @Value("${penmatch.snapshot.check-interval:60000}") final long checkInterval) {
+		this.file = Paths.get(file);
+		this.checkInterval = checkInterval;
+		Gauge.builder("penmatch.snapshot.rows", this, source -> source.snapshot != null ? source.snapshot.size() : 0).description("PEN Demog rows held by the mapped snapshot file").register(meterRegistry);
+	}
+
+	@Override
+	public void start() {
+		running = true;
+		checkForUpdate();
+		checkExecutor = Executors.newSingleThreadScheduledExecutor(new BasicThreadFactory.Builder().namingPattern("pen-demog-snapshot-%d").daemon(true).build());
+		checkExecutor.scheduleWithFixedDelay(this::checkForUpdate, checkInterval, checkInterval, TimeUnit.MILLISECONDS);
+	}
+
+	@Override
+	public void stop() {
+		running = false;
+		checkExecutor.shutdownNow();
+	}
+
+	@Override
+	public boolean isRunning() {
+		return running;
+	}
+
+	@Override
+	public boolean isLoaded() {
+		return snapshot != null;
+	}
+
+	@Override
+	public void lookup(String dob, String surnamePrefix, String givenNamePrefix, String mincode, String localID, List<PenDemographicsEntity> candidates) {
+		PenDemogSnapshot current = snapshot;
+		if (current != null) {
+			current.lookup(dob, surnamePrefix, givenNamePrefix, mincode, localID, candidates);
+		}
+	}
+
+	/**
+	 * Maps the snapshot file if it was replaced since it was last mapped
+	 */
+	public synchronized void checkForUpdate() {
+		try {
+			if (!Files.exists(file)) {
+				if (snapshot == null) {
+					log.warn("PEN Demog snapshot {} does not exist yet, candidates are looked up in the database", file);
+				}
+				return;
+			}
+			long modified = Files.getLastModifiedTime(file).toMillis();
+			if (snapshot == null || modified != lastModified) {
+				snapshot = PenDemogSnapshot.open(file);
+				lastModified = modified;
+				log.info("Mapped PEN Demog snapshot {} with {} rows", file, snapshot.size());
+			}
+		} catch (IOException | RuntimeException e) {
+			log.error("Unable to map PEN Demog snapshot {}", file, e);
+		}
+	}
+
+}
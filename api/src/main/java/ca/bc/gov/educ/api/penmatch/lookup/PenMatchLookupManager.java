@@ -1,27 +1,46 @@
 package ca.bc.gov.educ.api.penmatch.lookup;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
 import javax.persistence.EntityManager;
 import javax.persistence.Query;
 
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.stereotype.Service;
 
+import ca.bc.gov.educ.api.penmatch.config.ReplicaRoutingDataSource;
+import ca.bc.gov.educ.api.penmatch.enumeration.CandidateQueryType;
 import ca.bc.gov.educ.api.penmatch.model.NicknamesEntity;
 import ca.bc.gov.educ.api.penmatch.model.PenDemographicsEntity;
 import ca.bc.gov.educ.api.penmatch.model.SurnameFrequencyEntity;
 import ca.bc.gov.educ.api.penmatch.repository.NicknamesRepository;
 import ca.bc.gov.educ.api.penmatch.repository.PenDemographicsRepository;
 import ca.bc.gov.educ.api.penmatch.repository.SurnameFrequencyRepository;
+import ca.bc.gov.educ.api.penmatch.struct.CandidateQuery;
 import ca.bc.gov.educ.api.penmatch.struct.PenMasterRecord;
 import ca.bc.gov.educ.api.penmatch.struct.PenMatchNames;
 import ca.bc.gov.educ.api.penmatch.util.PenMatchUtils;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import lombok.AccessLevel;
+import lombok.Builder;
 import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
 
-@Service
+/**
+ * Looks up the reference data and PEN Demog candidates of a match, created by
+ * {@link ca.bc.gov.educ.api.penmatch.config.PenMatchLookupConfig}
+ */
+@Slf4j
 @SuppressWarnings("unchecked")
 public class PenMatchLookupManager {
 
@@ -31,6 +50,19 @@ public class PenMatchLookupManager {
 	public static final Integer NOT_VERY_FREQUENT = 50;
 	public static final Integer VERY_RARE = 5;
 
+	private static final String BATCH_CANDIDATES_KEY_ROW = "SELECT CAST(? AS INTEGER) AS QUERY_IDX, CAST(? AS INTEGER) AS USE_DOB, CAST(? AS VARCHAR(255)) AS DOB, CAST(? AS VARCHAR(255)) AS SURNAME, CAST(? AS INTEGER) AS USE_GIVEN, CAST(? AS VARCHAR(255)) AS GIVEN, CAST(? AS INTEGER) AS USE_LOCAL_ID, CAST(? AS VARCHAR(255)) AS MINCODE, CAST(? AS VARCHAR(255)) AS LOCAL_ID, CAST(? AS VARCHAR(255)) AS FULL_SURNAME, CAST(? AS VARCHAR(255)) AS SEX FROM DUAL";
+	// One branch per candidate condition so that each joins on its own PEN Demog index,
+	// later branches skip the rows of earlier ones so no candidate is returned twice
+	private static final String NOT_BATCH_BIRTH = "(K.USE_DOB = 0 OR D.STUD_BIRTH IS NULL OR D.STUD_BIRTH <> K.DOB)";
+	private static final String NOT_BATCH_SURNAME = "(D.STUD_SURNAME IS NULL OR D.STUD_SURNAME NOT LIKE K.SURNAME OR (K.USE_GIVEN = 1 AND (D.STUD_GIVEN IS NULL OR D.STUD_GIVEN NOT LIKE K.GIVEN)))";
+	private static final String[] BATCH_CANDIDATES_BRANCHES = {
+			") K JOIN PEN_DEMOG D ON D.STUD_BIRTH = K.DOB WHERE K.USE_DOB = 1",
+			") K JOIN PEN_DEMOG D ON D.STUD_SURNAME LIKE K.SURNAME WHERE (K.USE_GIVEN = 0 OR D.STUD_GIVEN LIKE K.GIVEN) AND " + NOT_BATCH_BIRTH,
+			") K JOIN PEN_DEMOG D ON D.PEN_MINCODE = K.MINCODE AND D.PEN_LOCAL_ID = K.LOCAL_ID WHERE K.USE_LOCAL_ID = 1 AND " + NOT_BATCH_BIRTH + " AND " + NOT_BATCH_SURNAME };
+	// Same weights as the surname, birthday, sex and local ID points of the scoring,
+	// PEN Master surnames are blank padded
+	private static final String CANDIDATE_RELEVANCE = "CASE WHEN TRIM(D.STUD_SURNAME) = K.FULL_SURNAME THEN 20 ELSE 0 END + CASE WHEN K.USE_DOB = 1 AND D.STUD_BIRTH = K.DOB THEN 20 ELSE 0 END + CASE WHEN D.STUD_SEX = K.SEX THEN 5 ELSE 0 END + CASE WHEN K.USE_LOCAL_ID = 1 AND D.PEN_MINCODE = K.MINCODE AND D.PEN_LOCAL_ID = K.LOCAL_ID THEN 20 ELSE 0 END";
+
 	@Getter(AccessLevel.PRIVATE)
 	private final SurnameFrequencyRepository surnameFrequencyRepository;
 
@@ -43,12 +75,362 @@ public class PenMatchLookupManager {
 	@Autowired
 	private final EntityManager entityManager;
 
-	@Autowired
+	private final List<CandidateSource> candidateSources;
+
+	private final List<ReferenceDataSource> referenceDataSources;
+
+	// Runs candidate queries branch by branch when enabled, may be null
+	private final CandidateBranchLookup branchLookup;
+
+	// Reads candidates as PEN Master records when enabled, may be null
+	private final PenDemogCandidateReader candidateReader;
+
+	// Splits the connections between confirmation lookups and candidate searches, may be null
+	private final LookupBulkheads bulkheads;
+
+	private final MeterRegistry meterRegistry;
+
+	/**
+	 * Number of candidates kept by a capped candidate lookup, 0 when lookups are
+	 * not capped
+	 */
+	@Getter
+	private final int candidateCap;
+
+	private final int candidateCapMargin;
+
+	private final boolean verifyCandidateCap;
+
+	private final Counter capHitCounter;
+
+	private final Counter capNotHitCounter;
+
+	private final Counter capVerifiedCounter;
+
+	private final Counter capMissedCounter;
+
 	public PenMatchLookupManager(final EntityManager entityManager, final PenDemographicsRepository penDemographicsRepository, final NicknamesRepository nicknamesRepository, final SurnameFrequencyRepository surnameFrequencyRepository) {
+		this(entityManager, penDemographicsRepository, nicknamesRepository, surnameFrequencyRepository, null, null, null, null, null, null, 0, 0, false);
+	}
+
+	/**
+	 * Use {@link #builder()}, the lookup sources and candidate readers being
+	 * optional. Without candidate or reference data sources every lookup runs
+	 * against the database, and without a meter registry the metrics are kept in
+	 * a registry of their own.
+	 */
+	@Builder
+	private PenMatchLookupManager(final EntityManager entityManager, final PenDemographicsRepository penDemographicsRepository, final NicknamesRepository nicknamesRepository, final SurnameFrequencyRepository surnameFrequencyRepository,
+			final List<CandidateSource> candidateSources, final List<ReferenceDataSource> referenceDataSources, final CandidateBranchLookup branchLookup, final PenDemogCandidateReader candidateReader, final LookupBulkheads bulkheads, final MeterRegistry meterRegistry,
+			final int candidateCap, final int candidateCapMargin, final boolean verifyCandidateCap) {
 		this.penDemographicsRepository = penDemographicsRepository;
 		this.nicknamesRepository = nicknamesRepository;
 		this.surnameFrequencyRepository = surnameFrequencyRepository;
 		this.entityManager = entityManager;
+		this.candidateSources = candidateSources != null ? candidateSources : Collections.emptyList();
+		this.referenceDataSources = referenceDataSources != null ? referenceDataSources : Collections.emptyList();
+		this.branchLookup = branchLookup;
+		this.candidateReader = candidateReader;
+		this.bulkheads = bulkheads;
+		this.meterRegistry = meterRegistry != null ? meterRegistry : new SimpleMeterRegistry();
+		this.candidateCap = candidateCap;
+		this.candidateCapMargin = candidateCapMargin;
+		this.verifyCandidateCap = verifyCandidateCap;
+		this.capHitCounter = Counter.builder("penmatch.candidates.cap").description("Capped candidate lookups, by whether the cap was hit").tag("hit", "true").register(this.meterRegistry);
+		this.capNotHitCounter = Counter.builder("penmatch.candidates.cap").description("Capped candidate lookups, by whether the cap was hit").tag("hit", "false").register(this.meterRegistry);
+		this.capVerifiedCounter = Counter.builder("penmatch.candidates.cap.verified").description("Capped candidate lookups compared with the uncapped lookup, by result").tag("result", "same").register(this.meterRegistry);
+		this.capMissedCounter = Counter.builder("penmatch.candidates.cap.verified").description("Capped candidate lookups compared with the uncapped lookup, by result").tag("result", "missed").register(this.meterRegistry);
+	}
+
+	/**
+	 * Creates a lookup manager sharing the repositories of another one, used by
+	 * subclasses which decorate the lookups
+	 * 
+	 * @param lookupManager
+	 */
+	protected PenMatchLookupManager(final PenMatchLookupManager lookupManager) {
+		this(lookupManager.entityManager, lookupManager.penDemographicsRepository, lookupManager.nicknamesRepository, lookupManager.surnameFrequencyRepository, lookupManager.candidateSources, lookupManager.referenceDataSources, lookupManager.branchLookup, lookupManager.candidateReader, lookupManager.bulkheads,
+				lookupManager.meterRegistry, lookupManager.candidateCap, lookupManager.candidateCapMargin, lookupManager.verifyCandidateCap);
+	}
+
+	/**
+	 * Fetches the PEN Demog candidates for a candidate query. When candidate
+	 * lookups are capped and no candidate source is loaded, only the most
+	 * relevant candidates are fetched, see {@link #lookupCappedCandidates}.
+	 * Otherwise the candidate query is run as one OR statement, or branch by
+	 * branch when the {@link CandidateBranchLookup} is enabled.
+	 * 
+	 * @param query
+	 * @return
+	 */
+	public List<PenDemographicsEntity> lookupCandidates(CandidateQuery query) {
+		if (candidateCap > 0 && !isCandidateSourceLoaded()) {
+			return lookupCappedCandidates(query);
+		}
+		return lookupUncappedCandidates(query);
+	}
+
+	/**
+	 * Fetches the candidateCap + candidateCapMargin most relevant candidates of a
+	 * candidate query with the ranked version of its named query, which has the
+	 * same conditions as the plain one so that each branch can still use its
+	 * index. Candidates are ranked as by {@link #lookupCandidatesBatch(List)},
+	 * and the cap is counted and verified the same way.
+	 * 
+	 * @param query
+	 * @return
+	 */
+	private List<PenDemographicsEntity> lookupCappedCandidates(CandidateQuery query) {
+		boolean useGiven = query.getType() == CandidateQueryType.WITH_ALL_PARTS || query.getType() == CandidateQueryType.NO_LOCAL_ID;
+		boolean useLocalID = query.getType() == CandidateQueryType.WITH_ALL_PARTS || query.getType() == CandidateQueryType.NO_INIT;
+		Query rankedQuery = entityManager.createNamedQuery(rankedQueryName(query.getType()));
+		int position = 1;
+		rankedQuery.setParameter(position++, query.getDob());
+		rankedQuery.setParameter(position++, query.getSurname() + "%");
+		if (useGiven) {
+			rankedQuery.setParameter(position++, query.getGivenName() + "%");
+		}
+		if (useLocalID) {
+			rankedQuery.setParameter(position++, query.getMincode());
+			rankedQuery.setParameter(position++, query.getLocalID());
+		}
+		// Ranking values are bound as strings so that no null needs to be typed
+		rankedQuery.setParameter(position++, query.getFullSurname() != null ? query.getFullSurname() : "");
+		rankedQuery.setParameter(position++, query.getDob() != null ? query.getDob() : "");
+		rankedQuery.setParameter(position++, query.getSex() != null ? query.getSex() : "");
+		if (useLocalID) {
+			rankedQuery.setParameter(position++, query.getMincode() != null ? query.getMincode() : "");
+			rankedQuery.setParameter(position++, query.getLocalID() != null ? query.getLocalID() : "");
+		}
+		int limit = candidateCap + candidateCapMargin;
+		rankedQuery.setMaxResults(limit + 1);
+
+		List<PenDemographicsEntity> candidates = new ArrayList<>(callCandidates(() -> (List<PenDemographicsEntity>) rankedQuery.getResultList()));
+		if (candidates.size() > limit) {
+			capHitCounter.increment();
+			candidates.subList(limit, candidates.size()).clear();
+		} else {
+			capNotHitCounter.increment();
+		}
+		if (verifyCandidateCap) {
+			verifyCandidateCap(Collections.singletonList(query), Collections.singletonMap(0, candidates), Collections.singletonMap(0, lookupUncappedCandidates(query)));
+		}
+		return candidates;
+	}
+
+	/**
+	 * Fetches the PEN Demog candidates of a candidate query as the PEN Master
+	 * records scored by the match, read by the {@link PenDemogCandidateReader}
+	 * without building entities. Only used in place of the plain OR statement, so
+	 * not when candidate lookups are capped or split into branches, or when a
+	 * candidate source is loaded.
+	 * 
+	 * @param query
+	 * @return the candidates with a status other than merged or deceased, or empty
+	 *         when the candidates are fetched as entities
+	 */
+	public Optional<List<PenMasterRecord>> lookupCandidateRecords(CandidateQuery query) {
+		if (!isCandidateReaderUsed() || !candidateReader.isEnabled()) {
+			return Optional.empty();
+		}
+		return Optional.of(callCandidates(() -> candidateReader.lookup(query)));
+	}
+
+	/**
+	 * Streams the PEN Demog candidates of a candidate query to the consumer row by
+	 * row as PEN Master records, when streaming is enabled on the
+	 * {@link PenDemogCandidateReader}. Same conditions as
+	 * {@link #lookupCandidateRecords(CandidateQuery)}.
+	 * 
+	 * @param query
+	 * @param consumer
+	 * @return whether the candidates were streamed, the consumer not being called
+	 *         otherwise
+	 */
+	public boolean streamCandidateRecords(CandidateQuery query, Consumer<PenMasterRecord> consumer) {
+		if (!isCandidateReaderUsed() || !candidateReader.isStreaming()) {
+			return false;
+		}
+		callCandidates(() -> {
+			candidateReader.read(query, consumer);
+			return null;
+		});
+		return true;
+	}
+
+	private boolean isCandidateReaderUsed() {
+		return candidateReader != null && candidateCap <= 0 && (branchLookup == null || !branchLookup.isEnabled()) && !isCandidateSourceLoaded();
+	}
+
+	private static String rankedQueryName(CandidateQueryType type) {
+		switch (type) {
+		case WITH_ALL_PARTS:
+			return "PenDemographicsEntity.penDemogWithAllPartsRanked";
+		case NO_INIT:
+			return "PenDemographicsEntity.penDemogNoInitRanked";
+		case NO_LOCAL_ID:
+			return "PenDemographicsEntity.penDemogNoLocalIDRanked";
+		default:
+			return "PenDemographicsEntity.penDemogNoInitNoLocalIDRanked";
+		}
+	}
+
+	private List<PenDemographicsEntity> lookupUncappedCandidates(CandidateQuery query) {
+		switch (query.getType()) {
+		case WITH_ALL_PARTS:
+			return lookupWithAllParts(query.getDob(), query.getSurname(), query.getGivenName(), query.getMincode(), query.getLocalID());
+		case NO_INIT:
+			return lookupNoInit(query.getDob(), query.getSurname(), query.getMincode(), query.getLocalID());
+		case NO_LOCAL_ID:
+			return lookupNoLocalID(query.getDob(), query.getSurname(), query.getGivenName());
+		default:
+			return lookupNoInitNoLocalID(query.getDob(), query.getSurname());
+		}
+	}
+
+	/**
+	 * Fetches the PEN Demog candidates of several candidate queries in a single
+	 * statement, or from a candidate source when one is loaded. The keys of the
+	 * queries are bound as rows of an inline table which is joined against PEN
+	 * Demog using the same conditions as the single lookups, so each query gets
+	 * the same candidates it would get on its own. Each condition is its own UNION
+	 * ALL branch so that it is driven by its own PEN Demog index rather than an OR
+	 * join. Only flag and string values are bound so that no null needs to be
+	 * typed.
+	 * 
+	 * When candidate lookups are capped, the candidates of each query are ranked
+	 * in SQL on exact surname, exact birth date, sex and mincode + local ID, and
+	 * only the candidateCap + candidateCapMargin best are returned. Whether the
+	 * cap was hit is counted, and with verifyCandidateCap the uncapped lookup is
+	 * run as well to count the capped lookups which missed candidates.
+	 * 
+	 * @param queries
+	 * @return the candidates of each query, keyed by the index of the query in the
+	 *         list
+	 */
+	public Map<Integer, List<PenDemographicsEntity>> lookupCandidatesBatch(List<CandidateQuery> queries) {
+		Map<Integer, List<PenDemographicsEntity>> candidates = new HashMap<>();
+		if (queries.isEmpty()) {
+			return candidates;
+		}
+		if (isCandidateSourceLoaded()) {
+			for (int i = 0; i < queries.size(); i++) {
+				candidates.put(i, lookupUncappedCandidates(queries.get(i)));
+			}
+			return candidates;
+		}
+		if (candidateCap <= 0) {
+			return queryCandidatesBatch(queries, 0);
+		}
+
+		int limit = candidateCap + candidateCapMargin;
+		candidates = queryCandidatesBatch(queries, limit + 1);
+		for (List<PenDemographicsEntity> queryCandidates : candidates.values()) {
+			if (queryCandidates.size() > limit) {
+				capHitCounter.increment();
+				queryCandidates.subList(limit, queryCandidates.size()).clear();
+			} else {
+				capNotHitCounter.increment();
+			}
+		}
+		if (verifyCandidateCap) {
+			verifyCandidateCap(queries, candidates, queryCandidatesBatch(queries, 0));
+		}
+		return candidates;
+	}
+
+	/**
+	 * Runs the batch candidate statement
+	 * 
+	 * @param queries
+	 * @param limit   the number of candidates to keep per query, best ranked
+	 *                first, or 0 to keep all of them unranked
+	 * @return
+	 */
+	private Map<Integer, List<PenDemographicsEntity>> queryCandidatesBatch(List<CandidateQuery> queries, int limit) {
+		Map<Integer, List<PenDemographicsEntity>> candidates = new HashMap<>();
+		StringBuilder keys = new StringBuilder();
+		for (int i = 0; i < queries.size(); i++) {
+			if (i > 0) {
+				keys.append(" UNION ALL ");
+			}
+			keys.append(BATCH_CANDIDATES_KEY_ROW);
+		}
+		StringBuilder sql = new StringBuilder();
+		if (limit > 0) {
+			sql.append("SELECT * FROM (SELECT C.*, ROW_NUMBER() OVER (PARTITION BY C.QUERY_IDX ORDER BY C.RELEVANCE DESC, C.STUD_NO) AS RELEVANCE_RANK FROM (");
+		}
+		for (int i = 0; i < BATCH_CANDIDATES_BRANCHES.length; i++) {
+			if (i > 0) {
+				sql.append(" UNION ALL ");
+			}
+			sql.append(limit > 0 ? "SELECT K.QUERY_IDX, D.*, " + CANDIDATE_RELEVANCE + " AS RELEVANCE FROM (" : "SELECT K.QUERY_IDX, D.* FROM (").append(keys).append(BATCH_CANDIDATES_BRANCHES[i]);
+		}
+		if (limit > 0) {
+			sql.append(") C) R WHERE R.RELEVANCE_RANK <= ").append(limit).append(" ORDER BY R.QUERY_IDX, R.RELEVANCE_RANK");
+		}
+
+		Query batchQuery = entityManager.createNativeQuery(sql.toString(), "PenDemographicsEntity.batchCandidates");
+		int position = 1;
+		for (int branch = 0; branch < BATCH_CANDIDATES_BRANCHES.length; branch++) {
+			for (int i = 0; i < queries.size(); i++) {
+				position = bindBatchKeys(batchQuery, position, i, queries.get(i));
+			}
+		}
+		for (int i = 0; i < queries.size(); i++) {
+			candidates.put(i, new ArrayList<>());
+		}
+
+		for (Object[] row : callCandidates(() -> (List<Object[]>) batchQuery.getResultList())) {
+			candidates.get(((Number) row[1]).intValue()).add((PenDemographicsEntity) row[0]);
+		}
+		return candidates;
+	}
+
+	/**
+	 * Binds the key row of a query in the batch candidate statement
+	 * 
+	 * @param batchQuery
+	 * @param position   the position of the first parameter of the row
+	 * @param index      the index of the query in the batch
+	 * @param query
+	 * @return the position after the row
+	 */
+	private static int bindBatchKeys(Query batchQuery, int position, int index, CandidateQuery query) {
+		boolean useGiven = query.getType() == CandidateQueryType.WITH_ALL_PARTS || query.getType() == CandidateQueryType.NO_LOCAL_ID;
+		boolean useLocalID = (query.getType() == CandidateQueryType.WITH_ALL_PARTS || query.getType() == CandidateQueryType.NO_INIT) && query.getMincode() != null && query.getLocalID() != null;
+		batchQuery.setParameter(position++, index);
+		batchQuery.setParameter(position++, query.getDob() != null ? 1 : 0);
+		batchQuery.setParameter(position++, query.getDob() != null ? query.getDob() : "");
+		batchQuery.setParameter(position++, query.getSurname() + "%");
+		batchQuery.setParameter(position++, useGiven ? 1 : 0);
+		batchQuery.setParameter(position++, useGiven ? query.getGivenName() + "%" : "");
+		batchQuery.setParameter(position++, useLocalID ? 1 : 0);
+		batchQuery.setParameter(position++, useLocalID ? query.getMincode() : "");
+		batchQuery.setParameter(position++, useLocalID ? query.getLocalID() : "");
+		batchQuery.setParameter(position++, query.getFullSurname() != null ? query.getFullSurname() : "");
+		batchQuery.setParameter(position++, query.getSex() != null ? query.getSex() : "");
+		return position;
+	}
+
+	/**
+	 * Compares capped candidates with the uncapped lookup of the same queries
+	 * 
+	 * @param queries
+	 * @param candidates
+	 * @param uncapped
+	 */
+	private void verifyCandidateCap(List<CandidateQuery> queries, Map<Integer, List<PenDemographicsEntity>> candidates, Map<Integer, List<PenDemographicsEntity>> uncapped) {
+		for (int i = 0; i < queries.size(); i++) {
+			Set<String> capped = candidates.get(i).stream().map(PenDemographicsEntity::getStudNo).collect(Collectors.toSet());
+			List<String> missed = uncapped.get(i).stream().map(PenDemographicsEntity::getStudNo).filter(studNo -> !capped.contains(studNo)).collect(Collectors.toList());
+			if (missed.isEmpty()) {
+				capVerifiedCounter.increment();
+			} else {
+				capMissedCounter.increment();
+				log.debug("Capped candidate lookup {} missed {} of {} candidates", queries.get(i), missed.size(), uncapped.get(i).size());
+			}
+		}
 	}
 
 	/**
@@ -57,6 +439,15 @@ public class PenMatchLookupManager {
 	 * @return
 	 */
 	public List<PenDemographicsEntity> lookupWithAllParts(String dob, String surname, String givenName, String mincode, String localID) {
+		CandidateQuery query = new CandidateQuery(CandidateQueryType.WITH_ALL_PARTS, dob, surname, givenName, mincode, localID);
+		Optional<List<PenDemographicsEntity>> indexed = lookupCandidateSources(query);
+		if (indexed.isPresent()) {
+			return indexed.get();
+		}
+		if (branchLookup != null && branchLookup.isEnabled()) {
+			return callCandidates(() -> branchLookup.lookup(query));
+		}
+
 		Query lookupNoInitQuery = entityManager.createNamedQuery("PenDemographicsEntity.penDemogWithAllParts");
 		lookupNoInitQuery.setParameter(1, dob);
 		lookupNoInitQuery.setParameter(2, surname + "%");
@@ -64,7 +455,7 @@ public class PenMatchLookupManager {
 		lookupNoInitQuery.setParameter(4, mincode);
 		lookupNoInitQuery.setParameter(5, localID);
 
-		return lookupNoInitQuery.getResultList();
+		return callCandidates(() -> lookupNoInitQuery.getResultList());
 	}
 
 	/**
@@ -76,13 +467,22 @@ public class PenMatchLookupManager {
 	 * @return
 	 */
 	public List<PenDemographicsEntity> lookupNoInit(String dob, String surname, String mincode, String localID) {
+		CandidateQuery query = new CandidateQuery(CandidateQueryType.NO_INIT, dob, surname, null, mincode, localID);
+		Optional<List<PenDemographicsEntity>> indexed = lookupCandidateSources(query);
+		if (indexed.isPresent()) {
+			return indexed.get();
+		}
+		if (branchLookup != null && branchLookup.isEnabled()) {
+			return callCandidates(() -> branchLookup.lookup(query));
+		}
+
 		Query lookupNoInitQuery = entityManager.createNamedQuery("PenDemographicsEntity.penDemogNoInit");
 		lookupNoInitQuery.setParameter(1, dob);
 		lookupNoInitQuery.setParameter(2, surname + "%");
 		lookupNoInitQuery.setParameter(3, mincode);
 		lookupNoInitQuery.setParameter(4, localID);
 
-		return lookupNoInitQuery.getResultList();
+		return callCandidates(() -> lookupNoInitQuery.getResultList());
 
 	}
 
@@ -92,12 +492,21 @@ public class PenMatchLookupManager {
 	 * @return
 	 */
 	public List<PenDemographicsEntity> lookupNoLocalID(String dob, String surname, String givenName) {
+		CandidateQuery query = new CandidateQuery(CandidateQueryType.NO_LOCAL_ID, dob, surname, givenName, null, null);
+		Optional<List<PenDemographicsEntity>> indexed = lookupCandidateSources(query);
+		if (indexed.isPresent()) {
+			return indexed.get();
+		}
+		if (branchLookup != null && branchLookup.isEnabled()) {
+			return callCandidates(() -> branchLookup.lookup(query));
+		}
+
 		Query lookupNoInitQuery = entityManager.createNamedQuery("PenDemographicsEntity.penDemogNoLocalID");
 		lookupNoInitQuery.setParameter(1, dob);
 		lookupNoInitQuery.setParameter(2, surname + "%");
 		lookupNoInitQuery.setParameter(3, givenName + "%");
 
-		return lookupNoInitQuery.getResultList();
+		return callCandidates(() -> lookupNoInitQuery.getResultList());
 	}
 
 	/**
@@ -107,11 +516,57 @@ public class PenMatchLookupManager {
 	 * @param session
 	 */
 	public List<PenDemographicsEntity> lookupNoInitNoLocalID(String dob, String surname) {
+		CandidateQuery query = new CandidateQuery(CandidateQueryType.NO_INIT_NO_LOCAL_ID, dob, surname, null, null, null);
+		Optional<List<PenDemographicsEntity>> indexed = lookupCandidateSources(query);
+		if (indexed.isPresent()) {
+			return indexed.get();
+		}
+		if (branchLookup != null && branchLookup.isEnabled()) {
+			return callCandidates(() -> branchLookup.lookup(query));
+		}
+
 		Query lookupNoInitQuery = entityManager.createNamedQuery("PenDemographicsEntity.penDemogNoInitNoLocalID");
 		lookupNoInitQuery.setParameter(1, dob);
 		lookupNoInitQuery.setParameter(2, surname + "%");
 
-		return lookupNoInitQuery.getResultList();
+		return callCandidates(() -> lookupNoInitQuery.getResultList());
+	}
+
+	/**
+	 * Runs a candidate search against PEN Demog on the candidate searches share of
+	 * the connections
+	 */
+	private <T> T callCandidates(Supplier<T> lookup) {
+		return bulkheads != null ? bulkheads.callCandidates(() -> read(lookup)) : read(lookup);
+	}
+
+	/**
+	 * Runs a read on the read replicas when they are configured, see
+	 * {@link ReplicaRoutingDataSource}
+	 */
+	private static <T> T read(Supplier<T> lookup) {
+		return ReplicaRoutingDataSource.routeToReplicas(lookup);
+	}
+
+	private boolean isCandidateSourceLoaded() {
+		return candidateSources.stream().anyMatch(CandidateSource::isLoaded);
+	}
+
+	/**
+	 * Fetches the candidates of a query from the first candidate source, in-memory
+	 * index or snapshot file, which is enabled and able to answer
+	 * 
+	 * @param query
+	 * @return
+	 */
+	private Optional<List<PenDemographicsEntity>> lookupCandidateSources(CandidateQuery query) {
+		for (CandidateSource candidateSource : candidateSources) {
+			Optional<List<PenDemographicsEntity>> candidates = candidateSource.lookupCandidates(query);
+			if (candidates.isPresent()) {
+				return candidates;
+			}
+		}
+		return Optional.empty();
 	}
 
 	/**
@@ -122,7 +577,7 @@ public class PenMatchLookupManager {
 	 */
 	public PenMasterRecord lookupStudentByPEN(String studentNumber) {
 		if (studentNumber != null) {
-			Optional<PenDemographicsEntity> demog = getPenDemographicsRepository().findByStudNo(studentNumber);
+			Optional<PenDemographicsEntity> demog = findPenDemographicsByPEN(studentNumber);
 			if (demog.isPresent()) {
 				return PenMatchUtils.convertPenDemogToPenMasterRecord(demog.get());
 			}
@@ -130,23 +585,43 @@ public class PenMatchLookupManager {
 		return null;
 	}
 
+	/**
+	 * Fetches the PEN Demog entity for a student number
+	 * 
+	 * @param studentNumber
+	 * @return
+	 */
+	protected Optional<PenDemographicsEntity> findPenDemographicsByPEN(String studentNumber) {
+		Supplier<Optional<PenDemographicsEntity>> lookup = () -> read(() -> getPenDemographicsRepository().findByStudNo(studentNumber));
+		return bulkheads != null ? bulkheads.callConfirmation(lookup) : lookup.get();
+	}
+
 	/**
 	 * Look up nicknames Nickname1 (by convention) is the "base" nickname. For
 	 * example, we would expect the following in the nickname file:
 	 *
 	 * Nickname 1 Nickname 2 JAMES JIM JAMES JIMMY JAMES JAIMIE
+	 *
+	 * Served from a preloaded {@link NicknameMap} when one is loaded.
 	 */
 	public void lookupNicknames(PenMatchNames penMatchTransactionNames, String givenName) {
 		if (givenName == null || givenName.length() < 1) {
 			return;
 		}
+		for (ReferenceDataSource referenceDataSource : referenceDataSources) {
+			Optional<NicknameMap> nicknameMap = referenceDataSource.getNicknameMap();
+			if (nicknameMap.isPresent()) {
+				nicknameMap.get().lookupNicknames(penMatchTransactionNames, givenName);
+				return;
+			}
+		}
 
 		String givenNameUpper = givenName;
 
 		// Part 1 - Find the base nickname
 		String baseNickname = null;
 
-		List<NicknamesEntity> nicknamesBaseList = getNicknamesRepository().findAllByNickname1OrNickname2(givenNameUpper, givenNameUpper);
+		List<NicknamesEntity> nicknamesBaseList = findNicknames(givenNameUpper);
 		if (nicknamesBaseList != null && !nicknamesBaseList.isEmpty()) {
 			baseNickname = nicknamesBaseList.get(0).getNickname1().trim();
 		}
@@ -160,7 +635,7 @@ public class PenMatchLookupManager {
 				penMatchTransactionNames.setNickname1(baseNickname);
 			}
 
-			List<NicknamesEntity> tempNicknamesList = getNicknamesRepository().findAllByNickname1OrNickname2(baseNickname, baseNickname);
+			List<NicknamesEntity> tempNicknamesList = findNicknames(baseNickname);
 
 			for (NicknamesEntity nickEntity : tempNicknamesList) {
 				if (!nickEntity.getNickname2().equals(givenNameUpper)) {
@@ -176,7 +651,17 @@ public class PenMatchLookupManager {
 	}
 
 	/**
-	 * Check frequency of surname
+	 * Fetches all nickname rows where the name appears as either nickname
+	 * 
+	 * @param name
+	 * @return
+	 */
+	protected List<NicknamesEntity> findNicknames(String name) {
+		return read(() -> getNicknamesRepository().findAllByNickname1OrNickname2(name, name));
+	}
+
+	/**
+	 * Check frequency of surname, from the shared reference data when loaded
 	 * 
 	 * @return
 	 */
@@ -184,9 +669,16 @@ public class PenMatchLookupManager {
 		if (fullStudentSurname == null) {
 			return 0;
 		}
+		for (ReferenceDataSource referenceDataSource : referenceDataSources) {
+			Optional<Integer> frequency = referenceDataSource.lookupSurnameFrequency(fullStudentSurname);
+			if (frequency.isPresent()) {
+				return frequency.get();
+			}
+		}
+
 		// Note this returns in two different places
 		Integer surnameFrequency = 0;
-		List<SurnameFrequencyEntity> surnameFreqEntityList = getSurnameFrequencyRepository().findAllBySurnameStartingWith(fullStudentSurname);
+		List<SurnameFrequencyEntity> surnameFreqEntityList = read(() -> getSurnameFrequencyRepository().findAllBySurnameStartingWith(fullStudentSurname));
 
 		for (SurnameFrequencyEntity surnameFreqEntity : surnameFreqEntityList) {
 			surnameFrequency = surnameFrequency + Integer.valueOf(surnameFreqEntity.getSurnameFrequency());
@@ -0,0 +1,148 @@
+package ca.bc.gov.educ.api.penmatch.lookup;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import ca.bc.gov.educ.api.penmatch.exception.PENMatchRuntimeException;
+import ca.bc.gov.educ.api.penmatch.model.NicknamesEntity;
+import ca.bc.gov.educ.api.penmatch.struct.ReferenceDataManifest;
+
+/**
+ * One generation of the reference data shared by the replicas: PEN Demog as a
+ * mapped {@link PenDemogSnapshot}, and SURNAME_FREQUENCY and NICKNAMES read
+ * into memory from a reference data file laid out as:
+ *
+ * <pre>
+ * header     magic, version, epoch
+ * surnames   count, then each surname, sorted, and its frequency
+ * nicknames  count, then each nickname1 and nickname2
+ * </pre>
+ */
+public class ReferenceData {
+
+	public static final int VERSION = 1;
+
+	private static final long MAGIC = 0x50454E5245464454L; // PENREFDT
+
+	private final int epoch;
+
+	private final PenDemogSnapshot penDemog;
+
+	private final SurnameFrequencyTable surnameFrequencies;
+
+	private final NicknameMap nicknames;
+
+	private ReferenceData(int epoch, PenDemogSnapshot penDemog, SurnameFrequencyTable surnameFrequencies, NicknameMap nicknames) {
+		this.epoch = epoch;
+		this.penDemog = penDemog;
+		this.surnameFrequencies = surnameFrequencies;
+		this.nicknames = nicknames;
+	}
+
+	public int getEpoch() {
+		return epoch;
+	}
+
+	public PenDemogSnapshot getPenDemog() {
+		return penDemog;
+	}
+
+	public SurnameFrequencyTable getSurnameFrequencies() {
+		return surnameFrequencies;
+	}
+
+	public NicknameMap getNicknames() {
+		return nicknames;
+	}
+
+	/**
+	 * Writes the reference data file of a generation, next to the target then
+	 * moved over it once complete
+	 *
+	 * @param file
+	 * @param epoch
+	 * @param surnameFrequencies
+	 * @param nicknames
+	 * @throws IOException
+	 */
+	public static void write(Path file, int epoch, SurnameFrequencyTable surnameFrequencies, NicknameMap nicknames) throws IOException {
+		Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+		try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile), 1 << 16))) {
+			output.writeLong(MAGIC);
+			output.writeInt(VERSION);
+			output.writeInt(epoch);
+			output.writeInt(surnameFrequencies.size());
+			for (int i = 0; i < surnameFrequencies.size(); i++) {
+				output.writeUTF(surnameFrequencies.getSurname(i));
+				output.writeInt(surnameFrequencies.getFrequency(i));
+			}
+			output.writeInt(nicknames.size());
+			for (NicknamesEntity nickname : nicknames.getRows()) {
+				output.writeUTF(nickname.getNickname1());
+				output.writeUTF(nickname.getNickname2());
+			}
+		}
+		Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Loads the generation described by a manifest. Every file must carry the
+	 * epoch of the manifest and hold the rows it lists, otherwise the files belong
+	 * to another generation and nothing is loaded.
+	 *
+	 * @param directory
+	 * @param manifest
+	 * @return
+	 * @throws IOException
+	 */
+	public static ReferenceData load(Path directory, ReferenceDataManifest manifest) throws IOException {
+		if (manifest.getVersion() != VERSION) {
+			throw new PENMatchRuntimeException("Unsupported reference data version " + manifest.getVersion());
+		}
+		PenDemogSnapshot penDemog = PenDemogSnapshot.open(directory.resolve(manifest.getPenDemogFile()));
+		if (penDemog.getEpoch() != manifest.getEpoch() || penDemog.size() != manifest.getPenDemogRows()) {
+			throw new PENMatchRuntimeException("PEN Demog snapshot " + manifest.getPenDemogFile() + " does not belong to epoch " + manifest.getEpoch());
+		}
+
+		try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(directory.resolve(manifest.getReferenceDataFile())), 1 << 16))) {
+			if (input.readLong() != MAGIC || input.readInt() != VERSION) {
+				throw new PENMatchRuntimeException("Not a reference data file: " + manifest.getReferenceDataFile());
+			}
+			if (input.readInt() != manifest.getEpoch()) {
+				throw new PENMatchRuntimeException("Reference data file " + manifest.getReferenceDataFile() + " does not belong to epoch " + manifest.getEpoch());
+			}
+			int surnameCount = input.readInt();
+			if (surnameCount != manifest.getSurnames()) {
+				throw new PENMatchRuntimeException("Reference data file " + manifest.getReferenceDataFile() + " holds " + surnameCount + " surnames, expected " + manifest.getSurnames());
+			}
+			String[] surnames = new String[surnameCount];
+			int[] frequencies = new int[surnameCount];
+			for (int i = 0; i < surnameCount; i++) {
+				surnames[i] = input.readUTF();
+				frequencies[i] = input.readInt();
+			}
+
+			int nicknameCount = input.readInt();
+			if (nicknameCount != manifest.getNicknames()) {
+				throw new PENMatchRuntimeException("Reference data file " + manifest.getReferenceDataFile() + " holds " + nicknameCount + " nicknames, expected " + manifest.getNicknames());
+			}
+			List<NicknamesEntity> nicknames = new ArrayList<>(nicknameCount);
+			for (int i = 0; i < nicknameCount; i++) {
+				NicknamesEntity nickname = new NicknamesEntity();
+				nickname.setNickname1(input.readUTF());
+				nickname.setNickname2(input.readUTF());
+				nicknames.add(nickname);
+			}
+			return new ReferenceData(manifest.getEpoch(), penDemog, new SurnameFrequencyTable(surnames, frequencies), NicknameMap.of(nicknames));
+		}
+	}
+
+}
@@ -0,0 +1,32 @@
+package ca.bc.gov.educ.api.penmatch.lookup;
+
+import java.util.Optional;
+
+/**
+ * A copy of SURNAME_FREQUENCY and/or NICKNAMES which can answer the lookups of
+ * the {@link PenMatchLookupManager} in place of the repositories, with the same
+ * results.
+ */
+public interface ReferenceDataSource {
+
+	/**
+	 * @return whether the source holds the reference tables and can answer
+	 *         lookups
+	 */
+	boolean isLoaded();
+
+	/**
+	 * @param surnamePrefix
+	 * @return the total frequency of the surnames starting with the prefix, which
+	 *         may stop adding up once it reaches VERY_FREQUENT, or empty when the
+	 *         source isn't loaded or doesn't hold SURNAME_FREQUENCY
+	 */
+	Optional<Integer> lookupSurnameFrequency(String surnamePrefix);
+
+	/**
+	 * @return NICKNAMES resolved into nickname classes, or empty when the source
+	 *         isn't loaded or doesn't hold NICKNAMES
+	 */
+	Optional<NicknameMap> getNicknameMap();
+
+}
@@ -0,0 +1,181 @@
+package ca.bc.gov.educ.api.penmatch.lookup;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Component;
+
+import ca.bc.gov.educ.api.penmatch.model.PenDemographicsEntity;
+import ca.bc.gov.educ.api.penmatch.service.ReferenceDataExportService;
+import ca.bc.gov.educ.api.penmatch.struct.ReferenceDataManifest;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Reference data shared by the replicas through a directory on a shared volume,
+ * enabled by setting penmatch.reference.directory. A single replica, the one
+ * holding the leader lock, exports PEN Demog, SURNAME_FREQUENCY and NICKNAMES
+ * every export-interval; every replica, the leader included, loads each new
+ * generation from the directory, so the bulk reads hit the database once
+ * whatever the number of replicas.
+ *
+ * A generation is only loaded as a whole once all of its files check out
+ * against the epoch of its manifest, and is published in a single write, so
+ * lookups never mix generations. Until the first generation is loaded the
+ * lookups go to the database.
+ */
+@Component
+@ConditionalOnProperty(name = "penmatch.reference.directory")
+@Slf4j
+public class SharedReferenceData implements CandidateSource, ReferenceDataSource, SmartLifecycle {
+
+	private final ReferenceDataExportService exportService;
+
+	private final Path directory;
+
+	private final LeaderLock leaderLock;
+
+	private final long exportInterval;
+
+	private final long checkInterval;
+
+	private final int retainedEpochs;
+
+	private volatile ReferenceData referenceData;
+
+	private volatile boolean leader;
+
+	private ScheduledExecutorService checkExecutor;
+
+	private volatile boolean running;
+
+	@Autowired
+	public SharedReferenceData(final ReferenceDataExportService exportService, final MeterRegistry meterRegistry, @Value("${penmatch.reference.directory}") final String directory,
+			@Value("${penmatch.reference.lock:file}") final String lock, @Value("${penmatch.reference.export-interval:86400000}") final long exportInterval,
+			@Value("${penmatch.reference.check-interval:60000}") final long checkInterval, @Value("${penmatch.reference.retained-epochs:2}") final int retainedEpochs) {
+		this(exportService, meterRegistry, Paths.get(directory), "local".equals(lock) ? new LocalLeaderLock(directory) : new FileLeaderLock(Paths.get(directory, "leader.lock")), exportInterval, checkInterval, retainedEpochs);
+	}
+
+	public SharedReferenceData(final ReferenceDataExportService exportService, final MeterRegistry meterRegistry, final Path directory, final LeaderLock leaderLock, final long exportInterval, final long checkInterval,
+			final int retainedEpochs) {
+		this.exportService = exportService;
+		this.directory = directory;
+		this.leaderLock = leaderLock;
+		this.exportInterval = exportInterval;
+		this.checkInterval = checkInterval;
+		this.retainedEpochs = retainedEpochs;
+		Gauge.builder("penmatch.reference.epoch", this, shared -> shared.referenceData != null ? shared.referenceData.getEpoch() : 0).description("Epoch of the shared reference data loaded by this replica").register(meterRegistry);
+		Gauge.builder("penmatch.reference.leader", this, shared -> shared.leader ? 1 : 0).description("Whether this replica exports the shared reference data").register(meterRegistry);
+	}
+
+	@Override
+	public void start() {
+		running = true;
+		checkExecutor = Executors.newSingleThreadScheduledExecutor(new BasicThreadFactory.Builder().namingPattern("shared-reference-data-%d").daemon(true).build());
+		checkExecutor.scheduleWithFixedDelay(this::check, 0, checkInterval, TimeUnit.MILLISECONDS);
+	}
+
+	@Override
+	public void stop() {
+		running = false;
+		if (checkExecutor != null) {
+			checkExecutor.shutdownNow();
+		}
+		leaderLock.release();
+		leader = false;
+	}
+
+	@Override
+	public boolean isRunning() {
+		return running;
+	}
+
+	@Override
+	public boolean isLoaded() {
+		return referenceData != null;
+	}
+
+	/**
+	 * @return the epoch of the loaded generation, 0 when none is loaded
+	 */
+	public int getEpoch() {
+		ReferenceData current = referenceData;
+		return current != null ? current.getEpoch() : 0;
+	}
+
+	public boolean isLeader() {
+		return leader;
+	}
+
+	@Override
+	public void lookup(String dob, String surnamePrefix, String givenNamePrefix, String mincode, String localID, List<PenDemographicsEntity> candidates) {
+		ReferenceData current = referenceData;
+		if (current != null) {
+			current.getPenDemog().lookup(dob, surnamePrefix, givenNamePrefix, mincode, localID, candidates);
+		}
+	}
+
+	@Override
+	public Optional<Integer> lookupSurnameFrequency(String surnamePrefix) {
+		ReferenceData current = referenceData;
+		return current != null ? Optional.of(current.getSurnameFrequencies().lookupSurnameFrequency(surnamePrefix)) : Optional.empty();
+	}
+
+	@Override
+	public Optional<NicknameMap> getNicknameMap() {
+		ReferenceData current = referenceData;
+		return current != null ? Optional.of(current.getNicknames()) : Optional.empty();
+	}
+
+	/**
+	 * Exports a new generation when this replica is the leader and the latest one
+	 * is older than export-interval, then loads the latest generation if newer
+	 * than the loaded one
+	 */
+	public synchronized void check() {
+		try {
+			leader = leaderLock.tryAcquire();
+			if (leader) {
+				exportIfDue();
+			}
+		} catch (IOException | RuntimeException e) {
+			log.error("Unable to export the shared reference data to {}", directory, e);
+		}
+		try {
+			loadLatest();
+		} catch (IOException | RuntimeException e) {
+			log.error("Unable to load the shared reference data from {}, keeping epoch {}", directory, getEpoch(), e);
+		}
+	}
+
+	private void exportIfDue() throws IOException {
+		ReferenceDataManifest latest = exportService.readManifest(directory);
+		if (latest == null || System.currentTimeMillis() - latest.getExportDate() >= exportInterval) {
+			int epoch = latest != null ? latest.getEpoch() + 1 : 1;
+			exportService.export(directory, epoch);
+			exportService.deleteGenerationsBefore(directory, epoch - retainedEpochs + 1);
+		}
+	}
+
+	private void loadLatest() throws IOException {
+		ReferenceDataManifest latest = exportService.readManifest(directory);
+		if (latest == null || latest.getEpoch() <= getEpoch()) {
+			return;
+		}
+		referenceData = ReferenceData.load(directory, latest);
+		log.info("Loaded shared reference data epoch {} with {} PEN Demog rows", latest.getEpoch(), latest.getPenDemogRows());
+	}
+
+}
@@ -0,0 +1,95 @@
+package ca.bc.gov.educ.api.penmatch.lookup;
+
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Answers surname frequency lookups from a {@link SurnameFrequencyTable} loaded
+ * on start and reloaded every refresh-interval, instead of reading every
+ * SURNAME_FREQUENCY row of the prefix per lookup. Until the first load
+ * completes the lookups go to the database.
+ */
+@Component
+@ConditionalOnProperty(name = "penmatch.surname-frequency.enabled", havingValue = "true", matchIfMissing = true)
+@Slf4j
+public class SurnameFrequencyIndex implements ReferenceDataSource, SmartLifecycle {
+
+	private final JdbcTemplate jdbcTemplate;
+
+	private final long refreshInterval;
+
+	private volatile SurnameFrequencyTable table;
+
+	private ScheduledExecutorService refreshExecutor;
+
+	private volatile boolean running;
+
+	@Autowired
+	public SurnameFrequencyIndex(final JdbcTemplate jdbcTemplate, final MeterRegistry meterRegistry, @Value("${penmatch.surname-frequency.refresh-interval:3600000}") final long refreshInterval) {
+		this.jdbcTemplate = jdbcTemplate;
+		this.refreshInterval = refreshInterval;
+		Gauge.builder("penmatch.surname-frequency.surnames", this, index -> index.table != null ? index.table.size() : 0).description("Surnames held by the surname frequency table").register(meterRegistry);
+	}
+
+	@Override
+	public void start() {
+		running = true;
+		refreshExecutor = Executors.newSingleThreadScheduledExecutor(new BasicThreadFactory.Builder().namingPattern("surname-frequency-%d").daemon(true).build());
+		refreshExecutor.scheduleWithFixedDelay(this::refresh, 0, refreshInterval, TimeUnit.MILLISECONDS);
+	}
+
+	@Override
+	public void stop() {
+		running = false;
+		refreshExecutor.shutdownNow();
+	}
+
+	@Override
+	public boolean isRunning() {
+		return running;
+	}
+
+	@Override
+	public boolean isLoaded() {
+		return table != null;
+	}
+
+	@Override
+	public Optional<Integer> lookupSurnameFrequency(String surnamePrefix) {
+		SurnameFrequencyTable current = table;
+		return current != null ? Optional.of(current.lookupSurnameFrequency(surnamePrefix)) : Optional.empty();
+	}
+
+	@Override
+	public Optional<NicknameMap> getNicknameMap() {
+		return Optional.empty();
+	}
+
+	/**
+	 * Reloads SURNAME_FREQUENCY and publishes the new table
+	 */
+	public void refresh() {
+		try {
+			long start = System.currentTimeMillis();
+			table = SurnameFrequencyTable.load(jdbcTemplate);
+			log.debug("Loaded {} surname frequencies in {} ms", table.size(), System.currentTimeMillis() - start);
+		} catch (RuntimeException e) {
+			log.error("Refreshing the surname frequency table failed", e);
+		}
+	}
+
+}
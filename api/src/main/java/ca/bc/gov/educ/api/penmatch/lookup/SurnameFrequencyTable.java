@@ -0,0 +1,130 @@
+package ca.bc.gov.educ.api.penmatch.lookup;
+
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+
+/**
+ * SURNAME_FREQUENCY as an immutable sorted array of surnames with the running
+ * total of their frequencies. The surnames starting with a prefix are a
+ * contiguous range of the array, so their total frequency is the difference of
+ * two running totals found by binary search, without allocating.
+ */
+public class SurnameFrequencyTable {
+
+	private static final String LOAD_SQL = "SELECT SURNAME, SURNAME_FREQUENCY FROM SURNAME_FREQUENCY";
+
+	private final String[] surnames;
+
+	// totals[i] is the total frequency of surnames[0] to surnames[i - 1]
+	private final long[] totals;
+
+	/**
+	 * @param surnames    sorted by String order
+	 * @param frequencies frequency of each surname
+	 */
+	SurnameFrequencyTable(String[] surnames, int[] frequencies) {
+		this.surnames = surnames;
+		this.totals = new long[surnames.length + 1];
+		for (int i = 0; i < surnames.length; i++) {
+			totals[i + 1] = totals[i] + frequencies[i];
+		}
+	}
+
+	/**
+	 * @param surnameFrequencies frequency of each surname, sorted by surname
+	 * @return
+	 */
+	public static SurnameFrequencyTable of(SortedMap<String, Integer> surnameFrequencies) {
+		String[] surnames = new String[surnameFrequencies.size()];
+		int[] frequencies = new int[surnames.length];
+		int i = 0;
+		for (Map.Entry<String, Integer> surnameFrequency : surnameFrequencies.entrySet()) {
+			surnames[i] = surnameFrequency.getKey();
+			frequencies[i++] = surnameFrequency.getValue();
+		}
+		return new SurnameFrequencyTable(surnames, frequencies);
+	}
+
+	/**
+	 * Reads the whole of SURNAME_FREQUENCY
+	 *
+	 * @param jdbcTemplate
+	 * @return
+	 */
+	public static SurnameFrequencyTable load(JdbcTemplate jdbcTemplate) {
+		SortedMap<String, Integer> surnameFrequencies = new TreeMap<>();
+		jdbcTemplate.query(LOAD_SQL, resultSet -> {
+			surnameFrequencies.put(resultSet.getString("SURNAME"), Integer.valueOf(resultSet.getString("SURNAME_FREQUENCY")));
+		});
+		return of(surnameFrequencies);
+	}
+
+	public int size() {
+		return surnames.length;
+	}
+
+	public String getSurname(int i) {
+		return surnames[i];
+	}
+
+	public int getFrequency(int i) {
+		return (int) (totals[i + 1] - totals[i]);
+	}
+
+	/**
+	 * Same result as the repository lookup of
+	 * {@link PenMatchLookupManager#lookupSurnameFrequency(String)}, which reads the
+	 * surnames in order and stops adding once it reaches VERY_FREQUENT
+	 *
+	 * @param prefix
+	 * @return the total frequency of the surnames starting with the prefix, up to
+	 *         the first surname taking it to VERY_FREQUENT
+	 */
+	public int lookupSurnameFrequency(String prefix) {
+		int from = firstNotBefore(prefix, false);
+		int to = firstNotBefore(prefix, true);
+		if (totals[to] - totals[from] < PenMatchLookupManager.VERY_FREQUENT) {
+			return (int) (totals[to] - totals[from]);
+		}
+		int low = from + 1;
+		int high = to;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (totals[middle] - totals[from] < PenMatchLookupManager.VERY_FREQUENT) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return (int) Math.min(totals[low] - totals[from], Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Surnames less than the prefix come first, then those starting with it, then
+	 * the greater ones
+	 *
+	 * @param prefix
+	 * @param skipPrefixed whether surnames starting with the prefix are passed
+	 *                     over
+	 * @return the first index which isn't less than the prefix, or with
+	 *         skipPrefixed the first one which is greater and doesn't start with
+	 *         it
+	 */
+	private int firstNotBefore(String prefix, boolean skipPrefixed) {
+		int low = 0;
+		int high = surnames.length;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (surnames[middle].compareTo(prefix) < 0 || (skipPrefixed && surnames[middle].startsWith(prefix))) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+}
@@ -0,0 +1,199 @@
+package ca.bc.gov.educ.api.penmatch.messaging;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.jms.Connection;
+import javax.jms.ConnectionFactory;
+import javax.jms.Destination;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+import javax.jms.TextMessage;
+
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import ca.bc.gov.educ.api.penmatch.service.PenMatchBatchService;
+import ca.bc.gov.educ.api.penmatch.struct.PenMatchResult;
+import ca.bc.gov.educ.api.penmatch.struct.PenMatchStudent;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Consumes PenMatchStudent messages from the request queue in batches, matches
+ * each batch through the batch service and replies with one PenMatchResult
+ * message per student, correlated on the request message ID. Replies go to the
+ * JMSReplyTo of the request, or to the reply queue when there is none.
+ *
+ * Sessions use client acknowledgement and a batch is acknowledged once, after
+ * all of its replies have been sent. A batch that fails as a whole is recovered
+ * so that its messages are redelivered. A student that fails on its own gets a
+ * reply without body carrying the error in the penMatchError property.
+ */
+@Component
+@ConditionalOnProperty(name = "penmatch.messaging.enabled", havingValue = "true")
+@Slf4j
+public class PenMatchMessageConsumer implements SmartLifecycle {
+
+	public static final String ERROR_PROPERTY = "penMatchError";
+
+	private final ConnectionFactory connectionFactory;
+
+	private final PenMatchBatchService batchService;
+
+	private final ObjectMapper objectMapper;
+
+	private final String requestQueue;
+
+	private final String replyQueue;
+
+	private final int consumers;
+
+	private final int batchSize;
+
+	private final long batchWait;
+
+	private ExecutorService consumerExecutor;
+
+	private volatile boolean running;
+
+	@Autowired
+	public PenMatchMessageConsumer(final ConnectionFactory connectionFactory, final PenMatchBatchService batchService, final ObjectMapper objectMapper, @Value("${penmatch.messaging.request-queue:PEN_MATCH_REQUEST}") final String requestQueue,
+			@Value("${penmatch.messaging.reply-queue:PEN_MATCH_REPLY}") final String replyQueue, @Value("${penmatch.messaging.consumers:2}") final int consumers, @Value("${penmatch.messaging.batch-size:100}") final int batchSize,
+			@Value("${penmatch.messaging.batch-wait:200}") final long batchWait) {
+		this.connectionFactory = connectionFactory;
+		this.batchService = batchService;
+		this.objectMapper = objectMapper;
+		this.requestQueue = requestQueue;
+		this.replyQueue = replyQueue;
+		this.consumers = consumers;
+		this.batchSize = batchSize;
+		this.batchWait = batchWait;
+	}
+
+	@Override
+	public void start() {
+		running = true;
+		consumerExecutor = Executors.newFixedThreadPool(consumers, new BasicThreadFactory.Builder().namingPattern("pen-match-consumer-%d").daemon(true).build());
+		for (int i = 0; i < consumers; i++) {
+			consumerExecutor.submit(this::consume);
+		}
+		log.info("Started {} consumers on {}", consumers, requestQueue);
+	}
+
+	@Override
+	public void stop() {
+		running = false;
+		consumerExecutor.shutdown();
+		try {
+			consumerExecutor.awaitTermination(batchWait + 5000, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	@Override
+	public boolean isRunning() {
+		return running;
+	}
+
+	/**
+	 * Consumer loop, reconnecting after a failure until stopped
+	 */
+	private void consume() {
+		while (running) {
+			try (Connection connection = connectionFactory.createConnection()) {
+				Session session = connection.createSession(false, Session.CLIENT_ACKNOWLEDGE);
+				MessageConsumer consumer = session.createConsumer(session.createQueue(requestQueue));
+				MessageProducer producer = session.createProducer(null);
+				Destination defaultReplyTo = session.createQueue(replyQueue);
+				connection.start();
+				while (running) {
+					List<Message> batch = receiveBatch(consumer);
+					if (!batch.isEmpty()) {
+						processBatch(session, producer, defaultReplyTo, batch);
+					}
+				}
+			} catch (Exception e) {
+				if (running) {
+					log.error("Match consumer on {} failed, reconnecting", requestQueue, e);
+					sleepQuietly(batchWait);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Waits up to batchWait for the first message, then takes whatever else is
+	 * already available up to batchSize
+	 */
+	private List<Message> receiveBatch(MessageConsumer consumer) throws JMSException {
+		List<Message> batch = new ArrayList<>(batchSize);
+		Message message = consumer.receive(batchWait);
+		while (message != null) {
+			batch.add(message);
+			message = batch.size() < batchSize ? consumer.receiveNoWait() : null;
+		}
+		return batch;
+	}
+
+	private void processBatch(Session session, MessageProducer producer, Destination defaultReplyTo, List<Message> batch) throws JMSException {
+		try {
+			List<Message> requests = new ArrayList<>(batch.size());
+			List<PenMatchStudent> students = new ArrayList<>(batch.size());
+			for (Message message : batch) {
+				try {
+					students.add(objectMapper.readValue(((TextMessage) message).getText(), PenMatchStudent.class));
+					requests.add(message);
+				} catch (Exception e) {
+					log.warn("Discarding unreadable match request {}", message.getJMSMessageID(), e);
+				}
+			}
+
+			List<Future<PenMatchResult>> results = batchService.submitStudents(students);
+			for (int i = 0; i < requests.size(); i++) {
+				Message request = requests.get(i);
+				TextMessage reply;
+				try {
+					reply = session.createTextMessage(objectMapper.writeValueAsString(results.get(i).get()));
+				} catch (ExecutionException e) {
+					log.warn("Match request {} failed", request.getJMSMessageID(), e.getCause());
+					reply = session.createTextMessage();
+					reply.setStringProperty(ERROR_PROPERTY, String.valueOf(e.getCause().getMessage()));
+				}
+				reply.setJMSCorrelationID(request.getJMSMessageID());
+				producer.send(request.getJMSReplyTo() != null ? request.getJMSReplyTo() : defaultReplyTo, reply);
+			}
+			batch.get(batch.size() - 1).acknowledge();
+			log.debug("Matched and acknowledged batch of {} messages", batch.size());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			session.recover();
+		} catch (Exception e) {
+			log.error("Match batch of {} messages failed, recovering", batch.size(), e);
+			session.recover();
+		}
+	}
+
+	private void sleepQuietly(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+}
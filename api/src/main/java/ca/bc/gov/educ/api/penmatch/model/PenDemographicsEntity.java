@@ -3,12 +3,16 @@ package ca.bc.gov.educ.api.penmatch.model;
 import java.util.Date;
 
 import javax.persistence.Column;
+import javax.persistence.ColumnResult;
 import javax.persistence.Entity;
+import javax.persistence.EntityResult;
 import javax.persistence.Id;
 import javax.persistence.NamedNativeQuery;
+import javax.persistence.SqlResultSetMapping;
 import javax.persistence.Table;
 import javax.persistence.Temporal;
 import javax.persistence.TemporalType;
+import javax.persistence.Transient;
 
 import org.hibernate.annotations.Immutable;
 
@@ -27,6 +31,16 @@ import lombok.NoArgsConstructor;
 @NamedNativeQuery(name = "PenDemographicsEntity.penDemogWithAllParts", query = "SELECT * FROM PEN_DEMOG WHERE (STUD_BIRTH = ?) OR (STUD_SURNAME LIKE ? AND STUD_GIVEN LIKE ?) OR (PEN_MINCODE = ? AND PEN_LOCAL_ID = ?)", resultClass = PenDemographicsEntity.class)
 @NamedNativeQuery(name = "PenDemographicsEntity.penDemogNoLocalID", query = "SELECT * FROM PEN_DEMOG WHERE (STUD_BIRTH = ?) OR (STUD_SURNAME LIKE ? AND STUD_GIVEN LIKE ?)", resultClass = PenDemographicsEntity.class)
 @NamedNativeQuery(name = "PenDemographicsEntity.penDemogNoInitNoLocalID", query = "SELECT * FROM PEN_DEMOG WHERE (STUD_BIRTH = ?) OR (STUD_SURNAME LIKE ?)", resultClass = PenDemographicsEntity.class)
+// Candidate queries ranked for capped lookups, same weights as the batch candidate statement
+@NamedNativeQuery(name = "PenDemographicsEntity.penDemogNoInitRanked", query = "SELECT * FROM PEN_DEMOG WHERE (STUD_BIRTH = ?) OR (STUD_SURNAME LIKE ?) OR (PEN_MINCODE = ? AND PEN_LOCAL_ID = ?) ORDER BY CASE WHEN TRIM(STUD_SURNAME) = ? THEN 20 ELSE 0 END + CASE WHEN STUD_BIRTH = ? THEN 20 ELSE 0 END + CASE WHEN STUD_SEX = ? THEN 5 ELSE 0 END + CASE WHEN PEN_MINCODE = ? AND PEN_LOCAL_ID = ? THEN 20 ELSE 0 END DESC, STUD_NO", resultClass = PenDemographicsEntity.class)
+@NamedNativeQuery(name = "PenDemographicsEntity.penDemogWithAllPartsRanked", query = "SELECT * FROM PEN_DEMOG WHERE (STUD_BIRTH = ?) OR (STUD_SURNAME LIKE ? AND STUD_GIVEN LIKE ?) OR (PEN_MINCODE = ? AND PEN_LOCAL_ID = ?) ORDER BY CASE WHEN TRIM(STUD_SURNAME) = ? THEN 20 ELSE 0 END + CASE WHEN STUD_BIRTH = ? THEN 20 ELSE 0 END + CASE WHEN STUD_SEX = ? THEN 5 ELSE 0 END + CASE WHEN PEN_MINCODE = ? AND PEN_LOCAL_ID = ? THEN 20 ELSE 0 END DESC, STUD_NO", resultClass = PenDemographicsEntity.class)
+@NamedNativeQuery(name = "PenDemographicsEntity.penDemogNoLocalIDRanked", query = "SELECT * FROM PEN_DEMOG WHERE (STUD_BIRTH = ?) OR (STUD_SURNAME LIKE ? AND STUD_GIVEN LIKE ?) ORDER BY CASE WHEN TRIM(STUD_SURNAME) = ? THEN 20 ELSE 0 END + CASE WHEN STUD_BIRTH = ? THEN 20 ELSE 0 END + CASE WHEN STUD_SEX = ? THEN 5 ELSE 0 END DESC, STUD_NO", resultClass = PenDemographicsEntity.class)
+@NamedNativeQuery(name = "PenDemographicsEntity.penDemogNoInitNoLocalIDRanked", query = "SELECT * FROM PEN_DEMOG WHERE (STUD_BIRTH = ?) OR (STUD_SURNAME LIKE ?) ORDER BY CASE WHEN TRIM(STUD_SURNAME) = ? THEN 20 ELSE 0 END + CASE WHEN STUD_BIRTH = ? THEN 20 ELSE 0 END + CASE WHEN STUD_SEX = ? THEN 5 ELSE 0 END DESC, STUD_NO", resultClass = PenDemographicsEntity.class)
+@NamedNativeQuery(name = "PenDemographicsEntity.penDemogByBirth", query = "SELECT * FROM PEN_DEMOG WHERE STUD_BIRTH = ?", resultClass = PenDemographicsEntity.class)
+@NamedNativeQuery(name = "PenDemographicsEntity.penDemogBySurname", query = "SELECT * FROM PEN_DEMOG WHERE STUD_SURNAME LIKE ?", resultClass = PenDemographicsEntity.class)
+@NamedNativeQuery(name = "PenDemographicsEntity.penDemogBySurnameAndGiven", query = "SELECT * FROM PEN_DEMOG WHERE STUD_SURNAME LIKE ? AND STUD_GIVEN LIKE ?", resultClass = PenDemographicsEntity.class)
+@NamedNativeQuery(name = "PenDemographicsEntity.penDemogByLocalID", query = "SELECT * FROM PEN_DEMOG WHERE PEN_MINCODE = ? AND PEN_LOCAL_ID = ?", resultClass = PenDemographicsEntity.class)
+@SqlResultSetMapping(name = "PenDemographicsEntity.batchCandidates", entities = @EntityResult(entityClass = PenDemographicsEntity.class), columns = @ColumnResult(name = "QUERY_IDX", type = Integer.class))
 @Table(name = "PEN_DEMOG")
 public class PenDemographicsEntity {
 
@@ -89,4 +103,9 @@ public class PenDemographicsEntity {
 	@Column(name = "CREATE_USER_NAME")
 	private String createUserName;
 
+	// PEN_LOCAL_ID stripped as by PenMatchUtils.normalizeLocalIDsFromMaster, set
+	// by the PEN Demog index ahead of scoring
+	@Transient
+	private String alternateLocalID;
+
 }
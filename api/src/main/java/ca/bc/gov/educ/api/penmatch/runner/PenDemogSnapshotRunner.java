@@ -0,0 +1,53 @@
+package ca.bc.gov.educ.api.penmatch.runner;
+
+import java.nio.file.Paths;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.stereotype.Component;
+
+import ca.bc.gov.educ.api.penmatch.exception.PenMatchRunnerException;
+import ca.bc.gov.educ.api.penmatch.service.PenDemogSnapshotService;
+
+/**
+ * Command line runner exporting PEN Demog to a snapshot file, for example:
+ *
+ * java -jar api.jar --spring.main.web-application-type=none
+ * --penmatch.snapshot.export=/data/pen-demog.snapshot
+ *
+ * The application exits once the file has been written, with status 1 when
+ * the export failed.
+ */
+@Component
+@ConditionalOnProperty(name = "penmatch.snapshot.export")
+public class PenDemogSnapshotRunner implements ApplicationRunner {
+
+	private final PenDemogSnapshotService snapshotService;
+
+	private final ConfigurableApplicationContext context;
+
+	private final String file;
+
+	@Autowired
+	public PenDemogSnapshotRunner(final PenDemogSnapshotService snapshotService, final ConfigurableApplicationContext context, @Value("${penmatch.snapshot.export}") final String file) {
+		this.snapshotService = snapshotService;
+		this.context = context;
+		this.file = file;
+	}
+
+	@Override
+	public void run(ApplicationArguments args) {
+		try {
+			snapshotService.exportSnapshot(Paths.get(file));
+		} catch (Exception e) {
+			throw new PenMatchRunnerException("Unable to export PEN Demog snapshot to " + file, e);
+		}
+		SpringApplication.exit(context);
+	}
+
+}
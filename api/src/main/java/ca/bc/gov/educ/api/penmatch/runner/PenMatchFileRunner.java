@@ -0,0 +1,56 @@
+package ca.bc.gov.educ.api.penmatch.runner;
+
+import java.nio.file.Paths;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.stereotype.Component;
+
+import ca.bc.gov.educ.api.penmatch.exception.PenMatchRunnerException;
+import ca.bc.gov.educ.api.penmatch.service.PenMatchFileService;
+
+/**
+ * Command line runner matching a fixed-width PEN request file, for example:
+ *
+ * java -jar api.jar --spring.main.web-application-type=none
+ * --penmatch.file.input=PENREQ.TXT --penmatch.file.output=PENRES.TXT
+ *
+ * The application exits once the file has been matched, with status 1 when
+ * the match failed.
+ */
+@Component
+@ConditionalOnProperty(name = "penmatch.file.input")
+public class PenMatchFileRunner implements ApplicationRunner {
+
+	private final PenMatchFileService fileService;
+
+	private final ConfigurableApplicationContext context;
+
+	private final String input;
+
+	private final String output;
+
+	@Autowired
+	public PenMatchFileRunner(final PenMatchFileService fileService, final ConfigurableApplicationContext context, @Value("${penmatch.file.input}") final String input, @Value("${penmatch.file.output:${penmatch.file.input}.out}") final String output) {
+		this.fileService = fileService;
+		this.context = context;
+		this.input = input;
+		this.output = output;
+	}
+
+	@Override
+	public void run(ApplicationArguments args) {
+		try {
+			fileService.matchFile(Paths.get(input), Paths.get(output));
+		} catch (Exception e) {
+			throw new PenMatchRunnerException("Unable to match file " + input, e);
+		}
+		SpringApplication.exit(context);
+	}
+
+}
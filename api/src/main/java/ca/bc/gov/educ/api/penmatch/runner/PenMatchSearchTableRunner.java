@@ -0,0 +1,48 @@
+package ca.bc.gov.educ.api.penmatch.runner;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.stereotype.Component;
+
+import ca.bc.gov.educ.api.penmatch.exception.PenMatchRunnerException;
+import ca.bc.gov.educ.api.penmatch.service.PenMatchSearchTableService;
+
+/**
+ * Command line runner rebuilding the PEN_MATCH_SEARCH search table, for
+ * example from a nightly job run against the primary database:
+ *
+ * java -jar api.jar --spring.main.web-application-type=none
+ * --penmatch.search.rebuild=true
+ *
+ * The application exits once the table has been rebuilt, with status 1 when
+ * the rebuild failed.
+ */
+@Component
+@ConditionalOnProperty(name = "penmatch.search.rebuild", havingValue = "true")
+public class PenMatchSearchTableRunner implements ApplicationRunner {
+
+	private final PenMatchSearchTableService searchTableService;
+
+	private final ConfigurableApplicationContext context;
+
+	@Autowired
+	public PenMatchSearchTableRunner(final PenMatchSearchTableService searchTableService, final ConfigurableApplicationContext context) {
+		this.searchTableService = searchTableService;
+		this.context = context;
+	}
+
+	@Override
+	public void run(ApplicationArguments args) {
+		try {
+			searchTableService.rebuild();
+		} catch (Exception e) {
+			throw new PenMatchRunnerException("Unable to rebuild the search table", e);
+		}
+		SpringApplication.exit(context);
+	}
+
+}
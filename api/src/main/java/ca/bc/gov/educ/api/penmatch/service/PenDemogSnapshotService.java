@@ -0,0 +1,70 @@
+package ca.bc.gov.educ.api.penmatch.service;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.sql.PreparedStatement;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import ca.bc.gov.educ.api.penmatch.lookup.PenDemogIndexSegment;
+import ca.bc.gov.educ.api.penmatch.lookup.PenDemogSnapshot;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Exports PEN Demog to a {@link PenDemogSnapshot} file
+ */
+@Service
+@Slf4j
+public class PenDemogSnapshotService {
+
+	private static final String EXPORT_SQL = "SELECT * FROM PEN_DEMOG";
+
+	private final JdbcTemplate jdbcTemplate;
+
+	private final int fetchSize;
+
+	@Autowired
+	public PenDemogSnapshotService(final JdbcTemplate jdbcTemplate, @Value("${penmatch.snapshot.fetch-size:5000}") final int fetchSize) {
+		this.jdbcTemplate = jdbcTemplate;
+		this.fetchSize = fetchSize;
+	}
+
+	/**
+	 * Reads the whole of PEN Demog and writes it to a snapshot file, replacing
+	 * the file once complete
+	 *
+	 * @param file
+	 * @return the number of rows exported
+	 * @throws IOException
+	 */
+	public int exportSnapshot(Path file) throws IOException {
+		return exportSnapshot(file, 0);
+	}
+
+	/**
+	 * Exports PEN Demog to a snapshot file tagged with the epoch of a reference
+	 * data export
+	 *
+	 * @param file
+	 * @param epoch
+	 * @return the number of rows exported
+	 * @throws IOException
+	 */
+	public int exportSnapshot(Path file, int epoch) throws IOException {
+		long start = System.currentTimeMillis();
+		PenDemogIndexSegment.Builder builder = new PenDemogIndexSegment.Builder();
+		jdbcTemplate.query(connection -> {
+			PreparedStatement statement = connection.prepareStatement(EXPORT_SQL);
+			statement.setFetchSize(fetchSize);
+			return statement;
+		}, builder::add);
+		PenDemogIndexSegment segment = builder.build();
+		PenDemogSnapshot.write(segment, file, epoch);
+		log.info("Exported {} PEN Demog rows to {} in {} ms", segment.size(), file, System.currentTimeMillis() - start);
+		return segment.size();
+	}
+
+}
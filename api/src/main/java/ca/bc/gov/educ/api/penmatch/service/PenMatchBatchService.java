@@ -0,0 +1,363 @@
+package ca.bc.gov.educ.api.penmatch.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+
+import javax.validation.ConstraintViolation;
+import javax.validation.Validator;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+import ca.bc.gov.educ.api.penmatch.exception.InvalidValueException;
+import ca.bc.gov.educ.api.penmatch.exception.PENMatchRuntimeException;
+import ca.bc.gov.educ.api.penmatch.exception.PenMatchOverloadedException;
+import ca.bc.gov.educ.api.penmatch.lookup.BatchPenMatchLookupManager;
+import ca.bc.gov.educ.api.penmatch.lookup.PenMatchLookupManager;
+import ca.bc.gov.educ.api.penmatch.struct.CandidateQuery;
+import ca.bc.gov.educ.api.penmatch.struct.PenMatchResult;
+import ca.bc.gov.educ.api.penmatch.struct.PenMatchSession;
+import ca.bc.gov.educ.api.penmatch.struct.PenMatchStreamError;
+import ca.bc.gov.educ.api.penmatch.struct.PenMatchStudent;
+import ca.bc.gov.educ.api.penmatch.util.PenMatchUtils;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+
+@Service
+@Slf4j
+public class PenMatchBatchService {
+
+	private static final byte[] RECORD_SEPARATOR = { '\n' };
+
+	private final PenMatchLookupManager lookupManager;
+
+	private final PenMatchService penMatchService;
+
+	private final PenMatchPipelineService pipelineService;
+
+	private final PenMatchPipelineService jobPipelineService;
+
+	private final ObjectMapper objectMapper;
+
+	private final Validator validator;
+
+	private final int maxBatchSize;
+
+	private final int streamWindowSize;
+
+	private final int candidateChunkSize;
+
+	private final boolean setBasedCandidates;
+
+	private final Counter candidateLookupsCounter;
+
+	private final Counter candidateQueriesCounter;
+
+	private final Counter candidateQueriesSavedCounter;
+
+	private final Counter duplicateStudentsCounter;
+
+	@Autowired
+	public PenMatchBatchService(final PenMatchLookupManager lookupManager, final PenMatchService penMatchService, @Qualifier("penMatchBulkPipeline") final PenMatchPipelineService pipelineService,
+			@Qualifier("penMatchJobPipeline") final PenMatchPipelineService jobPipelineService, final ObjectMapper objectMapper, final Validator validator, final MeterRegistry meterRegistry,
+			@Value("${penmatch.batch.max-size:5000}") final int maxBatchSize, @Value("${penmatch.stream.window-size:64}") final int streamWindowSize, @Value("${penmatch.batch.candidate-chunk-size:100}") final int candidateChunkSize,
+			@Value("${penmatch.batch.set-based-candidates:true}") final boolean setBasedCandidates) {
+		this.lookupManager = lookupManager;
+		this.penMatchService = penMatchService;
+		this.pipelineService = pipelineService;
+		this.jobPipelineService = jobPipelineService;
+		this.objectMapper = objectMapper;
+		this.validator = validator;
+		this.maxBatchSize = maxBatchSize;
+		this.streamWindowSize = streamWindowSize;
+		this.candidateChunkSize = candidateChunkSize;
+		this.setBasedCandidates = setBasedCandidates;
+		this.candidateLookupsCounter = Counter.builder("penmatch.batch.candidate.lookups").description("Candidate lookups made by students matched in batches").register(meterRegistry);
+		this.candidateQueriesCounter = Counter.builder("penmatch.batch.candidate.queries").description("Candidate statements run against PEN Demog for batches").register(meterRegistry);
+		this.candidateQueriesSavedCounter = Counter.builder("penmatch.batch.candidate.queries.saved").description("Candidate queries saved by sharing candidates between students of a batch").register(meterRegistry);
+		this.duplicateStudentsCounter = Counter.builder("penmatch.batch.duplicates").description("Students matched once for identical students of the same batch").register(meterRegistry);
+	}
+
+	/**
+	 * Matches a batch of students through the match pipeline. Lookups shared by
+	 * several students of the batch are only done once. Results are returned in
+	 * the same order as the students.
+	 *
+	 * @param students
+	 * @return
+	 */
+	public List<PenMatchResult> matchStudents(List<PenMatchStudent> students) {
+		if (students.size() > maxBatchSize) {
+			throw new InvalidValueException("batchSize", String.valueOf(students.size()));
+		}
+		log.debug("Received batch of {} students", students.size());
+
+		List<Future<PenMatchResult>> futures = submitStudents(students);
+
+		List<PenMatchResult> results = new ArrayList<>(students.size());
+		try {
+			for (Future<PenMatchResult> future : futures) {
+				results.add(future.get());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			futures.forEach(future -> future.cancel(true));
+			throw new PENMatchRuntimeException("Batch match was interrupted");
+		} catch (ExecutionException e) {
+			futures.forEach(future -> future.cancel(true));
+			if (e.getCause() instanceof PenMatchOverloadedException) {
+				throw (PenMatchOverloadedException) e.getCause();
+			}
+			log.error("Batch match failed", e.getCause());
+			throw new PENMatchRuntimeException("Batch match failed: " + e.getCause().getMessage());
+		}
+		return results;
+	}
+
+	/**
+	 * Submits a batch of students to the bulk match pipeline. The students share a
+	 * batch scoped lookup manager. Once the batch is normalized its candidates
+	 * are fetched up front, one statement per chunk of distinct candidate
+	 * queries, before the students go through the lookup and score stages.
+	 * Students with the same match relevant fields are matched once and share the
+	 * same future. The returned futures are in the same order as the students.
+	 *
+	 * @param students
+	 * @return
+	 */
+	public List<Future<PenMatchResult>> submitStudents(List<PenMatchStudent> students) {
+		return submitStudents(students, pipelineService);
+	}
+
+	/**
+	 * Submits a batch of students of a job or file run to the job match pipeline,
+	 * as by {@link #submitStudents(List)}
+	 *
+	 * @param students
+	 * @return
+	 */
+	public List<Future<PenMatchResult>> submitJobStudents(List<PenMatchStudent> students) {
+		return submitStudents(students, jobPipelineService);
+	}
+
+	private List<Future<PenMatchResult>> submitStudents(List<PenMatchStudent> students, PenMatchPipelineService pipelineService) {
+		BatchPenMatchLookupManager batchLookupManager = new BatchPenMatchLookupManager(lookupManager);
+		PenMatchService batchMatchService = new PenMatchService(batchLookupManager);
+
+		Map<List<String>, PenMatchStudent> uniqueStudents = new LinkedHashMap<>();
+		List<List<String>> matchKeys = new ArrayList<>(students.size());
+		for (PenMatchStudent student : students) {
+			PenMatchUtils.upperCaseInputStudent(student);
+			List<String> matchKey = PenMatchUtils.getMatchKey(student);
+			uniqueStudents.putIfAbsent(matchKey, student);
+			matchKeys.add(matchKey);
+		}
+
+		Map<List<String>, CompletableFuture<PenMatchSession>> sessions = new HashMap<>();
+		uniqueStudents.forEach((matchKey, student) -> sessions.put(matchKey, pipelineService.normalizeStudent(batchMatchService, student)));
+		prefetchCandidates(uniqueStudents, sessions, batchMatchService, batchLookupManager, pipelineService);
+
+		Map<List<String>, CompletableFuture<PenMatchResult>> uniqueFutures = new HashMap<>();
+		uniqueStudents.forEach((matchKey, student) -> uniqueFutures.put(matchKey, sessions.get(matchKey).thenCompose(session -> pipelineService.lookupAndScoreStudent(batchMatchService, student, session))));
+		CompletableFuture.allOf(uniqueFutures.values().toArray(new CompletableFuture[0])).whenComplete((ignored, e) -> recordCandidateQueries(batchLookupManager));
+		duplicateStudentsCounter.increment(students.size() - uniqueStudents.size());
+
+		List<Future<PenMatchResult>> futures = new ArrayList<>(students.size());
+		for (List<String> matchKey : matchKeys) {
+			futures.add(uniqueFutures.get(matchKey));
+		}
+		return futures;
+	}
+
+	/**
+	 * Planning step of a batch - waits for every student to be normalized to find
+	 * its candidate query, then fetches each distinct query once on the lookup
+	 * stage so that students sharing a blocking key share the candidate list.
+	 * With setBasedCandidates the distinct queries are fetched chunk by chunk with
+	 * one set based statement per chunk instead, a handful of round trips to PEN
+	 * Demog for the batch. Students whose query can't be known up front (a PEN was
+	 * supplied) look their candidates up in the lookup stage.
+	 *
+	 * @param students
+	 * @param sessions
+	 * @param batchMatchService
+	 * @param batchLookupManager
+	 */
+	private void prefetchCandidates(Map<List<String>, PenMatchStudent> students, Map<List<String>, CompletableFuture<PenMatchSession>> sessions, PenMatchService batchMatchService, BatchPenMatchLookupManager batchLookupManager,
+			PenMatchPipelineService pipelineService) {
+		Set<CandidateQuery> distinctQueries = new LinkedHashSet<>();
+		students.forEach((matchKey, student) -> {
+			if (awaitQuietly(sessions.get(matchKey)) != null) {
+				CandidateQuery query = batchMatchService.planCandidateQuery(student);
+				if (query != null) {
+					distinctQueries.add(query);
+				}
+			}
+		});
+
+		List<CandidateQuery> queries = new ArrayList<>(distinctQueries);
+		List<Future<?>> fetches = new ArrayList<>();
+		if (setBasedCandidates) {
+			for (int from = 0; from < queries.size(); from += candidateChunkSize) {
+				List<CandidateQuery> chunk = queries.subList(from, Math.min(from + candidateChunkSize, queries.size()));
+				fetches.add(pipelineService.lookup(() -> {
+					batchLookupManager.prefetchCandidates(chunk);
+					return null;
+				}));
+			}
+		} else {
+			for (CandidateQuery query : queries) {
+				fetches.add(pipelineService.lookup(() -> batchLookupManager.prefetchCandidates(query)));
+			}
+		}
+		fetches.forEach(this::awaitQuietly);
+		log.debug("Planned {} students into {} distinct candidate queries", students.size(), distinctQueries.size());
+	}
+
+	/**
+	 * Waits for a planning task. Failures are only logged as the student will
+	 * fail again, and be reported, when it is matched.
+	 *
+	 * @param future
+	 * @return
+	 */
+	private <T> T awaitQuietly(Future<T> future) {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new PENMatchRuntimeException("Batch planning was interrupted");
+		} catch (ExecutionException e) {
+			log.debug("Batch planning failed for a student", e.getCause());
+			return null;
+		}
+	}
+
+	private void recordCandidateQueries(BatchPenMatchLookupManager batchLookupManager) {
+		long lookups = batchLookupManager.getCandidateLookups();
+		long executed = batchLookupManager.getCandidateQueriesExecuted();
+		candidateLookupsCounter.increment(lookups);
+		candidateQueriesCounter.increment(executed);
+		candidateQueriesSavedCounter.increment(Math.max(0, lookups - executed));
+	}
+
+	/**
+	 * Matches a stream of newline delimited students, writing one newline
+	 * delimited result per student in the same order. At most streamWindowSize
+	 * students are in flight at a time; when the window is full no more input is
+	 * read until the oldest student has been matched and written, which pushes
+	 * back on the client when the lookups fall behind.
+	 *
+	 * Each student is validated as a /bulk student is. A student which can't be
+	 * read, fails validation or fails to match gets a {@link PenMatchStreamError}
+	 * line with its index instead of a result, and the stream goes on; only a
+	 * record which isn't valid JSON ends the stream, after its error line.
+	 *
+	 * @param input
+	 * @param output
+	 * @return the number of students read
+	 * @throws IOException
+	 */
+	public long matchStream(InputStream input, OutputStream output) throws IOException {
+		ObjectReader reader = objectMapper.readerFor(PenMatchStudent.class);
+		ObjectWriter writer = objectMapper.writer();
+		Deque<CompletableFuture<Object>> inFlight = new ArrayDeque<>(streamWindowSize);
+		long index = 0;
+
+		try (MappingIterator<PenMatchStudent> students = reader.readValues(input)) {
+			while (true) {
+				if (inFlight.size() >= streamWindowSize) {
+					writeResult(awaitResult(inFlight), writer, output);
+				}
+				try {
+					if (!students.hasNextValue()) {
+						break;
+					}
+					inFlight.addLast(submitStreamStudent(students.nextValue(), index));
+				} catch (JsonProcessingException e) {
+					inFlight.addLast(CompletableFuture.completedFuture(new PenMatchStreamError(index, "Unreadable student: " + e.getOriginalMessage())));
+					// a mapping error skips the student, anything else leaves the rest of the stream unreadable
+					if (!(e instanceof JsonMappingException)) {
+						index++;
+						break;
+					}
+				}
+				index++;
+			}
+			while (!inFlight.isEmpty()) {
+				writeResult(awaitResult(inFlight), writer, output);
+			}
+		} finally {
+			inFlight.forEach(future -> future.cancel(true));
+		}
+		log.debug("Matched stream of {} students", index);
+		return index;
+	}
+
+	private CompletableFuture<Object> submitStreamStudent(PenMatchStudent student, long index) {
+		if (student == null) {
+			return CompletableFuture.completedFuture(new PenMatchStreamError(index, "student must not be null"));
+		}
+		Set<ConstraintViolation<PenMatchStudent>> violations = validator.validate(student);
+		if (!violations.isEmpty()) {
+			return CompletableFuture.completedFuture(new PenMatchStreamError(index, violations.stream().map(violation -> violation.getPropertyPath() + " " + violation.getMessage()).collect(Collectors.joining(", "))));
+		}
+		try {
+			return pipelineService.matchStudent(penMatchService, student).<Object> handle((result, e) -> e == null ? result : streamError(index, e));
+		} catch (PenMatchOverloadedException e) {
+			return CompletableFuture.completedFuture(new PenMatchStreamError(index, e.getMessage()));
+		}
+	}
+
+	private PenMatchStreamError streamError(long index, Throwable e) {
+		Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+		log.warn("Stream match failed for student {}", index, cause);
+		return new PenMatchStreamError(index, cause.getMessage());
+	}
+
+	private Object awaitResult(Deque<CompletableFuture<Object>> inFlight) {
+		CompletableFuture<Object> future = inFlight.removeFirst();
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new PENMatchRuntimeException("Stream match was interrupted");
+		} catch (ExecutionException e) {
+			// not expected, failed students are completed with their error line
+			log.error("Stream match failed", e.getCause());
+			throw new PENMatchRuntimeException("Stream match failed: " + e.getCause().getMessage());
+		}
+	}
+
+	private void writeResult(Object result, ObjectWriter writer, OutputStream output) throws IOException {
+		output.write(writer.writeValueAsBytes(result));
+		output.write(RECORD_SEPARATOR);
+		output.flush();
+	}
+
+}
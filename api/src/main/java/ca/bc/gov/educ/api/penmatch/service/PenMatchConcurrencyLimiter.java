@@ -0,0 +1,257 @@
+package ca.bc.gov.educ.api.penmatch.service;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import ca.bc.gov.educ.api.penmatch.exception.PenMatchOverloadedException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Limits the number of matches running at once, the limit adapting to the
+ * latency of the matches (AIMD). The latencies are gathered in windows of at
+ * least window milliseconds and window-samples matches, and each window is
+ * summed up by the given percentile of its latencies. A window over tolerance
+ * times the baseline cuts the limit by the backoff factor once, while a window
+ * on time with at least half the limit in flight raises it by one. The
+ * baseline is the lowest of the last windows, so that a mix of fast and slow
+ * matches doesn't read as congestion and the baseline follows the database.
+ *
+ * Matches over the limit wait for a slot, up to queue-size of them and for at
+ * most queue-timeout, and are rejected otherwise. The limit, the matches in
+ * flight and queued are gauged by penmatch.limit, penmatch.limit.in-flight and
+ * penmatch.limit.queued, the matches accepted and rejected are counted by
+ * penmatch.limit.requests and the wait for a slot is timed by
+ * penmatch.limit.wait.
+ */
+@Component
+@Slf4j
+public class PenMatchConcurrencyLimiter {
+
+	private static final int BASELINE_WINDOWS = 10;
+
+	private static final int MAX_WINDOW_SAMPLES = 1000;
+
+	private final boolean enabled;
+
+	private final int minLimit;
+
+	private final int maxLimit;
+
+	private final int queueSize;
+
+	private final long queueTimeout;
+
+	private final double tolerance;
+
+	private final double backoff;
+
+	private final long window;
+
+	private final int windowSamples;
+
+	private final double percentile;
+
+	private final LongSupplier clock;
+
+	private final ReentrantLock lock = new ReentrantLock();
+
+	private final Condition released = lock.newCondition();
+
+	private double limit;
+
+	private int inFlight;
+
+	private int queued;
+
+	private final long[] samples = new long[MAX_WINDOW_SAMPLES];
+
+	private int sampleCount;
+
+	private int windowInFlight;
+
+	private long windowStart;
+
+	private final long[] windowLatencies = new long[BASELINE_WINDOWS];
+
+	private int windowCount;
+
+	private final Counter acceptedCounter;
+
+	private final Counter rejectedCounter;
+
+	private final Timer waitTimer;
+
+	@Autowired
+	public PenMatchConcurrencyLimiter(final MeterRegistry meterRegistry, @Value("${penmatch.limit.enabled:false}") final boolean enabled, @Value("${penmatch.limit.initial:20}") final int initialLimit,
+			@Value("${penmatch.limit.min:4}") final int minLimit, @Value("${penmatch.limit.max:128}") final int maxLimit, @Value("${penmatch.limit.queue-size:50}") final int queueSize,
+			@Value("${penmatch.limit.queue-timeout:1000}") final long queueTimeout, @Value("${penmatch.limit.tolerance:2.0}") final double tolerance, @Value("${penmatch.limit.backoff:0.9}") final double backoff,
+			@Value("${penmatch.limit.window:1000}") final long window, @Value("${penmatch.limit.window-samples:20}") final int windowSamples, @Value("${penmatch.limit.percentile:0.5}") final double percentile) {
+		this(meterRegistry, enabled, initialLimit, minLimit, maxLimit, queueSize, queueTimeout, tolerance, backoff, window, windowSamples, percentile, System::nanoTime);
+	}
+
+	PenMatchConcurrencyLimiter(final MeterRegistry meterRegistry, final boolean enabled, final int initialLimit, final int minLimit, final int maxLimit, final int queueSize, final long queueTimeout,
+			final double tolerance, final double backoff, final long window, final int windowSamples, final double percentile, final LongSupplier clock) {
+		this.enabled = enabled;
+		this.limit = initialLimit;
+		this.minLimit = minLimit;
+		this.maxLimit = maxLimit;
+		this.queueSize = queueSize;
+		this.queueTimeout = queueTimeout;
+		this.tolerance = tolerance;
+		this.backoff = backoff;
+		this.window = TimeUnit.MILLISECONDS.toNanos(window);
+		this.windowSamples = Math.max(1, Math.min(windowSamples, MAX_WINDOW_SAMPLES));
+		this.percentile = percentile;
+		this.clock = clock;
+		this.windowStart = clock.getAsLong();
+		Gauge.builder("penmatch.limit", this, PenMatchConcurrencyLimiter::getLimit).description("Matches allowed to run at once").register(meterRegistry);
+		Gauge.builder("penmatch.limit.in-flight", this, PenMatchConcurrencyLimiter::getInFlight).description("Matches running").register(meterRegistry);
+		Gauge.builder("penmatch.limit.queued", this, PenMatchConcurrencyLimiter::getQueued).description("Matches waiting for a slot").register(meterRegistry);
+		this.acceptedCounter = Counter.builder("penmatch.limit.requests").description("Matches by whether they got a slot").tag("outcome", "accepted").register(meterRegistry);
+		this.rejectedCounter = Counter.builder("penmatch.limit.requests").description("Matches by whether they got a slot").tag("outcome", "rejected").register(meterRegistry);
+		this.waitTimer = Timer.builder("penmatch.limit.wait").description("Time spent waiting for a slot").register(meterRegistry);
+	}
+
+	/**
+	 * Runs a match once a slot is free
+	 *
+	 * @param match
+	 * @return the result of the match
+	 * @throws PenMatchOverloadedException when no slot freed up in time
+	 */
+	public <T> T call(Supplier<T> match) {
+		if (!enabled) {
+			return match.get();
+		}
+		long waitStart = clock.getAsLong();
+		acquire();
+		long start = clock.getAsLong();
+		waitTimer.record(start - waitStart, TimeUnit.NANOSECONDS);
+		try {
+			return match.get();
+		} finally {
+			release(clock.getAsLong() - start);
+		}
+	}
+
+	private void acquire() {
+		lock.lock();
+		try {
+			if (inFlight >= (int) limit) {
+				if (queued >= queueSize) {
+					rejectedCounter.increment();
+					throw new PenMatchOverloadedException("Too many matches in progress, try again later");
+				}
+				waitForSlot();
+			}
+			inFlight++;
+			acceptedCounter.increment();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void waitForSlot() {
+		queued++;
+		try {
+			long remaining = TimeUnit.MILLISECONDS.toNanos(queueTimeout);
+			while (inFlight >= (int) limit) {
+				if (remaining <= 0) {
+					rejectedCounter.increment();
+					throw new PenMatchOverloadedException("Too many matches in progress, try again later");
+				}
+				remaining = released.awaitNanos(remaining);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			rejectedCounter.increment();
+			throw new PenMatchOverloadedException("Interrupted while waiting for a match slot");
+		} finally {
+			queued--;
+		}
+	}
+
+	private void release(long latency) {
+		lock.lock();
+		try {
+			adjustLimit(latency, inFlight);
+			inFlight--;
+			released.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Records the latency of a match which ran with inFlight matches in flight,
+	 * itself included, adjusting the limit when the window is over
+	 *
+	 * @param latency  nanoseconds
+	 * @param inFlight
+	 */
+	void adjustLimit(long latency, int inFlight) {
+		samples[sampleCount++] = latency;
+		windowInFlight = Math.max(windowInFlight, inFlight);
+		long now = clock.getAsLong();
+		if (sampleCount == MAX_WINDOW_SAMPLES || (sampleCount >= windowSamples && now - windowStart >= window)) {
+			endWindow(now);
+		}
+	}
+
+	private void endWindow(long now) {
+		Arrays.sort(samples, 0, sampleCount);
+		long latency = samples[Math.max(0, (int) Math.ceil(percentile * sampleCount) - 1)];
+		long baseline = getBaselineLatency();
+		windowLatencies[windowCount++ % BASELINE_WINDOWS] = latency;
+
+		if (baseline > 0 && latency > baseline * tolerance) {
+			limit = Math.max(minLimit, limit * backoff);
+			log.debug("Matches took {} ms against {} ms, lowering the limit to {}", TimeUnit.NANOSECONDS.toMillis(latency), TimeUnit.NANOSECONDS.toMillis(baseline), (int) limit);
+		} else if (windowInFlight * 2 >= limit) {
+			limit = Math.min(maxLimit, limit + 1);
+		}
+
+		sampleCount = 0;
+		windowInFlight = 0;
+		windowStart = now;
+	}
+
+	/**
+	 * @return the lowest latency of the last windows in nanoseconds, 0 before
+	 *         the first window is over
+	 */
+	long getBaselineLatency() {
+		long baseline = 0;
+		for (int i = 0; i < Math.min(windowCount, BASELINE_WINDOWS); i++) {
+			if (baseline == 0 || windowLatencies[i] < baseline) {
+				baseline = windowLatencies[i];
+			}
+		}
+		return baseline;
+	}
+
+	public int getLimit() {
+		return (int) limit;
+	}
+
+	public int getInFlight() {
+		return inFlight;
+	}
+
+	public int getQueued() {
+		return queued;
+	}
+
+}
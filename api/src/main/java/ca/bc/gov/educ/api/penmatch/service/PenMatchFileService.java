@@ -0,0 +1,201 @@
+package ca.bc.gov.educ.api.penmatch.service;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import ca.bc.gov.educ.api.penmatch.exception.InvalidValueException;
+import ca.bc.gov.educ.api.penmatch.exception.PENMatchRuntimeException;
+import ca.bc.gov.educ.api.penmatch.struct.PenMatchFileCheckpoint;
+import ca.bc.gov.educ.api.penmatch.struct.PenMatchResult;
+import ca.bc.gov.educ.api.penmatch.struct.PenMatchStudent;
+import ca.bc.gov.educ.api.penmatch.util.PenRequestFileUtils;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Matches fixed-width PEN request files offline, see
+ * {@link PenRequestFileUtils} for the record layouts.
+ */
+@Service
+@Slf4j
+public class PenMatchFileService {
+
+	public static final String CHECKPOINT_SUFFIX = ".checkpoint";
+
+	private static final byte[] RECORD_SEPARATOR = { '\n' };
+
+	private final PenMatchBatchService batchService;
+
+	private final ObjectMapper objectMapper;
+
+	private final int chunkSize;
+
+	private final int checkpointInterval;
+
+	@Autowired
+	public PenMatchFileService(final PenMatchBatchService batchService, final ObjectMapper objectMapper, @Value("${penmatch.file.chunk-size:1000}") final int chunkSize,
+			@Value("${penmatch.file.checkpoint-interval:10}") final int checkpointInterval) {
+		this.batchService = batchService;
+		this.objectMapper = objectMapper;
+		this.chunkSize = chunkSize;
+		this.checkpointInterval = checkpointInterval;
+	}
+
+	/**
+	 * Matches every student record of a PEN request file and writes one result
+	 * record per student, in the same order. The input file is memory mapped and
+	 * parsed in chunks; each chunk goes through the match pipeline while the
+	 * results of the previous chunk are written, so all cores stay busy.
+	 *
+	 * Every checkpointInterval chunks the input offset and the length of the
+	 * results are saved next to the output file. A run restarted on the same
+	 * files resumes after the last checkpoint instead of matching the whole file
+	 * again; the checkpoint is removed once the file is complete. A checkpoint
+	 * taken on an input of another size or last modified time is ignored and the
+	 * whole file is matched again.
+	 *
+	 * @param input
+	 * @param output
+	 * @return the number of students matched
+	 * @throws IOException
+	 */
+	public long matchFile(Path input, Path output) throws IOException {
+		Path checkpointFile = output.resolveSibling(output.getFileName() + CHECKPOINT_SUFFIX);
+		long inputSize = Files.size(input);
+		long inputModified = Files.getLastModifiedTime(input).toMillis();
+		PenMatchFileCheckpoint checkpoint = Files.exists(checkpointFile) ? objectMapper.readValue(checkpointFile.toFile(), PenMatchFileCheckpoint.class) : new PenMatchFileCheckpoint();
+		if (checkpoint.getInputOffset() > 0 && (checkpoint.getInputSize() != inputSize || checkpoint.getInputModified() != inputModified)) {
+			log.warn("Ignoring the checkpoint of {} as {} changed since it was taken", output, input);
+			checkpoint = new PenMatchFileCheckpoint();
+		}
+		checkpoint.setInputSize(inputSize);
+		checkpoint.setInputModified(inputModified);
+		if (checkpoint.getInputOffset() > 0) {
+			log.info("Resuming match of {} after {} students", input, checkpoint.getStudentsMatched());
+		}
+
+		long failed = 0;
+		try (FileChannel channel = FileChannel.open(input, StandardOpenOption.READ); FileChannel results = FileChannel.open(output, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+			if (channel.size() > Integer.MAX_VALUE) {
+				throw new InvalidValueException("fileSize", String.valueOf(channel.size()));
+			}
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			results.truncate(checkpoint.getOutputOffset());
+			results.position(checkpoint.getOutputOffset());
+			OutputStream writer = new BufferedOutputStream(Channels.newOutputStream(results));
+
+			List<PenMatchStudent> chunk = new ArrayList<>(chunkSize);
+			List<PenMatchStudent> pendingStudents = null;
+			List<Future<PenMatchResult>> pendingResults = null;
+			int pendingEnd = 0;
+			int chunksSinceCheckpoint = 0;
+			int start = (int) checkpoint.getInputOffset();
+			int limit = buffer.limit();
+			while (start < limit) {
+				int end = start;
+				while (end < limit && buffer.get(end) != '\n') {
+					end++;
+				}
+				if (PenRequestFileUtils.isStudentRecord(buffer, start, end)) {
+					chunk.add(PenRequestFileUtils.parseStudent(buffer, start, end));
+				}
+				start = end + 1;
+
+				if (chunk.size() >= chunkSize || (start >= limit && !chunk.isEmpty())) {
+					List<Future<PenMatchResult>> chunkResults = batchService.submitJobStudents(chunk);
+					if (pendingResults != null) {
+						failed += writeResults(pendingStudents, pendingResults, writer);
+						if (++chunksSinceCheckpoint >= checkpointInterval) {
+							saveCheckpoint(checkpoint, pendingStudents.size(), pendingEnd, writer, results, checkpointFile);
+							chunksSinceCheckpoint = 0;
+						} else {
+							checkpoint.setStudentsMatched(checkpoint.getStudentsMatched() + pendingStudents.size());
+						}
+					}
+					pendingStudents = chunk;
+					pendingResults = chunkResults;
+					pendingEnd = Math.min(start, limit);
+					chunk = new ArrayList<>(chunkSize);
+				}
+			}
+			if (pendingResults != null) {
+				failed += writeResults(pendingStudents, pendingResults, writer);
+				checkpoint.setStudentsMatched(checkpoint.getStudentsMatched() + pendingStudents.size());
+			}
+			writer.flush();
+		}
+		Files.deleteIfExists(checkpointFile);
+		log.info("Matched {} students from {}, {} failed", checkpoint.getStudentsMatched(), input, failed);
+		return checkpoint.getStudentsMatched();
+	}
+
+	/**
+	 * Makes the results written so far durable, then records how far the input
+	 * and output files have been processed
+	 *
+	 * @param checkpoint
+	 * @param students
+	 * @param inputOffset
+	 * @param writer
+	 * @param results
+	 * @param checkpointFile
+	 * @throws IOException
+	 */
+	private void saveCheckpoint(PenMatchFileCheckpoint checkpoint, int students, int inputOffset, OutputStream writer, FileChannel results, Path checkpointFile) throws IOException {
+		writer.flush();
+		results.force(false);
+		checkpoint.setStudentsMatched(checkpoint.getStudentsMatched() + students);
+		checkpoint.setInputOffset(inputOffset);
+		checkpoint.setOutputOffset(results.position());
+		Path tempFile = Files.write(checkpointFile.resolveSibling(checkpointFile.getFileName() + ".tmp"), objectMapper.writeValueAsBytes(checkpoint));
+		Files.move(tempFile, checkpointFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Writes the results of a chunk in order, a student that failed gets a result
+	 * record without PEN status
+	 *
+	 * @param students
+	 * @param results
+	 * @param writer
+	 * @return the number of students that failed
+	 * @throws IOException
+	 */
+	private long writeResults(List<PenMatchStudent> students, List<Future<PenMatchResult>> results, OutputStream writer) throws IOException {
+		long failed = 0;
+		for (int i = 0; i < students.size(); i++) {
+			PenMatchResult result = null;
+			try {
+				result = results.get(i).get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				results.forEach(future -> future.cancel(true));
+				throw new PENMatchRuntimeException("File match was interrupted");
+			} catch (ExecutionException e) {
+				log.warn("Student in file match failed", e.getCause());
+				failed++;
+			}
+			writer.write(PenRequestFileUtils.formatResult(students.get(i), result));
+			writer.write(RECORD_SEPARATOR);
+		}
+		return failed;
+	}
+
+}
@@ -0,0 +1,370 @@
+package ca.bc.gov.educ.api.penmatch.service;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.stream.Stream;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.springframework.util.FileSystemUtils;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import ca.bc.gov.educ.api.penmatch.enumeration.PenMatchJobState;
+import ca.bc.gov.educ.api.penmatch.exception.EntityNotFoundException;
+import ca.bc.gov.educ.api.penmatch.exception.InvalidValueException;
+import ca.bc.gov.educ.api.penmatch.exception.PENMatchRuntimeException;
+import ca.bc.gov.educ.api.penmatch.exception.PenMatchOverloadedException;
+import ca.bc.gov.educ.api.penmatch.struct.PenMatchJobStatus;
+import ca.bc.gov.educ.api.penmatch.struct.PenMatchResult;
+import ca.bc.gov.educ.api.penmatch.struct.PenMatchStudent;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Runs batches of students as asynchronous jobs. Each job is kept in its own
+ * directory holding the submitted students, the results written so far (one
+ * line per student, in submission order, null for a student that failed) and
+ * the last saved status, so that results and status survive a restart.
+ *
+ * The status is saved as a checkpoint every checkpointInterval chunks, together
+ * with the length of the results written so far. Jobs which were queued or
+ * running when the application stopped are resumed on startup from their last
+ * checkpoint, so only the students after it are matched again.
+ */
+@Service
+@Slf4j
+public class PenMatchJobService {
+
+	public static final String STUDENTS_FILE = "students.ndjson";
+	public static final String RESULTS_FILE = "results.ndjson";
+	public static final String STATUS_FILE = "status.json";
+
+	private final PenMatchBatchService batchService;
+
+	private final ExecutorService jobExecutor;
+
+	private final ObjectMapper objectMapper;
+
+	private final Path jobDirectory;
+
+	private final int chunkSize;
+
+	private final int maxJobSize;
+
+	private final int checkpointInterval;
+
+	private final Map<String, PenMatchJobStatus> activeJobs = new ConcurrentHashMap<>();
+
+	@Autowired
+	public PenMatchJobService(final PenMatchBatchService batchService, @Qualifier("penMatchJobExecutor") final ExecutorService jobExecutor, final ObjectMapper objectMapper,
+			@Value("${penmatch.job.directory:${java.io.tmpdir}/pen-match-jobs}") final String jobDirectory, @Value("${penmatch.job.chunk-size:500}") final int chunkSize, @Value("${penmatch.job.max-size:500000}") final int maxJobSize,
+			@Value("${penmatch.job.checkpoint-interval:1}") final int checkpointInterval) {
+		this.batchService = batchService;
+		this.jobExecutor = jobExecutor;
+		this.objectMapper = objectMapper;
+		this.jobDirectory = Paths.get(jobDirectory);
+		this.chunkSize = chunkSize;
+		this.maxJobSize = maxJobSize;
+		this.checkpointInterval = checkpointInterval;
+	}
+
+	/**
+	 * Saves the students of a new job and queues the job for execution
+	 *
+	 * @param students
+	 * @return the status of the queued job
+	 */
+	public PenMatchJobStatus submitJob(List<PenMatchStudent> students) {
+		if (students.size() > maxJobSize) {
+			throw new InvalidValueException("jobSize", String.valueOf(students.size()));
+		}
+
+		PenMatchJobStatus status = new PenMatchJobStatus();
+		status.setJobId(UUID.randomUUID().toString());
+		status.setState(PenMatchJobState.QUEUED);
+		status.setTotalStudents(students.size());
+		status.setMatchedByPenStatus(new TreeMap<>());
+		status.setSubmittedDate(LocalDateTime.now());
+
+		try {
+			Path directory = Files.createDirectories(jobDirectory.resolve(status.getJobId()));
+			try (BufferedWriter writer = Files.newBufferedWriter(directory.resolve(STUDENTS_FILE), StandardCharsets.UTF_8)) {
+				for (PenMatchStudent student : students) {
+					writer.write(objectMapper.writeValueAsString(student));
+					writer.newLine();
+				}
+			}
+			saveStatus(status);
+		} catch (IOException e) {
+			throw new PENMatchRuntimeException("Unable to save match job: " + e.getMessage());
+		}
+
+		activeJobs.put(status.getJobId(), status);
+		try {
+			jobExecutor.submit(() -> runJob(status));
+		} catch (RejectedExecutionException e) {
+			activeJobs.remove(status.getJobId());
+			deleteJob(status.getJobId());
+			throw new PenMatchOverloadedException("Too many match jobs queued, try again later");
+		}
+		log.info("Queued match job {} with {} students", status.getJobId(), students.size());
+		return getJobStatus(status.getJobId());
+	}
+
+	/**
+	 * Queues again the jobs which were queued or running when the application
+	 * stopped
+	 */
+	@EventListener(ApplicationReadyEvent.class)
+	public void resumeJobs() {
+		if (!Files.isDirectory(jobDirectory)) {
+			return;
+		}
+		try (Stream<Path> directories = Files.list(jobDirectory)) {
+			directories.filter(directory -> Files.exists(directory.resolve(STATUS_FILE))).forEach(this::resumeJob);
+		} catch (IOException e) {
+			log.error("Unable to resume match jobs", e);
+		}
+	}
+
+	private void resumeJob(Path directory) {
+		try {
+			PenMatchJobStatus status = objectMapper.readValue(directory.resolve(STATUS_FILE).toFile(), PenMatchJobStatus.class);
+			if ((status.getState() == PenMatchJobState.QUEUED || status.getState() == PenMatchJobState.RUNNING) && activeJobs.putIfAbsent(status.getJobId(), status) == null) {
+				log.info("Resuming match job {} after {} students", status.getJobId(), status.getProcessedStudents());
+				jobExecutor.submit(() -> runJob(status));
+			}
+		} catch (RejectedExecutionException e) {
+			log.warn("Too many match jobs queued, match job in {} is resumed on the next start", directory);
+		} catch (IOException e) {
+			log.error("Unable to resume match job in {}", directory, e);
+		}
+	}
+
+	/**
+	 * Returns the progress of a job
+	 *
+	 * @param jobId
+	 * @return
+	 */
+	public PenMatchJobStatus getJobStatus(String jobId) {
+		PenMatchJobStatus status = activeJobs.get(jobId);
+		if (status != null) {
+			synchronized (status) {
+				return copyOf(status);
+			}
+		}
+		Path statusFile = getJobDirectory(jobId).resolve(STATUS_FILE);
+		try {
+			return objectMapper.readValue(statusFile.toFile(), PenMatchJobStatus.class);
+		} catch (IOException e) {
+			throw new PENMatchRuntimeException("Unable to read status of match job " + jobId + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Returns the file holding the results written so far for a job, one JSON
+	 * result per line
+	 *
+	 * @param jobId
+	 * @return
+	 */
+	public Path getJobResults(String jobId) {
+		Path resultsFile = getJobDirectory(jobId).resolve(RESULTS_FILE);
+		if (!Files.exists(resultsFile)) {
+			throw new EntityNotFoundException(PenMatchResult.class, "jobId", jobId);
+		}
+		return resultsFile;
+	}
+
+	/**
+	 * Matches the students of a job chunk by chunk through the match pipeline,
+	 * appending the results of each chunk and checkpointing as it goes. Results
+	 * written after the last checkpoint are discarded and the students after it
+	 * are matched again.
+	 *
+	 * @param status
+	 */
+	private void runJob(PenMatchJobStatus status) {
+		String jobId = status.getJobId();
+		Path directory = jobDirectory.resolve(jobId);
+		updateState(status, PenMatchJobState.RUNNING, null);
+
+		try (BufferedReader reader = Files.newBufferedReader(directory.resolve(STUDENTS_FILE), StandardCharsets.UTF_8);
+				FileChannel results = FileChannel.open(directory.resolve(RESULTS_FILE), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+				BufferedWriter writer = new BufferedWriter(Channels.newWriter(results, StandardCharsets.UTF_8.newEncoder(), -1))) {
+			results.truncate(status.getResultsOffset());
+			results.position(status.getResultsOffset());
+			for (long skipped = 0; skipped < status.getProcessedStudents() && reader.readLine() != null; skipped++) {
+				// already matched before the last checkpoint
+			}
+
+			List<PenMatchStudent> chunk = new ArrayList<>(chunkSize);
+			int chunksSinceCheckpoint = 0;
+			String line;
+			while ((line = reader.readLine()) != null) {
+				chunk.add(objectMapper.readValue(line, PenMatchStudent.class));
+				if (chunk.size() >= chunkSize) {
+					runChunk(status, chunk, writer);
+					chunk.clear();
+					if (++chunksSinceCheckpoint >= checkpointInterval) {
+						checkpoint(status, writer, results);
+						chunksSinceCheckpoint = 0;
+					}
+				}
+			}
+			if (!chunk.isEmpty()) {
+				runChunk(status, chunk, writer);
+			}
+			checkpoint(status, writer, results);
+			updateState(status, PenMatchJobState.COMPLETED, null);
+			log.info("Completed match job {}", jobId);
+		} catch (Exception e) {
+			if (e instanceof InterruptedException || Thread.currentThread().isInterrupted()) {
+				// stopped by a shutdown, the job stays running and resumes on the next startup
+				Thread.currentThread().interrupt();
+				log.warn("Match job {} was interrupted, it will resume from its last checkpoint", jobId);
+			} else {
+				log.error("Match job {} failed", jobId, e);
+				updateState(status, PenMatchJobState.FAILED, e.getMessage());
+			}
+		} finally {
+			activeJobs.remove(jobId);
+		}
+	}
+
+	private void runChunk(PenMatchJobStatus status, List<PenMatchStudent> chunk, BufferedWriter writer) throws IOException, InterruptedException {
+		List<Future<PenMatchResult>> futures = batchService.submitJobStudents(chunk);
+		// duplicate students of the chunk share the future of the first one
+		Set<Future<PenMatchResult>> distinctFutures = Collections.newSetFromMap(new IdentityHashMap<>());
+		for (Future<PenMatchResult> future : futures) {
+			boolean duplicate = !distinctFutures.add(future);
+			PenMatchResult result = null;
+			try {
+				result = future.get();
+			} catch (ExecutionException e) {
+				log.warn("Student in match job {} failed", status.getJobId(), e.getCause());
+			}
+			writer.write(objectMapper.writeValueAsString(result));
+			writer.newLine();
+			synchronized (status) {
+				status.setProcessedStudents(status.getProcessedStudents() + 1);
+				if (duplicate) {
+					status.setDuplicateStudents(status.getDuplicateStudents() + 1);
+				}
+				if (result == null) {
+					status.setFailedStudents(status.getFailedStudents() + 1);
+				} else {
+					status.getMatchedByPenStatus().merge(result.getPenStatus(), 1L, Long::sum);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Makes the results written so far durable, then saves the status with the
+	 * length of the results so that a restart resumes from this point
+	 *
+	 * @param status
+	 * @param writer
+	 * @param results
+	 * @throws IOException
+	 */
+	private void checkpoint(PenMatchJobStatus status, BufferedWriter writer, FileChannel results) throws IOException {
+		writer.flush();
+		results.force(false);
+		synchronized (status) {
+			status.setResultsOffset(results.position());
+		}
+		saveStatus(status);
+	}
+
+	private void updateState(PenMatchJobStatus status, PenMatchJobState state, String errorMessage) {
+		synchronized (status) {
+			status.setState(state);
+			status.setErrorMessage(errorMessage);
+			if (state == PenMatchJobState.COMPLETED || state == PenMatchJobState.FAILED) {
+				status.setCompletedDate(LocalDateTime.now());
+			}
+		}
+		try {
+			saveStatus(status);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Writes the status to a temporary file and moves it over the previous one so
+	 * that readers never see a partially written status
+	 *
+	 * @param status
+	 * @throws IOException
+	 */
+	private void saveStatus(PenMatchJobStatus status) throws IOException {
+		byte[] content;
+		synchronized (status) {
+			content = objectMapper.writeValueAsBytes(status);
+		}
+		Path directory = jobDirectory.resolve(status.getJobId());
+		Path tempFile = Files.write(directory.resolve(STATUS_FILE + ".tmp"), content);
+		Files.move(tempFile, directory.resolve(STATUS_FILE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private void deleteJob(String jobId) {
+		try {
+			FileSystemUtils.deleteRecursively(jobDirectory.resolve(jobId));
+		} catch (IOException e) {
+			log.warn("Unable to delete match job {}", jobId, e);
+		}
+	}
+
+	private Path getJobDirectory(String jobId) {
+		String validJobId;
+		try {
+			validJobId = UUID.fromString(jobId).toString();
+		} catch (IllegalArgumentException e) {
+			throw new InvalidValueException("jobId", jobId);
+		}
+		Path directory = jobDirectory.resolve(validJobId);
+		if (!Files.isDirectory(directory)) {
+			throw new EntityNotFoundException(PenMatchJobStatus.class, "jobId", jobId);
+		}
+		return directory;
+	}
+
+	private PenMatchJobStatus copyOf(PenMatchJobStatus status) {
+		PenMatchJobStatus copy = objectMapper.convertValue(status, PenMatchJobStatus.class);
+		copy.setMatchedByPenStatus(new TreeMap<>(status.getMatchedByPenStatus()));
+		return copy;
+	}
+
+}
@@ -0,0 +1,110 @@
+package ca.bc.gov.educ.api.penmatch.service;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Supplier;
+
+import ca.bc.gov.educ.api.penmatch.struct.PenMatchResult;
+import ca.bc.gov.educ.api.penmatch.struct.PenMatchSession;
+import ca.bc.gov.educ.api.penmatch.struct.PenMatchStudent;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+
+/**
+ * Runs matches as a pipeline of three stages - normalize, lookup and score -
+ * each on its own bounded pool, so that students waiting on the database don't
+ * hold back students being scored and the other way round.
+ *
+ * Each stage pool is published as executor metrics (executor.queued,
+ * executor.active, executor.completed...) tagged with name penmatch.pipeline,
+ * the pipeline and the stage, and the time spent in each stage is timed by
+ * penmatch.pipeline.stage. The bulk and job pipelines are created by
+ * {@link ca.bc.gov.educ.api.penmatch.config.PenMatchBatchConfig}, each with
+ * its own stage pools.
+ */
+public class PenMatchPipelineService {
+
+	public static final String BULK_PIPELINE = "bulk";
+	public static final String JOB_PIPELINE = "job";
+
+	public static final String NORMALIZE_STAGE = "normalize";
+	public static final String LOOKUP_STAGE = "lookup";
+	public static final String SCORE_STAGE = "score";
+
+	private final ExecutorService normalizeExecutor;
+
+	private final ExecutorService lookupExecutor;
+
+	private final ExecutorService scoreExecutor;
+
+	private final Timer normalizeTimer;
+
+	private final Timer lookupTimer;
+
+	private final Timer scoreTimer;
+
+	public PenMatchPipelineService(final String pipeline, final ExecutorService normalizeExecutor, final ExecutorService lookupExecutor, final ExecutorService scoreExecutor, final MeterRegistry meterRegistry) {
+		this.normalizeExecutor = normalizeExecutor;
+		this.lookupExecutor = lookupExecutor;
+		this.scoreExecutor = scoreExecutor;
+		new ExecutorServiceMetrics(normalizeExecutor, "penmatch.pipeline", Tags.of("pipeline", pipeline, "stage", NORMALIZE_STAGE)).bindTo(meterRegistry);
+		new ExecutorServiceMetrics(lookupExecutor, "penmatch.pipeline", Tags.of("pipeline", pipeline, "stage", LOOKUP_STAGE)).bindTo(meterRegistry);
+		new ExecutorServiceMetrics(scoreExecutor, "penmatch.pipeline", Tags.of("pipeline", pipeline, "stage", SCORE_STAGE)).bindTo(meterRegistry);
+		this.normalizeTimer = stageTimer(meterRegistry, pipeline, NORMALIZE_STAGE);
+		this.lookupTimer = stageTimer(meterRegistry, pipeline, LOOKUP_STAGE);
+		this.scoreTimer = stageTimer(meterRegistry, pipeline, SCORE_STAGE);
+	}
+
+	/**
+	 * Matches a student through all three stages
+	 *
+	 * @param penMatchService
+	 * @param student
+	 * @return
+	 */
+	public CompletableFuture<PenMatchResult> matchStudent(PenMatchService penMatchService, PenMatchStudent student) {
+		return normalizeStudent(penMatchService, student).thenCompose(session -> lookupAndScoreStudent(penMatchService, student, session));
+	}
+
+	/**
+	 * Runs the normalize stage of a student
+	 *
+	 * @param penMatchService
+	 * @param student
+	 * @return
+	 */
+	public CompletableFuture<PenMatchSession> normalizeStudent(PenMatchService penMatchService, PenMatchStudent student) {
+		return CompletableFuture.supplyAsync(() -> normalizeTimer.record(() -> penMatchService.normalizeStudent(student)), normalizeExecutor);
+	}
+
+	/**
+	 * Runs the lookup then score stages of a normalized student
+	 *
+	 * @param penMatchService
+	 * @param student
+	 * @param session
+	 * @return
+	 */
+	public CompletableFuture<PenMatchResult> lookupAndScoreStudent(PenMatchService penMatchService, PenMatchStudent student, PenMatchSession session) {
+		return CompletableFuture.runAsync(() -> lookupTimer.record(() -> penMatchService.lookupStudent(student, session)), lookupExecutor)
+				.thenApplyAsync(ignored -> scoreTimer.record(() -> penMatchService.scoreStudent(student, session)), scoreExecutor);
+	}
+
+	/**
+	 * Runs a lookup which isn't tied to a single student, such as fetching the
+	 * candidates of a batch, on the lookup stage
+	 *
+	 * @param lookup
+	 * @return
+	 */
+	public <T> CompletableFuture<T> lookup(Supplier<T> lookup) {
+		return CompletableFuture.supplyAsync(() -> lookupTimer.record(lookup), lookupExecutor);
+	}
+
+	private Timer stageTimer(MeterRegistry meterRegistry, String pipeline, String stage) {
+		return Timer.builder("penmatch.pipeline.stage").description("Time spent by students in a stage of the match pipeline").tag("pipeline", pipeline).tag("stage", stage).register(meterRegistry);
+	}
+
+}
@@ -0,0 +1,155 @@
+package ca.bc.gov.educ.api.penmatch.service;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import ca.bc.gov.educ.api.penmatch.lookup.PenDemogCandidateReader;
+import ca.bc.gov.educ.api.penmatch.util.PenMatchUtils;
+import ca.bc.gov.educ.api.penmatch.util.ScoringUtils;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Rebuilds PEN_MATCH_SEARCH, the search table of the PEN Demog candidate
+ * queries, from PEN Demog. The table is created by the scripts of db/, one for
+ * Oracle and one for H2, along with the trigger recording the students changed
+ * in PEN Demog since, which {@link #sync()} folds into the table.
+ */
+@Service
+@Slf4j
+public class PenMatchSearchTableService {
+
+	private static final String EXPORT_SQL = "SELECT STUD_NO, STUD_SURNAME, STUD_GIVEN, STUD_MIDDLE, USUAL_SURNAME, USUAL_GIVEN, USUAL_MIDDLE, STUD_BIRTH, STUD_SEX, STUD_STATUS, PEN_LOCAL_ID, POSTAL, STUD_GRADE, PEN_MINCODE, STUD_TRUE_NO FROM PEN_DEMOG";
+
+	private static final String DELETE_SQL = "DELETE FROM PEN_MATCH_SEARCH";
+
+	private static final String DELETE_CHANGES_SQL = "DELETE FROM PEN_MATCH_SEARCH_CHANGE";
+
+	private static final String CHANGES_SQL = "SELECT DISTINCT STUD_NO FROM PEN_MATCH_SEARCH_CHANGE";
+
+	// Oracle takes at most 1000 values in an IN list
+	private static final int MAX_IN_LIST = 1000;
+
+	private static final String INSERT_SQL = "INSERT INTO PEN_MATCH_SEARCH (STUD_NO, STUD_BIRTH, SURNAME_4, SURNAME_6, GIVEN_1, GIVEN_2, PEN_MINCODE, PEN_LOCAL_ID, SURNAME, GIVEN, MIDDLE, USUAL_SURNAME, USUAL_GIVEN, USUAL_MIDDLE, SEX, STATUS, POSTAL, GRADE, MINCODE, LOCAL_ID, ALT_LOCAL_ID, TRUE_NO, SURNAME_SOUNDEX, USUAL_SURNAME_SOUNDEX) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+	private final JdbcTemplate jdbcTemplate;
+
+	private final int fetchSize;
+
+	private final int batchSize;
+
+	@Autowired
+	public PenMatchSearchTableService(final JdbcTemplate jdbcTemplate, @Value("${penmatch.search.fetch-size:5000}") final int fetchSize, @Value("${penmatch.search.batch-size:1000}") final int batchSize) {
+		this.jdbcTemplate = jdbcTemplate;
+		this.fetchSize = fetchSize;
+		this.batchSize = batchSize;
+	}
+
+	/**
+	 * Replaces the rows of the search table with the students of PEN Demog which
+	 * can be scored, in one transaction
+	 *
+	 * @return the number of rows written
+	 */
+	@Transactional
+	public int rebuild() {
+		long start = System.currentTimeMillis();
+		// Students changed from here on are recorded again by the trigger
+		jdbcTemplate.update(DELETE_CHANGES_SQL);
+		jdbcTemplate.update(DELETE_SQL);
+		List<Object[]> rows = new ArrayList<>(batchSize);
+		int[] count = new int[1];
+		jdbcTemplate.query(connection -> {
+			PreparedStatement statement = connection.prepareStatement(EXPORT_SQL);
+			statement.setFetchSize(fetchSize);
+			return statement;
+		}, resultSet -> {
+			if (PenDemogCandidateReader.isScored(resultSet.getString(10))) {
+				rows.add(searchRow(resultSet));
+				if (rows.size() == batchSize) {
+					count[0] += insert(rows);
+				}
+			}
+		});
+		count[0] += insert(rows);
+		log.info("Rebuilt the search table with {} PEN Demog rows in {} ms", count[0], System.currentTimeMillis() - start);
+		return count[0];
+	}
+
+	/**
+	 * Rewrites the rows of the students changed in PEN Demog since the last
+	 * rebuild or sync, in one transaction. Students changed while it runs are
+	 * left to the next sync.
+	 *
+	 * @return the number of students synced
+	 */
+	@Transactional
+	public int sync() {
+		List<String> studNos = jdbcTemplate.queryForList(CHANGES_SQL, String.class);
+		if (studNos.isEmpty()) {
+			return 0;
+		}
+		long start = System.currentTimeMillis();
+		int chunkSize = Math.min(batchSize, MAX_IN_LIST);
+		List<Object[]> rows = new ArrayList<>(chunkSize);
+		for (int from = 0; from < studNos.size(); from += chunkSize) {
+			Object[] chunk = studNos.subList(from, Math.min(from + chunkSize, studNos.size())).toArray();
+			String inList = " WHERE STUD_NO IN (" + String.join(", ", Collections.nCopies(chunk.length, "?")) + ")";
+			// Changes are deleted before PEN Demog is read so that none committed in
+			// between is lost
+			jdbcTemplate.update(DELETE_CHANGES_SQL + inList, chunk);
+			jdbcTemplate.update(DELETE_SQL + inList, chunk);
+			jdbcTemplate.query(EXPORT_SQL + inList, resultSet -> {
+				if (PenDemogCandidateReader.isScored(resultSet.getString(10))) {
+					rows.add(searchRow(resultSet));
+				}
+			}, chunk);
+			insert(rows);
+		}
+		log.debug("Synced {} changed PEN Demog students into the search table in {} ms", studNos.size(), System.currentTimeMillis() - start);
+		return studNos.size();
+	}
+
+	private int insert(List<Object[]> rows) {
+		if (rows.isEmpty()) {
+			return 0;
+		}
+		jdbcTemplate.batchUpdate(INSERT_SQL, rows);
+		int inserted = rows.size();
+		rows.clear();
+		return inserted;
+	}
+
+	private static Object[] searchRow(ResultSet resultSet) throws SQLException {
+		String surname = resultSet.getString(2);
+		String given = resultSet.getString(3);
+		String localID = PenMatchUtils.checkForValidValue(resultSet.getString(11));
+		String trimmedSurname = PenMatchUtils.checkForValidValue(surname);
+		String trimmedUsualSurname = PenMatchUtils.checkForValidValue(resultSet.getString(5));
+		return new Object[] { resultSet.getString(1), resultSet.getString(8), prefix(surname, 4), prefix(surname, 6), prefix(given, 1), prefix(given, 2), resultSet.getString(14), resultSet.getString(11), trimmedSurname,
+				PenMatchUtils.checkForValidValue(given), PenMatchUtils.checkForValidValue(resultSet.getString(4)), trimmedUsualSurname, PenMatchUtils.checkForValidValue(resultSet.getString(6)),
+				PenMatchUtils.checkForValidValue(resultSet.getString(7)), PenMatchUtils.checkForValidValue(resultSet.getString(9)), PenMatchUtils.checkForValidValue(resultSet.getString(10)),
+				PenMatchUtils.checkForValidValue(resultSet.getString(12)), PenMatchUtils.checkForValidValue(resultSet.getString(13)), PenMatchUtils.checkForValidValue(resultSet.getString(14)), localID,
+				PenMatchUtils.alternateLocalIDOfMaster(localID), PenMatchUtils.checkForValidValue(resultSet.getString(15)), ScoringUtils.surnameSoundex(trimmedSurname), ScoringUtils.surnameSoundex(trimmedUsualSurname) };
+	}
+
+	/**
+	 * @param value raw PEN Demog value
+	 * @param length
+	 * @return the first length characters of the value, null when it is shorter
+	 *         and so can't start with a prefix of that length
+	 */
+	private static String prefix(String value, int length) {
+		return value != null && value.length() >= length ? value.substring(0, length) : null;
+	}
+
+}
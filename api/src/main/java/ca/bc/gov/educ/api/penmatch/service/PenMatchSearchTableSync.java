@@ -0,0 +1,66 @@
+package ca.bc.gov.educ.api.penmatch.service;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Component;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Folds the students changed in PEN Demog into the PEN_MATCH_SEARCH search
+ * table every sync-interval, so that candidate reads only go to PEN Demog for
+ * the few students changed since the last sync
+ */
+@Component
+@ConditionalOnProperty(name = "penmatch.search.enabled", havingValue = "true")
+@Slf4j
+public class PenMatchSearchTableSync implements SmartLifecycle {
+
+	private final PenMatchSearchTableService searchTableService;
+
+	private final long syncInterval;
+
+	private ScheduledExecutorService syncExecutor;
+
+	private volatile boolean running;
+
+	@Autowired
+	public PenMatchSearchTableSync(final PenMatchSearchTableService searchTableService, @Value("${penmatch.search.sync-interval:60000}") final long syncInterval) {
+		this.searchTableService = searchTableService;
+		this.syncInterval = syncInterval;
+	}
+
+	@Override
+	public void start() {
+		running = true;
+		syncExecutor = Executors.newSingleThreadScheduledExecutor(new BasicThreadFactory.Builder().namingPattern("pen-match-search-%d").daemon(true).build());
+		syncExecutor.scheduleWithFixedDelay(this::sync, syncInterval, syncInterval, TimeUnit.MILLISECONDS);
+	}
+
+	@Override
+	public void stop() {
+		running = false;
+		syncExecutor.shutdownNow();
+	}
+
+	@Override
+	public boolean isRunning() {
+		return running;
+	}
+
+	private void sync() {
+		try {
+			searchTableService.sync();
+		} catch (Exception e) {
+			log.error("Syncing the search table with PEN Demog failed", e);
+		}
+	}
+
+}
@@ -1,6 +1,7 @@
 package ca.bc.gov.educ.api.penmatch.service;
 
 import java.util.List;
+import java.util.Optional;
 import java.util.PriorityQueue;
 
 import org.apache.commons.lang3.StringUtils;
@@ -8,10 +9,12 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import ca.bc.gov.educ.api.penmatch.compare.PenMatchComparator;
+import ca.bc.gov.educ.api.penmatch.enumeration.CandidateQueryType;
 import ca.bc.gov.educ.api.penmatch.enumeration.PenAlgorithm;
 import ca.bc.gov.educ.api.penmatch.enumeration.PenStatus;
 import ca.bc.gov.educ.api.penmatch.lookup.PenMatchLookupManager;
 import ca.bc.gov.educ.api.penmatch.model.PenDemographicsEntity;
+import ca.bc.gov.educ.api.penmatch.struct.CandidateQuery;
 import ca.bc.gov.educ.api.penmatch.struct.CheckForMatchResult;
 import ca.bc.gov.educ.api.penmatch.struct.GivenNameMatchResult;
 import ca.bc.gov.educ.api.penmatch.struct.LocalIDMatchResult;
@@ -53,15 +56,86 @@ public class PenMatchService {
 	public PenMatchResult matchStudent(PenMatchStudent student) {
 		log.debug("Received student payload :: {}", student);
 
-		PenMatchSession session = initialize(student);
+		PenMatchSession session = normalizeStudent(student);
+		lookupStudent(student, session);
+		return scoreStudent(student, session);
+	}
+
+	/**
+	 * Normalization step of a match - upper cases the student, stores its names
+	 * and nicknames and looks up its surname frequencies
+	 * 
+	 * @param student
+	 * @return the session carrying the student through the next steps
+	 */
+	public PenMatchSession normalizeStudent(PenMatchStudent student) {
+		return initialize(student);
+	}
 
+	/**
+	 * Lookup step of a match - fetches the PEN Master record of the PEN on the
+	 * transaction, confirms the PEN and fetches the PEN Demog candidates when the
+	 * PEN is not confirmed. Everything the scoring step needs is kept in the
+	 * session.
+	 * 
+	 * @param student
+	 * @param session
+	 */
+	public void lookupStudent(PenMatchStudent student, PenMatchSession session) {
 		PenConfirmationResult confirmationResult = new PenConfirmationResult();
 		confirmationResult.setDeceased(false);
 
+		if (student.getPen() != null) {
+			session.setPenMasterRecord(lookupManager.lookupStudentByPEN(student.getPen()));
+			if (PenMatchUtils.penCheckDigit(student.getPen())) {
+				confirmationResult = confirmPEN(student, session);
+			}
+		}
+		session.setConfirmationResult(confirmationResult);
+
+		boolean penOnFile = confirmationResult.getPenConfirmationResultCode() == PenConfirmationResult.PEN_ON_FILE;
+		if ((penOnFile && confirmationResult.getMasterRecord().getStudentNumber() != null) || (!penOnFile && confirmationResult.getPenConfirmationResultCode() != PenConfirmationResult.PEN_CONFIRMED)) {
+			lookupCandidates(student, session);
+		}
+	}
+
+	/**
+	 * Fetches the candidates of a student. Candidates read as PEN Master records
+	 * are kept in the session apart from the entities. Streamed candidates are
+	 * scored into the session as their rows are read, the local student number
+	 * being the one the scoring step will exclude.
+	 * 
+	 * @param student
+	 * @param session
+	 */
+	private void lookupCandidates(PenMatchStudent student, PenMatchSession session) {
+		CandidateQuery query = buildCandidateQuery(student);
+		String localStudentNumber = session.getConfirmationResult().getPenConfirmationResultCode() == PenConfirmationResult.PEN_ON_FILE ? session.getConfirmationResult().getLocalStudentNumber() : null;
+		if (lookupManager.streamCandidateRecords(query, masterRecord -> checkForMatchAndMergeRecord(masterRecord, student, session, localStudentNumber))) {
+			return;
+		}
+		Optional<List<PenMasterRecord>> candidateRecords = lookupManager.lookupCandidateRecords(query);
+		if (candidateRecords.isPresent()) {
+			session.setCandidateRecords(candidateRecords.get());
+		} else {
+			session.setCandidates(lookupManager.lookupCandidates(query));
+		}
+	}
+
+	/**
+	 * Scoring step of a match - works out the PEN status from the PEN
+	 * confirmation and the candidates found by the lookup step
+	 * 
+	 * @param student
+	 * @param session
+	 * @return
+	 */
+	public PenMatchResult scoreStudent(PenMatchStudent student, PenMatchSession session) {
+		PenConfirmationResult confirmationResult = session.getConfirmationResult();
+
 		if (student.getPen() != null) { 
 			boolean validCheckDigit = PenMatchUtils.penCheckDigit(student.getPen());
 			if (validCheckDigit) {
-				confirmationResult = confirmPEN(student, session);
 				if (confirmationResult.getPenConfirmationResultCode() == PenConfirmationResult.PEN_CONFIRMED) {
 					if (confirmationResult.getMergedPEN() == null) {
 						session.setPenStatus(PenStatus.AA.getValue());
@@ -106,7 +180,7 @@ public class PenMatchService {
 		}
 
 		if (session.getPenStatus().equals(PenStatus.AA.getValue()) || session.getPenStatus().equals(PenStatus.B1.getValue()) || session.getPenStatus().equals(PenStatus.C1.getValue()) || session.getPenStatus().equals(PenStatus.D1.getValue())) {
-			PenMasterRecord masterRecord = lookupManager.lookupStudentByPEN(student.getPen());
+			PenMasterRecord masterRecord = session.getPenMasterRecord();
 			if (masterRecord != null && !masterRecord.getDob().equals(student.getDob())) {
 				session.setPenStatusMessage("Birthdays are suspect: " + masterRecord.getDob() + " vs " + student.getDob());
 				session.setPenStatus(PenStatus.F1.getValue());
@@ -131,6 +205,22 @@ public class PenMatchService {
 		return result;
 	}
 
+	/**
+	 * Works out the candidate query a match of a normalized student will run, so
+	 * that a batch can fetch the candidates of all its students up front. Returns
+	 * null when the candidate query depends on the outcome of the PEN
+	 * confirmation, i.e. when the student has a PEN with a valid check digit.
+	 * 
+	 * @param student
+	 * @return
+	 */
+	public CandidateQuery planCandidateQuery(PenMatchStudent student) {
+		if (student.getPen() != null && PenMatchUtils.penCheckDigit(student.getPen())) {
+			return null;
+		}
+		return buildCandidateQuery(student);
+	}
+
 	/**
 	 * Initialize the student record and variables (will be refactored)
 	 * 
@@ -138,22 +228,16 @@ public class PenMatchService {
 	 * @return
 	 */
 	private PenMatchSession initialize(PenMatchStudent student) {
-		PenMatchSession session = new PenMatchSession();
-		session.setPenStatusMessage(null);
-		session.setMatchingRecords(new PriorityQueue<PenMatchRecord>(new PenMatchComparator()));
+		PenMatchSession session = newSession();
 
 		PenMatchUtils.upperCaseInputStudent(student);
 		
-		session.setReallyGoodMatches(0);
-		session.setPrettyGoodMatches(0);
-		session.setReallyGoodPEN(null);
-		session.setNumberOfMatches(0);
 		student.setAlternateLocalID("TTT");
 
 		// Strip off leading zeros, leading blanks and trailing blanks
 		// from the local_id. Put result in alternateLocalID.
 		if (student.getLocalID() != null) {
-			student.setAlternateLocalID(StringUtils.stripStart(student.getLocalID(), "0").replaceAll(" ", ""));
+			student.setAlternateLocalID(PenMatchUtils.stripLocalID(student.getLocalID()));
 		}
 
 		student.setPenMatchTransactionNames(storeNamesFromTransaction(student));
@@ -198,6 +282,17 @@ public class PenMatchService {
 		return session;
 	}
 
+	private PenMatchSession newSession() {
+		PenMatchSession session = new PenMatchSession();
+		session.setPenStatusMessage(null);
+		session.setMatchingRecords(new PriorityQueue<PenMatchRecord>(new PenMatchComparator()));
+		session.setReallyGoodMatches(0);
+		session.setPrettyGoodMatches(0);
+		session.setReallyGoodPEN(null);
+		session.setNumberOfMatches(0);
+		return session;
+	}
+
 	/**
 	 * This function stores all names in an object It includes some split logic for
 	 * given/middle names
@@ -291,7 +386,7 @@ public class PenMatchService {
 		String localStudentNumber = student.getPen();
 		result.setDeceased(false);
 
-		PenMasterRecord masterRecord = lookupManager.lookupStudentByPEN(localStudentNumber);
+		PenMasterRecord masterRecord = session.getPenMasterRecord();
 
 		boolean matchFound = false;
 
@@ -327,54 +422,13 @@ public class PenMatchService {
 	}
 
 	/**
-	 * Find all possible students on master who could match the transaction - If the
-	 * first four characters of surname are uncommon then only use 4 characters in
-	 * lookup. Otherwise use 6 characters , or 5 if surname is only 5 characters
-	 * long use the given initial in the lookup unless 1st 4 characters of surname
-	 * is quite rare
+	 * Find all possible students on master who could match the transaction
 	 */
 	private void findMatchesOnPenDemog(PenMatchStudent student, boolean penFoundOnMaster, PenMatchSession session, String localStudentNumber) {
-		boolean useGivenInitial = true;
 		boolean type5F1 = false;
 
-		if (student.getPartialSurnameFrequency() <= NOT_VERY_FREQUENT) {
-			if (student.getSurname() != null) {
-				student.setPartialStudentSurname(student.getSurname().substring(0, student.getMinSurnameSearchSize()));
-			}
-			useGivenInitial = false;
-		} else {
-			if (student.getPartialSurnameFrequency() <= VERY_FREQUENT) {
-				if (student.getSurname() != null) {
-					student.setPartialStudentSurname(student.getSurname().substring(0, student.getMinSurnameSearchSize()));
-				}
-				if (student.getGivenName() != null && !student.getGivenName().isEmpty()) {
-					student.setPartialStudentGiven(student.getGivenName().substring(0, 1));
-				}
-			} else {
-				if (student.getSurname() != null) {
-					student.setPartialStudentSurname(student.getSurname().substring(0, student.getMaxSurnameSearchSize()));
-				}
-				if (student.getGivenName() != null && student.getGivenName().length() >= 2) {
-					student.setPartialStudentGiven(student.getGivenName().substring(0, 2));
-				} 
-			}
-		}
-
-		List<PenDemographicsEntity> penDemogList;
-		if (student.getLocalID() == null) {
-			if (useGivenInitial) {
-				penDemogList = lookupManager.lookupNoLocalID(student.getDob(), student.getPartialStudentSurname(), student.getPartialStudentGiven());
-			} else {
-				penDemogList = lookupManager.lookupNoInitNoLocalID(student.getDob(), student.getPartialStudentSurname());
-			}
-		} else {
-			if (useGivenInitial) {
-				penDemogList = lookupManager.lookupWithAllParts(student.getDob(), student.getPartialStudentSurname(), student.getPartialStudentGiven(), student.getMincode(), student.getLocalID());
-			} else {
-				penDemogList = lookupManager.lookupNoInit(student.getDob(), student.getPartialStudentSurname(), student.getMincode(), student.getLocalID());
-			}
-		}
-		performCheckForMatchAndMerge(penDemogList, student, session, localStudentNumber);
+		performCheckForMatchAndMerge(session.getCandidates(), student, session, localStudentNumber);
+		performCheckForMatchAndMergeRecords(session.getCandidateRecords(), student, session, localStudentNumber);
 
 		// If a PEN was provided, but the demographics didn't match the student
 		// on PEN-MASTER with that PEN, then add the student on PEN-MASTER to
@@ -442,6 +496,63 @@ public class PenMatchService {
 
 	}
 
+	/**
+	 * Work out the candidate query for a student - If the first four characters of
+	 * surname are uncommon then only use 4 characters in lookup. Otherwise use 6
+	 * characters , or 5 if surname is only 5 characters long use the given initial
+	 * in the lookup unless 1st 4 characters of surname is quite rare
+	 * 
+	 * @param student
+	 * @return
+	 */
+	private CandidateQuery buildCandidateQuery(PenMatchStudent student) {
+		boolean useGivenInitial = true;
+
+		if (student.getPartialSurnameFrequency() <= NOT_VERY_FREQUENT) {
+			if (student.getSurname() != null) {
+				student.setPartialStudentSurname(student.getSurname().substring(0, student.getMinSurnameSearchSize()));
+			}
+			useGivenInitial = false;
+		} else {
+			if (student.getPartialSurnameFrequency() <= VERY_FREQUENT) {
+				if (student.getSurname() != null) {
+					student.setPartialStudentSurname(student.getSurname().substring(0, student.getMinSurnameSearchSize()));
+				}
+				if (student.getGivenName() != null && !student.getGivenName().isEmpty()) {
+					student.setPartialStudentGiven(student.getGivenName().substring(0, 1));
+				}
+			} else {
+				if (student.getSurname() != null) {
+					student.setPartialStudentSurname(student.getSurname().substring(0, student.getMaxSurnameSearchSize()));
+				}
+				if (student.getGivenName() != null && student.getGivenName().length() >= 2) {
+					student.setPartialStudentGiven(student.getGivenName().substring(0, 2));
+				} 
+			}
+		}
+
+		// The full surname and sex only rank the candidates of capped lookups
+		boolean capped = lookupManager.getCandidateCap() > 0;
+		String fullSurname = capped ? student.getSurname() : null;
+		String sex = capped ? student.getSex() : null;
+
+		CandidateQuery candidateQuery;
+		if (student.getLocalID() == null) {
+			if (useGivenInitial) {
+				candidateQuery = new CandidateQuery(CandidateQueryType.NO_LOCAL_ID, student.getDob(), student.getPartialStudentSurname(), student.getPartialStudentGiven(), null, null, fullSurname, sex);
+			} else {
+				candidateQuery = new CandidateQuery(CandidateQueryType.NO_INIT_NO_LOCAL_ID, student.getDob(), student.getPartialStudentSurname(), null, null, null, fullSurname, sex);
+			}
+		} else {
+			if (useGivenInitial) {
+				candidateQuery = new CandidateQuery(CandidateQueryType.WITH_ALL_PARTS, student.getDob(), student.getPartialStudentSurname(), student.getPartialStudentGiven(), student.getMincode(), student.getLocalID(), fullSurname, sex);
+			} else {
+				candidateQuery = new CandidateQuery(CandidateQueryType.NO_INIT, student.getDob(), student.getPartialStudentSurname(), null, student.getMincode(), student.getLocalID(), fullSurname, sex);
+			}
+		}
+		return candidateQuery;
+	}
+
 	/**
 	 * Merge new match into the list Assign points for algorithm and score for sort
 	 * use
@@ -508,7 +619,10 @@ public class PenMatchService {
 		boolean type5Match = false;
 		PenAlgorithm algorithmUsed = null;
 
-		PenMatchUtils.normalizeLocalIDsFromMaster(master);
+		// Candidates from the PEN Demog index come with their alternate local ID
+		if (master.getAlternateLocalId() == null) {
+			PenMatchUtils.normalizeLocalIDsFromMaster(master);
+		}
 		PenMatchNames penMatchMasterNames = PenMatchUtils.storeNamesFromMaster(master);
 
 		int totalPoints = 0;
@@ -713,21 +827,47 @@ public class PenMatchService {
 		if (penDemogList != null) {
 			for (PenDemographicsEntity entity : penDemogList) {
 				if (entity.getStudStatus() != null && !entity.getStudStatus().equals(PenStatus.M.getValue()) && !entity.getStudStatus().equals(PenStatus.D.getValue()) && (localStudentNumber == null || !entity.getStudNo().trim().equals(localStudentNumber))) {
-					PenMasterRecord masterRecord = PenMatchUtils.convertPenDemogToPenMasterRecord(entity);
-					CheckForMatchResult result = checkForMatch(student, masterRecord, session);
-
-					if (result.isMatchFound()) {
-						String matchingPEN = null;
-						if (result.isType5Match()) {
-							matchingPEN = masterRecord.getStudentNumber().trim() + "?";
-						} else {
-							matchingPEN = masterRecord.getStudentNumber().trim();
-						}
-						mergeNewMatchIntoList(student, matchingPEN, session, result.getAlgorithmUsed(), result.getTotalPoints());
-					}
+					checkForMatchAndMerge(PenMatchUtils.convertPenDemogToPenMasterRecord(entity), student, session);
 				}
 			}
 		}
 	}
 
+	/**
+	 * Checks and merges candidates read as PEN Master records, which only hold
+	 * students neither merged nor deceased
+	 * 
+	 * @param masterRecords
+	 * @param student
+	 * @param session
+	 * @param localStudentNumber
+	 */
+	private void performCheckForMatchAndMergeRecords(List<PenMasterRecord> masterRecords, PenMatchStudent student, PenMatchSession session, String localStudentNumber) {
+		if (masterRecords != null) {
+			for (PenMasterRecord masterRecord : masterRecords) {
+				checkForMatchAndMergeRecord(masterRecord, student, session, localStudentNumber);
+			}
+		}
+	}
+
+	private void checkForMatchAndMergeRecord(PenMasterRecord masterRecord, PenMatchStudent student, PenMatchSession session, String localStudentNumber) {
+		if (localStudentNumber == null || !localStudentNumber.equals(masterRecord.getStudentNumber())) {
+			checkForMatchAndMerge(masterRecord, student, session);
+		}
+	}
+
+	private void checkForMatchAndMerge(PenMasterRecord masterRecord, PenMatchStudent student, PenMatchSession session) {
+		CheckForMatchResult result = checkForMatch(student, masterRecord, session);
+
+		if (result.isMatchFound()) {
+			String matchingPEN = null;
+			if (result.isType5Match()) {
+				matchingPEN = masterRecord.getStudentNumber().trim() + "?";
+			} else {
+				matchingPEN = masterRecord.getStudentNumber().trim();
+			}
+			mergeNewMatchIntoList(student, matchingPEN, session, result.getAlgorithmUsed(), result.getTotalPoints());
+		}
+	}
+
 }
@@ -0,0 +1,116 @@
+package ca.bc.gov.educ.api.penmatch.service;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import ca.bc.gov.educ.api.penmatch.lookup.NicknameMap;
+import ca.bc.gov.educ.api.penmatch.lookup.ReferenceData;
+import ca.bc.gov.educ.api.penmatch.lookup.SurnameFrequencyTable;
+import ca.bc.gov.educ.api.penmatch.struct.ReferenceDataManifest;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Exports PEN Demog, SURNAME_FREQUENCY and NICKNAMES to a directory shared by
+ * the replicas, one generation per epoch. The files of a generation are named
+ * after its epoch and the manifest naming them is replaced last, so replicas
+ * only ever see complete generations.
+ */
+@Service
+@Slf4j
+public class ReferenceDataExportService {
+
+	public static final String MANIFEST_FILE = "reference.manifest";
+
+	private static final Pattern GENERATION_FILE = Pattern.compile("(?:pen-demog|reference)-(\\d+)\\.(?:snapshot|data)");
+
+	private final PenDemogSnapshotService snapshotService;
+
+	private final JdbcTemplate jdbcTemplate;
+
+	private final ObjectMapper objectMapper;
+
+	@Autowired
+	public ReferenceDataExportService(final PenDemogSnapshotService snapshotService, final JdbcTemplate jdbcTemplate, final ObjectMapper objectMapper) {
+		this.snapshotService = snapshotService;
+		this.jdbcTemplate = jdbcTemplate;
+		this.objectMapper = objectMapper;
+	}
+
+	/**
+	 * Exports a new generation and publishes its manifest
+	 *
+	 * @param directory
+	 * @param epoch
+	 * @return the manifest of the generation
+	 * @throws IOException
+	 */
+	public ReferenceDataManifest export(Path directory, int epoch) throws IOException {
+		long start = System.currentTimeMillis();
+		ReferenceDataManifest manifest = new ReferenceDataManifest();
+		manifest.setVersion(ReferenceData.VERSION);
+		manifest.setEpoch(epoch);
+		manifest.setPenDemogFile("pen-demog-" + epoch + ".snapshot");
+		manifest.setReferenceDataFile("reference-" + epoch + ".data");
+
+		manifest.setPenDemogRows(snapshotService.exportSnapshot(directory.resolve(manifest.getPenDemogFile()), epoch));
+
+		SurnameFrequencyTable surnameFrequencies = SurnameFrequencyTable.load(jdbcTemplate);
+		NicknameMap nicknames = NicknameMap.load(jdbcTemplate);
+		ReferenceData.write(directory.resolve(manifest.getReferenceDataFile()), epoch, surnameFrequencies, nicknames);
+		manifest.setSurnames(surnameFrequencies.size());
+		manifest.setNicknames(nicknames.size());
+
+		manifest.setExportDate(System.currentTimeMillis());
+		Path manifestFile = directory.resolve(MANIFEST_FILE);
+		Path tempFile = Files.write(manifestFile.resolveSibling(MANIFEST_FILE + ".tmp"), objectMapper.writeValueAsBytes(manifest));
+		Files.move(tempFile, manifestFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		log.info("Exported reference data epoch {} to {} in {} ms", epoch, directory, System.currentTimeMillis() - start);
+		return manifest;
+	}
+
+	/**
+	 * @param directory
+	 * @return the manifest of the latest generation, or null when none was
+	 *         exported yet
+	 * @throws IOException
+	 */
+	public ReferenceDataManifest readManifest(Path directory) throws IOException {
+		Path manifestFile = directory.resolve(MANIFEST_FILE);
+		return Files.exists(manifestFile) ? objectMapper.readValue(manifestFile.toFile(), ReferenceDataManifest.class) : null;
+	}
+
+	/**
+	 * Deletes the files of the generations older than an epoch. Replicas which
+	 * still map a deleted snapshot keep reading it until they move on.
+	 *
+	 * @param directory
+	 * @param epoch
+	 * @throws IOException
+	 */
+	public void deleteGenerationsBefore(Path directory, int epoch) throws IOException {
+		List<Path> files;
+		try (Stream<Path> listing = Files.list(directory)) {
+			files = listing.collect(Collectors.toList());
+		}
+		for (Path file : files) {
+			Matcher matcher = GENERATION_FILE.matcher(file.getFileName().toString());
+			if (matcher.matches() && Integer.parseInt(matcher.group(1)) < epoch) {
+				Files.deleteIfExists(file);
+			}
+		}
+	}
+
+}
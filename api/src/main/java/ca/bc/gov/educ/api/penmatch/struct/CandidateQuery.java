@@ -0,0 +1,32 @@
+package ca.bc.gov.educ.api.penmatch.struct;
+
+import ca.bc.gov.educ.api.penmatch.enumeration.CandidateQueryType;
+import lombok.AllArgsConstructor;
+import lombok.Value;
+
+/**
+ * The blocking key of a PEN Demog candidate lookup. Students with equal
+ * candidate queries get the same candidates.
+ *
+ * The full surname and sex are only set when candidate lookups are capped, to
+ * rank the candidates; they are null otherwise so that more students share a
+ * query.
+ */
+@Value
+@AllArgsConstructor
+public class CandidateQuery {
+
+	private CandidateQueryType type;
+	private String dob;
+	private String surname;
+	private String givenName;
+	private String mincode;
+	private String localID;
+	private String fullSurname;
+	private String sex;
+
+	public CandidateQuery(CandidateQueryType type, String dob, String surname, String givenName, String mincode, String localID) {
+		this(type, dob, surname, givenName, mincode, localID, null, null);
+	}
+
+}
@@ -1,7 +1,13 @@
 package ca.bc.gov.educ.api.penmatch.struct;
 
+import org.apache.commons.lang3.StringUtils;
+
+import ca.bc.gov.educ.api.penmatch.util.NameDictionary;
+import lombok.AccessLevel;
 import lombok.Data;
 import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
 
 @Data
 @NoArgsConstructor
@@ -31,4 +37,37 @@ public class PenMasterRecord {
 	private String localId;
 
 	private String alternateLocalId;
+
+	// Soundex of the surnames when precomputed by the search table, null otherwise
+	private String surnameSoundex;
+	private String usualSurnameSoundex;
+
+	// Dictionary codes of the surnames without blanks and of their first four
+	// characters, kept by the surname setters
+	@Setter(AccessLevel.NONE)
+	@ToString.Exclude
+	private transient int surnameCode;
+	@Setter(AccessLevel.NONE)
+	@ToString.Exclude
+	private transient int surnamePrefixCode;
+	@Setter(AccessLevel.NONE)
+	@ToString.Exclude
+	private transient int usualSurnameCode;
+	@Setter(AccessLevel.NONE)
+	@ToString.Exclude
+	private transient int usualSurnamePrefixCode;
+
+	public void setSurname(String surname) {
+		this.surname = surname;
+		String surnameNoBlanks = surname != null ? StringUtils.remove(surname, ' ') : null;
+		this.surnameCode = NameDictionary.intern(surnameNoBlanks);
+		this.surnamePrefixCode = NameDictionary.internPrefix(surnameNoBlanks);
+	}
+
+	public void setUsualSurname(String usualSurname) {
+		this.usualSurname = usualSurname;
+		String usualSurnameNoBlanks = usualSurname != null ? StringUtils.remove(usualSurname, ' ') : null;
+		this.usualSurnameCode = NameDictionary.intern(usualSurnameNoBlanks);
+		this.usualSurnamePrefixCode = NameDictionary.internPrefix(usualSurnameNoBlanks);
+	}
 }
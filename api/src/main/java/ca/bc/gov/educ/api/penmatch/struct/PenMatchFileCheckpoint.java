@@ -0,0 +1,15 @@
+package ca.bc.gov.educ.api.penmatch.struct;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+public class PenMatchFileCheckpoint {
+	// Size and last modified time, in milliseconds, of the input the checkpoint was taken on
+	private long inputSize;
+	private long inputModified;
+	private long inputOffset;
+	private long outputOffset;
+	private long studentsMatched;
+}
@@ -0,0 +1,25 @@
+package ca.bc.gov.educ.api.penmatch.struct;
+
+import java.time.LocalDateTime;
+import java.util.Map;
+
+import ca.bc.gov.educ.api.penmatch.enumeration.PenMatchJobState;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+public class PenMatchJobStatus {
+	private String jobId;
+	private PenMatchJobState state;
+	private long totalStudents;
+	private long processedStudents;
+	private long failedStudents;
+	private long duplicateStudents;
+	private Map<String, Long> matchedByPenStatus;
+	private LocalDateTime submittedDate;
+	private LocalDateTime completedDate;
+	private String errorMessage;
+	// Length of the results file at the last checkpoint, a resumed job continues from there
+	private long resultsOffset;
+}
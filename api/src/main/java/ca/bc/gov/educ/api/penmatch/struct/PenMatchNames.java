@@ -1,11 +1,27 @@
 package ca.bc.gov.educ.api.penmatch.struct;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+import ca.bc.gov.educ.api.penmatch.util.NameDictionary;
+import lombok.AccessLevel;
 import lombok.Data;
+import lombok.Getter;
 import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
 
 @Data
 @NoArgsConstructor
 public class PenMatchNames {
+	public static final int LEGAL_GIVEN = 0;
+	public static final int USUAL_GIVEN = 1;
+	public static final int ALTERNATE_LEGAL_GIVEN = 2;
+	public static final int ALTERNATE_USUAL_GIVEN = 3;
+	public static final int LEGAL_MIDDLE = 4;
+	public static final int USUAL_MIDDLE = 5;
+	public static final int ALTERNATE_LEGAL_MIDDLE = 6;
+	public static final int ALTERNATE_USUAL_MIDDLE = 7;
+
 	private String legalGiven;
 	private String usualGiven;
 	private String alternateLegalGiven;
@@ -18,4 +34,117 @@ public class PenMatchNames {
 	private String nickname2;
 	private String nickname3;
 	private String nickname4;
+
+	// Dictionary codes of the given and middle names and of their first four
+	// characters, by name constant, kept by the name setters
+	@JsonIgnore
+	@Getter(AccessLevel.NONE)
+	@Setter(AccessLevel.NONE)
+	@ToString.Exclude
+	private transient int[] codes = new int[8];
+	@JsonIgnore
+	@Getter(AccessLevel.NONE)
+	@Setter(AccessLevel.NONE)
+	@ToString.Exclude
+	private transient int[] prefixCodes = new int[8];
+	// Whether the names are PEN Master reference data, added to the dictionary
+	@JsonIgnore
+	@Getter(AccessLevel.NONE)
+	@Setter(AccessLevel.NONE)
+	@ToString.Exclude
+	private transient boolean masterNames;
+
+	/**
+	 * @param masterNames whether the names are PEN Master reference data, added
+	 *                    to the name dictionary as they are set
+	 */
+	public PenMatchNames(boolean masterNames) {
+		this.masterNames = masterNames;
+	}
+
+	/**
+	 * @param name one of the name constants
+	 * @return
+	 */
+	public String getName(int name) {
+		switch (name) {
+		case LEGAL_GIVEN:
+			return legalGiven;
+		case USUAL_GIVEN:
+			return usualGiven;
+		case ALTERNATE_LEGAL_GIVEN:
+			return alternateLegalGiven;
+		case ALTERNATE_USUAL_GIVEN:
+			return alternateUsualGiven;
+		case LEGAL_MIDDLE:
+			return legalMiddle;
+		case USUAL_MIDDLE:
+			return usualMiddle;
+		case ALTERNATE_LEGAL_MIDDLE:
+			return alternateLegalMiddle;
+		default:
+			return alternateUsualMiddle;
+		}
+	}
+
+	/**
+	 * @param name one of the name constants
+	 * @return the dictionary code of the name
+	 */
+	public int getCode(int name) {
+		return codes[name];
+	}
+
+	/**
+	 * @param name one of the name constants
+	 * @return the dictionary code of the first four characters of the name
+	 */
+	public int getPrefixCode(int name) {
+		return prefixCodes[name];
+	}
+
+	public void setLegalGiven(String legalGiven) {
+		this.legalGiven = legalGiven;
+		code(LEGAL_GIVEN, legalGiven);
+	}
+
+	public void setUsualGiven(String usualGiven) {
+		this.usualGiven = usualGiven;
+		code(USUAL_GIVEN, usualGiven);
+	}
+
+	public void setAlternateLegalGiven(String alternateLegalGiven) {
+		this.alternateLegalGiven = alternateLegalGiven;
+		code(ALTERNATE_LEGAL_GIVEN, alternateLegalGiven);
+	}
+
+	public void setAlternateUsualGiven(String alternateUsualGiven) {
+		this.alternateUsualGiven = alternateUsualGiven;
+		code(ALTERNATE_USUAL_GIVEN, alternateUsualGiven);
+	}
+
+	public void setLegalMiddle(String legalMiddle) {
+		this.legalMiddle = legalMiddle;
+		code(LEGAL_MIDDLE, legalMiddle);
+	}
+
+	public void setUsualMiddle(String usualMiddle) {
+		this.usualMiddle = usualMiddle;
+		code(USUAL_MIDDLE, usualMiddle);
+	}
+
+	public void setAlternateLegalMiddle(String alternateLegalMiddle) {
+		this.alternateLegalMiddle = alternateLegalMiddle;
+		code(ALTERNATE_LEGAL_MIDDLE, alternateLegalMiddle);
+	}
+
+	public void setAlternateUsualMiddle(String alternateUsualMiddle) {
+		this.alternateUsualMiddle = alternateUsualMiddle;
+		code(ALTERNATE_USUAL_MIDDLE, alternateUsualMiddle);
+	}
+
+	private void code(int name, String value) {
+		codes[name] = masterNames ? NameDictionary.intern(value) : NameDictionary.code(value);
+		prefixCodes[name] = masterNames ? NameDictionary.internPrefix(value) : NameDictionary.prefixCode(value);
+	}
 }
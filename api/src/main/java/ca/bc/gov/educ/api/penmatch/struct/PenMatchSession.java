@@ -1,7 +1,10 @@
 package ca.bc.gov.educ.api.penmatch.struct;
 
+import java.util.List;
 import java.util.PriorityQueue;
 
+import ca.bc.gov.educ.api.penmatch.model.PenDemographicsEntity;
+
 import lombok.Data;
 import lombok.NoArgsConstructor;
 
@@ -19,4 +22,11 @@ public class PenMatchSession {
 	private String pen1;
 	private Integer numberOfMatches;
 
+	// Filled by the lookup step for the scoring step
+	private PenMasterRecord penMasterRecord;
+	private PenConfirmationResult confirmationResult;
+	private List<PenDemographicsEntity> candidates;
+	// The candidates read as PEN Master records, in place of the candidates
+	private List<PenMasterRecord> candidateRecords;
+
 }
@@ -0,0 +1,20 @@
+package ca.bc.gov.educ.api.penmatch.struct;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Written in place of the result of a streamed student which could not be
+ * read, failed validation or failed to match. The index is the position of the
+ * student in the stream, starting at 0.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class PenMatchStreamError {
+
+	private long index;
+	private String message;
+
+}
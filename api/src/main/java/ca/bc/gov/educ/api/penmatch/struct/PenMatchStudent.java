@@ -1,7 +1,15 @@
 package ca.bc.gov.educ.api.penmatch.struct;
 
+import org.apache.commons.lang3.StringUtils;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+import ca.bc.gov.educ.api.penmatch.util.NameDictionary;
+import lombok.AccessLevel;
 import lombok.Data;
 import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
 
 @Data
 @NoArgsConstructor
@@ -34,4 +42,37 @@ public class PenMatchStudent {
 	private String partialStudentGiven;
 	private Integer fullSurnameFrequency;
 	private Integer partialSurnameFrequency;
+
+	// Dictionary codes of the surnames without blanks and of their first four
+	// characters, kept by the surname setters
+	@JsonIgnore
+	@Setter(AccessLevel.NONE)
+	@ToString.Exclude
+	private transient int surnameCode;
+	@JsonIgnore
+	@Setter(AccessLevel.NONE)
+	@ToString.Exclude
+	private transient int surnamePrefixCode;
+	@JsonIgnore
+	@Setter(AccessLevel.NONE)
+	@ToString.Exclude
+	private transient int usualSurnameCode;
+	@JsonIgnore
+	@Setter(AccessLevel.NONE)
+	@ToString.Exclude
+	private transient int usualSurnamePrefixCode;
+
+	public void setSurname(String surname) {
+		this.surname = surname;
+		String surnameNoBlanks = surname != null ? StringUtils.remove(surname, ' ') : null;
+		this.surnameCode = NameDictionary.code(surnameNoBlanks);
+		this.surnamePrefixCode = NameDictionary.prefixCode(surnameNoBlanks);
+	}
+
+	public void setUsualSurname(String usualSurname) {
+		this.usualSurname = usualSurname;
+		String usualSurnameNoBlanks = usualSurname != null ? StringUtils.remove(usualSurname, ' ') : null;
+		this.usualSurnameCode = NameDictionary.code(usualSurnameNoBlanks);
+		this.usualSurnamePrefixCode = NameDictionary.prefixCode(usualSurnameNoBlanks);
+	}
 }
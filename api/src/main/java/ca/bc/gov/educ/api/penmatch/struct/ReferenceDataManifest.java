@@ -0,0 +1,23 @@
+package ca.bc.gov.educ.api.penmatch.struct;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Describes the latest generation of reference data exported to the shared
+ * directory. It is written once every file of the generation is complete, and
+ * each file carries the epoch of its generation so that a replica never loads
+ * files of different generations together.
+ */
+@Data
+@NoArgsConstructor
+public class ReferenceDataManifest {
+	private int version;
+	private int epoch;
+	private long exportDate;
+	private String penDemogFile;
+	private int penDemogRows;
+	private String referenceDataFile;
+	private int surnames;
+	private int nicknames;
+}
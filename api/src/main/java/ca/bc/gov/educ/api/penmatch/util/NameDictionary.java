@@ -0,0 +1,139 @@
+package ca.bc.gov.educ.api.penmatch.util;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Process wide dictionary of names, so that names and their first four
+ * characters are compared as ints when scoring. Only PEN Master reference data
+ * is interned, as master records and their PenMatchNames are stored, each
+ * distinct name getting an int code the first time it is seen. Names of
+ * students being matched are only looked up, so request input never grows the
+ * dictionary. It holds at most MAX_NAMES names; names without a code are
+ * compared as strings. Codes are never evicted, as a name must keep its code for
+ * as long as a record holding it may be scored.
+ */
+public class NameDictionary {
+
+	/**
+	 * Code of a null name, or of the prefix of a name shorter than the prefix
+	 */
+	public static final int NO_NAME = 0;
+
+	/**
+	 * Code of a name which is not in the dictionary
+	 */
+	public static final int NOT_CODED = -1;
+
+	public static final int PREFIX_LENGTH = 4;
+
+	static final int MAX_NAMES = 1 << 20;
+
+	private static final Map<String, Integer> CODES = new ConcurrentHashMap<>();
+
+	private static final AtomicInteger NEXT_CODE = new AtomicInteger(1);
+
+	private NameDictionary() {
+	}
+
+	/**
+	 * @param name
+	 * @return the code of the name, NO_NAME when it is null and NOT_CODED when it
+	 *         is not in the dictionary
+	 */
+	public static int code(String name) {
+		if (name == null) {
+			return NO_NAME;
+		}
+		Integer code = CODES.get(name);
+		return code != null ? code : NOT_CODED;
+	}
+
+	/**
+	 * Adds a name of the PEN Master reference data to the dictionary
+	 *
+	 * @param name
+	 * @return the code of the name, NO_NAME when it is null and NOT_CODED when the
+	 *         dictionary is full
+	 */
+	public static int intern(String name) {
+		if (name == null) {
+			return NO_NAME;
+		}
+		Integer code = CODES.get(name);
+		if (code != null) {
+			return code;
+		}
+		if (CODES.size() >= MAX_NAMES) {
+			return NOT_CODED;
+		}
+		return CODES.computeIfAbsent(name, newName -> NEXT_CODE.getAndIncrement());
+	}
+
+	/**
+	 * @param name
+	 * @return the code of the first four characters of the name, NO_NAME when it
+	 *         is null or shorter
+	 */
+	public static int prefixCode(String name) {
+		return name == null || name.length() < PREFIX_LENGTH ? NO_NAME : code(prefix(name));
+	}
+
+	/**
+	 * Adds the first four characters of a name of the PEN Master reference data to
+	 * the dictionary
+	 *
+	 * @param name
+	 * @return the code of the first four characters of the name, NO_NAME when it
+	 *         is null or shorter
+	 */
+	public static int internPrefix(String name) {
+		return name == null || name.length() < PREFIX_LENGTH ? NO_NAME : intern(prefix(name));
+	}
+
+	private static String prefix(String name) {
+		return name.length() == PREFIX_LENGTH ? name : name.substring(0, PREFIX_LENGTH);
+	}
+
+	/**
+	 * Same as x != null && x.equals(y), on codes when both names have one
+	 *
+	 * @param x
+	 * @param xCode code of x
+	 * @param y
+	 * @param yCode code of y
+	 * @return
+	 */
+	public static boolean isSameName(String x, int xCode, String y, int yCode) {
+		if (xCode > NO_NAME && yCode > NO_NAME) {
+			return xCode == yCode;
+		}
+		return x != null && x.equals(y);
+	}
+
+	/**
+	 * Same as both names being at least four characters long and starting with
+	 * the same four characters, on codes when both prefixes have one
+	 *
+	 * @param x
+	 * @param xPrefixCode prefix code of x
+	 * @param y
+	 * @param yPrefixCode prefix code of y
+	 * @return
+	 */
+	public static boolean isSamePrefix(String x, int xPrefixCode, String y, int yPrefixCode) {
+		if (xPrefixCode > NO_NAME && yPrefixCode > NO_NAME) {
+			return xPrefixCode == yPrefixCode;
+		}
+		return x != null && y != null && x.length() >= PREFIX_LENGTH && y.length() >= PREFIX_LENGTH && x.regionMatches(0, y, 0, PREFIX_LENGTH);
+	}
+
+	/**
+	 * @return the number of names in the dictionary
+	 */
+	public static int size() {
+		return CODES.size();
+	}
+
+}
@@ -1,6 +1,8 @@
 package ca.bc.gov.educ.api.penmatch.util;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 import org.apache.commons.lang3.StringUtils;
 
@@ -79,6 +81,19 @@ public class PenMatchUtils {
 
 	}
 
+	/**
+	 * Builds the key of all the input fields used by the match, for a student that
+	 * has gone through upperCaseInputStudent. Two students with the same key get
+	 * the same match result.
+	 * 
+	 * @param student
+	 * @return
+	 */
+	public static List<String> getMatchKey(PenMatchStudent student) {
+		return Arrays.asList(student.getPen(), student.getDob(), student.getSex(), student.getEnrolledGradeCode(), student.getSurname(), student.getGivenName(), student.getGivenInitial(), student.getMiddleName(), student.getMiddleInitial(), student.getUsualSurname(),
+				student.getUsualGivenName(), student.getUsualGivenInitial(), student.getUsualMiddleName(), student.getUsualMiddleInitial(), student.getMincode(), student.getLocalID(), student.getPostal(), student.getUpdateCode());
+	}
+
 	/**
 	 * Converts PEN Demog record to a PEN Master record
 	 *  
@@ -103,11 +118,16 @@ public class PenMatchUtils {
 		masterRecord.setMincode(checkForValidValue(entity.getMincode()));
 		masterRecord.setLocalId(checkForValidValue(entity.getLocalID()));
 		masterRecord.setTrueNumber(checkForValidValue(entity.getTrueNumber()));
+		masterRecord.setAlternateLocalId(entity.getAlternateLocalID());
 
 		return masterRecord;
 	}
 	
-	private static String checkForValidValue(String value) {
+	/**
+	 * @param value
+	 * @return the trimmed value, or null when it is blank
+	 */
+	public static String checkForValidValue(String value) {
 		if(value != null && !value.trim().isEmpty()) {
 			return value.trim();
 		}
@@ -130,10 +150,25 @@ public class PenMatchUtils {
 	 * PEN_MASTER stud_local_id. Put result in MAST_PEN_ALT_LOCAL_ID
 	 */
 	public static void normalizeLocalIDsFromMaster(PenMasterRecord master) {
-		master.setAlternateLocalId("MMM");
-		if (master.getLocalId() != null) {
-			master.setAlternateLocalId(StringUtils.stripStart(master.getLocalId(), "0").replaceAll(" ", ""));
-		}
+		master.setAlternateLocalId(alternateLocalIDOfMaster(master.getLocalId()));
+	}
+
+	/**
+	 * @param localID trimmed PEN_MASTER stud_local_id, null when blank
+	 * @return the MAST_PEN_ALT_LOCAL_ID of the local ID
+	 */
+	public static String alternateLocalIDOfMaster(String localID) {
+		return localID != null ? stripLocalID(localID) : "MMM";
+	}
+
+	/**
+	 * Strip off leading zeros and all blanks from a local ID
+	 * 
+	 * @param localID
+	 * @return
+	 */
+	public static String stripLocalID(String localID) {
+		return StringUtils.remove(StringUtils.stripStart(localID, "0"), ' ');
 	}
 
 	/**
@@ -147,7 +182,7 @@ public class PenMatchUtils {
 		String usualGiven = master.getUsualGivenName();
 
 		PenMatchNames penMatchMasterNames;
-		penMatchMasterNames = new PenMatchNames();
+		penMatchMasterNames = new PenMatchNames(true);
 
 		penMatchMasterNames.setLegalGiven(storeNameIfNotNull(given));
 		penMatchMasterNames.setLegalMiddle(storeNameIfNotNull(master.getMiddle()));
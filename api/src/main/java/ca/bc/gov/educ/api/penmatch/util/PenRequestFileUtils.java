@@ -0,0 +1,198 @@
+package ca.bc.gov.educ.api.penmatch.util;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.PriorityQueue;
+
+import ca.bc.gov.educ.api.penmatch.enumeration.PenAlgorithm;
+import ca.bc.gov.educ.api.penmatch.struct.PenMatchRecord;
+import ca.bc.gov.educ.api.penmatch.struct.PenMatchResult;
+import ca.bc.gov.educ.api.penmatch.struct.PenMatchStudent;
+
+/**
+ * Reads and writes the records of fixed-width PEN request files.
+ *
+ * Student records start with SRM and hold, in order: mincode (8), local ID
+ * (12), PEN (10), legal surname (25), legal given name (25), legal middle name
+ * (25), usual surname (25), usual given name (25), usual middle name (25),
+ * birth date (8), sex (1), enrolled grade (2) and postal code (7). Any other
+ * record type (file header, trailer) is ignored.
+ *
+ * Result records hold mincode (8), local ID (12), PEN (10), PEN status (2),
+ * number of matches (2) and up to 20 matches of PEN (10), algorithm code (2),
+ * such as S1 or 51, and score (3).
+ */
+public class PenRequestFileUtils {
+
+	public static final int MAX_MATCHES = 20;
+
+	private static final byte[] STUDENT_RECORD_TYPE = { 'S', 'R', 'M' };
+
+	private static final int[] STUDENT_FIELD_WIDTHS = { 3, 8, 12, 10, 25, 25, 25, 25, 25, 25, 8, 1, 2, 7 };
+
+	private static final int MATCH_WIDTH = 15;
+
+	private static final int RESULT_WIDTH = 34 + MAX_MATCHES * MATCH_WIDTH;
+
+	/**
+	 * Returns true if the record between start and end is a student record
+	 *
+	 * @param buffer
+	 * @param start
+	 * @param end
+	 * @return
+	 */
+	public static boolean isStudentRecord(ByteBuffer buffer, int start, int end) {
+		if (end - start < STUDENT_RECORD_TYPE.length) {
+			return false;
+		}
+		for (int i = 0; i < STUDENT_RECORD_TYPE.length; i++) {
+			if (buffer.get(start + i) != STUDENT_RECORD_TYPE[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Parses a student record straight from the buffer holding the file. Only the
+	 * non blank fields are copied out, and blank fields are left null. Records
+	 * shorter than the layout leave their missing fields null.
+	 *
+	 * @param buffer
+	 * @param start
+	 * @param end
+	 * @return
+	 */
+	public static PenMatchStudent parseStudent(ByteBuffer buffer, int start, int end) {
+		String[] fields = new String[STUDENT_FIELD_WIDTHS.length];
+		int fieldStart = start;
+		for (int i = 0; i < STUDENT_FIELD_WIDTHS.length && fieldStart < end; i++) {
+			int fieldEnd = Math.min(fieldStart + STUDENT_FIELD_WIDTHS[i], end);
+			fields[i] = readField(buffer, fieldStart, fieldEnd);
+			fieldStart = fieldEnd;
+		}
+
+		PenMatchStudent student = new PenMatchStudent();
+		student.setMincode(fields[1]);
+		student.setLocalID(fields[2]);
+		student.setPen(fields[3]);
+		student.setSurname(fields[4]);
+		student.setGivenName(fields[5]);
+		student.setMiddleName(fields[6]);
+		student.setUsualSurname(fields[7]);
+		student.setUsualGivenName(fields[8]);
+		student.setUsualMiddleName(fields[9]);
+		student.setDob(fields[10]);
+		student.setSex(fields[11]);
+		student.setEnrolledGradeCode(fields[12]);
+		student.setPostal(fields[13]);
+		return student;
+	}
+
+	/**
+	 * Formats the result record of a student, without line separator. A student
+	 * which could not be matched gets a blank PEN status and no matches.
+	 *
+	 * @param student
+	 * @param result
+	 * @return
+	 */
+	public static byte[] formatResult(PenMatchStudent student, PenMatchResult result) {
+		byte[] record = new byte[RESULT_WIDTH];
+		Arrays.fill(record, (byte) ' ');
+		int position = writeField(record, 0, 8, student.getMincode());
+		position = writeField(record, position, 12, student.getLocalID());
+		if (result == null) {
+			return record;
+		}
+		position = writeField(record, position, 10, result.getPen());
+		position = writeField(record, position, 2, result.getPenStatus());
+
+		PriorityQueue<PenMatchRecord> matches = result.getMatchingRecords() == null ? new PriorityQueue<>() : new PriorityQueue<>(result.getMatchingRecords());
+		int count = Math.min(matches.size(), MAX_MATCHES);
+		position = writeField(record, position, 2, String.format("%02d", count));
+		for (int i = 0; i < count; i++) {
+			PenMatchRecord match = matches.poll();
+			position = writeField(record, position, 10, match.getMatchingPEN());
+			position = writeField(record, position, 2, algorithmCode(match.getMatchingAlgorithmResult()));
+			position = writeField(record, position, 3, match.getMatchingScore() == null ? null : String.format("%03d", match.getMatchingScore()));
+		}
+		return record;
+	}
+
+	/**
+	 * @param matchingAlgorithmResult algorithm of a match as ranked by the match,
+	 *                                such as 100 for S1 or 510 for 51
+	 * @return the algorithm code written to the result records, null when the
+	 *         algorithm is unknown
+	 */
+	public static String algorithmCode(Integer matchingAlgorithmResult) {
+		for (PenAlgorithm algorithm : PenAlgorithm.values()) {
+			Integer algorithmResult = algorithmResult(algorithm);
+			if (algorithmResult != null && algorithmResult.equals(matchingAlgorithmResult)) {
+				return algorithm.getValue();
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @param algorithmCode algorithm code of a result record
+	 * @return the algorithm of the match as ranked by the match, null when the
+	 *         code is unknown
+	 */
+	public static Integer algorithmResult(String algorithmCode) {
+		for (PenAlgorithm algorithm : PenAlgorithm.values()) {
+			if (algorithm.getValue().equals(algorithmCode)) {
+				return algorithmResult(algorithm);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Same ranking as PenMatchService assigns to the matches of each algorithm
+	 */
+	private static Integer algorithmResult(PenAlgorithm algorithm) {
+		switch (algorithm) {
+		case ALG_S1:
+			return 100;
+		case ALG_S2:
+			return 110;
+		case ALG_SP:
+			return 190;
+		case ALG_9999:
+			return null;
+		default:
+			return Integer.valueOf(algorithm.getValue()) * 10;
+		}
+	}
+
+	private static String readField(ByteBuffer buffer, int start, int end) {
+		while (start < end && buffer.get(start) == ' ') {
+			start++;
+		}
+		while (end > start && (buffer.get(end - 1) == ' ' || buffer.get(end - 1) == '\r')) {
+			end--;
+		}
+		if (start == end) {
+			return null;
+		}
+		byte[] value = new byte[end - start];
+		for (int i = 0; i < value.length; i++) {
+			value[i] = buffer.get(start + i);
+		}
+		return new String(value, StandardCharsets.ISO_8859_1);
+	}
+
+	private static int writeField(byte[] record, int position, int width, String value) {
+		if (value != null) {
+			byte[] bytes = value.getBytes(StandardCharsets.ISO_8859_1);
+			System.arraycopy(bytes, 0, record, position, Math.min(bytes.length, width));
+		}
+		return position + width;
+	}
+
+}
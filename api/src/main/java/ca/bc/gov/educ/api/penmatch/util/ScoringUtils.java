@@ -1,6 +1,7 @@
 package ca.bc.gov.educ.api.penmatch.util;
 
 import org.apache.commons.codec.language.Soundex;
+import org.apache.commons.lang3.StringUtils;
 
 import ca.bc.gov.educ.api.penmatch.struct.GivenNameMatchResult;
 import ca.bc.gov.educ.api.penmatch.struct.LocalIDMatchResult;
@@ -142,56 +143,41 @@ public class ScoringUtils {
 	public static SurnameMatchResult matchSurname(PenMatchStudent student, PenMasterRecord master) {
 		Integer surnamePoints = 0;
 		boolean legalSurnameUsed = false;
-		String masterLegalSurnameNoBlanks = null;
-		String masterUsualSurnameNoBlanks = null;
-		String studentSurnameNoBlanks = null;
-		String usualSurnameNoBlanks = null;
 
-		if (master.getSurname() != null) {
-			masterLegalSurnameNoBlanks = master.getSurname().replaceAll(" ", "");
-		}
-		if (master.getUsualSurname() != null) { 
-			masterUsualSurnameNoBlanks = master.getUsualSurname().replaceAll(" ", "");
-		}
-		if (student.getSurname() != null) {
-			studentSurnameNoBlanks = student.getSurname().replaceAll(" ", "");
-		}
-		if (student.getUsualSurname() != null) {
-			usualSurnameNoBlanks = student.getUsualSurname().replaceAll(" ", "");
-		}
-
-		if (studentSurnameNoBlanks != null && masterLegalSurnameNoBlanks != null && studentSurnameNoBlanks.equals(masterLegalSurnameNoBlanks)) {
+		// Surnames are compared without blanks, on their dictionary codes
+		if (isSameSurname(student.getSurname(), student.getSurnameCode(), master.getSurname(), master.getSurnameCode())) {
 			// Verify if legal surname matches master legal surname
 			surnamePoints = 20;
 			legalSurnameUsed = true;
-		} else if (usualSurnameNoBlanks != null && masterUsualSurnameNoBlanks != null && usualSurnameNoBlanks.equals(masterUsualSurnameNoBlanks)) {
+		} else if (isSameSurname(student.getUsualSurname(), student.getUsualSurnameCode(), master.getUsualSurname(), master.getUsualSurnameCode())) {
 			// Verify is usual surname matches master usual surname
 			surnamePoints = 20;
-		} else if (studentSurnameNoBlanks != null && masterUsualSurnameNoBlanks != null && studentSurnameNoBlanks.equals(masterUsualSurnameNoBlanks)) {
+		} else if (isSameSurname(student.getSurname(), student.getSurnameCode(), master.getUsualSurname(), master.getUsualSurnameCode())) {
 			// Verify if legal surname matches master usual surname
 			surnamePoints = 20;
 			legalSurnameUsed = true;
-		} else if (usualSurnameNoBlanks != null && masterLegalSurnameNoBlanks != null && usualSurnameNoBlanks.equals(masterLegalSurnameNoBlanks)) {
+		} else if (isSameSurname(student.getUsualSurname(), student.getUsualSurnameCode(), master.getSurname(), master.getSurnameCode())) {
 			// Verify if usual surname matches master legal surname
 			surnamePoints = 20;
-		} else if (studentSurnameNoBlanks != null && masterLegalSurnameNoBlanks != null && studentSurnameNoBlanks.length() >= 4 && masterLegalSurnameNoBlanks.length() >= 4 && studentSurnameNoBlanks.substring(0, 4).equals(masterLegalSurnameNoBlanks.substring(0, 4))) {
+		} else if (isSameSurnamePrefix(student.getSurname(), student.getSurnamePrefixCode(), master.getSurname(), master.getSurnamePrefixCode())) {
 			// Do a 4 character match with legal surname and master legal surname
 			surnamePoints = 10;
-		} else if (usualSurnameNoBlanks != null && masterUsualSurnameNoBlanks != null && usualSurnameNoBlanks.length() >= 4 && masterUsualSurnameNoBlanks.length() >= 4 && usualSurnameNoBlanks.substring(0, 4).equals(masterUsualSurnameNoBlanks.substring(0, 4))) {
+		} else if (isSameSurnamePrefix(student.getUsualSurname(), student.getUsualSurnamePrefixCode(), master.getUsualSurname(), master.getUsualSurnamePrefixCode())) {
 			// Do a 4 character match with usual surname and master usual surname
 			surnamePoints = 10;
-		} else if (studentSurnameNoBlanks != null && masterUsualSurnameNoBlanks != null && studentSurnameNoBlanks.length() >= 4 && masterUsualSurnameNoBlanks.length() >= 4 && studentSurnameNoBlanks.substring(0, 4).equals(masterUsualSurnameNoBlanks.substring(0, 4))) {
+		} else if (isSameSurnamePrefix(student.getSurname(), student.getSurnamePrefixCode(), master.getUsualSurname(), master.getUsualSurnamePrefixCode())) {
 			// Do a 4 character match with legal surname and master usual surname
 			surnamePoints = 10;
-		} else if (usualSurnameNoBlanks != null && masterLegalSurnameNoBlanks != null && usualSurnameNoBlanks.length() >= 4 && masterLegalSurnameNoBlanks.length() >= 4 && usualSurnameNoBlanks.substring(0, 4).equals(masterLegalSurnameNoBlanks.substring(0, 4))) {
+		} else if (isSameSurnamePrefix(student.getUsualSurname(), student.getUsualSurnamePrefixCode(), master.getSurname(), master.getSurnamePrefixCode())) {
 			// Do a 4 character match with usual surname and master legal surname
 			surnamePoints = 10;
 		} else if (surnamePoints == 0) {
-			String masterSoundexLegalSurname = runSoundex(masterLegalSurnameNoBlanks);
-			String masterSoundexUsualSurname = runSoundex(masterUsualSurnameNoBlanks);
+			// Master records read from the search table come with their soundex
+			String masterSoundexLegalSurname = master.getSurnameSoundex() != null ? master.getSurnameSoundex() : surnameSoundex(master.getSurname());
+			String masterSoundexUsualSurname = master.getUsualSurnameSoundex() != null ? master.getUsualSurnameSoundex() : surnameSoundex(master.getUsualSurname());
 
-			String soundexLegalSurname = runSoundex(studentSurnameNoBlanks);
-			String soundexUsualSurname = runSoundex(usualSurnameNoBlanks);
+			String soundexLegalSurname = surnameSoundex(student.getSurname());
+			String soundexUsualSurname = surnameSoundex(student.getUsualSurname());
 
 			if (soundexLegalSurname != null && soundexLegalSurname.length() > 0 && masterSoundexLegalSurname != null && !soundexLegalSurname.substring(0, 1).equals(" ") && soundexLegalSurname.equals(masterSoundexLegalSurname)) {
 				// Check if the legal surname soundex matches the master legal surname soundex
@@ -214,6 +200,32 @@ public class ScoringUtils {
 		return result;
 	}
 
+	/**
+	 * Same as equal surnames once blanks are removed, on their dictionary codes
+	 * when both have one
+	 */
+	private static boolean isSameSurname(String surname, int surnameCode, String masterSurname, int masterSurnameCode) {
+		if (surnameCode > NameDictionary.NO_NAME && masterSurnameCode > NameDictionary.NO_NAME) {
+			return surnameCode == masterSurnameCode;
+		}
+		return surname != null && masterSurname != null && removeBlanks(surname).equals(removeBlanks(masterSurname));
+	}
+
+	/**
+	 * Same as surnames starting with the same four characters once blanks are
+	 * removed, on their dictionary codes when both have one
+	 */
+	private static boolean isSameSurnamePrefix(String surname, int surnamePrefixCode, String masterSurname, int masterSurnamePrefixCode) {
+		if (surnamePrefixCode > NameDictionary.NO_NAME && masterSurnamePrefixCode > NameDictionary.NO_NAME) {
+			return surnamePrefixCode == masterSurnamePrefixCode;
+		}
+		return surname != null && masterSurname != null && NameDictionary.isSamePrefix(removeBlanks(surname), NameDictionary.NOT_CODED, removeBlanks(masterSurname), NameDictionary.NOT_CODED);
+	}
+
+	private static String removeBlanks(String name) {
+		return name != null ? StringUtils.remove(name, ' ') : null;
+	}
+
 	/**
 	 * Calculate points for given name match
 	 */
@@ -233,7 +245,9 @@ public class ScoringUtils {
 		String nickname3 = penMatchTransactionNames.getNickname3();
 		String nickname4 = penMatchTransactionNames.getNickname4();
 
-		if ((hasGivenNameFullCharMatch(legalGiven, penMatchMasterNames)) || (hasGivenNameFullCharMatch(usualGiven, penMatchMasterNames)) || (hasGivenNameFullCharMatch(alternateLegalGiven, penMatchMasterNames)) || (hasGivenNameFullCharMatch(alternateUsualGiven, penMatchMasterNames))) {
+		if ((hasGivenNameFullCharMatch(legalGiven, penMatchTransactionNames.getCode(PenMatchNames.LEGAL_GIVEN), penMatchMasterNames)) || (hasGivenNameFullCharMatch(usualGiven, penMatchTransactionNames.getCode(PenMatchNames.USUAL_GIVEN), penMatchMasterNames))
+				|| (hasGivenNameFullCharMatch(alternateLegalGiven, penMatchTransactionNames.getCode(PenMatchNames.ALTERNATE_LEGAL_GIVEN), penMatchMasterNames))
+				|| (hasGivenNameFullCharMatch(alternateUsualGiven, penMatchTransactionNames.getCode(PenMatchNames.ALTERNATE_USUAL_GIVEN), penMatchMasterNames))) {
 			// 10 Character match
 			givenNamePoints = 20;
 		} else if ((hasGivenNameSubsetCharMatch(legalGiven, 10, penMatchMasterNames)) || (hasGivenNameSubsetCharMatch(usualGiven, 10, penMatchMasterNames)) || (hasGivenNameSubsetCharMatch(alternateLegalGiven, 10, penMatchMasterNames))
@@ -243,8 +257,9 @@ public class ScoringUtils {
 		} else if ((hasGivenNameSubsetMatch(legalGiven, penMatchMasterNames)) || (hasGivenNameSubsetMatch(usualGiven, penMatchMasterNames)) || (hasGivenNameSubsetMatch(alternateLegalGiven, penMatchMasterNames)) || (hasGivenNameSubsetMatch(alternateUsualGiven, penMatchMasterNames))) {
 			// Has a subset match
 			givenNamePoints = 15;
-		} else if ((hasGivenNameSubsetCharMatch(legalGiven, 4, penMatchMasterNames)) || (hasGivenNameSubsetCharMatch(usualGiven, 4, penMatchMasterNames)) || (hasGivenNameSubsetCharMatch(alternateLegalGiven, 4, penMatchMasterNames))
-				|| (hasGivenNameSubsetCharMatch(alternateUsualGiven, 4, penMatchMasterNames))) {
+		} else if ((hasGivenNamePrefixMatch(legalGiven, penMatchTransactionNames.getPrefixCode(PenMatchNames.LEGAL_GIVEN), penMatchMasterNames)) || (hasGivenNamePrefixMatch(usualGiven, penMatchTransactionNames.getPrefixCode(PenMatchNames.USUAL_GIVEN), penMatchMasterNames))
+				|| (hasGivenNamePrefixMatch(alternateLegalGiven, penMatchTransactionNames.getPrefixCode(PenMatchNames.ALTERNATE_LEGAL_GIVEN), penMatchMasterNames))
+				|| (hasGivenNamePrefixMatch(alternateUsualGiven, penMatchTransactionNames.getPrefixCode(PenMatchNames.ALTERNATE_USUAL_GIVEN), penMatchMasterNames))) {
 			// 4 Character Match
 			givenNamePoints = 15;
 		} else if ((hasGivenNameSubsetCharMatch(nickname1, 10, penMatchMasterNames)) || (hasGivenNameSubsetCharMatch(nickname2, 10, penMatchMasterNames)) || (hasGivenNameSubsetCharMatch(nickname3, 10, penMatchMasterNames)) || (hasGivenNameSubsetCharMatch(nickname4, 10, penMatchMasterNames))) {
@@ -254,8 +269,10 @@ public class ScoringUtils {
 				|| (hasGivenNameSubsetCharMatch(alternateUsualGiven, 1, penMatchMasterNames))) {
 			// 1 Character Match
 			givenNamePoints = 5;
-		} else if ((hasGivenNameSubsetToMiddleNameMatch(legalGiven, penMatchMasterNames)) || (hasGivenNameSubsetToMiddleNameMatch(usualGiven, penMatchMasterNames)) || (hasGivenNameSubsetToMiddleNameMatch(alternateLegalGiven, penMatchMasterNames))
-				|| (hasGivenNameSubsetToMiddleNameMatch(alternateUsualGiven, penMatchMasterNames))) {
+		} else if ((hasGivenNameSubsetToMiddleNameMatch(legalGiven, penMatchTransactionNames.getPrefixCode(PenMatchNames.LEGAL_GIVEN), penMatchMasterNames))
+				|| (hasGivenNameSubsetToMiddleNameMatch(usualGiven, penMatchTransactionNames.getPrefixCode(PenMatchNames.USUAL_GIVEN), penMatchMasterNames))
+				|| (hasGivenNameSubsetToMiddleNameMatch(alternateLegalGiven, penMatchTransactionNames.getPrefixCode(PenMatchNames.ALTERNATE_LEGAL_GIVEN), penMatchMasterNames))
+				|| (hasGivenNameSubsetToMiddleNameMatch(alternateUsualGiven, penMatchTransactionNames.getPrefixCode(PenMatchNames.ALTERNATE_USUAL_GIVEN), penMatchMasterNames))) {
 			// Check Given to Middle if no matches above (only try 4 characters)
 			givenNamePoints = 10;
 			givenFlip = true;
@@ -279,7 +296,9 @@ public class ScoringUtils {
 		String alternateLegalMiddle = penMatchTransactionNames.getAlternateLegalMiddle();
 		String alternateUsualMiddle = penMatchTransactionNames.getAlternateUsualMiddle();
 
-		if ((hasMiddleNameFullCharMatch(legalMiddle, penMatchMasterNames)) || (hasMiddleNameFullCharMatch(usualMiddle, penMatchMasterNames)) || (hasMiddleNameFullCharMatch(alternateLegalMiddle, penMatchMasterNames)) || (hasMiddleNameFullCharMatch(alternateUsualMiddle, penMatchMasterNames))) {
+		if ((hasMiddleNameFullCharMatch(legalMiddle, penMatchTransactionNames.getCode(PenMatchNames.LEGAL_MIDDLE), penMatchMasterNames)) || (hasMiddleNameFullCharMatch(usualMiddle, penMatchTransactionNames.getCode(PenMatchNames.USUAL_MIDDLE), penMatchMasterNames))
+				|| (hasMiddleNameFullCharMatch(alternateLegalMiddle, penMatchTransactionNames.getCode(PenMatchNames.ALTERNATE_LEGAL_MIDDLE), penMatchMasterNames))
+				|| (hasMiddleNameFullCharMatch(alternateUsualMiddle, penMatchTransactionNames.getCode(PenMatchNames.ALTERNATE_USUAL_MIDDLE), penMatchMasterNames))) {
 			// Full Match
 			middleNamePoints = 20;
 		} else if ((hasMiddleNameSubsetCharMatch(legalMiddle, 10, penMatchMasterNames)) || (hasMiddleNameSubsetCharMatch(usualMiddle, 10, penMatchMasterNames)) || (hasMiddleNameSubsetCharMatch(alternateLegalMiddle, 10, penMatchMasterNames))
@@ -289,16 +308,19 @@ public class ScoringUtils {
 		} else if ((hasMiddleNameSubsetMatch(legalMiddle, penMatchMasterNames)) || (hasMiddleNameSubsetMatch(usualMiddle, penMatchMasterNames)) || (hasMiddleNameSubsetMatch(alternateLegalMiddle, penMatchMasterNames)) || (hasMiddleNameSubsetMatch(alternateUsualMiddle, penMatchMasterNames))) {
 			// Has a subset match
 			middleNamePoints = 15;
-		} else if ((hasMiddleNameSubsetCharMatch(legalMiddle, 4, penMatchMasterNames)) || (hasMiddleNameSubsetCharMatch(usualMiddle, 4, penMatchMasterNames)) || (hasMiddleNameSubsetCharMatch(alternateLegalMiddle, 4, penMatchMasterNames))
-				|| (hasMiddleNameSubsetCharMatch(alternateUsualMiddle, 4, penMatchMasterNames))) {
+		} else if ((hasMiddleNamePrefixMatch(legalMiddle, penMatchTransactionNames.getPrefixCode(PenMatchNames.LEGAL_MIDDLE), penMatchMasterNames)) || (hasMiddleNamePrefixMatch(usualMiddle, penMatchTransactionNames.getPrefixCode(PenMatchNames.USUAL_MIDDLE), penMatchMasterNames))
+				|| (hasMiddleNamePrefixMatch(alternateLegalMiddle, penMatchTransactionNames.getPrefixCode(PenMatchNames.ALTERNATE_LEGAL_MIDDLE), penMatchMasterNames))
+				|| (hasMiddleNamePrefixMatch(alternateUsualMiddle, penMatchTransactionNames.getPrefixCode(PenMatchNames.ALTERNATE_USUAL_MIDDLE), penMatchMasterNames))) {
 			// 4 Character Match
 			middleNamePoints = 15;
 		} else if ((hasMiddleNameSubsetCharMatch(legalMiddle, 1, penMatchMasterNames)) || (hasMiddleNameSubsetCharMatch(usualMiddle, 1, penMatchMasterNames)) || (hasMiddleNameSubsetCharMatch(alternateLegalMiddle, 1, penMatchMasterNames))
 				|| (hasMiddleNameSubsetCharMatch(alternateUsualMiddle, 1, penMatchMasterNames))) {
 			// 1 Character Match
 			middleNamePoints = 5;
-		} else if ((hasMiddleNameSubsetToGivenNameMatch(legalMiddle, penMatchMasterNames)) || (hasMiddleNameSubsetToGivenNameMatch(usualMiddle, penMatchMasterNames)) || (hasMiddleNameSubsetToGivenNameMatch(alternateLegalMiddle, penMatchMasterNames))
-				|| (hasMiddleNameSubsetToGivenNameMatch(alternateUsualMiddle, penMatchMasterNames))) {
+		} else if ((hasMiddleNameSubsetToGivenNameMatch(legalMiddle, penMatchTransactionNames.getPrefixCode(PenMatchNames.LEGAL_MIDDLE), penMatchMasterNames))
+				|| (hasMiddleNameSubsetToGivenNameMatch(usualMiddle, penMatchTransactionNames.getPrefixCode(PenMatchNames.USUAL_MIDDLE), penMatchMasterNames))
+				|| (hasMiddleNameSubsetToGivenNameMatch(alternateLegalMiddle, penMatchTransactionNames.getPrefixCode(PenMatchNames.ALTERNATE_LEGAL_MIDDLE), penMatchMasterNames))
+				|| (hasMiddleNameSubsetToGivenNameMatch(alternateUsualMiddle, penMatchTransactionNames.getPrefixCode(PenMatchNames.ALTERNATE_USUAL_MIDDLE), penMatchMasterNames))) {
 			// Check middle to given if no matches above (only try 4 characters)
 			middleNamePoints = 10;
 			middleFlip = true; 
@@ -310,6 +332,15 @@ public class ScoringUtils {
 		return result;
 	}
 
+	/**
+	 * @param surname
+	 * @return the soundex of the surname without blanks, as compared by
+	 *         {@link #matchSurname}
+	 */
+	public static String surnameSoundex(String surname) {
+		return runSoundex(removeBlanks(surname));
+	}
+
 	/**
 	 * Soundex calculation
 	 * 
@@ -391,13 +422,29 @@ public class ScoringUtils {
 	 * @return
 	 */
 	public static boolean hasGivenNameFullCharMatch(String givenName, PenMatchNames penMatchMasterNames) {
-		if (givenName != null) {
-			if ((penMatchMasterNames.getLegalGiven() != null && penMatchMasterNames.getLegalGiven().equals(givenName)) || (penMatchMasterNames.getUsualGiven() != null && penMatchMasterNames.getUsualGiven().equals(givenName))
-					|| (penMatchMasterNames.getAlternateLegalGiven() != null && penMatchMasterNames.getAlternateLegalGiven().equals(givenName)) || (penMatchMasterNames.getAlternateUsualGiven() != null && penMatchMasterNames.getAlternateUsualGiven().equals(givenName))) {
-				return true;
-			}
-		}
-		return false;
+		return hasGivenNameFullCharMatch(givenName, NameDictionary.code(givenName), penMatchMasterNames);
+	}
+
+	/**
+	 * Utility function for full match, on dictionary codes
+	 * 
+	 * @param givenName
+	 * @param givenNameCode
+	 * @return
+	 */
+	public static boolean hasGivenNameFullCharMatch(String givenName, int givenNameCode, PenMatchNames penMatchMasterNames) {
+		return hasNameMatch(givenName, givenNameCode, penMatchMasterNames, PenMatchNames.LEGAL_GIVEN);
+	}
+
+	/**
+	 * Utility function for 4 character match, on dictionary codes
+	 * 
+	 * @param givenName
+	 * @param givenNamePrefixCode
+	 * @return
+	 */
+	public static boolean hasGivenNamePrefixMatch(String givenName, int givenNamePrefixCode, PenMatchNames penMatchMasterNames) {
+		return hasPrefixMatch(givenName, givenNamePrefixCode, penMatchMasterNames, PenMatchNames.LEGAL_GIVEN);
 	}
 
 	/**
@@ -426,16 +473,11 @@ public class ScoringUtils {
 	 * @return
 	 */
 	public static boolean hasGivenNameSubsetToMiddleNameMatch(String givenName, PenMatchNames penMatchMasterNames) {
-		int numOfChars = 4;
-		if (givenName != null && givenName.length() >= numOfChars) {
-			if ((penMatchMasterNames.getLegalMiddle() != null && penMatchMasterNames.getLegalMiddle().length() >= numOfChars && penMatchMasterNames.getLegalMiddle().substring(0, numOfChars).equals(givenName.substring(0, numOfChars)))
-					|| (penMatchMasterNames.getUsualMiddle() != null && penMatchMasterNames.getUsualMiddle().length() >= numOfChars && penMatchMasterNames.getUsualMiddle().substring(0, numOfChars).equals(givenName.substring(0, numOfChars)))
-					|| (penMatchMasterNames.getAlternateLegalMiddle() != null && penMatchMasterNames.getAlternateLegalMiddle().length() >= numOfChars && penMatchMasterNames.getAlternateLegalMiddle().substring(0, numOfChars).equals(givenName.substring(0, numOfChars)))
-					|| (penMatchMasterNames.getAlternateUsualMiddle() != null && penMatchMasterNames.getAlternateUsualMiddle().length() >= numOfChars && penMatchMasterNames.getAlternateUsualMiddle().substring(0, numOfChars).equals(givenName.substring(0, numOfChars)))) {
-				return true;
-			}
-		}
-		return false;
+		return hasGivenNameSubsetToMiddleNameMatch(givenName, NameDictionary.prefixCode(givenName), penMatchMasterNames);
+	}
+
+	public static boolean hasGivenNameSubsetToMiddleNameMatch(String givenName, int givenNamePrefixCode, PenMatchNames penMatchMasterNames) {
+		return hasPrefixMatch(givenName, givenNamePrefixCode, penMatchMasterNames, PenMatchNames.LEGAL_MIDDLE);
 	}
 
 	/**
@@ -464,13 +506,29 @@ public class ScoringUtils {
 	 * @return
 	 */
 	public static boolean hasMiddleNameFullCharMatch(String middleName, PenMatchNames penMatchMasterNames) {
-		if (middleName != null) {
-			if ((penMatchMasterNames.getLegalMiddle() != null && penMatchMasterNames.getLegalMiddle().equals(middleName)) || (penMatchMasterNames.getUsualMiddle() != null && penMatchMasterNames.getUsualMiddle().equals(middleName))
-					|| (penMatchMasterNames.getAlternateLegalMiddle() != null && penMatchMasterNames.getAlternateLegalMiddle().equals(middleName)) || (penMatchMasterNames.getAlternateUsualMiddle() != null && penMatchMasterNames.getAlternateUsualMiddle().equals(middleName))) {
-				return true;
-			}
-		}
-		return false;
+		return hasMiddleNameFullCharMatch(middleName, NameDictionary.code(middleName), penMatchMasterNames);
+	}
+
+	/**
+	 * Utility function for full match, on dictionary codes
+	 * 
+	 * @param middleName
+	 * @param middleNameCode
+	 * @return
+	 */
+	public static boolean hasMiddleNameFullCharMatch(String middleName, int middleNameCode, PenMatchNames penMatchMasterNames) {
+		return hasNameMatch(middleName, middleNameCode, penMatchMasterNames, PenMatchNames.LEGAL_MIDDLE);
+	}
+
+	/**
+	 * Utility function for 4 character match, on dictionary codes
+	 * 
+	 * @param middleName
+	 * @param middleNamePrefixCode
+	 * @return
+	 */
+	public static boolean hasMiddleNamePrefixMatch(String middleName, int middleNamePrefixCode, PenMatchNames penMatchMasterNames) {
+		return hasPrefixMatch(middleName, middleNamePrefixCode, penMatchMasterNames, PenMatchNames.LEGAL_MIDDLE);
 	}
 
 	/**
@@ -499,13 +557,38 @@ public class ScoringUtils {
 	 * @return
 	 */
 	public static boolean hasMiddleNameSubsetToGivenNameMatch(String middleName, PenMatchNames penMatchMasterNames) {
-		int numOfChars = 4;
-		if (middleName != null && middleName.length() >= numOfChars) {
-			if ((penMatchMasterNames.getLegalGiven() != null && penMatchMasterNames.getLegalGiven().length() >= numOfChars && penMatchMasterNames.getLegalGiven().substring(0, numOfChars).equals(middleName.substring(0, numOfChars)))
-					|| (penMatchMasterNames.getUsualGiven() != null && penMatchMasterNames.getUsualGiven().length() >= numOfChars && penMatchMasterNames.getUsualGiven().substring(0, numOfChars).equals(middleName.substring(0, numOfChars)))
-					|| (penMatchMasterNames.getAlternateLegalGiven() != null && penMatchMasterNames.getAlternateLegalGiven().length() >= numOfChars && penMatchMasterNames.getAlternateLegalGiven().substring(0, numOfChars).equals(middleName.substring(0, numOfChars)))
-					|| (penMatchMasterNames.getAlternateUsualGiven() != null && penMatchMasterNames.getAlternateUsualGiven().length() >= numOfChars && penMatchMasterNames.getAlternateUsualGiven().substring(0, numOfChars).equals(middleName.substring(0, numOfChars)))) {
-				return true;
+		return hasMiddleNameSubsetToGivenNameMatch(middleName, NameDictionary.prefixCode(middleName), penMatchMasterNames);
+	}
+
+	public static boolean hasMiddleNameSubsetToGivenNameMatch(String middleName, int middleNamePrefixCode, PenMatchNames penMatchMasterNames) {
+		return hasPrefixMatch(middleName, middleNamePrefixCode, penMatchMasterNames, PenMatchNames.LEGAL_GIVEN);
+	}
+
+	/**
+	 * Whether a name equals one of the four master names starting at firstName -
+	 * legal, usual, alternate legal and alternate usual
+	 */
+	private static boolean hasNameMatch(String name, int nameCode, PenMatchNames penMatchMasterNames, int firstName) {
+		if (name != null) {
+			for (int masterName = firstName; masterName < firstName + 4; masterName++) {
+				if (NameDictionary.isSameName(name, nameCode, penMatchMasterNames.getName(masterName), penMatchMasterNames.getCode(masterName))) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Whether a name starts with the same four characters as one of the four
+	 * master names starting at firstName
+	 */
+	private static boolean hasPrefixMatch(String name, int namePrefixCode, PenMatchNames penMatchMasterNames, int firstName) {
+		if (name != null && name.length() >= NameDictionary.PREFIX_LENGTH) {
+			for (int masterName = firstName; masterName < firstName + 4; masterName++) {
+				if (NameDictionary.isSamePrefix(name, namePrefixCode, penMatchMasterNames.getName(masterName), penMatchMasterNames.getPrefixCode(masterName))) {
+					return true;
+				}
 			}
 		}
 		return false;
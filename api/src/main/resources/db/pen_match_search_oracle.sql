@@ -0,0 +1,64 @@
+-- Search table of the PEN Demog candidate queries, filled by the application
+-- with --penmatch.search.rebuild=true. Holds the students which can be
+-- scored, those neither merged nor deceased.
+--
+-- The trigger on PEN_DEMOG records the students inserted, updated or deleted
+-- since in PEN_MATCH_SEARCH_CHANGE. Candidate reads take those students from
+-- PEN_DEMOG rather than from the search table, and the application folds them
+-- into the search table every penmatch.search.sync-interval.
+--
+-- Key columns hold the raw PEN_DEMOG values, or their first characters, so
+-- that equality on them selects the same rows as LIKE 'prefix%' on PEN_DEMOG.
+-- The other columns hold the trimmed values scored by the match, null when
+-- blank, with the alternate local ID and the soundex of the surnames.
+CREATE TABLE PEN_MATCH_SEARCH (
+    STUD_NO               VARCHAR2(10) NOT NULL,
+    STUD_BIRTH            VARCHAR2(8),
+    SURNAME_4             VARCHAR2(4),
+    SURNAME_6             VARCHAR2(6),
+    GIVEN_1               VARCHAR2(1),
+    GIVEN_2               VARCHAR2(2),
+    PEN_MINCODE           VARCHAR2(8),
+    PEN_LOCAL_ID          VARCHAR2(12),
+    SURNAME               VARCHAR2(25),
+    GIVEN                 VARCHAR2(25),
+    MIDDLE                VARCHAR2(25),
+    USUAL_SURNAME         VARCHAR2(25),
+    USUAL_GIVEN           VARCHAR2(25),
+    USUAL_MIDDLE          VARCHAR2(25),
+    SEX                   VARCHAR2(1),
+    STATUS                VARCHAR2(1),
+    POSTAL                VARCHAR2(7),
+    GRADE                 VARCHAR2(2),
+    MINCODE               VARCHAR2(8),
+    LOCAL_ID              VARCHAR2(12),
+    ALT_LOCAL_ID          VARCHAR2(12),
+    TRUE_NO               VARCHAR2(10),
+    SURNAME_SOUNDEX       VARCHAR2(8),
+    USUAL_SURNAME_SOUNDEX VARCHAR2(8),
+    CONSTRAINT PEN_MATCH_SEARCH_PK PRIMARY KEY (STUD_NO)
+);
+
+CREATE INDEX PEN_MATCH_SEARCH_BIRTH_I ON PEN_MATCH_SEARCH (STUD_BIRTH);
+CREATE INDEX PEN_MATCH_SEARCH_SURNAME_4_I ON PEN_MATCH_SEARCH (SURNAME_4, GIVEN_1);
+CREATE INDEX PEN_MATCH_SEARCH_SURNAME_6_I ON PEN_MATCH_SEARCH (SURNAME_6, GIVEN_2);
+CREATE INDEX PEN_MATCH_SEARCH_LOCAL_ID_I ON PEN_MATCH_SEARCH (PEN_MINCODE, PEN_LOCAL_ID);
+
+CREATE TABLE PEN_MATCH_SEARCH_CHANGE (
+    STUD_NO               VARCHAR2(10) NOT NULL
+);
+
+CREATE INDEX PEN_MATCH_SEARCH_CHANGE_I ON PEN_MATCH_SEARCH_CHANGE (STUD_NO);
+
+CREATE OR REPLACE TRIGGER PEN_MATCH_SEARCH_CHANGE_T
+AFTER INSERT OR UPDATE OR DELETE ON PEN_DEMOG
+FOR EACH ROW
+BEGIN
+    IF :NEW.STUD_NO IS NOT NULL THEN
+        INSERT INTO PEN_MATCH_SEARCH_CHANGE (STUD_NO) VALUES (:NEW.STUD_NO);
+    END IF;
+    IF :OLD.STUD_NO IS NOT NULL AND (:NEW.STUD_NO IS NULL OR :NEW.STUD_NO <> :OLD.STUD_NO) THEN
+        INSERT INTO PEN_MATCH_SEARCH_CHANGE (STUD_NO) VALUES (:OLD.STUD_NO);
+    END IF;
+END;
+/
@@ -0,0 +1,94 @@
+package ca.bc.gov.educ.api.penmatch.config;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import ca.bc.gov.educ.api.penmatch.exception.PenMatchOverloadedException;
+
+public class PenMatchBatchConfigTest {
+
+	private final PenMatchBatchConfig config = new PenMatchBatchConfig();
+
+	@Test(expected = PenMatchOverloadedException.class)
+	public void testStageExecutor_GivenFullQueue_ShouldRejectAfterQueueWait() throws InterruptedException {
+		ExecutorService executor = config.penMatchNormalizeExecutor(1, 1, 50);
+		CountDownLatch release = new CountDownLatch(1);
+		try {
+			executor.execute(() -> awaitQuietly(release));
+			executor.execute(() -> {
+			});
+			executor.execute(() -> {
+			});
+		} finally {
+			release.countDown();
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testStageExecutor_GivenFullQueue_ShouldNeverRunTaskOnSubmitter() throws InterruptedException {
+		ExecutorService executor = config.penMatchJobNormalizeExecutor(1, 1);
+		CountDownLatch release = new CountDownLatch(1);
+		AtomicReference<Thread> runner = new AtomicReference<>();
+		try {
+			executor.execute(() -> awaitQuietly(release));
+			executor.execute(() -> {
+			});
+			CompletableFuture<Void> submitted = CompletableFuture.runAsync(() -> executor.execute(() -> runner.set(Thread.currentThread())));
+			Thread.sleep(100);
+			assertFalse(submitted.isDone());
+
+			release.countDown();
+			submitted.join();
+			executor.shutdown();
+			assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+			assertTrue(runner.get().getName().startsWith("pen-match-job-normalize-"));
+		} finally {
+			release.countDown();
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testStageExecutor_GivenStageThread_ShouldWaitForRoomInNextStage() throws Exception {
+		ExecutorService previous = config.penMatchLookupExecutor(1, 1, 50);
+		ExecutorService next = config.penMatchScoreExecutor(1, 1, 50);
+		CountDownLatch release = new CountDownLatch(1);
+		try {
+			next.execute(() -> awaitQuietly(release));
+			next.execute(() -> {
+			});
+			CompletableFuture<String> handedOff = new CompletableFuture<>();
+			previous.execute(() -> {
+				next.execute(() -> handedOff.complete(Thread.currentThread().getName()));
+			});
+			Thread.sleep(200);
+			assertFalse(handedOff.isDone());
+
+			release.countDown();
+			assertTrue(handedOff.get(5, TimeUnit.SECONDS).startsWith("pen-match-score-"));
+			assertFalse(PenMatchBatchConfig.isStageThread());
+		} finally {
+			release.countDown();
+			previous.shutdownNow();
+			next.shutdownNow();
+		}
+	}
+
+	private void awaitQuietly(CountDownLatch latch) {
+		try {
+			latch.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+}
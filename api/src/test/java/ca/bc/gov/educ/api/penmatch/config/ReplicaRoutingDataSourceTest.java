@@ -0,0 +1,149 @@
+package ca.bc.gov.educ.api.penmatch.config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.SQLNonTransientConnectionException;
+import java.sql.SQLTransientConnectionException;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class ReplicaRoutingDataSourceTest {
+
+	@Test
+	public void testGetConnection_GivenUnhealthyReplica_ShouldFailOverToHealthyTargets() throws Exception {
+		MeterRegistry meterRegistry = new SimpleMeterRegistry();
+		try (ReplicaRoutingDataSource dataSource = new ReplicaRoutingDataSource(pool("primary", "jdbc:h2:mem:primary"), Arrays.asList(pool("replica-1", "jdbc:h2:mem:replica1"), pool("replica-2", "jdbc:h2:tcp://localhost:1/replica2")), meterRegistry,
+				60000, 1)) {
+			for (int i = 0; i < 4; i++) {
+				try (Connection connection = lookupConnection(dataSource)) {
+					assertTrue(connection.isValid(1));
+				}
+			}
+			assertEquals(4, meterRegistry.get("penmatch.datasource.connections").tag("target", "replica-1").counter().count(), 0);
+			assertEquals(0, meterRegistry.get("penmatch.datasource.healthy").tag("target", "replica-2").gauge().value(), 0);
+
+			dataSource.checkReplicas();
+			assertEquals(1, meterRegistry.get("penmatch.datasource.healthy").tag("target", "replica-1").gauge().value(), 0);
+			assertEquals(0, meterRegistry.get("penmatch.datasource.connections").tag("target", ReplicaRoutingDataSource.PRIMARY_TARGET).counter().count(), 0);
+		}
+	}
+
+	@Test
+	public void testGetConnection_GivenNoHealthyReplica_ShouldUsePrimary() throws Exception {
+		MeterRegistry meterRegistry = new SimpleMeterRegistry();
+		try (ReplicaRoutingDataSource dataSource = new ReplicaRoutingDataSource(pool("primary", "jdbc:h2:mem:primary"), Arrays.asList(pool("replica-1", "jdbc:h2:tcp://localhost:1/replica1")), meterRegistry, 60000, 1)) {
+			try (Connection connection = lookupConnection(dataSource)) {
+				assertTrue(connection.isValid(1));
+			}
+			assertEquals(1, meterRegistry.get("penmatch.datasource.connections").tag("target", ReplicaRoutingDataSource.PRIMARY_TARGET).counter().count(), 0);
+		}
+	}
+
+	@Test
+	public void testGetConnection_GivenNoLookup_ShouldUsePrimary() throws Exception {
+		MeterRegistry meterRegistry = new SimpleMeterRegistry();
+		try (ReplicaRoutingDataSource dataSource = new ReplicaRoutingDataSource(pool("primary", "jdbc:h2:mem:primary"), Arrays.asList(pool("replica-1", "jdbc:h2:mem:replica1")), meterRegistry, 60000, 1)) {
+			try (Connection connection = dataSource.getConnection()) {
+				assertTrue(connection.getMetaData().getURL().endsWith("primary"));
+			}
+			assertEquals(0, meterRegistry.get("penmatch.datasource.connections").tag("target", "replica-1").counter().count(), 0);
+			assertEquals(0, meterRegistry.get("penmatch.datasource.connections").tag("target", ReplicaRoutingDataSource.PRIMARY_TARGET).counter().count(), 0);
+		}
+	}
+
+	@Test
+	public void testGetConnection_GivenBusyReplica_ShouldFailOverWithoutMarkingItUnhealthy() throws Exception {
+		MeterRegistry meterRegistry = new SimpleMeterRegistry();
+		HikariDataSource replica = pool("replica-1", "jdbc:h2:mem:replica1", 1);
+		try (ReplicaRoutingDataSource dataSource = new ReplicaRoutingDataSource(pool("primary", "jdbc:h2:mem:primary"), Arrays.asList(replica), meterRegistry, 60000, 1); Connection busyConnection = replica.getConnection()) {
+			try (Connection connection = lookupConnection(dataSource)) {
+				assertTrue(connection.getMetaData().getURL().endsWith("primary"));
+			}
+			assertEquals(1, meterRegistry.get("penmatch.datasource.connections").tag("target", ReplicaRoutingDataSource.PRIMARY_TARGET).counter().count(), 0);
+			assertEquals(1, meterRegistry.get("penmatch.datasource.healthy").tag("target", "replica-1").gauge().value(), 0);
+		}
+	}
+
+	@Test
+	public void testGetConnectionWithCredentials_ShouldDelegateToRoutedTarget() throws Exception {
+		MeterRegistry meterRegistry = new SimpleMeterRegistry();
+		try (ReplicaRoutingDataSource dataSource = new ReplicaRoutingDataSource(credentialsPool("primary", "jdbc:h2:mem:primary"), Arrays.asList(credentialsPool("replica-1", "jdbc:h2:mem:replica1")), meterRegistry, 60000, 1)) {
+			try (Connection connection = dataSource.getConnection("", "")) {
+				assertTrue(connection.getMetaData().getURL().endsWith("primary"));
+			}
+			try (Connection connection = ReplicaRoutingDataSource.routeToReplicas(() -> {
+				try {
+					return dataSource.getConnection("", "");
+				} catch (SQLException e) {
+					throw new IllegalStateException(e);
+				}
+			})) {
+				assertTrue(connection.getMetaData().getURL().endsWith("replica1"));
+			}
+			assertEquals(1, meterRegistry.get("penmatch.datasource.connections").tag("target", "replica-1").counter().count(), 0);
+		}
+	}
+
+	@Test
+	public void testIsConnectivityFailure_ShouldOnlyMatchConnectionFailures() {
+		assertFalse(ReplicaRoutingDataSource.isConnectivityFailure(new SQLTransientConnectionException("replica-1 - Connection is not available, request timed out after 250ms.")));
+		assertTrue(ReplicaRoutingDataSource.isConnectivityFailure(new SQLTransientConnectionException("replica-1 - Connection is not available, request timed out after 250ms.", "08001", new SQLException("Connection refused", "08001"))));
+		assertTrue(ReplicaRoutingDataSource.isConnectivityFailure(new SQLTransientConnectionException("replica-1 - Connection is not available", null, new SQLNonTransientConnectionException("Connection is broken"))));
+	}
+
+	private Connection lookupConnection(ReplicaRoutingDataSource dataSource) {
+		return ReplicaRoutingDataSource.routeToReplicas(() -> {
+			try {
+				return dataSource.getConnection();
+			} catch (SQLException e) {
+				throw new IllegalStateException(e);
+			}
+		});
+	}
+
+	private HikariDataSource pool(String poolName, String url) {
+		return pool(poolName, url, 2);
+	}
+
+	/**
+	 * A pool opening connections with other credentials, which HikariCP itself
+	 * doesn't support
+	 */
+	private HikariDataSource credentialsPool(String poolName, String url) {
+		HikariConfig config = new HikariConfig();
+		config.setPoolName(poolName);
+		config.setJdbcUrl(url);
+		config.setMaximumPoolSize(2);
+		config.setConnectionTimeout(250);
+		config.setInitializationFailTimeout(-1);
+		return new HikariDataSource(config) {
+			@Override
+			public Connection getConnection(String username, String password) throws SQLException {
+				return DriverManager.getConnection(url, username, password);
+			}
+		};
+	}
+
+	private HikariDataSource pool(String poolName, String url, int poolSize) {
+		HikariConfig config = new HikariConfig();
+		config.setPoolName(poolName);
+		config.setJdbcUrl(url);
+		config.setMaximumPoolSize(poolSize);
+		config.setConnectionTimeout(250);
+		config.setInitializationFailTimeout(-1);
+		return new HikariDataSource(config);
+	}
+
+}
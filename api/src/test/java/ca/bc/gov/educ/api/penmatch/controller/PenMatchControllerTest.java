@@ -2,8 +2,13 @@ package ca.bc.gov.educ.api.penmatch.controller;
 
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.result.MockMvcResultHandlers.print;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 import java.io.IOException;
+import java.util.Arrays;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -18,6 +23,7 @@ import org.springframework.test.web.servlet.setup.MockMvcBuilders;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 
+import ca.bc.gov.educ.api.penmatch.endpoint.PenMatchEndpoint;
 import ca.bc.gov.educ.api.penmatch.exception.RestExceptionHandler;
 import ca.bc.gov.educ.api.penmatch.repository.NicknamesRepository;
 import ca.bc.gov.educ.api.penmatch.repository.PenDemographicsRepository;
@@ -55,6 +61,43 @@ public class PenMatchControllerTest {
 		this.mvc.perform(post("/").contentType(MediaType.APPLICATION_JSON).accept(MediaType.APPLICATION_JSON).content(asJsonString(entity))).andDo(print());
 	}
 
+	@Test
+	@WithMockOAuth2Scope(scope = "READ_PEN_MATCH")
+	public void testMatchStudents_GivenValidPayload_ShouldReturnResultPerStudent() throws Exception {
+		PenMatchStudent first = createPenMatchStudent();
+		PenMatchStudent second = createPenMatchStudent();
+		second.setSurname("JACKSON");
+		second.setDob("19800518");
+		this.mvc.perform(post("/bulk").contentType(MediaType.APPLICATION_JSON).accept(MediaType.APPLICATION_JSON).content(asJsonString(Arrays.asList(first, second)))).andDo(print()).andExpect(status().isOk()).andExpect(jsonPath("$.length()").value(2));
+	}
+
+	@Test
+	@WithMockOAuth2Scope(scope = "READ_PEN_MATCH")
+	public void testMatchStudents_GivenNullStudent_ShouldReturnStatusBadRequest() throws Exception {
+		this.mvc.perform(post("/bulk").contentType(MediaType.APPLICATION_JSON).accept(MediaType.APPLICATION_JSON).content("[" + asJsonString(createPenMatchStudent()) + ",null]")).andDo(print()).andExpect(status().isBadRequest());
+	}
+
+	@Test
+	@WithMockOAuth2Scope(scope = "READ_PEN_MATCH")
+	public void testMatchStudentStream_GivenNewlineDelimitedPayload_ShouldReturnResultPerLine() throws Exception {
+		String payload = asJsonString(createPenMatchStudent()) + "\n" + asJsonString(createPenMatchStudent()) + "\n" + asJsonString(createPenMatchStudent()) + "\n";
+		String response = this.mvc.perform(post("/stream").contentType(PenMatchEndpoint.APPLICATION_NDJSON_VALUE).accept(PenMatchEndpoint.APPLICATION_NDJSON_VALUE).content(payload)).andExpect(status().isOk()).andReturn().getResponse().getContentAsString();
+		assertEquals(3, response.split("\n").length);
+	}
+
+	@Test
+	@WithMockOAuth2Scope(scope = "READ_PEN_MATCH")
+	public void testMatchStudentStream_GivenInvalidStudents_ShouldReturnErrorLinesAndGoOn() throws Exception {
+		String payload = asJsonString(createPenMatchStudent()) + "\nnull\n{\"surname\":{\"first\":\"JACKSON\"}}\n" + asJsonString(createPenMatchStudent()) + "\n";
+		String response = this.mvc.perform(post("/stream").contentType(PenMatchEndpoint.APPLICATION_NDJSON_VALUE).accept(PenMatchEndpoint.APPLICATION_NDJSON_VALUE).content(payload)).andExpect(status().isOk()).andReturn().getResponse().getContentAsString();
+		String[] lines = response.split("\n");
+		assertEquals(4, lines.length);
+		assertTrue(lines[0].contains("penStatus"));
+		assertTrue(lines[1].startsWith("{\"index\":1,"));
+		assertTrue(lines[2].startsWith("{\"index\":2,"));
+		assertTrue(lines[3].contains("penStatus"));
+	}
+
 	private PenMatchStudent createPenMatchStudent() {
 		PenMatchStudent student = new PenMatchStudent();
 		student.setEnrolledGradeCode(null);
@@ -0,0 +1,78 @@
+package ca.bc.gov.educ.api.penmatch.lookup;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.persistence.EntityManager;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import ca.bc.gov.educ.api.penmatch.repository.NicknamesRepository;
+import ca.bc.gov.educ.api.penmatch.repository.PenDemographicsRepository;
+import ca.bc.gov.educ.api.penmatch.repository.SurnameFrequencyRepository;
+import ca.bc.gov.educ.api.penmatch.struct.PenMatchNames;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest
+public class NicknameIndexTest {
+
+	@Autowired
+	NicknameIndex nicknameIndex;
+
+	@Autowired
+	NicknamesRepository nicknamesRepository;
+
+	@Autowired
+	PenDemographicsRepository penDemographicsRepository;
+
+	@Autowired
+	SurnameFrequencyRepository surnameFrequencyRepository;
+
+	@Autowired
+	EntityManager entityManager;
+
+	@Autowired
+	JdbcTemplate jdbcTemplate;
+
+	@Before
+	public void before() {
+		jdbcTemplate.update("INSERT INTO NICKNAMES (NICKNAME1, NICKNAME2) VALUES ('JAMES', 'JIM'), ('JAMES', 'JIMMY'), ('JAMES', 'JAIMIE'), ('JAMES', 'JAMIE'), ('JAMES', 'JEM'), ('MICHAEL', 'MIKE'), ('MICHAEL', 'MICK'), ('MIKE', 'MIKEY')");
+		nicknameIndex.reload();
+	}
+
+	@After
+	public void after() {
+		jdbcTemplate.update("DELETE FROM NICKNAMES");
+		nicknameIndex.reload();
+	}
+
+	@Test
+	public void testLookupNicknames_ShouldReturnSameAsDatabase() {
+		PenMatchLookupManager sqlLookupManager = new PenMatchLookupManager(entityManager, penDemographicsRepository, nicknamesRepository, surnameFrequencyRepository);
+		PenMatchLookupManager mapLookupManager = PenMatchLookupManager.builder().entityManager(entityManager).penDemographicsRepository(penDemographicsRepository).nicknamesRepository(nicknamesRepository).surnameFrequencyRepository(surnameFrequencyRepository)
+				.referenceDataSources(Collections.singletonList(nicknameIndex)).build();
+
+		assertEquals(8, nicknameIndex.getNicknameMap().get().size());
+		for (String givenName : Arrays.asList("JAMES", "JIM", "JEM", "MICHAEL", "MIKE", "MIKEY", "MICK", "JOHN")) {
+			assertEquals(givenName, nicknames(sqlLookupManager, givenName), nicknames(mapLookupManager, givenName));
+		}
+		assertEquals(Arrays.asList("JAMES", "JAIMIE", "JAMIE", "JEM"), nicknames(mapLookupManager, "JIM"));
+	}
+
+	private List<String> nicknames(PenMatchLookupManager lookupManager, String givenName) {
+		PenMatchNames names = new PenMatchNames();
+		lookupManager.lookupNicknames(names, givenName);
+		return Arrays.asList(names.getNickname1(), names.getNickname2(), names.getNickname3(), names.getNickname4());
+	}
+
+}
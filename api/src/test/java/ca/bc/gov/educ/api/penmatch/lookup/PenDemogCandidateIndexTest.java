@@ -0,0 +1,114 @@
+package ca.bc.gov.educ.api.penmatch.lookup;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import javax.persistence.EntityManager;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import ca.bc.gov.educ.api.penmatch.enumeration.CandidateQueryType;
+import ca.bc.gov.educ.api.penmatch.model.PenDemographicsEntity;
+import ca.bc.gov.educ.api.penmatch.repository.NicknamesRepository;
+import ca.bc.gov.educ.api.penmatch.repository.PenDemographicsRepository;
+import ca.bc.gov.educ.api.penmatch.repository.SurnameFrequencyRepository;
+import ca.bc.gov.educ.api.penmatch.struct.CandidateQuery;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest
+@TestPropertySource(properties = { "penmatch.index.enabled=true", "penmatch.index.poll-interval=3600000" })
+public class PenDemogCandidateIndexTest {
+
+	@Autowired
+	PenDemogCandidateIndex candidateIndex;
+
+	@Autowired
+	NicknamesRepository nicknamesRepository;
+
+	@Autowired
+	PenDemographicsRepository penDemographicsRepository;
+
+	@Autowired
+	SurnameFrequencyRepository surnameFrequencyRepository;
+
+	@Autowired
+	EntityManager entityManager;
+
+	PenMatchLookupManager sqlLookupManager;
+
+	@Before
+	public void before() {
+		sqlLookupManager = new PenMatchLookupManager(entityManager, penDemographicsRepository, nicknamesRepository, surnameFrequencyRepository);
+		penDemographicsRepository.saveAll(Arrays.asList(student("100000001", "JACKSON", "MIKE", "19800518", "12345678", "LOCAL1"), student("100000002", "JACKSON", "MARY", "19900101", "12345678", "LOCAL2"),
+				student("100000003", "JACKSTONE", null, "19800518", null, null), student("100000004", "SMITH", "JOHN", "20010203", "12345678", "LOCAL1"), student("100000005", null, "MIKE", "19800518", "87654321", "LOCAL1"),
+				student("100000006", "JACK", "MIKE", "20050505", "87654321", "LOCAL9")));
+		candidateIndex.reload();
+	}
+
+	@After
+	public void after() {
+		penDemographicsRepository.deleteAll();
+	}
+
+	@Test
+	public void testLookupCandidates_ShouldReturnSameCandidatesAsSQL() {
+		List<CandidateQuery> queries = Arrays.asList(new CandidateQuery(CandidateQueryType.WITH_ALL_PARTS, "19900101", "JACK", "M", "12345678", "LOCAL1"),
+				new CandidateQuery(CandidateQueryType.WITH_ALL_PARTS, null, "JACKSON", "MA", null, "LOCAL1"), new CandidateQuery(CandidateQueryType.NO_INIT, "20010203", "JACKS", null, "87654321", "LOCAL1"),
+				new CandidateQuery(CandidateQueryType.NO_LOCAL_ID, "19800518", "SMI", "J", null, null), new CandidateQuery(CandidateQueryType.NO_LOCAL_ID, "19000101", "JACK", null, null, null),
+				new CandidateQuery(CandidateQueryType.NO_INIT_NO_LOCAL_ID, null, "J", null, null, null), new CandidateQuery(CandidateQueryType.NO_INIT_NO_LOCAL_ID, "19800518", null, null, null, null));
+
+		for (CandidateQuery query : queries) {
+			assertEquals(query.toString(), studentNumbers(sqlLookupManager.lookupCandidates(query)), studentNumbers(candidateIndex.lookupCandidates(query).get()));
+		}
+	}
+
+	@Test
+	public void testLookupCandidates_GivenPaddedLocalIDs_ShouldMatchLocalIDAsSQLAndCarryAlternateLocalID() {
+		penDemographicsRepository.saveAll(Arrays.asList(student("100000008", "ZED", "AL", "19700101", "13579246", "0012 3"), student("100000009", "ZOE", "AL", "19700102", "13579246", "123")));
+		candidateIndex.reload();
+
+		for (String localID : Arrays.asList("0012 3", "123", "0123")) {
+			CandidateQuery query = new CandidateQuery(CandidateQueryType.NO_INIT, "19000101", "Q", null, "13579246", localID);
+			assertEquals(localID, studentNumbers(sqlLookupManager.lookupCandidates(query)), studentNumbers(candidateIndex.lookupCandidates(query).get()));
+		}
+		List<PenDemographicsEntity> candidates = candidateIndex.lookupCandidates(new CandidateQuery(CandidateQueryType.NO_INIT, "19700101", "ZED", null, null, null)).get();
+		assertEquals("123", candidates.get(0).getAlternateLocalID());
+	}
+
+	@Test
+	public void testLookupCandidates_GivenWildcard_ShouldNotAnswer() {
+		assertTrue(!candidateIndex.lookupCandidates(new CandidateQuery(CandidateQueryType.NO_INIT_NO_LOCAL_ID, null, "JACK_ON", null, null, null)).isPresent());
+	}
+
+	@Test
+	public void testRefresh_GivenNewStudents_ShouldAddSegment() {
+		penDemographicsRepository.save(student("100000007", "JACKMAN", "HUGH", "19681012", null, null));
+		candidateIndex.refresh();
+		candidateIndex.refresh();
+
+		CandidateQuery query = new CandidateQuery(CandidateQueryType.NO_INIT_NO_LOCAL_ID, "19681012", "JACKM", null, null, null);
+		assertEquals(Arrays.asList("100000007"), studentNumbers(candidateIndex.lookupCandidates(query).get()));
+		assertEquals(7, candidateIndex.size());
+	}
+
+	private PenDemographicsEntity student(String studNo, String surname, String givenName, String dob, String mincode, String localID) {
+		return PenDemographicsEntity.builder().studNo(studNo).studSurname(surname).studGiven(givenName).studBirth(dob).studSex("M").studStatus("A").mincode(mincode).localID(localID).createDate(new Date()).build();
+	}
+
+	private List<String> studentNumbers(List<PenDemographicsEntity> candidates) {
+		return candidates.stream().map(PenDemographicsEntity::getStudNo).sorted(Comparator.naturalOrder()).collect(Collectors.toList());
+	}
+}
@@ -0,0 +1,139 @@
+package ca.bc.gov.educ.api.penmatch.lookup;
+
+import static org.junit.Assert.assertEquals;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import javax.persistence.EntityManager;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import ca.bc.gov.educ.api.penmatch.enumeration.CandidateQueryType;
+import ca.bc.gov.educ.api.penmatch.model.PenDemographicsEntity;
+import ca.bc.gov.educ.api.penmatch.repository.NicknamesRepository;
+import ca.bc.gov.educ.api.penmatch.repository.PenDemographicsRepository;
+import ca.bc.gov.educ.api.penmatch.repository.SurnameFrequencyRepository;
+import ca.bc.gov.educ.api.penmatch.struct.CandidateQuery;
+import ca.bc.gov.educ.api.penmatch.struct.PenMasterRecord;
+import ca.bc.gov.educ.api.penmatch.util.PenMatchUtils;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Allocation and latency of a large candidate set read as entities converted to
+ * PEN Master records, against the same candidates read as projected records.
+ * Skipped unless run with the penmatch.benchmark system property, for example:
+ *
+ * mvn test -Dtest=PenDemogCandidateReaderBenchmarkTest -Dpenmatch.benchmark=true
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest
+@Slf4j
+public class PenDemogCandidateReaderBenchmarkTest {
+
+	private static final int CANDIDATES = 20000;
+
+	private static final int WARMUP_ITERATIONS = 20;
+
+	private static final int ITERATIONS = 50;
+
+	@Autowired
+	NicknamesRepository nicknamesRepository;
+
+	@Autowired
+	PenDemographicsRepository penDemographicsRepository;
+
+	@Autowired
+	SurnameFrequencyRepository surnameFrequencyRepository;
+
+	@Autowired
+	private EntityManager entityManager;
+
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	@Before
+	public void before() {
+		Assume.assumeTrue(Boolean.getBoolean("penmatch.benchmark"));
+		penDemographicsRepository.saveAll(IntStream.range(0, CANDIDATES)
+				.mapToObj(i -> PenDemographicsEntity.builder().studNo(String.valueOf(100000000 + i)).studSurname("BENCHMARK").studGiven("GIVEN" + i % 500).studMiddle("MIDDLE").studBirth(String.valueOf(19800101 + i % 28)).studSex(i % 2 == 0 ? "M" : "F")
+						.studStatus("A").mincode("12345678").localID("LOCAL" + i).postalCode("V8V1A1").build())
+				.collect(Collectors.toList()));
+	}
+
+	@After
+	public void after() {
+		if (Boolean.getBoolean("penmatch.benchmark")) {
+			penDemographicsRepository.deleteAll();
+		}
+	}
+
+	@Test
+	public void benchmarkCandidateReads() {
+		PenMatchLookupManager entityLookupManager = new PenMatchLookupManager(entityManager, penDemographicsRepository, nicknamesRepository, surnameFrequencyRepository);
+		PenMatchLookupManager projectionLookupManager = PenMatchLookupManager.builder().entityManager(entityManager).penDemographicsRepository(penDemographicsRepository).nicknamesRepository(nicknamesRepository)
+				.surnameFrequencyRepository(surnameFrequencyRepository).candidateReader(new PenDemogCandidateReader(jdbcTemplate, true)).build();
+		CandidateQuery query = new CandidateQuery(CandidateQueryType.NO_INIT_NO_LOCAL_ID, null, "BENCH", null, null, null);
+
+		Measurement entities = measure(() -> entityLookupManager.lookupCandidates(query).stream().map(PenMatchUtils::convertPenDemogToPenMasterRecord).peek(PenMatchUtils::normalizeLocalIDsFromMaster).collect(Collectors.toList()));
+		Measurement records = measure(() -> projectionLookupManager.lookupCandidateRecords(query).get());
+
+		log.info("{} candidates as entities: {} ms median, {} bytes allocated per candidate", CANDIDATES, entities.medianMillis(), entities.bytesPerCandidate());
+		log.info("{} candidates as projected records: {} ms median, {} bytes allocated per candidate", CANDIDATES, records.medianMillis(), records.bytesPerCandidate());
+		assertEquals(CANDIDATES, entities.candidates);
+		assertEquals(CANDIDATES, records.candidates);
+	}
+
+	/**
+	 * Reads the candidates WARMUP_ITERATIONS times, then ITERATIONS times
+	 * recording the latency and the bytes allocated by the reading thread
+	 */
+	private Measurement measure(Supplier<List<PenMasterRecord>> read) {
+		com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long threadId = Thread.currentThread().getId();
+		for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+			read.get();
+		}
+		Measurement measurement = new Measurement();
+		for (int i = 0; i < ITERATIONS; i++) {
+			long allocatedBefore = threadBean.getThreadAllocatedBytes(threadId);
+			long start = System.nanoTime();
+			measurement.candidates = read.get().size();
+			measurement.nanos.add(System.nanoTime() - start);
+			measurement.allocatedBytes += threadBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+		}
+		return measurement;
+	}
+
+	private static class Measurement {
+
+		private final List<Long> nanos = new ArrayList<>();
+
+		private long allocatedBytes;
+
+		private int candidates;
+
+		private double medianMillis() {
+			Long[] sorted = nanos.toArray(new Long[0]);
+			Arrays.sort(sorted);
+			return sorted[sorted.length / 2] / 1e6;
+		}
+
+		private long bytesPerCandidate() {
+			return allocatedBytes / ITERATIONS / Math.max(candidates, 1);
+		}
+	}
+}
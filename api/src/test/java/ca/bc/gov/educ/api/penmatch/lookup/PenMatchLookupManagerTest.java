@@ -1,7 +1,19 @@
 package ca.bc.gov.educ.api.penmatch.lookup;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
 import javax.persistence.EntityManager;
 
 import org.junit.Before;
@@ -9,11 +21,20 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.test.context.junit4.SpringRunner;
 
+import ca.bc.gov.educ.api.penmatch.config.PenMatchBatchConfig;
+import ca.bc.gov.educ.api.penmatch.enumeration.CandidateQueryType;
+import ca.bc.gov.educ.api.penmatch.model.PenDemographicsEntity;
 import ca.bc.gov.educ.api.penmatch.repository.NicknamesRepository;
 import ca.bc.gov.educ.api.penmatch.repository.PenDemographicsRepository;
 import ca.bc.gov.educ.api.penmatch.repository.SurnameFrequencyRepository;
+import ca.bc.gov.educ.api.penmatch.struct.CandidateQuery;
+import ca.bc.gov.educ.api.penmatch.struct.PenMasterRecord;
+import ca.bc.gov.educ.api.penmatch.util.PenMatchUtils;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 
 @RunWith(SpringRunner.class)
 @SpringBootTest
@@ -31,6 +52,9 @@ public class PenMatchLookupManagerTest {
 	@Autowired
 	private EntityManager entityManager;
 
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
 	PenMatchLookupManager lookupManager;
 
 	@Before
@@ -48,4 +72,155 @@ public class PenMatchLookupManagerTest {
 		assertTrue(lookupManager.lookupSurnameFrequency("AAS") > 200);
 	}
 
+	@Test
+	public void testLookupCandidates_GivenCap_ShouldReturnMostRelevantCandidates() {
+		penDemographicsRepository.saveAll(Arrays.asList(student("100000001", "JACKMAN", "F"), student("100000002", "JACKSON", "F"), student("100000003", "JACKSON", "M"), student("100000004", "JACKSTONE", "M")));
+		try {
+			MeterRegistry meterRegistry = new SimpleMeterRegistry();
+			PenMatchLookupManager cappedLookupManager = PenMatchLookupManager.builder().entityManager(entityManager).penDemographicsRepository(penDemographicsRepository).nicknamesRepository(nicknamesRepository).surnameFrequencyRepository(surnameFrequencyRepository).meterRegistry(meterRegistry).candidateCap(1)
+					.candidateCapMargin(1).verifyCandidateCap(true).build();
+
+			List<PenDemographicsEntity> candidates = cappedLookupManager.lookupCandidates(new CandidateQuery(CandidateQueryType.NO_INIT_NO_LOCAL_ID, "19800518", "JACK", null, null, null, "JACKSON", "M"));
+
+			assertEquals(Arrays.asList("100000003", "100000002"), candidates.stream().map(PenDemographicsEntity::getStudNo).collect(Collectors.toList()));
+			assertEquals(1, meterRegistry.get("penmatch.candidates.cap").tag("hit", "true").counter().count(), 0);
+			assertEquals(1, meterRegistry.get("penmatch.candidates.cap.verified").tag("result", "missed").counter().count(), 0);
+		} finally {
+			penDemographicsRepository.deleteAll();
+		}
+	}
+
+	@Test
+	public void testLookupCandidates_GivenCapAndPaddedSurnames_ShouldRankFullSurnameMatchFirst() {
+		penDemographicsRepository.saveAll(Arrays.asList(student("100000001", "JACKMAN   ", "M"), student("100000002", "JACKSON   ", "F"), student("100000003", "JACKSTONE ", "M"), student("100000004", "JACKSTON  ", "M")));
+		try {
+			PenMatchLookupManager cappedLookupManager = PenMatchLookupManager.builder().entityManager(entityManager).penDemographicsRepository(penDemographicsRepository).nicknamesRepository(nicknamesRepository).surnameFrequencyRepository(surnameFrequencyRepository).candidateCap(1)
+					.candidateCapMargin(1).build();
+
+			List<PenDemographicsEntity> candidates = cappedLookupManager.lookupCandidates(new CandidateQuery(CandidateQueryType.NO_INIT_NO_LOCAL_ID, "19800518", "JACK", null, null, null, "JACKSON", "M"));
+
+			assertEquals(Arrays.asList("100000002", "100000001"), candidates.stream().map(PenDemographicsEntity::getStudNo).collect(Collectors.toList()));
+		} finally {
+			penDemographicsRepository.deleteAll();
+		}
+	}
+
+	@Test
+	public void testLookupCandidates_GivenCap_ShouldReturnSameCandidatesAsBatch() {
+		penDemographicsRepository.saveAll(Arrays.asList(student("100000001", "JACKMAN", "F"), student("100000002", "JACKSON", "F"), student("100000003", "JACKSON", "M"), student("100000004", "JACKSTONE", "M"),
+				PenDemographicsEntity.builder().studNo("100000005").studSurname("JONES").studGiven("AL").studBirth("19700101").studSex("M").studStatus("A").mincode("12345678").localID("LOCAL1").build()));
+		try {
+			PenMatchLookupManager cappedLookupManager = PenMatchLookupManager.builder().entityManager(entityManager).penDemographicsRepository(penDemographicsRepository).nicknamesRepository(nicknamesRepository).surnameFrequencyRepository(surnameFrequencyRepository).candidateCap(1)
+					.candidateCapMargin(1).build();
+			List<CandidateQuery> queries = Arrays.asList(new CandidateQuery(CandidateQueryType.WITH_ALL_PARTS, "19800518", "JACK", "M", "12345678", "LOCAL1", "JONES", "M"),
+					new CandidateQuery(CandidateQueryType.NO_INIT, "19700101", "JACKS", null, "12345678", "LOCAL1", "JACKSON", "F"), new CandidateQuery(CandidateQueryType.NO_LOCAL_ID, null, "JACK", "M", null, null, "JACKSTONE", "M"),
+					new CandidateQuery(CandidateQueryType.NO_INIT_NO_LOCAL_ID, "19800518", "J", null, null, null, null, null));
+			Map<Integer, List<PenDemographicsEntity>> batchCandidates = cappedLookupManager.lookupCandidatesBatch(queries);
+			for (int i = 0; i < queries.size(); i++) {
+				assertEquals(queries.get(i).toString(), batchCandidates.get(i).stream().map(PenDemographicsEntity::getStudNo).collect(Collectors.toList()),
+						cappedLookupManager.lookupCandidates(queries.get(i)).stream().map(PenDemographicsEntity::getStudNo).collect(Collectors.toList()));
+			}
+		} finally {
+			penDemographicsRepository.deleteAll();
+		}
+	}
+
+	@Test
+	public void testLookupCandidatesBatch_GivenStudentMatchingEveryBranch_ShouldReturnItOnce() {
+		penDemographicsRepository.saveAll(Arrays.asList(PenDemographicsEntity.builder().studNo("100000001").studSurname("JONES").studGiven("AL").studBirth("19700101").studSex("M").studStatus("A").mincode("12345678").localID("LOCAL1").build(),
+				PenDemographicsEntity.builder().studNo("100000002").studSurname("JONESY").studGiven("ALAN").studSex("M").studStatus("A").mincode("12345678").localID("LOCAL1").build(),
+				PenDemographicsEntity.builder().studNo("100000003").studSurname("SMITH").studGiven("BOB").studBirth("19900101").studSex("M").studStatus("A").mincode("12345678").localID("LOCAL1").build()));
+		try {
+			PenMatchLookupManager cappedLookupManager = PenMatchLookupManager.builder().entityManager(entityManager).penDemographicsRepository(penDemographicsRepository).nicknamesRepository(nicknamesRepository).surnameFrequencyRepository(surnameFrequencyRepository).candidateCap(5)
+					.candidateCapMargin(0).build();
+			List<CandidateQuery> queries = Arrays.asList(new CandidateQuery(CandidateQueryType.WITH_ALL_PARTS, "19700101", "JONES", "AL", "12345678", "LOCAL1", "JONES", "M"));
+			for (PenMatchLookupManager manager : Arrays.asList(lookupManager, cappedLookupManager)) {
+				List<String> candidates = manager.lookupCandidatesBatch(queries).get(0).stream().map(PenDemographicsEntity::getStudNo).sorted().collect(Collectors.toList());
+				assertEquals(Arrays.asList("100000001", "100000002", "100000003"), candidates);
+			}
+		} finally {
+			penDemographicsRepository.deleteAll();
+		}
+	}
+
+	@Test
+	public void testLookupCandidates_GivenSplitBranches_ShouldReturnSameCandidatesAsOrQuery() {
+		penDemographicsRepository.saveAll(Arrays.asList(student("100000001", "JACKMAN", "F"), student("100000002", "JACKSON", "F"), student("100000003", "SMITH", "M"),
+				PenDemographicsEntity.builder().studNo("100000004").studSurname("JONES").studGiven("AL").studBirth("19700101").studSex("M").studStatus("A").mincode("12345678").localID("LOCAL1").build()));
+		try {
+			List<CandidateQuery> queries = Arrays.asList(new CandidateQuery(CandidateQueryType.WITH_ALL_PARTS, "19800518", "JACK", "M", "12345678", "LOCAL1"), new CandidateQuery(CandidateQueryType.NO_INIT, "19700101", "SMI", null, "12345678", "LOCAL2"),
+					new CandidateQuery(CandidateQueryType.NO_LOCAL_ID, "19900101", "JACKS", "MI", null, null), new CandidateQuery(CandidateQueryType.NO_INIT_NO_LOCAL_ID, null, "J", null, null, null));
+			for (boolean parallel : new boolean[] { false, true }) {
+				MeterRegistry meterRegistry = new SimpleMeterRegistry();
+				ExecutorService branchExecutor = Executors.newFixedThreadPool(3);
+				try {
+					CandidateBranchLookup branchLookup = new CandidateBranchLookup(entityManager, branchExecutor, meterRegistry, true, parallel);
+					PenMatchLookupManager branchLookupManager = PenMatchLookupManager.builder().entityManager(entityManager).penDemographicsRepository(penDemographicsRepository).nicknamesRepository(nicknamesRepository).surnameFrequencyRepository(surnameFrequencyRepository)
+							.branchLookup(branchLookup).meterRegistry(meterRegistry).build();
+					for (CandidateQuery query : queries) {
+						assertEquals(query.toString(), studentNumbers(lookupManager.lookupCandidates(query)), studentNumbers(branchLookupManager.lookupCandidates(query)));
+					}
+					assertEquals(3, meterRegistry.get("penmatch.candidates.branch").tag("branch", CandidateBranchLookup.BIRTH_BRANCH).timer().count());
+					assertEquals(4, meterRegistry.get("penmatch.candidates.branch").tag("branch", CandidateBranchLookup.SURNAME_BRANCH).timer().count());
+					assertEquals(2, meterRegistry.get("penmatch.candidates.branch.rows").tag("branch", CandidateBranchLookup.LOCAL_ID_BRANCH).summary().count());
+					assertEquals(1, meterRegistry.get("penmatch.candidates.branch.rows").tag("branch", CandidateBranchLookup.LOCAL_ID_BRANCH).summary().totalAmount(), 0);
+				} finally {
+					branchExecutor.shutdown();
+				}
+			}
+		} finally {
+			penDemographicsRepository.deleteAll();
+		}
+	}
+
+	@Test
+	public void testLookupCandidates_GivenParallelBranchesOnStageThread_ShouldNotUseBranchPool() throws Exception {
+		penDemographicsRepository.saveAll(Arrays.asList(student("100000001", "JACKMAN", "F"), student("100000002", "SMITH", "M")));
+		// a shut down branch pool rejects any branch submitted to it
+		ExecutorService branchExecutor = Executors.newFixedThreadPool(1);
+		branchExecutor.shutdown();
+		ExecutorService lookupExecutor = new PenMatchBatchConfig().penMatchLookupExecutor(1, 1, 1000);
+		try {
+			CandidateBranchLookup branchLookup = new CandidateBranchLookup(entityManager, branchExecutor, new SimpleMeterRegistry(), true, true);
+			CandidateQuery query = new CandidateQuery(CandidateQueryType.NO_INIT_NO_LOCAL_ID, "19800518", "JACK", null, null, null);
+			List<PenDemographicsEntity> candidates = lookupExecutor.submit(() -> branchLookup.lookup(query)).get(10, TimeUnit.SECONDS);
+			assertEquals(studentNumbers(lookupManager.lookupCandidates(query)), studentNumbers(candidates));
+		} finally {
+			lookupExecutor.shutdown();
+			penDemographicsRepository.deleteAll();
+		}
+	}
+
+	@Test
+	public void testLookupCandidateRecords_GivenProjection_ShouldReturnSameRecordsAsEntities() {
+		penDemographicsRepository.saveAll(Arrays.asList(student("100000001", "JACKMAN", "F"), student("100000002", "JACKSON", "F"),
+				PenDemographicsEntity.builder().studNo("100000003").studSurname("JACKSON").studGiven("MIKE").studBirth("19800518").studSex("M").studStatus("M").build(),
+				PenDemographicsEntity.builder().studNo("100000004").studSurname("JONES ").studGiven("AL").studBirth("19700101").studSex("M").studStatus("A").mincode("12345678").localID(" 0LOCAL1").postalCode("V8V1A1").build()));
+		try {
+			PenDemogCandidateReader candidateReader = new PenDemogCandidateReader(jdbcTemplate, true);
+			PenMatchLookupManager projectionLookupManager = PenMatchLookupManager.builder().entityManager(entityManager).penDemographicsRepository(penDemographicsRepository).nicknamesRepository(nicknamesRepository).surnameFrequencyRepository(surnameFrequencyRepository)
+					.candidateReader(candidateReader).build();
+			List<CandidateQuery> queries = Arrays.asList(new CandidateQuery(CandidateQueryType.WITH_ALL_PARTS, "19800518", "JACK", "M", "12345678", " 0LOCAL1"), new CandidateQuery(CandidateQueryType.NO_INIT, "19700101", "SMI", null, "12345678", "LOCAL2"),
+					new CandidateQuery(CandidateQueryType.NO_LOCAL_ID, "19900101", "JACKS", "MI", null, null), new CandidateQuery(CandidateQueryType.NO_INIT_NO_LOCAL_ID, null, "J", null, null, null));
+			for (CandidateQuery query : queries) {
+				List<PenMasterRecord> expected = lookupManager.lookupCandidates(query).stream().filter(entity -> PenDemogCandidateReader.isScored(entity.getStudStatus())).map(PenMatchUtils::convertPenDemogToPenMasterRecord)
+						.peek(PenMatchUtils::normalizeLocalIDsFromMaster)
+						.sorted(Comparator.comparing(PenMasterRecord::getStudentNumber)).collect(Collectors.toList());
+				List<PenMasterRecord> records = projectionLookupManager.lookupCandidateRecords(query).get().stream().sorted(Comparator.comparing(PenMasterRecord::getStudentNumber)).collect(Collectors.toList());
+				assertEquals(query.toString(), expected, records);
+			}
+			assertFalse(lookupManager.lookupCandidateRecords(queries.get(0)).isPresent());
+		} finally {
+			penDemographicsRepository.deleteAll();
+		}
+	}
+
+	private Set<String> studentNumbers(List<PenDemographicsEntity> candidates) {
+		return candidates.stream().map(PenDemographicsEntity::getStudNo).collect(Collectors.toSet());
+	}
+
+	private PenDemographicsEntity student(String studNo, String surname, String sex) {
+		return PenDemographicsEntity.builder().studNo(studNo).studSurname(surname).studGiven("MIKE").studBirth("19800518").studSex(sex).studStatus("A").build();
+	}
+
 }
@@ -0,0 +1,150 @@
+package ca.bc.gov.educ.api.penmatch.lookup;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import javax.persistence.EntityManager;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import ca.bc.gov.educ.api.penmatch.enumeration.CandidateQueryType;
+import ca.bc.gov.educ.api.penmatch.model.PenDemographicsEntity;
+import ca.bc.gov.educ.api.penmatch.repository.NicknamesRepository;
+import ca.bc.gov.educ.api.penmatch.repository.PenDemographicsRepository;
+import ca.bc.gov.educ.api.penmatch.repository.SurnameFrequencyRepository;
+import ca.bc.gov.educ.api.penmatch.service.ReferenceDataExportService;
+import ca.bc.gov.educ.api.penmatch.struct.CandidateQuery;
+import ca.bc.gov.educ.api.penmatch.struct.PenMatchNames;
+import ca.bc.gov.educ.api.penmatch.struct.ReferenceDataManifest;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest
+public class SharedReferenceDataTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Autowired
+	ReferenceDataExportService exportService;
+
+	@Autowired
+	NicknamesRepository nicknamesRepository;
+
+	@Autowired
+	PenDemographicsRepository penDemographicsRepository;
+
+	@Autowired
+	SurnameFrequencyRepository surnameFrequencyRepository;
+
+	@Autowired
+	EntityManager entityManager;
+
+	@Autowired
+	JdbcTemplate jdbcTemplate;
+
+	SharedReferenceData leader;
+
+	SharedReferenceData replica;
+
+	@Before
+	public void before() {
+		penDemographicsRepository.saveAll(Arrays.asList(student("100000001", "JACKSON", "MIKE", "19800518", "12345678", "LOCAL1"), student("100000002", "JACKSON", "MARY", "19900101", "12345678", "LOCAL2"),
+				student("100000003", "JACKSTONE", null, "19800518", null, null)));
+		jdbcTemplate.update("INSERT INTO SURNAME_FREQUENCY (SURNAME, SURNAME_FREQUENCY) VALUES ('JACKSON', '120'), ('JACKSTONE', '3'), ('JONES', '800')");
+		jdbcTemplate.update("INSERT INTO NICKNAMES (NICKNAME1, NICKNAME2) VALUES ('JAMES', 'JIM'), ('JAMES', 'JIMMY'), ('MICHAEL', 'MIKE')");
+
+		Path directory = folder.getRoot().toPath();
+		leader = new SharedReferenceData(exportService, new SimpleMeterRegistry(), directory, new LocalLeaderLock(directory.toString()), 3600000, 60000, 2);
+		replica = new SharedReferenceData(exportService, new SimpleMeterRegistry(), directory, new LocalLeaderLock(directory.toString()), 3600000, 60000, 2);
+	}
+
+	@After
+	public void after() {
+		leader.stop();
+		replica.stop();
+		penDemographicsRepository.deleteAll();
+		jdbcTemplate.update("DELETE FROM SURNAME_FREQUENCY");
+		jdbcTemplate.update("DELETE FROM NICKNAMES");
+	}
+
+	@Test
+	public void testCheck_GivenTwoReplicas_ShouldExportOnceAndLoadSameEpoch() throws Exception {
+		leader.check();
+		replica.check();
+
+		assertTrue(leader.isLeader());
+		assertFalse(replica.isLeader());
+		assertEquals(1, leader.getEpoch());
+		assertEquals(1, replica.getEpoch());
+
+		replica.check();
+		assertEquals(1, exportService.readManifest(folder.getRoot().toPath()).getEpoch());
+	}
+
+	@Test
+	public void testLookups_ShouldReturnSameAsDatabase() {
+		leader.check();
+		replica.check();
+		PenMatchLookupManager sqlLookupManager = new PenMatchLookupManager(entityManager, penDemographicsRepository, nicknamesRepository, surnameFrequencyRepository);
+		PenMatchLookupManager sharedLookupManager = PenMatchLookupManager.builder().entityManager(entityManager).penDemographicsRepository(penDemographicsRepository).nicknamesRepository(nicknamesRepository).surnameFrequencyRepository(surnameFrequencyRepository)
+				.candidateSources(Collections.singletonList(replica)).referenceDataSources(Collections.singletonList(replica)).build();
+
+		for (String surname : Arrays.asList("JACKS", "JACKSON", "J", "SMITH")) {
+			assertEquals(surname, sqlLookupManager.lookupSurnameFrequency(surname), sharedLookupManager.lookupSurnameFrequency(surname));
+		}
+		for (String name : Arrays.asList("JAMES", "JIM", "MIKE", "JOHN")) {
+			assertEquals(name, nicknames(sqlLookupManager, name), nicknames(sharedLookupManager, name));
+		}
+		CandidateQuery query = new CandidateQuery(CandidateQueryType.WITH_ALL_PARTS, "19800518", "JACKS", "MA", "12345678", "LOCAL1");
+		assertEquals(studentNumbers(sqlLookupManager.lookupCandidates(query)), studentNumbers(sharedLookupManager.lookupCandidates(query)));
+	}
+
+	@Test
+	public void testCheck_GivenManifestOfAnotherEpoch_ShouldKeepLoadedEpoch() throws Exception {
+		leader.check();
+		Path directory = folder.getRoot().toPath();
+		ReferenceDataManifest manifest = exportService.readManifest(directory);
+		manifest.setEpoch(2);
+		new ObjectMapper().writeValue(directory.resolve(ReferenceDataExportService.MANIFEST_FILE).toFile(), manifest);
+
+		replica.check();
+		assertEquals(0, replica.getEpoch());
+		leader.check();
+		assertEquals(1, leader.getEpoch());
+	}
+
+	private PenDemographicsEntity student(String studNo, String surname, String givenName, String dob, String mincode, String localID) {
+		return PenDemographicsEntity.builder().studNo(studNo).studSurname(surname).studGiven(givenName).studBirth(dob).studSex("M").studStatus("A").mincode(mincode).localID(localID).createDate(new Date()).build();
+	}
+
+	private List<String> nicknames(PenMatchLookupManager lookupManager, String givenName) {
+		PenMatchNames names = new PenMatchNames();
+		lookupManager.lookupNicknames(names, givenName);
+		return Arrays.asList(names.getNickname1(), names.getNickname2(), names.getNickname3(), names.getNickname4());
+	}
+
+	private List<String> studentNumbers(List<PenDemographicsEntity> candidates) {
+		return candidates.stream().map(PenDemographicsEntity::getStudNo).sorted(Comparator.naturalOrder()).collect(Collectors.toList());
+	}
+}
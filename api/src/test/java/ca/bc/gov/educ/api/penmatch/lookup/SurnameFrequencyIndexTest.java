@@ -0,0 +1,67 @@
+package ca.bc.gov.educ.api.penmatch.lookup;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+
+import javax.persistence.EntityManager;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import ca.bc.gov.educ.api.penmatch.repository.NicknamesRepository;
+import ca.bc.gov.educ.api.penmatch.repository.PenDemographicsRepository;
+import ca.bc.gov.educ.api.penmatch.repository.SurnameFrequencyRepository;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest
+public class SurnameFrequencyIndexTest {
+
+	@Autowired
+	SurnameFrequencyIndex surnameFrequencyIndex;
+
+	@Autowired
+	NicknamesRepository nicknamesRepository;
+
+	@Autowired
+	PenDemographicsRepository penDemographicsRepository;
+
+	@Autowired
+	SurnameFrequencyRepository surnameFrequencyRepository;
+
+	@Autowired
+	EntityManager entityManager;
+
+	@Autowired
+	JdbcTemplate jdbcTemplate;
+
+	PenMatchLookupManager sqlLookupManager;
+
+	@Before
+	public void before() {
+		sqlLookupManager = new PenMatchLookupManager(entityManager, penDemographicsRepository, nicknamesRepository, surnameFrequencyRepository);
+		jdbcTemplate.update("INSERT INTO SURNAME_FREQUENCY (SURNAME, SURNAME_FREQUENCY) VALUES ('JACK', '7'), ('JACKMAN', '40'), ('JACKSON', '120'), ('JACKSTONE', '3'), ('JONES', '800'), ('JONS', '2'), ('SMITH', '450')");
+		surnameFrequencyIndex.refresh();
+	}
+
+	@After
+	public void after() {
+		jdbcTemplate.update("DELETE FROM SURNAME_FREQUENCY");
+		surnameFrequencyIndex.refresh();
+	}
+
+	@Test
+	public void testLookupSurnameFrequency_ShouldReturnSameAsDatabase() {
+		for (String prefix : Arrays.asList("JACK", "JACKS", "JACKSON", "JACKSONS", "JO", "JONS", "S", "SMITHE", "A", "Z", "")) {
+			assertEquals(prefix, sqlLookupManager.lookupSurnameFrequency(prefix), surnameFrequencyIndex.lookupSurnameFrequency(prefix).get());
+		}
+		assertEquals(970, surnameFrequencyIndex.lookupSurnameFrequency("").get().intValue());
+	}
+
+}
@@ -0,0 +1,74 @@
+package ca.bc.gov.educ.api.penmatch.messaging;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.jms.Message;
+import javax.jms.Queue;
+import javax.jms.TextMessage;
+
+import org.apache.activemq.artemis.jms.client.ActiveMQQueue;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jms.core.JmsTemplate;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import ca.bc.gov.educ.api.penmatch.enumeration.PenStatus;
+import ca.bc.gov.educ.api.penmatch.struct.PenMatchResult;
+import ca.bc.gov.educ.api.penmatch.struct.PenMatchStudent;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest
+@TestPropertySource(properties = { "penmatch.messaging.enabled=true", "spring.artemis.mode=embedded", "spring.artemis.embedded.queues=PEN_MATCH_REQUEST,PEN_MATCH_TEST_REPLY", "penmatch.messaging.batch-size=2" })
+public class PenMatchMessageConsumerTest {
+
+	@Autowired
+	JmsTemplate jmsTemplate;
+
+	@Autowired
+	ObjectMapper objectMapper;
+
+	@Test
+	public void testConsume_GivenStudentMessages_ShouldReplyPerMessage() throws Exception {
+		Queue replyQueue = new ActiveMQQueue("PEN_MATCH_TEST_REPLY");
+		String student = objectMapper.writeValueAsString(createPenMatchStudent());
+		Set<String> requestIDs = new HashSet<>();
+		for (int i = 0; i < 3; i++) {
+			Message[] sent = new Message[1];
+			jmsTemplate.send("PEN_MATCH_REQUEST", session -> {
+				TextMessage message = session.createTextMessage(student);
+				message.setJMSReplyTo(replyQueue);
+				sent[0] = message;
+				return message;
+			});
+			requestIDs.add(sent[0].getJMSMessageID());
+		}
+
+		jmsTemplate.setReceiveTimeout(10000);
+		Set<String> correlationIDs = new HashSet<>();
+		for (int i = 0; i < 3; i++) {
+			TextMessage reply = (TextMessage) jmsTemplate.receive(replyQueue);
+			assertNotNull(reply);
+			correlationIDs.add(reply.getJMSCorrelationID());
+			assertEquals(PenStatus.D0.getValue(), objectMapper.readValue(reply.getText(), PenMatchResult.class).getPenStatus());
+		}
+		assertEquals(requestIDs, correlationIDs);
+	}
+
+	private PenMatchStudent createPenMatchStudent() {
+		PenMatchStudent student = new PenMatchStudent();
+		student.setSurname("JACKSON");
+		student.setGivenName("MIKE");
+		student.setDob("19800518");
+		student.setSex("M");
+		return student;
+	}
+}
@@ -0,0 +1,97 @@
+package ca.bc.gov.educ.api.penmatch.service;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import javax.persistence.EntityManager;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import ca.bc.gov.educ.api.penmatch.enumeration.CandidateQueryType;
+import ca.bc.gov.educ.api.penmatch.lookup.PenDemogSnapshot;
+import ca.bc.gov.educ.api.penmatch.lookup.PenMatchLookupManager;
+import ca.bc.gov.educ.api.penmatch.model.PenDemographicsEntity;
+import ca.bc.gov.educ.api.penmatch.repository.NicknamesRepository;
+import ca.bc.gov.educ.api.penmatch.repository.PenDemographicsRepository;
+import ca.bc.gov.educ.api.penmatch.repository.SurnameFrequencyRepository;
+import ca.bc.gov.educ.api.penmatch.struct.CandidateQuery;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest
+public class PenDemogSnapshotServiceTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Autowired
+	PenDemogSnapshotService snapshotService;
+
+	@Autowired
+	NicknamesRepository nicknamesRepository;
+
+	@Autowired
+	PenDemographicsRepository penDemographicsRepository;
+
+	@Autowired
+	SurnameFrequencyRepository surnameFrequencyRepository;
+
+	@Autowired
+	EntityManager entityManager;
+
+	@Before
+	public void before() {
+		penDemographicsRepository.saveAll(Arrays.asList(student("100000001", "JACKSON", "MIKE", "19800518", "12345678", "LOCAL1"), student("100000002", "JACKSON", "MARY", "19900101", "12345678", "LOCAL2"),
+				student("100000003", "JACKSTONE", null, "19800518", null, null), student("100000004", "SMITH", "JOHN", "2001023", "12345678", "LOCAL1"), student("100000005", null, "MIKE", "19800518", "87654321", "LOCAL1"),
+				student("100000006", "JACK", "MIKE", "20050505", "87654321", "LOCAL9"), student("100000007", "JACKS\u00D6N", "MIKE", "19700101", null, null)));
+	}
+
+	@After
+	public void after() {
+		penDemographicsRepository.deleteAll();
+	}
+
+	@Test
+	public void testExportSnapshot_ShouldAnswerSameCandidatesAsSQL() throws Exception {
+		Path file = folder.getRoot().toPath().resolve("pen-demog.snapshot");
+		assertEquals(7, snapshotService.exportSnapshot(file));
+		PenDemogSnapshot snapshot = PenDemogSnapshot.open(file);
+		PenMatchLookupManager sqlLookupManager = new PenMatchLookupManager(entityManager, penDemographicsRepository, nicknamesRepository, surnameFrequencyRepository);
+
+		List<CandidateQuery> queries = Arrays.asList(new CandidateQuery(CandidateQueryType.WITH_ALL_PARTS, "19900101", "JACK", "M", "12345678", "LOCAL1"),
+				new CandidateQuery(CandidateQueryType.NO_INIT, "2001023", "JACKS", null, "87654321", "LOCAL1"), new CandidateQuery(CandidateQueryType.NO_LOCAL_ID, "19800518", "SMI", "J", null, null),
+				new CandidateQuery(CandidateQueryType.NO_INIT_NO_LOCAL_ID, null, "J", null, null, null), new CandidateQuery(CandidateQueryType.NO_INIT_NO_LOCAL_ID, "19000101", "ZZZ", null, null, null),
+				new CandidateQuery(CandidateQueryType.NO_INIT_NO_LOCAL_ID, null, "JACKS\u00D6", null, null, null), new CandidateQuery(CandidateQueryType.NO_INIT_NO_LOCAL_ID, null, "JACKSON", null, null, null));
+		for (CandidateQuery query : queries) {
+			boolean useGiven = query.getType() == CandidateQueryType.WITH_ALL_PARTS || query.getType() == CandidateQueryType.NO_LOCAL_ID;
+			List<PenDemographicsEntity> candidates = new ArrayList<>();
+			snapshot.lookup(query.getDob(), query.getSurname(), useGiven ? query.getGivenName() : null, query.getMincode(), query.getLocalID(), candidates);
+			assertEquals(query.toString(), sorted(sqlLookupManager.lookupCandidates(query)), sorted(candidates));
+		}
+	}
+
+	private PenDemographicsEntity student(String studNo, String surname, String givenName, String dob, String mincode, String localID) {
+		return PenDemographicsEntity.builder().studNo(studNo).studSurname(surname).studGiven(givenName).studBirth(dob).studSex("M").studStatus("A").mincode(mincode).localID(localID).createDate(new Date()).build();
+	}
+
+	private List<String> sorted(List<PenDemographicsEntity> candidates) {
+		return candidates.stream().sorted(Comparator.comparing(PenDemographicsEntity::getStudNo))
+				.map(candidate -> String.join("|", candidate.getStudNo(), String.valueOf(candidate.getStudSurname()), String.valueOf(candidate.getStudGiven()), candidate.getStudBirth(), String.valueOf(candidate.getMincode()),
+						String.valueOf(candidate.getLocalID()), candidate.getStudSex(), String.valueOf(candidate.getCreateDate().getTime())))
+				.collect(Collectors.toList());
+	}
+}
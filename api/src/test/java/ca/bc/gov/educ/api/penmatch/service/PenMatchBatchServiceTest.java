@@ -0,0 +1,110 @@
+package ca.bc.gov.educ.api.penmatch.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import ca.bc.gov.educ.api.penmatch.enumeration.CandidateQueryType;
+import ca.bc.gov.educ.api.penmatch.enumeration.PenStatus;
+import ca.bc.gov.educ.api.penmatch.lookup.PenMatchLookupManager;
+import ca.bc.gov.educ.api.penmatch.model.PenDemographicsEntity;
+import ca.bc.gov.educ.api.penmatch.repository.PenDemographicsRepository;
+import ca.bc.gov.educ.api.penmatch.struct.CandidateQuery;
+import ca.bc.gov.educ.api.penmatch.struct.PenMatchResult;
+import ca.bc.gov.educ.api.penmatch.struct.PenMatchStudent;
+import io.micrometer.core.instrument.MeterRegistry;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest
+public class PenMatchBatchServiceTest {
+
+	@Autowired
+	PenMatchBatchService batchService;
+
+	@Autowired
+	PenMatchService penMatchService;
+
+	@Autowired
+	PenMatchLookupManager lookupManager;
+
+	@Autowired
+	PenDemographicsRepository penDemographicsRepository;
+
+	@Autowired
+	MeterRegistry meterRegistry;
+
+	@Before
+	public void before() {
+		penDemographicsRepository.saveAll(Arrays.asList(createPenDemog("120164447", "JACKSON", "MIKE", "19800518", "M"), createPenDemog("120164448", "JACKSON", "MARY", "19800518", "F")));
+	}
+
+	@After
+	public void after() {
+		penDemographicsRepository.deleteAll();
+	}
+
+	@Test
+	public void testMatchStudents_GivenStudentsSharingBlockingKey_ShouldQueryCandidatesOnceAndMatchDuplicatesOnce() {
+		double queriesBefore = meterRegistry.counter("penmatch.batch.candidate.queries").count();
+		double duplicatesBefore = meterRegistry.counter("penmatch.batch.duplicates").count();
+		long scoredBefore = meterRegistry.timer("penmatch.pipeline.stage", "pipeline", PenMatchPipelineService.BULK_PIPELINE, "stage", PenMatchPipelineService.SCORE_STAGE).count();
+
+		List<PenMatchResult> results = batchService.matchStudents(Arrays.asList(createPenMatchStudent("MIKE", "M"), createPenMatchStudent("MIKE", "M"), createPenMatchStudent("MARY", "F")));
+
+		assertEquals(3, results.size());
+		assertEquals(PenStatus.D1.getValue(), results.get(0).getPenStatus());
+		assertEquals("120164447", results.get(0).getPen());
+		assertEquals("120164448", results.get(2).getPen());
+		assertEquals(penMatchService.matchStudent(createPenMatchStudent("MARY", "F")).getPen(), results.get(2).getPen());
+		assertEquals(1, meterRegistry.counter("penmatch.batch.candidate.queries").count() - queriesBefore, 0);
+		assertEquals(1, meterRegistry.counter("penmatch.batch.duplicates").count() - duplicatesBefore, 0);
+		assertSame(results.get(0), results.get(1));
+		assertEquals(2, meterRegistry.timer("penmatch.pipeline.stage", "pipeline", PenMatchPipelineService.BULK_PIPELINE, "stage", PenMatchPipelineService.SCORE_STAGE).count() - scoredBefore);
+	}
+
+	@Test
+	public void testLookupCandidatesBatch_GivenSeveralQueries_ShouldReturnSameCandidatesAsSingleLookups() {
+		List<CandidateQuery> queries = Arrays.asList(new CandidateQuery(CandidateQueryType.NO_LOCAL_ID, "19990101", "JACK", "MA", null, null), new CandidateQuery(CandidateQueryType.NO_INIT_NO_LOCAL_ID, "19800518", "ZZZ", null, null, null),
+				new CandidateQuery(CandidateQueryType.NO_INIT_NO_LOCAL_ID, null, "SMITH", null, null, null));
+
+		Map<Integer, List<PenDemographicsEntity>> candidates = lookupManager.lookupCandidatesBatch(queries);
+
+		assertEquals(3, candidates.size());
+		for (int i = 0; i < queries.size(); i++) {
+			assertEquals(studentNumbers(lookupManager.lookupCandidates(queries.get(i))), studentNumbers(candidates.get(i)));
+		}
+		assertEquals(1, candidates.get(0).size());
+		assertEquals(2, candidates.get(1).size());
+		assertEquals(0, candidates.get(2).size());
+	}
+
+	private Set<String> studentNumbers(List<PenDemographicsEntity> candidates) {
+		return candidates.stream().map(PenDemographicsEntity::getStudNo).collect(Collectors.toSet());
+	}
+
+	private PenMatchStudent createPenMatchStudent(String givenName, String sex) {
+		PenMatchStudent student = new PenMatchStudent();
+		student.setSurname("JACKSON");
+		student.setGivenName(givenName);
+		student.setDob("19800518");
+		student.setSex(sex);
+		return student;
+	}
+
+	private PenDemographicsEntity createPenDemog(String studNo, String surname, String given, String dob, String sex) {
+		return PenDemographicsEntity.builder().studNo(studNo).studSurname(surname).studGiven(given).studBirth(dob).studSex(sex).studStatus("A").build();
+	}
+}
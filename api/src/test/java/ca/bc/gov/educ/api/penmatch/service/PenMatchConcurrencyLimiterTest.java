@@ -0,0 +1,123 @@
+package ca.bc.gov.educ.api.penmatch.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+import ca.bc.gov.educ.api.penmatch.exception.PenMatchOverloadedException;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class PenMatchConcurrencyLimiterTest {
+
+	@Test
+	public void testAdjustLimit_GivenSlowWindow_ShouldBackOffOnceAndRecover() {
+		AtomicLong clock = new AtomicLong();
+		PenMatchConcurrencyLimiter limiter = new PenMatchConcurrencyLimiter(new SimpleMeterRegistry(), true, 20, 4, 30, 0, 0, 2.0, 0.5, 100, 5, 0.5, clock::get);
+
+		record(limiter, clock, 10, 20, 10);
+		assertEquals(21, limiter.getLimit());
+		assertEquals(TimeUnit.MILLISECONDS.toNanos(10), limiter.getBaselineLatency());
+		record(limiter, clock, 50, 20, 4);
+		assertEquals(21, limiter.getLimit());
+		record(limiter, clock, 50, 20, 1);
+		assertEquals(10, limiter.getLimit());
+		record(limiter, clock, 50, 10, 10);
+		assertEquals(4, limiter.getLimit());
+		record(limiter, clock, 10, 1, 10);
+		assertEquals(4, limiter.getLimit());
+		record(limiter, clock, 10, 4, 10);
+		assertEquals(5, limiter.getLimit());
+	}
+
+	@Test
+	public void testAdjustLimit_GivenMixOfFastAndSlowMatches_ShouldNotBackOff() {
+		AtomicLong clock = new AtomicLong();
+		PenMatchConcurrencyLimiter limiter = new PenMatchConcurrencyLimiter(new SimpleMeterRegistry(), true, 20, 4, 30, 0, 0, 2.0, 0.5, 100, 20, 0.5, clock::get);
+
+		for (int i = 0; i < 1000; i++) {
+			int latency = i % 5 == 0 ? 60 : 5;
+			int limit = limiter.getLimit();
+			record(limiter, clock, latency, limit, 1);
+			assertTrue("Limit lowered on the match " + i, limiter.getLimit() >= limit);
+		}
+		assertEquals(30, limiter.getLimit());
+		assertEquals(TimeUnit.MILLISECONDS.toNanos(5), limiter.getBaselineLatency());
+	}
+
+	@Test
+	public void testCall_GivenSlowDatabase_ShouldLowerLimitAndRecover() {
+		AtomicLong clock = new AtomicLong();
+		PenMatchConcurrencyLimiter limiter = new PenMatchConcurrencyLimiter(new SimpleMeterRegistry(), true, 2, 1, 4, 0, 0, 2.0, 0.5, 100, 5, 0.5, clock::get);
+
+		match(limiter, clock, 10, 20);
+		assertEquals(3, limiter.getLimit());
+		match(limiter, clock, 50, 5);
+		assertEquals(1, limiter.getLimit());
+		match(limiter, clock, 50, 5);
+		assertEquals(1, limiter.getLimit());
+		match(limiter, clock, 10, 20);
+		assertEquals(3, limiter.getLimit());
+		assertEquals(0, limiter.getInFlight());
+	}
+
+	@Test
+	public void testCall_GivenLimitReached_ShouldRejectOverQueue() throws Exception {
+		MeterRegistry meterRegistry = new SimpleMeterRegistry();
+		PenMatchConcurrencyLimiter limiter = new PenMatchConcurrencyLimiter(meterRegistry, true, 1, 1, 1, 0, 0, 2.0, 0.9, 1000, 20, 0.5);
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch finish = new CountDownLatch(1);
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			Future<String> running = executor.submit(() -> limiter.call(() -> {
+				started.countDown();
+				try {
+					finish.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				return "done";
+			}));
+			started.await();
+			try {
+				limiter.call(() -> "rejected");
+				fail("Match over the limit was run");
+			} catch (PenMatchOverloadedException e) {
+				assertEquals(1, meterRegistry.get("penmatch.limit.requests").tag("outcome", "rejected").counter().count(), 0);
+			}
+			finish.countDown();
+			assertEquals("done", running.get());
+			assertEquals("accepted", limiter.call(() -> "accepted"));
+			assertEquals(2, meterRegistry.get("penmatch.limit.requests").tag("outcome", "accepted").counter().count(), 0);
+			assertEquals(0, limiter.getInFlight());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private static void record(PenMatchConcurrencyLimiter limiter, AtomicLong clock, long latency, int inFlight, int count) {
+		for (int i = 0; i < count; i++) {
+			clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(latency));
+			limiter.adjustLimit(TimeUnit.MILLISECONDS.toNanos(latency), inFlight);
+		}
+	}
+
+	private static void match(PenMatchConcurrencyLimiter limiter, AtomicLong clock, long latency, int count) {
+		for (int i = 0; i < count; i++) {
+			assertEquals("matched", limiter.call(() -> {
+				clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(latency));
+				return "matched";
+			}));
+		}
+	}
+
+}
@@ -0,0 +1,124 @@
+package ca.bc.gov.educ.api.penmatch.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import ca.bc.gov.educ.api.penmatch.enumeration.PenStatus;
+import ca.bc.gov.educ.api.penmatch.model.PenDemographicsEntity;
+import ca.bc.gov.educ.api.penmatch.repository.PenDemographicsRepository;
+import ca.bc.gov.educ.api.penmatch.struct.PenMatchFileCheckpoint;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest
+@TestPropertySource(properties = "penmatch.file.chunk-size=2")
+public class PenMatchFileServiceTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Autowired
+	PenMatchFileService fileService;
+
+	@Autowired
+	PenDemographicsRepository penDemographicsRepository;
+
+	@Autowired
+	ObjectMapper objectMapper;
+
+	@Before
+	public void before() {
+		penDemographicsRepository.save(PenDemographicsEntity.builder().studNo("120164447").studSurname("JACKSON").studGiven("MIKE").studBirth("19800518").studSex("M").studStatus("A").build());
+	}
+
+	@After
+	public void after() {
+		penDemographicsRepository.deleteAll();
+	}
+
+	@Test
+	public void testMatchFile_GivenFixedWidthFile_ShouldWriteResultPerStudentRecord() throws Exception {
+		Path input = folder.newFile("PENREQ.TXT").toPath();
+		Path output = folder.getRoot().toPath().resolve("PENRES.TXT");
+		Files.write(input, Arrays.asList("FFI12345678", studentRecord("LOCAL1", "JACKSON", "MIKE", "19800518", "M"), studentRecord("LOCAL2", "SMITH", "JOHN", "20010203", "M"),
+				studentRecord("LOCAL3", "JACKSON", "MIKE", "19800518", "M"), "BTR000003"), StandardCharsets.ISO_8859_1);
+
+		assertEquals(3, fileService.matchFile(input, output));
+
+		List<String> results = Files.readAllLines(output, StandardCharsets.ISO_8859_1);
+		assertEquals(3, results.size());
+		assertEquals("LOCAL1", results.get(0).substring(8, 20).trim());
+		assertEquals("120164447", results.get(0).substring(20, 30).trim());
+		assertEquals(PenStatus.D1.getValue(), results.get(0).substring(30, 32));
+		assertEquals("LOCAL2", results.get(1).substring(8, 20).trim());
+		assertEquals(PenStatus.D0.getValue(), results.get(1).substring(30, 32));
+		assertEquals("120164447", results.get(2).substring(20, 30).trim());
+	}
+
+	@Test
+	public void testMatchFile_GivenCheckpoint_ShouldResumeAfterIt() throws Exception {
+		Path input = folder.newFile("PENREQ.TXT").toPath();
+		Path output = folder.getRoot().toPath().resolve("PENRES.TXT");
+		List<String> records = Arrays.asList("FFI12345678", studentRecord("LOCAL1", "JACKSON", "MIKE", "19800518", "M"), studentRecord("LOCAL2", "SMITH", "JOHN", "20010203", "M"), studentRecord("LOCAL3", "JACKSON", "MIKE", "19800518", "M"));
+		Files.write(input, records, StandardCharsets.ISO_8859_1);
+		fileService.matchFile(input, output);
+		List<String> results = Files.readAllLines(output, StandardCharsets.ISO_8859_1);
+
+		PenMatchFileCheckpoint checkpoint = new PenMatchFileCheckpoint();
+		checkpoint.setInputOffset(records.get(0).length() + records.get(1).length() + records.get(2).length() + 3);
+		checkpoint.setOutputOffset(results.get(0).length() + results.get(1).length() + 2);
+		checkpoint.setStudentsMatched(2);
+		checkpoint.setInputSize(Files.size(input));
+		checkpoint.setInputModified(Files.getLastModifiedTime(input).toMillis());
+		Files.write(output.resolveSibling("PENRES.TXT" + PenMatchFileService.CHECKPOINT_SUFFIX), objectMapper.writeValueAsBytes(checkpoint));
+		Files.write(output, Arrays.asList(results.get(0), results.get(1), "INCOMPLETE RESULT"), StandardCharsets.ISO_8859_1);
+
+		assertEquals(3, fileService.matchFile(input, output));
+		assertEquals(results, Files.readAllLines(output, StandardCharsets.ISO_8859_1));
+		assertFalse(Files.exists(output.resolveSibling("PENRES.TXT" + PenMatchFileService.CHECKPOINT_SUFFIX)));
+	}
+
+	@Test
+	public void testMatchFile_GivenCheckpointOfReplacedInput_ShouldMatchWholeFile() throws Exception {
+		Path input = folder.newFile("PENREQ.TXT").toPath();
+		Path output = folder.getRoot().toPath().resolve("PENRES.TXT");
+		List<String> records = Arrays.asList("FFI12345678", studentRecord("LOCAL1", "JACKSON", "MIKE", "19800518", "M"), studentRecord("LOCAL2", "SMITH", "JOHN", "20010203", "M"), studentRecord("LOCAL3", "JACKSON", "MIKE", "19800518", "M"));
+		Files.write(input, records, StandardCharsets.ISO_8859_1);
+
+		PenMatchFileCheckpoint checkpoint = new PenMatchFileCheckpoint();
+		checkpoint.setInputOffset(records.get(0).length() + records.get(1).length() + records.get(2).length() + 3);
+		checkpoint.setOutputOffset(17);
+		checkpoint.setStudentsMatched(2);
+		checkpoint.setInputSize(Files.size(input) + 1);
+		checkpoint.setInputModified(Files.getLastModifiedTime(input).toMillis());
+		Files.write(output.resolveSibling("PENRES.TXT" + PenMatchFileService.CHECKPOINT_SUFFIX), objectMapper.writeValueAsBytes(checkpoint));
+		Files.write(output, Arrays.asList("PREVIOUS RESULT"), StandardCharsets.ISO_8859_1);
+
+		assertEquals(3, fileService.matchFile(input, output));
+		List<String> results = Files.readAllLines(output, StandardCharsets.ISO_8859_1);
+		assertEquals(3, results.size());
+		assertEquals("LOCAL1", results.get(0).substring(8, 20).trim());
+	}
+
+	private String studentRecord(String localID, String surname, String givenName, String dob, String sex) {
+		return String.format("SRM%-8s%-12s%-10s%-25s%-25s%-25s%-25s%-25s%-25s%-8s%-1s%-2s%-7s", "12345678", localID, "", surname, givenName, "", "", "", "", dob, sex, "", "");
+	}
+}
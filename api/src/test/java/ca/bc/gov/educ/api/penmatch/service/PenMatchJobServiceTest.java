@@ -0,0 +1,119 @@
+package ca.bc.gov.educ.api.penmatch.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import ca.bc.gov.educ.api.penmatch.enumeration.PenMatchJobState;
+import ca.bc.gov.educ.api.penmatch.enumeration.PenStatus;
+import ca.bc.gov.educ.api.penmatch.exception.EntityNotFoundException;
+import ca.bc.gov.educ.api.penmatch.exception.InvalidValueException;
+import ca.bc.gov.educ.api.penmatch.struct.PenMatchJobStatus;
+import ca.bc.gov.educ.api.penmatch.struct.PenMatchStudent;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest
+@TestPropertySource(properties = "penmatch.job.chunk-size=2")
+public class PenMatchJobServiceTest {
+
+	@Autowired
+	PenMatchJobService jobService;
+
+	@Autowired
+	ObjectMapper objectMapper;
+
+	@Test
+	public void testSubmitJob_GivenStudents_ShouldCompleteWithResultPerStudent() throws Exception {
+		List<PenMatchStudent> students = new ArrayList<>();
+		for (int i = 0; i < 5; i++) {
+			students.add(createPenMatchStudent());
+		}
+
+		PenMatchJobStatus status = jobService.submitJob(students);
+		assertNotNull(status.getJobId());
+		assertEquals(5, status.getTotalStudents());
+
+		for (int i = 0; i < 100 && !isFinished(status); i++) {
+			Thread.sleep(100);
+			status = jobService.getJobStatus(status.getJobId());
+		}
+
+		assertEquals(PenMatchJobState.COMPLETED, status.getState());
+		assertEquals(5, status.getProcessedStudents());
+		assertEquals(0, status.getFailedStudents());
+		assertEquals(2, status.getDuplicateStudents());
+		assertEquals(Long.valueOf(5), status.getMatchedByPenStatus().get(PenStatus.D0.getValue()));
+		assertEquals(5, Files.readAllLines(jobService.getJobResults(status.getJobId())).size());
+	}
+
+	@Test
+	public void testResumeJobs_GivenJobInterruptedAfterCheckpoint_ShouldMatchRemainingStudents() throws Exception {
+		List<PenMatchStudent> students = new ArrayList<>();
+		for (int i = 0; i < 5; i++) {
+			students.add(createPenMatchStudent());
+		}
+		PenMatchJobStatus status = waitForJob(jobService.submitJob(students));
+		Path results = jobService.getJobResults(status.getJobId());
+		List<String> lines = Files.readAllLines(results);
+
+		status.setState(PenMatchJobState.RUNNING);
+		status.setCompletedDate(null);
+		status.setProcessedStudents(2);
+		status.getMatchedByPenStatus().put(PenStatus.D0.getValue(), 2L);
+		status.setResultsOffset((lines.get(0) + "\n" + lines.get(1) + "\n").getBytes(StandardCharsets.UTF_8).length);
+		Files.write(results.resolveSibling(PenMatchJobService.STATUS_FILE), objectMapper.writeValueAsBytes(status));
+
+		jobService.resumeJobs();
+		status = waitForJob(status);
+
+		assertEquals(PenMatchJobState.COMPLETED, status.getState());
+		assertEquals(5, status.getProcessedStudents());
+		assertEquals(Long.valueOf(5), status.getMatchedByPenStatus().get(PenStatus.D0.getValue()));
+		assertEquals(lines, Files.readAllLines(results));
+	}
+
+	@Test(expected = EntityNotFoundException.class)
+	public void testGetJobStatus_GivenUnknownJob_ShouldThrowNotFound() {
+		jobService.getJobStatus("4c1f6a52-8a34-4a9e-9d0e-2d7b1f0f9a11");
+	}
+
+	@Test(expected = InvalidValueException.class)
+	public void testGetJobStatus_GivenInvalidJobId_ShouldThrowInvalidValue() {
+		jobService.getJobStatus("../status.json");
+	}
+
+	private PenMatchJobStatus waitForJob(PenMatchJobStatus status) throws InterruptedException {
+		for (int i = 0; i < 100 && !isFinished(status); i++) {
+			Thread.sleep(100);
+			status = jobService.getJobStatus(status.getJobId());
+		}
+		return status;
+	}
+
+	private boolean isFinished(PenMatchJobStatus status) {
+		return status.getState() == PenMatchJobState.COMPLETED || status.getState() == PenMatchJobState.FAILED;
+	}
+
+	private PenMatchStudent createPenMatchStudent() {
+		PenMatchStudent student = new PenMatchStudent();
+		student.setSurname("JACKSON");
+		student.setGivenName("MIKE");
+		student.setDob("19800518");
+		student.setSex("M");
+		return student;
+	}
+}
@@ -0,0 +1,117 @@
+package ca.bc.gov.educ.api.penmatch.service;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import ca.bc.gov.educ.api.penmatch.enumeration.CandidateQueryType;
+import ca.bc.gov.educ.api.penmatch.lookup.PenDemogCandidateReader;
+import ca.bc.gov.educ.api.penmatch.model.PenDemographicsEntity;
+import ca.bc.gov.educ.api.penmatch.repository.PenDemographicsRepository;
+import ca.bc.gov.educ.api.penmatch.struct.CandidateQuery;
+import ca.bc.gov.educ.api.penmatch.struct.PenMasterRecord;
+import ca.bc.gov.educ.api.penmatch.util.ScoringUtils;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest
+public class PenMatchSearchTableServiceTest {
+
+	@Autowired
+	PenDemographicsRepository penDemographicsRepository;
+
+	@Autowired
+	PenMatchSearchTableService searchTableService;
+
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	@Before
+	public void before() {
+		new ResourceDatabasePopulator(new ClassPathResource("db/pen_match_search_h2.sql")).execute(jdbcTemplate.getDataSource());
+		penDemographicsRepository.saveAll(Arrays.asList(createPenDemog("120164447", "JACKSON", "MIKE", "A"), createPenDemog("120164448", "JACKSON", "MARY", "A"), createPenDemog("120164449", "JACKSON", "MIKE", "M"),
+				createPenDemog("120164450", "JACKMAN", "MARK", "A"), createPenDemog("120164451", "LI", "MI", "A"),
+				PenDemographicsEntity.builder().studNo("120164452").studSurname("JONES ").studGiven("AL").usualSurname("JOHNSTON").studBirth("19700101").studSex("M").studStatus("A").mincode("12345678").localID(" 0LOCAL1").build()));
+	}
+
+	@After
+	public void after() {
+		penDemographicsRepository.deleteAll();
+		jdbcTemplate.update("DELETE FROM PEN_MATCH_SEARCH");
+		jdbcTemplate.update("DELETE FROM PEN_MATCH_SEARCH_CHANGE");
+	}
+
+	@Test
+	public void testRebuild_GivenSearchTable_ShouldReadSameCandidatesAsPenDemog() {
+		assertEquals(5, searchTableService.rebuild());
+
+		PenDemogCandidateReader penDemogReader = new PenDemogCandidateReader(jdbcTemplate, true, false, 100, false);
+		PenDemogCandidateReader searchReader = new PenDemogCandidateReader(jdbcTemplate, true, false, 100, true);
+		List<CandidateQuery> queries = Arrays.asList(new CandidateQuery(CandidateQueryType.WITH_ALL_PARTS, "19800518", "JACK", "M", "12345678", " 0LOCAL1"), new CandidateQuery(CandidateQueryType.NO_INIT, "19700101", "JACKSO", null, "12345678", "LOCAL2"),
+				new CandidateQuery(CandidateQueryType.NO_LOCAL_ID, "19900101", "JACKSO", "MA", null, null), new CandidateQuery(CandidateQueryType.NO_INIT_NO_LOCAL_ID, null, "JONE", null, null, null),
+				new CandidateQuery(CandidateQueryType.NO_INIT_NO_LOCAL_ID, null, "LI", null, null, null));
+		for (CandidateQuery query : queries) {
+			List<PenMasterRecord> searchRecords = sorted(searchReader.lookup(query));
+			for (PenMasterRecord searchRecord : searchRecords) {
+				// Surnames of 2 characters are not keys and are read from PEN Demog
+				String surnameSoundex = query.getSurname().length() == 2 ? null : ScoringUtils.surnameSoundex(searchRecord.getSurname());
+				assertEquals(surnameSoundex, searchRecord.getSurnameSoundex());
+				searchRecord.setSurnameSoundex(null);
+				searchRecord.setUsualSurnameSoundex(null);
+			}
+			assertEquals(query.toString(), sorted(penDemogReader.lookup(query)), searchRecords);
+		}
+	}
+
+	@Test
+	public void testSync_GivenStudentsChangedSinceRebuild_ShouldReadSameCandidatesAsPenDemog() {
+		assertEquals(5, searchTableService.rebuild());
+		penDemographicsRepository.save(createPenDemog("120164453", "JACKSON", "MILES", "A"));
+		penDemographicsRepository.save(createPenDemog("120164448", "JACKSON", "MARY", "M"));
+		penDemographicsRepository.deleteById("120164450");
+
+		PenDemogCandidateReader penDemogReader = new PenDemogCandidateReader(jdbcTemplate, true, false, 100, false);
+		PenDemogCandidateReader searchReader = new PenDemogCandidateReader(jdbcTemplate, true, false, 100, true);
+		List<CandidateQuery> queries = Arrays.asList(new CandidateQuery(CandidateQueryType.WITH_ALL_PARTS, "19700101", "JACK", "M", null, null), new CandidateQuery(CandidateQueryType.NO_LOCAL_ID, "19700101", "JACKSO", "MI", null, null),
+				new CandidateQuery(CandidateQueryType.NO_INIT_NO_LOCAL_ID, "19800518", "JONE", null, null, null));
+		assertSameCandidates(queries, penDemogReader, searchReader);
+
+		assertEquals(3, searchTableService.sync());
+		assertEquals(0, (int) jdbcTemplate.queryForObject("SELECT COUNT(*) FROM PEN_MATCH_SEARCH_CHANGE", Integer.class));
+		assertEquals(4, (int) jdbcTemplate.queryForObject("SELECT COUNT(*) FROM PEN_MATCH_SEARCH", Integer.class));
+		assertSameCandidates(queries, penDemogReader, searchReader);
+		assertEquals(0, searchTableService.sync());
+	}
+
+	private void assertSameCandidates(List<CandidateQuery> queries, PenDemogCandidateReader penDemogReader, PenDemogCandidateReader searchReader) {
+		for (CandidateQuery query : queries) {
+			List<PenMasterRecord> searchRecords = sorted(searchReader.lookup(query));
+			for (PenMasterRecord searchRecord : searchRecords) {
+				searchRecord.setSurnameSoundex(null);
+				searchRecord.setUsualSurnameSoundex(null);
+			}
+			assertEquals(query.toString(), sorted(penDemogReader.lookup(query)), searchRecords);
+		}
+	}
+
+	private List<PenMasterRecord> sorted(List<PenMasterRecord> records) {
+		return records.stream().sorted(Comparator.comparing(PenMasterRecord::getStudentNumber)).collect(Collectors.toList());
+	}
+
+	private PenDemographicsEntity createPenDemog(String studNo, String surname, String given, String status) {
+		return PenDemographicsEntity.builder().studNo(studNo).studSurname(surname).studGiven(given).studBirth("19800518").studSex("M").studStatus(status).build();
+	}
+}
@@ -0,0 +1,102 @@
+package ca.bc.gov.educ.api.penmatch.service;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.persistence.EntityManager;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import ca.bc.gov.educ.api.penmatch.lookup.PenDemogCandidateReader;
+import ca.bc.gov.educ.api.penmatch.lookup.PenMatchLookupManager;
+import ca.bc.gov.educ.api.penmatch.model.PenDemographicsEntity;
+import ca.bc.gov.educ.api.penmatch.repository.NicknamesRepository;
+import ca.bc.gov.educ.api.penmatch.repository.PenDemographicsRepository;
+import ca.bc.gov.educ.api.penmatch.repository.SurnameFrequencyRepository;
+import ca.bc.gov.educ.api.penmatch.struct.PenMatchRecord;
+import ca.bc.gov.educ.api.penmatch.struct.PenMatchResult;
+import ca.bc.gov.educ.api.penmatch.struct.PenMatchStudent;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest
+public class PenMatchServiceStreamingTest {
+
+	@Autowired
+	NicknamesRepository nicknamesRepository;
+
+	@Autowired
+	PenDemographicsRepository penDemographicsRepository;
+
+	@Autowired
+	SurnameFrequencyRepository surnameFrequencyRepository;
+
+	@Autowired
+	private EntityManager entityManager;
+
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	@Before
+	public void before() {
+		penDemographicsRepository.saveAll(Arrays.asList(createPenDemog("120164447", "JACKSON", "MIKE", "M", "A"), createPenDemog("120164448", "JACKSON", "MARY", "F", "A"), createPenDemog("120164449", "JACKSON", "MIKE", "M", "M"),
+				createPenDemog("120164450", "JACKSON", "MARK", "M", "A"), createPenDemog("120164451", "JACKSTON", "MARK", "M", "D")));
+	}
+
+	@After
+	public void after() {
+		penDemographicsRepository.deleteAll();
+	}
+
+	@Test
+	public void testMatchStudent_GivenStreamedCandidates_ShouldReturnSameResultAsEntities() {
+		PenMatchService matchService = new PenMatchService(new PenMatchLookupManager(entityManager, penDemographicsRepository, nicknamesRepository, surnameFrequencyRepository));
+		PenMatchService projectionService = new PenMatchService(createLookupManager(new PenDemogCandidateReader(jdbcTemplate, true, false, 2, false)));
+		PenMatchService streamingService = new PenMatchService(createLookupManager(new PenDemogCandidateReader(jdbcTemplate, false, true, 2, false)));
+
+		for (String givenName : Arrays.asList("MIKE", "MARY", "MARK", "MIKEY")) {
+			PenMatchResult result = matchService.matchStudent(createPenMatchStudent(givenName));
+			for (PenMatchService service : Arrays.asList(projectionService, streamingService)) {
+				PenMatchResult readResult = service.matchStudent(createPenMatchStudent(givenName));
+				assertEquals(givenName, result.getPenStatus(), readResult.getPenStatus());
+				assertEquals(givenName, result.getPen(), readResult.getPen());
+				assertEquals(givenName, matchingPENs(result), matchingPENs(readResult));
+			}
+		}
+	}
+
+	private PenMatchLookupManager createLookupManager(PenDemogCandidateReader candidateReader) {
+		return PenMatchLookupManager.builder().entityManager(entityManager).penDemographicsRepository(penDemographicsRepository).nicknamesRepository(nicknamesRepository).surnameFrequencyRepository(surnameFrequencyRepository)
+				.candidateReader(candidateReader).build();
+	}
+
+	private List<String> matchingPENs(PenMatchResult result) {
+		List<String> pens = new ArrayList<>();
+		if (result.getMatchingRecords() != null) {
+			result.getMatchingRecords().stream().map(PenMatchRecord::getMatchingPEN).sorted().forEach(pens::add);
+		}
+		return pens;
+	}
+
+	private PenMatchStudent createPenMatchStudent(String givenName) {
+		PenMatchStudent student = new PenMatchStudent();
+		student.setSurname("JACKSON");
+		student.setGivenName(givenName);
+		student.setDob("19800518");
+		student.setSex(givenName.equals("MARY") ? "F" : "M");
+		return student;
+	}
+
+	private PenDemographicsEntity createPenDemog(String studNo, String surname, String given, String sex, String status) {
+		return PenDemographicsEntity.builder().studNo(studNo).studSurname(surname).studGiven(given).studBirth("19800518").studSex(sex).studStatus(status).build();
+	}
+}
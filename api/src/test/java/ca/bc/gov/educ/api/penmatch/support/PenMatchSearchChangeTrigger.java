@@ -0,0 +1,36 @@
+package ca.bc.gov.educ.api.penmatch.support;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Objects;
+
+import org.h2.tools.TriggerAdapter;
+
+/**
+ * H2 version of the PEN_DEMOG trigger of db/pen_match_search_oracle.sql,
+ * recording the students inserted, updated or deleted in
+ * PEN_MATCH_SEARCH_CHANGE
+ */
+public class PenMatchSearchChangeTrigger extends TriggerAdapter {
+
+	private static final String INSERT_SQL = "INSERT INTO PEN_MATCH_SEARCH_CHANGE (STUD_NO) VALUES (?)";
+
+	@Override
+	public void fire(Connection conn, ResultSet oldRow, ResultSet newRow) throws SQLException {
+		String newStudNo = newRow != null ? newRow.getString("STUD_NO") : null;
+		String oldStudNo = oldRow != null ? oldRow.getString("STUD_NO") : null;
+		try (PreparedStatement statement = conn.prepareStatement(INSERT_SQL)) {
+			if (newStudNo != null) {
+				statement.setString(1, newStudNo);
+				statement.executeUpdate();
+			}
+			if (oldStudNo != null && !Objects.equals(oldStudNo, newStudNo)) {
+				statement.setString(1, oldStudNo);
+				statement.executeUpdate();
+			}
+		}
+	}
+
+}
@@ -0,0 +1,51 @@
+package ca.bc.gov.educ.api.penmatch.util;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.PriorityQueue;
+
+import org.junit.Test;
+
+import ca.bc.gov.educ.api.penmatch.compare.PenMatchComparator;
+import ca.bc.gov.educ.api.penmatch.enumeration.PenStatus;
+import ca.bc.gov.educ.api.penmatch.struct.PenMatchRecord;
+import ca.bc.gov.educ.api.penmatch.struct.PenMatchResult;
+import ca.bc.gov.educ.api.penmatch.struct.PenMatchStudent;
+
+public class PenRequestFileUtilsTest {
+
+	@Test
+	public void testFormatResult_GivenThreeDigitAlgorithms_ShouldReadBackSameAlgorithms() {
+		PriorityQueue<PenMatchRecord> matches = new PriorityQueue<>(new PenMatchComparator());
+		matches.addAll(Arrays.asList(new PenMatchRecord(100, 100, "120164447"), new PenMatchRecord(190, 100, "120164448"), new PenMatchRecord(510, 65, "120164449"), new PenMatchRecord(0, 1, "120164450")));
+		PenMatchStudent student = new PenMatchStudent();
+		student.setMincode("12345678");
+		student.setLocalID("LOCAL1");
+
+		byte[] record = PenRequestFileUtils.formatResult(student, new PenMatchResult(new PriorityQueue<>(matches), null, PenStatus.F.getValue(), null));
+
+		String result = new String(record, StandardCharsets.ISO_8859_1);
+		assertEquals("04", result.substring(32, 34));
+		for (int i = 0; i < 4; i++) {
+			PenMatchRecord match = matches.poll();
+			int position = 34 + i * 15;
+			assertEquals(match.getMatchingPEN(), result.substring(position, position + 10).trim());
+			assertEquals(match.getMatchingAlgorithmResult(), PenRequestFileUtils.algorithmResult(result.substring(position + 10, position + 12)));
+			assertEquals(match.getMatchingScore().intValue(), Integer.parseInt(result.substring(position + 12, position + 15)));
+		}
+	}
+
+	@Test
+	public void testAlgorithmCode_ShouldFitResultLayout() {
+		assertEquals("S1", PenRequestFileUtils.algorithmCode(100));
+		assertEquals("S2", PenRequestFileUtils.algorithmCode(110));
+		assertEquals("SP", PenRequestFileUtils.algorithmCode(190));
+		assertEquals("00", PenRequestFileUtils.algorithmCode(0));
+		assertEquals("51", PenRequestFileUtils.algorithmCode(510));
+		assertEquals(null, PenRequestFileUtils.algorithmCode(9999));
+		assertEquals(Integer.valueOf(200), PenRequestFileUtils.algorithmResult(PenRequestFileUtils.algorithmCode(200)));
+	}
+
+}
@@ -914,6 +914,40 @@ public class ScoringUtilsTest {
 		assertTrue(result.isLegalSurnameUsed());
 	}
 
+	@Test
+	public void testMatchSurnameLegalWithBlanks_ShouldScore20() {
+		PenMatchStudent student = createPenMatchStudent();
+		PenMasterRecord master = createPenMasterRecord();
+		student.setSurname("Mc Micheals");
+		master.setSurname("McMicheals");
+		SurnameMatchResult result = ScoringUtils.matchSurname(student, master);
+		assertTrue(result.getSurnamePoints() == 20);
+		assertTrue(result.isLegalSurnameUsed());
+	}
+
+	@Test
+	public void testMatchSurnameLegalFourCharWithBlanks_ShouldScore10() {
+		PenMatchStudent student = createPenMatchStudent();
+		PenMasterRecord master = createPenMasterRecord();
+		student.setSurname("Mc Micheals");
+		master.setSurname("McMichaels");
+		SurnameMatchResult result = ScoringUtils.matchSurname(student, master);
+		assertTrue(result.getSurnamePoints() == 10);
+	}
+
+	@Test
+	public void testMatchSurnameLegal_GivenStudentSurnameNotInDictionary_ShouldScore20() {
+		PenMatchStudent student = createPenMatchStudent();
+		PenMasterRecord master = createPenMasterRecord();
+		int size = NameDictionary.size();
+		student.setSurname("Zzyzxstudent");
+		assertTrue(NameDictionary.size() == size);
+		master.setSurname("Zzyzxstudent");
+		SurnameMatchResult result = ScoringUtils.matchSurname(student, master);
+		assertTrue(result.getSurnamePoints() == 20);
+		assertTrue(result.isLegalSurnameUsed());
+	}
+
 	@Test
 	public void testMatchSurnameUsual_ShouldScore20() {
 		PenMatchStudent student = createPenMatchStudent();
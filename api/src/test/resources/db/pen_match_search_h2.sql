@@ -0,0 +1,57 @@
+-- H2 version of db/pen_match_search_oracle.sql for the tests, its trigger is
+-- the test class ca.bc.gov.educ.api.penmatch.support.PenMatchSearchChangeTrigger.
+--
+-- Search table of the PEN Demog candidate queries, filled by the application
+-- with --penmatch.search.rebuild=true. Holds the students which can be
+-- scored, those neither merged nor deceased.
+--
+-- The trigger on PEN_DEMOG records the students inserted, updated or deleted
+-- since in PEN_MATCH_SEARCH_CHANGE. Candidate reads take those students from
+-- PEN_DEMOG rather than from the search table, and the application folds them
+-- into the search table every penmatch.search.sync-interval.
+--
+-- Key columns hold the raw PEN_DEMOG values, or their first characters, so
+-- that equality on them selects the same rows as LIKE 'prefix%' on PEN_DEMOG.
+-- The other columns hold the trimmed values scored by the match, null when
+-- blank, with the alternate local ID and the soundex of the surnames.
+CREATE TABLE IF NOT EXISTS PEN_MATCH_SEARCH (
+    STUD_NO               VARCHAR(10) NOT NULL,
+    STUD_BIRTH            VARCHAR(8),
+    SURNAME_4             VARCHAR(4),
+    SURNAME_6             VARCHAR(6),
+    GIVEN_1               VARCHAR(1),
+    GIVEN_2               VARCHAR(2),
+    PEN_MINCODE           VARCHAR(8),
+    PEN_LOCAL_ID          VARCHAR(12),
+    SURNAME               VARCHAR(25),
+    GIVEN                 VARCHAR(25),
+    MIDDLE                VARCHAR(25),
+    USUAL_SURNAME         VARCHAR(25),
+    USUAL_GIVEN           VARCHAR(25),
+    USUAL_MIDDLE          VARCHAR(25),
+    SEX                   VARCHAR(1),
+    STATUS                VARCHAR(1),
+    POSTAL                VARCHAR(7),
+    GRADE                 VARCHAR(2),
+    MINCODE               VARCHAR(8),
+    LOCAL_ID              VARCHAR(12),
+    ALT_LOCAL_ID          VARCHAR(12),
+    TRUE_NO               VARCHAR(10),
+    SURNAME_SOUNDEX       VARCHAR(8),
+    USUAL_SURNAME_SOUNDEX VARCHAR(8),
+    CONSTRAINT PEN_MATCH_SEARCH_PK PRIMARY KEY (STUD_NO)
+);
+
+CREATE INDEX IF NOT EXISTS PEN_MATCH_SEARCH_BIRTH_I ON PEN_MATCH_SEARCH (STUD_BIRTH);
+CREATE INDEX IF NOT EXISTS PEN_MATCH_SEARCH_SURNAME_4_I ON PEN_MATCH_SEARCH (SURNAME_4, GIVEN_1);
+CREATE INDEX IF NOT EXISTS PEN_MATCH_SEARCH_SURNAME_6_I ON PEN_MATCH_SEARCH (SURNAME_6, GIVEN_2);
+CREATE INDEX IF NOT EXISTS PEN_MATCH_SEARCH_LOCAL_ID_I ON PEN_MATCH_SEARCH (PEN_MINCODE, PEN_LOCAL_ID);
+
+CREATE TABLE IF NOT EXISTS PEN_MATCH_SEARCH_CHANGE (
+    STUD_NO               VARCHAR(10) NOT NULL
+);
+
+CREATE INDEX IF NOT EXISTS PEN_MATCH_SEARCH_CHANGE_I ON PEN_MATCH_SEARCH_CHANGE (STUD_NO);
+
+-- H2 only backs the tests, which hold the trigger class
+CREATE TRIGGER IF NOT EXISTS PEN_MATCH_SEARCH_CHANGE_T AFTER INSERT, UPDATE, DELETE ON PEN_DEMOG FOR EACH ROW CALL "ca.bc.gov.educ.api.penmatch.support.PenMatchSearchChangeTrigger";